@@ -7,7 +7,7 @@ import java.util.*;
  * min). Note that we only support aggregates over a single column, grouped by a
  * single column.
  */
-public class Aggregate extends Operator {
+public class Aggregate extends Operator implements BatchIterator {
 
     private static final long serialVersionUID = 1L;
     private DbIterator child;
@@ -17,6 +17,7 @@ public class Aggregate extends Operator {
 
     private Aggregator aggregator;
     private DbIterator aIterator;
+    private transient BatchIterator aBatches;
 
     /**
      * Constructor.
@@ -114,12 +115,17 @@ public class Aggregate extends Operator {
     public void open() throws NoSuchElementException, DbException,
 	    TransactionAbortedException {
         // some code goes here
+        // the child is read a batch at a time, and each batch merged into
+        // the groups at once.
         this.child.open();
-        while (this.child.hasNext()) {
-            this.aggregator.mergeTupleIntoGroup(this.child.next());
+        BatchIterator batches = Batches.batched(this.child);
+        TupleBatch batch;
+        while ((batch = batches.nextBatch()) != null) {
+            this.aggregator.mergeBatchIntoGroups(batch);
         }
         this.aIterator = aggregator.iterator();
         aIterator.open();
+        this.aBatches = Batches.batched(aIterator);
         super.open();
     }
 
@@ -143,6 +149,14 @@ public class Aggregate extends Operator {
         }
     }
 
+    /** Returns the next batch of aggregate results. */
+    public TupleBatch nextBatch() throws DbException, TransactionAbortedException {
+        if (aBatches == null) {
+            throw new DbException("iterator is not open yet!");
+        }
+        return aBatches.nextBatch();
+    }
+
     public void rewind() throws DbException, TransactionAbortedException {
         // some code goes here
         aIterator.rewind();
@@ -57,6 +57,14 @@ public interface Aggregator extends Serializable {
      */
     public void mergeTupleIntoGroup(Tuple tup);
 
+    /**
+     * Merges the selected rows of a batch into their groups, with the same
+     * result as merging them one at a time with mergeTupleIntoGroup.
+     *
+     * @param batch a batch of tuples with an aggregate field and a group-by field
+     */
+    public void mergeBatchIntoGroups(TupleBatch batch);
+
     /**
      * Create a DbIterator over group aggregate results.
      * @see simpledb.TupleIterator for a possible helper
@@ -0,0 +1,26 @@
+package simpledb;
+
+/**
+ * BatchIterator is implemented by operators that can return their tuples
+ * a batch at a time, column by column, as well as one at a time. Reading
+ * batches saves the calls and Field objects of reading every tuple
+ * through {@link DbIterator#next}.
+ * <p>
+ * Between <code>open</code> or <code>rewind</code> and <code>close</code>,
+ * a consumer reads an iterator either with <code>nextBatch</code> or with
+ * <code>hasNext</code> and <code>next</code>, not both. Operators read
+ * their children the same way they are read themselves; {@link Batches}
+ * adapts children that do not implement this interface.
+ */
+public interface BatchIterator extends DbIterator {
+
+    /**
+     * Returns the next batch of tuples. The batch, which may have an empty
+     * selection, belongs to the iterator and is only valid until the next
+     * call.
+     *
+     * @return the next batch, or null if there are no more tuples.
+     * @throws IllegalStateException If the iterator has not been opened
+     */
+    public TupleBatch nextBatch() throws DbException, TransactionAbortedException;
+}
@@ -0,0 +1,134 @@
+package simpledb;
+
+import java.util.NoSuchElementException;
+
+/**
+ * Adapters between tuple-at-a-time {@link DbIterator}s and
+ * batch-at-a-time {@link BatchIterator}s, so that batch operators can
+ * read any child, and old plans can read batch operators' output.
+ */
+public class Batches {
+
+    private Batches() {
+    }
+
+    /**
+     * @return it, if it returns batches itself, or else an iterator that
+     *         collects its tuples into batches.
+     */
+    public static BatchIterator batched(DbIterator it) {
+        if (it instanceof BatchIterator) {
+            return (BatchIterator) it;
+        }
+        return new Batching(it);
+    }
+
+    /**
+     * @return an iterator that reads it a batch at a time, and returns the
+     *         selected rows of each batch one at a time, so that a plan
+     *         built of batch operators runs batch by batch under a
+     *         consumer that reads tuples.
+     */
+    public static DbIterator unbatched(BatchIterator it) {
+        return new Unbatching(it);
+    }
+
+    /** Collects the tuples of a DbIterator into batches. */
+    private static class Batching implements BatchIterator {
+        private static final long serialVersionUID = 1L;
+        private final DbIterator child;
+        private transient TupleBatch batch;
+
+        Batching(DbIterator child) {
+            this.child = child;
+        }
+
+        public TupleBatch nextBatch() throws DbException, TransactionAbortedException {
+            if (this.batch == null) {
+                this.batch = new TupleBatch(this.child.getTupleDesc());
+            }
+            this.batch.clear();
+            while (!this.batch.isFull() && this.child.hasNext()) {
+                this.batch.add(this.child.next());
+            }
+            return this.batch.size() > 0 ? this.batch : null;
+        }
+
+        public void open() throws DbException, TransactionAbortedException {
+            this.child.open();
+        }
+
+        public boolean hasNext() throws DbException, TransactionAbortedException {
+            return this.child.hasNext();
+        }
+
+        public Tuple next() throws DbException, TransactionAbortedException,
+                NoSuchElementException {
+            return this.child.next();
+        }
+
+        public void rewind() throws DbException, TransactionAbortedException {
+            this.child.rewind();
+        }
+
+        public TupleDesc getTupleDesc() {
+            return this.child.getTupleDesc();
+        }
+
+        public void close() {
+            this.child.close();
+        }
+    }
+
+    /** Returns the rows of a BatchIterator's batches one at a time. */
+    private static class Unbatching extends Operator {
+        private static final long serialVersionUID = 1L;
+        private BatchIterator child;
+        private transient TupleBatch batch;
+        private transient int next; // index of the next row of batch in its selection.
+
+        Unbatching(BatchIterator child) {
+            this.child = child;
+        }
+
+        public void open() throws DbException, TransactionAbortedException {
+            this.child.open();
+            this.batch = null;
+            super.open();
+        }
+
+        public void close() {
+            super.close();
+            this.child.close();
+            this.batch = null;
+        }
+
+        public void rewind() throws DbException, TransactionAbortedException {
+            this.child.rewind();
+            this.batch = null;
+        }
+
+        protected Tuple fetchNext() throws DbException, TransactionAbortedException {
+            while (this.batch == null || this.next >= this.batch.size()) {
+                this.batch = this.child.nextBatch();
+                this.next = 0;
+                if (this.batch == null) {
+                    return null;
+                }
+            }
+            return this.batch.getTuple(this.next++);
+        }
+
+        public TupleDesc getTupleDesc() {
+            return this.child.getTupleDesc();
+        }
+
+        public DbIterator[] getChildren() {
+            return new DbIterator[] { this.child };
+        }
+
+        public void setChildren(DbIterator[] children) {
+            this.child = Batches.batched(children[0]);
+        }
+    }
+}
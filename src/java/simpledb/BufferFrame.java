@@ -0,0 +1,162 @@
+package simpledb;
+
+import java.util.concurrent.CountDownLatch;
+import java.util.concurrent.atomic.AtomicInteger;
+
+/**
+ * BufferFrame is one slot of the BufferPool page table. It holds a resident
+ * page together with the bookkeeping the BufferPool needs to share it safely
+ * between threads: a pin count and a load latch.
+ * <p>
+ * A frame is published in the page table before its page has been read from
+ * disk, so that concurrent requests for the same page wait for the one read
+ * instead of issuing their own. A pin count of -1 marks a frame that has been
+ * chosen for eviction; such a frame can no longer be pinned and callers must
+ * look the page up again.
+ *
+ * @see BufferPool
+ */
+class BufferFrame {
+
+    private static final int EVICTED = -1;
+
+    private final PageId pid;
+    private final AtomicInteger pinCount;
+    private final CountDownLatch loaded;
+
+    private volatile Page page;
+    private volatile RuntimeException loadError;
+    private volatile ScanRing ring; // the scan ring that owns this frame, if any.
+    private int arenaSlot = -1; // the FrameArena slot holding the page bytes, if any.
+
+    /**
+     * Creates an empty frame for the specified page. The page contents are
+     * supplied later through {@link #setPage}.
+     *
+     * @param pid the id of the page this frame will hold
+     */
+    BufferFrame(PageId pid) {
+        this.pid = pid;
+        this.pinCount = new AtomicInteger(0);
+        this.loaded = new CountDownLatch(1);
+    }
+
+    /** @return the id of the page held by this frame. */
+    PageId getId() {
+        return this.pid;
+    }
+
+    /**
+     * Waits until the page of this frame has been read, and returns it.
+     *
+     * @throws DbException if the read failed or the wait was interrupted.
+     */
+    Page getPage() throws DbException {
+        try {
+            this.loaded.await();
+        } catch (InterruptedException e) {
+            Thread.currentThread().interrupt();
+            throw new DbException("Interrupted while waiting for page " + pid);
+        }
+
+        if (this.loadError != null) {
+            throw new DbException("Failed to read page " + pid + ": " + loadError);
+        }
+        return this.page;
+    }
+
+    /**
+     * Installs the page of this frame and releases any waiting readers. May
+     * also be called on a loaded frame to replace its page object.
+     */
+    void setPage(Page p) {
+        this.page = p;
+        this.loaded.countDown();
+    }
+
+    /** Records that the page could not be read and releases waiting readers. */
+    void setLoadError(RuntimeException e) {
+        this.loadError = e;
+        this.loaded.countDown();
+    }
+
+    /** @return true if the page of this frame is available without waiting. */
+    boolean isLoaded() {
+        return this.loaded.getCount() == 0 && this.loadError == null;
+    }
+
+    /**
+     * @return the scan ring that owns this frame, or null if the frame
+     *         belongs to the BufferPool's replacement policy.
+     */
+    ScanRing getRing() {
+        return this.ring;
+    }
+
+    /** Sets the scan ring that owns this frame. */
+    void setRing(ScanRing ring) {
+        this.ring = ring;
+    }
+
+    /**
+     * @return the slot of the off-heap frame arena that holds the bytes of
+     *         this frame's page, or -1 if the page is on the heap.
+     */
+    int getArenaSlot() {
+        return this.arenaSlot;
+    }
+
+    /** Sets the arena slot holding this frame's page bytes. */
+    void setArenaSlot(int slot) {
+        this.arenaSlot = slot;
+    }
+
+    /**
+     * Pins this frame so that it cannot be evicted.
+     *
+     * @return false if the frame has already been evicted.
+     */
+    boolean pin() {
+        while (true) {
+            int pins = this.pinCount.get();
+            if (pins == EVICTED) {
+                return false;
+            }
+            if (this.pinCount.compareAndSet(pins, pins + 1)) {
+                return true;
+            }
+        }
+    }
+
+    /** Releases one pin on this frame. */
+    void unpin() {
+        while (true) {
+            int pins = this.pinCount.get();
+            if (pins <= 0) {
+                throw new IllegalStateException("Page " + pid + " is not pinned!");
+            }
+            if (this.pinCount.compareAndSet(pins, pins - 1)) {
+                return;
+            }
+        }
+    }
+
+    /** @return true if at least one caller holds a pin on this frame. */
+    boolean isPinned() {
+        return this.pinCount.get() > 0;
+    }
+
+    /**
+     * Marks this frame as evicted if nobody holds a pin on it.
+     *
+     * @return true if the frame was unpinned and is now marked evicted.
+     */
+    boolean markEvicted() {
+        return this.pinCount.compareAndSet(0, EVICTED);
+    }
+
+    /** Takes back markEvicted, for a frame whose page could not be written out. */
+    void unmarkEvicted() {
+        this.pinCount.compareAndSet(EVICTED, 0);
+    }
+}
@@ -1,7 +1,17 @@
 package simpledb;
 
 import java.io.*;
+import java.nio.ByteBuffer;
 import java.util.*;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.ConcurrentLinkedQueue;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.LinkedBlockingQueue;
+import java.util.concurrent.ThreadFactory;
+import java.util.concurrent.ThreadPoolExecutor;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicInteger;
+import java.util.concurrent.locks.ReentrantLock;
 
 /**
  * BufferPool manages the reading and writing of pages into memory from
@@ -22,20 +32,205 @@ public class BufferPool {
     public static final int DEFAULT_PAGES = 50;
 
 
-    private Map<PageId, Page> pagesMap; // mapping from page id to a page.
-    private int size; // size of the buffer pool.
-    private ArrayList<PageId> replacementQueue;
+    /** Number of lock stripes used by the page table. */
+    private static final int CONCURRENCY_LEVEL = 64;
+
+    /** Maximum number of frames in a scan ring (256 KB, as in PostgreSQL). */
+    private static final int SCAN_RING_PAGES = (256 * 1024) / PAGE_SIZE;
+
+    /** Number of buffered page hits that triggers a drain into the policy. */
+    private static final int ACCESS_BUFFER_LIMIT = 128;
+
+    /** Default maximum number of pages a sequential scan reads ahead. */
+    public static final int DEFAULT_READ_AHEAD_PAGES = 32;
+
+    /** Maximum number of adjacent pages written with one write (256 KB). */
+    private static final int MAX_RUN_PAGES = (256 * 1024) / PAGE_SIZE;
+
+    /** Maximum number of prefetch requests queued per BufferPool. */
+    private static final int MAX_PENDING_PREFETCHES = 256;
+
+    // Threads that read pages ahead of scans, shared by all BufferPools.
+    // Idle threads exit, so pools created by tests do not leak threads.
+    private static final ExecutorService PREFETCHER;
+    static {
+        ThreadPoolExecutor executor = new ThreadPoolExecutor(4, 4, 5, TimeUnit.SECONDS,
+                new LinkedBlockingQueue<Runnable>(), new ThreadFactory() {
+                    public Thread newThread(Runnable r) {
+                        Thread t = new Thread(r, "simpledb-prefetch");
+                        t.setDaemon(true);
+                        return t;
+                    }
+                });
+        executor.allowCoreThreadTimeOut(true);
+        PREFETCHER = executor;
+    }
+
+    private final int numPages; // maximum number of resident pages.
+    private final ConcurrentHashMap<PageId, BufferFrame> pageTable; // resident frames by page id.
+
+    // The replacement policy, guarded by policyLock. Hits do not call it
+    // directly: they are queued in accessBuffer and applied in batches by
+    // whichever thread gets policyLock, so that hits never wait on each
+    // other.
+    private final ReplacementPolicy policy;
+    private final ReentrantLock policyLock;
+    private final ConcurrentLinkedQueue<PageId> accessBuffer;
+    private final AtomicInteger bufferedAccesses;
+
+    private volatile int readAheadPages; // read-ahead limit for scans.
+    private final AtomicInteger pendingPrefetches;
+
+    // Files written since they were last forced to disk, guarded by this.
+    // Writes are synced in one batch per file at commit points rather than
+    // as each page is written.
+    private final Set<HeapFile> unforcedFiles;
+
+    // Direct buffer that runs of pages are copied into to be written, so
+    // that the channel need not copy them again; guarded by this.
+    private ByteBuffer runBuffer;
+
+    // Off-heap memory for page bytes, or null if pages live on the heap.
+    // Slots are handed out and returned under the BufferPool lock.
+    private final FrameArena arena;
+
+    // Page locks of the transactions using this BufferPool.
+    private final LockManager lockManager;
+
+    // Whether inserts and deletes lock single records rather than pages,
+    // and the changes to undo if each transaction aborts, in order, or
+    // the pages they were undone on by a rollback before the abort.
+    private volatile boolean recordLocking;
+    private final ConcurrentHashMap<TransactionId, List<RecordChange>> recordChanges;
+    private final ConcurrentHashMap<TransactionId, Set<PageId>> rolledBack;
+
+    // Frames pinned through pinPage, by transaction, so that pins a
+    // transaction did not release are released when it completes.
+    private final ConcurrentHashMap<TransactionId, List<BufferFrame>> pins;
+
+    // Arena frames of pages handed out by getPage, by transaction, each
+    // pinned once until the transaction completes; see fetchPage().
+    private final ConcurrentHashMap<TransactionId, Set<BufferFrame>> held;
+
+    // Scan rings created for each transaction, released when it completes
+    // if its scans did not release them.
+    private final ConcurrentHashMap<TransactionId, List<ScanRing>> rings;
+
+    // Old committed page images for snapshot reads, and the start times of
+    // the read-only transactions that read from snapshots.
+    private final VersionStore versions;
+    private final ConcurrentHashMap<TransactionId, Long> snapshots;
+
+    // Log position before the first change of every page that is or may
+    // become dirty, for the dirty page tables of checkpoints; see
+    // dirtyPages().
+    private final ConcurrentHashMap<PageId, Long> recLsns;
+
+    // Pages each running transaction fetched for writing, and so may have
+    // dirtied, so that commits and aborts only visit those; see
+    // noteWriter().
+    private final ConcurrentHashMap<TransactionId, Set<PageId>> writeSets;
+
+    // Whether pages with uncommitted changes may be evicted; see setSteal().
+    private volatile boolean steal;
+
+    // Threads that write out dirty pages in the background: the page
+    // writer, oldest first, for checkpoints, and the page cleaner, next
+    // victims first, for eviction; see setPageWriter() and setPageCleaner().
+    private final BackgroundWriter pageWriter = new BackgroundWriter("page writer") {
+        int write(int batch) throws IOException {
+            return writeDirtyPages(batch);
+        }
+    };
+    private final BackgroundWriter pageCleaner = new BackgroundWriter("page cleaner") {
+        int write(int batch) throws IOException {
+            return cleanPages(batch);
+        }
+    };
 
     /**
-     * Creates a BufferPool that caches up to numPages pages.
+     * Creates a BufferPool that caches up to numPages pages, evicting the
+     * least recently used page when it is full.
      *
      * @param numPages maximum number of pages in this buffer pool.
      */
     public BufferPool(int numPages) {
         // some code goes here
-        this.size = numPages;
-        this.pagesMap = new HashMap<PageId, Page>();
-        this.replacementQueue = new ArrayList<PageId>();
+        this(numPages, new LruPolicy());
+    }
+
+    /**
+     * Creates a BufferPool that caches up to numPages pages and uses the
+     * specified policy to choose pages to evict.
+     *
+     * @param numPages maximum number of pages in this buffer pool.
+     * @param policy the replacement policy; must not be shared with another
+     *            BufferPool.
+     */
+    public BufferPool(int numPages, ReplacementPolicy policy) {
+        this(numPages, policy, false);
+    }
+
+    /**
+     * Creates a BufferPool that caches up to numPages pages and uses the
+     * specified policy to choose pages to evict. If offHeap is set, the
+     * bytes of heap file pages read into the pool are kept in direct memory
+     * allocated up front, rather than on the Java heap.
+     * <p>
+     * Pages of an off-heap pool are only valid while they are resident.
+     * When a page is evicted its bytes are copied back to the heap, so a
+     * caller that kept the page object still sees its contents, but callers
+     * that work on a page for long should pin it.
+     *
+     * @param numPages maximum number of pages in this buffer pool.
+     * @param policy the replacement policy; must not be shared with another
+     *            BufferPool.
+     * @param offHeap whether to keep page bytes off the Java heap.
+     * @see TupleView
+     */
+    public BufferPool(int numPages, ReplacementPolicy policy, boolean offHeap) {
+        this.numPages = numPages;
+        this.pageTable = new ConcurrentHashMap<PageId, BufferFrame>(
+                Math.min(numPages, 1 << 16), 0.75f, CONCURRENCY_LEVEL);
+        this.policy = policy;
+        this.policyLock = new ReentrantLock();
+        this.accessBuffer = new ConcurrentLinkedQueue<PageId>();
+        this.bufferedAccesses = new AtomicInteger(0);
+        this.readAheadPages = DEFAULT_READ_AHEAD_PAGES;
+        this.pendingPrefetches = new AtomicInteger(0);
+        this.unforcedFiles = new HashSet<HeapFile>();
+        this.arena = offHeap ? new FrameArena(numPages) : null;
+        this.lockManager = new LockManager();
+        this.recordChanges = new ConcurrentHashMap<TransactionId, List<RecordChange>>();
+        this.rolledBack = new ConcurrentHashMap<TransactionId, Set<PageId>>();
+        this.pins = new ConcurrentHashMap<TransactionId, List<BufferFrame>>();
+        this.held = new ConcurrentHashMap<TransactionId, Set<BufferFrame>>();
+        this.rings = new ConcurrentHashMap<TransactionId, List<ScanRing>>();
+        this.versions = new VersionStore();
+        this.snapshots = new ConcurrentHashMap<TransactionId, Long>();
+        this.recLsns = new ConcurrentHashMap<PageId, Long>();
+        this.writeSets = new ConcurrentHashMap<TransactionId, Set<PageId>>();
+    }
+
+    /** @return true if this BufferPool keeps page bytes off the heap. */
+    public boolean isOffHeap() {
+        return this.arena != null;
+    }
+
+    /**
+     * Returns the replacement policy of this BufferPool, for instance to read
+     * its hit and miss counts. Hits still queued are applied first.
+     * <p>
+     * The policy must not be called while pages are being requested.
+     */
+    public ReplacementPolicy getReplacementPolicy() {
+        this.policyLock.lock();
+        try {
+            this.drainAccesses();
+        } finally {
+            this.policyLock.unlock();
+        }
+        return this.policy;
     }
 
     /**
@@ -48,41 +243,807 @@ public class BufferPool {
      * be added to the buffer pool and returned.  If there is insufficient
      * space in the buffer pool, an page should be evicted and the new page
      * should be added in its place.
+     * <p>
+     * Lookups of resident pages do not take any BufferPool-wide lock, so
+     * many threads can hit the pool in parallel.
+     * <p>
+     * READ_ONLY requests take a shared lock on the page and READ_WRITE
+     * requests an exclusive one. Locks are held until the transaction
+     * completes. A null tid reads without locking, as table statistics do.
+     * <p>
+     * In an off-heap pool, the page stays pinned until the transaction
+     * completes, so that its frame is not reused while the page is in use;
+     * a null tid gets a copy of the page instead.
+     *
+     * @param tid the ID of the transaction requesting the page
+     * @param pid the ID of the requested page
+     * @param perm the requested permissions on the page
+     * @throws TransactionAbortedException if the lock could not be acquired
+     */
+    public Page getPage(TransactionId tid, PageId pid, Permissions perm)
+        throws TransactionAbortedException, DbException {
+        // some code goes here
+        Long snapshot = this.snapshotOf(tid, perm);
+        if (snapshot != null) {
+            return this.snapshotPage(snapshot, pid, null, null);
+        }
+        this.lock(tid, pid, perm);
+        return this.fetchPage(tid, pid);
+    }
+
+    // Helper method to look up or read in a page for a transaction, with no
+    // locking. Pages in arena frames stay pinned for the transaction.
+    private Page fetchPage(TransactionId tid, PageId pid) throws DbException {
+        BufferFrame frame = this.pinFrame(pid, null);
+        boolean unpin = true;
+        try {
+            Page p = frame.getPage();
+            if (frame.getArenaSlot() < 0) {
+                return p;
+            }
+            if (tid == null) {
+                return new HeapPage((HeapPageId) pid, p.getPageData());
+            }
+            unpin = !this.holdFrame(tid, frame);
+            return p;
+        } catch (IOException e) {
+            throw new DbException("Failed to copy page " + pid + ": " + e.getMessage());
+        } finally {
+            if (unpin) {
+                frame.unpin();
+            }
+        }
+    }
+
+    // Helper method to keep a pin a transaction took on an arena frame
+    // until it completes.
+    //
+    // @return false if the transaction already holds the frame, and the
+    //         pin is not needed
+    private boolean holdFrame(TransactionId tid, BufferFrame frame) {
+        Set<BufferFrame> frames = this.held.get(tid);
+        if (frames == null) {
+            frames = Collections.newSetFromMap(new ConcurrentHashMap<BufferFrame, Boolean>());
+            Set<BufferFrame> other = this.held.putIfAbsent(tid, frames);
+            if (other != null) {
+                frames = other;
+            }
+        }
+        return frames.add(frame);
+    }
+
+    /**
+     * Retrieve the specified page like {@link #getPage} and pin it, so that
+     * it stays resident until a matching call to {@link #unpinPage}, or
+     * until the transaction completes. Used by access methods that keep
+     * working on a page across many calls, such as the current page of a
+     * scan.
+     *
+     * @param tid the ID of the transaction requesting the page
+     * @param pid the ID of the requested page
+     * @param perm the requested permissions on the page
+     */
+    public Page pinPage(TransactionId tid, PageId pid, Permissions perm)
+        throws TransactionAbortedException, DbException {
+        return this.pinPage(tid, pid, perm, null);
+    }
+
+    /**
+     * Retrieve and pin the specified page like {@link #pinPage}, reading it
+     * into a frame of the given scan ring if it is not resident.
+     *
+     * @param tid the ID of the transaction requesting the page
+     * @param pid the ID of the requested page
+     * @param perm the requested permissions on the page
+     * @param ring the scan ring to read the page into, or null to read it
+     *            into the main pool
+     * @see #newScanRing
+     */
+    public Page pinPage(TransactionId tid, PageId pid, Permissions perm, ScanRing ring)
+        throws TransactionAbortedException, DbException {
+        Long snapshot = this.snapshotOf(tid, perm);
+        if (snapshot != null) {
+            return this.snapshotPage(snapshot, pid, ring, tid);
+        }
+        this.lock(tid, pid, perm);
+        BufferFrame frame = this.pinFrame(pid, ring);
+        Page p;
+        try {
+            p = frame.getPage();
+        } catch (DbException e) {
+            frame.unpin();
+            throw e;
+        }
+        this.notePin(tid, frame);
+        return p;
+    }
+
+    // Helper method to remember a pin a transaction holds.
+    private void notePin(TransactionId tid, BufferFrame frame) {
+        if (tid == null) {
+            return;
+        }
+        List<BufferFrame> held = this.pins.get(tid);
+        if (held == null) {
+            held = Collections.synchronizedList(new ArrayList<BufferFrame>());
+            List<BufferFrame> other = this.pins.putIfAbsent(tid, held);
+            if (other != null) {
+                held = other;
+            }
+        }
+        held.add(frame);
+    }
+
+    // Helper method to release the scan rings of a completing transaction.
+    private void releaseRings(TransactionId tid) {
+        List<ScanRing> created = this.rings.remove(tid);
+        if (created == null) {
+            return;
+        }
+        synchronized (created) {
+            for (ScanRing ring : created) {
+                this.releaseScanRing(ring);
+            }
+        }
+    }
+
+    // Helper method to release the pins a completing transaction still
+    // holds, and those on the arena frames it got pages from.
+    private void releasePins(TransactionId tid) {
+        List<BufferFrame> pinned = this.pins.remove(tid);
+        if (pinned != null) {
+            synchronized (pinned) {
+                for (BufferFrame frame : pinned) {
+                    frame.unpin();
+                }
+            }
+        }
+        Set<BufferFrame> frames = this.held.remove(tid);
+        if (frames != null) {
+            for (BufferFrame frame : frames) {
+                frame.unpin();
+            }
+        }
+    }
+
+    /**
+     * Makes a transaction that has not read or written anything yet a
+     * read-only snapshot transaction. Its reads see every page as of the
+     * last commit before this call, and take no locks, so that they never
+     * wait for writers nor make writers wait. Old page images are kept for
+     * it until it completes.
+     * <p>
+     * Snapshots are built from the before images that page locking keeps;
+     * with record locking a page may mix several writers' changes, so
+     * snapshot transactions fall back to locking reads.
+     *
+     * @see VersionStore
+     */
+    public void beginSnapshot(TransactionId tid) {
+        if (this.recordLocking || this.snapshots.containsKey(tid)) {
+            return;
+        }
+        this.snapshots.put(tid, this.versions.beginSnapshot());
+    }
+
+    // Helper method to look up the snapshot a request reads from, if any.
+    private Long snapshotOf(TransactionId tid, Permissions perm) throws DbException {
+        Long snapshot = tid == null ? null : this.snapshots.get(tid);
+        if (snapshot != null && perm == Permissions.READ_WRITE) {
+            throw new DbException("Transaction " + tid.getId() + " is read-only");
+        }
+        return snapshot;
+    }
+
+    /**
+     * Returns a private copy of a page as a snapshot sees it. The copy is
+     * taken from the page in the pool, which stays pinned for pinner, if
+     * given.
+     */
+    private Page snapshotPage(long snapshot, PageId pid, ScanRing ring, TransactionId pinner)
+        throws DbException {
+        BufferFrame frame = this.pinFrame(pid, ring);
+        boolean unpin = pinner == null;
+        try {
+            Page p = frame.getPage();
+            byte[] image;
+            synchronized (this.versions) {
+                image = this.versions.lookup(pid, snapshot);
+                if (image == null) {
+                    image = ((HeapPage) p).getCommittedData();
+                }
+            }
+            Page copy = new HeapPage((HeapPageId) pid, ByteBuffer.wrap(image));
+            if (pinner != null) {
+                this.notePin(pinner, frame);
+            }
+            return copy;
+        } catch (DbException e) {
+            unpin = true;
+            throw e;
+        } finally {
+            if (unpin) {
+                frame.unpin();
+            }
+        }
+    }
+
+    /** @return the number of old page images kept for snapshots. */
+    int getVersionCount() {
+        return this.versions.size();
+    }
+
+    // Helper method to take the page lock a request needs, and with record
+    // locking the table intention lock above it.
+    private void lock(TransactionId tid, PageId pid, Permissions perm)
+        throws TransactionAbortedException {
+        if (tid == null) {
+            return;
+        }
+        boolean write = perm == Permissions.READ_WRITE;
+        if (this.recordLocking) {
+            this.lockManager.acquire(tid, LockManager.tableKey(pid.getTableId()),
+                    write ? LockManager.Mode.IX : LockManager.Mode.IS);
+        }
+        this.lockManager.acquire(tid, pid, write ? LockManager.Mode.X : LockManager.Mode.S);
+        if (write) {
+            this.noteWriter(tid, pid);
+        }
+    }
+
+    // Helper method to add a page handed out for writing to the write set
+    // of the transaction, and to remember where the log stood when the page
+    // was first handed out for writing since it was last clean.
+    private void noteWriter(TransactionId tid, PageId pid) {
+        Set<PageId> pages = this.writeSets.get(tid);
+        if (pages == null) {
+            pages = Collections.newSetFromMap(new ConcurrentHashMap<PageId, Boolean>());
+            Set<PageId> other = this.writeSets.putIfAbsent(tid, pages);
+            if (other != null) {
+                pages = other;
+            }
+        }
+        pages.add(pid);
+        if (!this.recLsns.containsKey(pid)) {
+            this.recLsns.putIfAbsent(pid, Database.getLogFile().getCurrentLsn());
+        }
+    }
+
+    /**
+     * Sets whether pages with uncommitted changes may be evicted, and
+     * written out by the page writer. Without steal, the default, such
+     * pages stay in the pool until their transaction completes, and a
+     * request fails with a DbException once every page is dirty or pinned.
+     * With steal, their changes are logged before they are written, and
+     * their committed image is kept so that an abort can write it back.
+     */
+    public void setSteal(boolean on) {
+        this.steal = on;
+    }
+
+    /** @return true if pages with uncommitted changes may be evicted. */
+    public boolean isSteal() {
+        return this.steal;
+    }
+
+    // Helper method to check whether a page must stay in the pool because
+    // it holds uncommitted changes.
+    private boolean mustNotSteal(BufferFrame frame) {
+        if (this.steal || !frame.isLoaded()) {
+            return false;
+        }
+        try {
+            return frame.getPage().isDirty() != null;
+        } catch (DbException e) {
+            return false;
+        }
+    }
+
+    /**
+     * Turns record locking on or off. With record locking, inserts and
+     * deletes lock the records they write exclusively, and the page and
+     * table above them with intention locks, so that transactions can
+     * write different records of one page at the same time. Pages read
+     * through {@link #getPage} are still locked as a whole, so a scan of a
+     * page waits for the record writers on it, and they for the scan.
+     * <p>
+     * Because a page can then hold changes of several transactions, a
+     * commit writes out every page the transaction changed, including
+     * uncommitted changes of others, and an abort undoes the transaction's
+     * own record changes rather than rereading its pages.
+     * <p>
+     * Must only be changed while no transactions are running.
+     */
+    public void setRecordLocking(boolean on) {
+        this.recordLocking = on;
+    }
+
+    /** @return true if inserts and deletes lock records rather than pages. */
+    public boolean isRecordLocking() {
+        return this.recordLocking;
+    }
+
+    /**
+     * Retrieves a page to insert or delete records on. With record locking
+     * the table and the page are locked IX, and the caller locks the
+     * records it changes; otherwise the page is locked exclusively.
+     *
+     * @see #setRecordLocking
+     */
+    Page getPageForUpdate(TransactionId tid, PageId pid)
+        throws TransactionAbortedException, DbException {
+        if (tid == null || !this.recordLocking) {
+            return this.getPage(tid, pid, Permissions.READ_WRITE);
+        }
+        this.lockManager.acquire(tid, LockManager.tableKey(pid.getTableId()), LockManager.Mode.IX);
+        this.lockManager.acquire(tid, pid, LockManager.Mode.IX);
+        this.noteWriter(tid, pid);
+        return this.fetchPage(tid, pid);
+    }
+
+    /**
+     * Inserts a tuple into a free slot of a page retrieved with
+     * {@link #getPageForUpdate}, skipping slots that other transactions
+     * hold record locks on, such as slots of their uncommitted deletes.
+     *
+     * @return false if no free slot could be locked
+     */
+    boolean insertRecord(TransactionId tid, HeapPage p, Tuple t) throws DbException {
+        synchronized (p) {
+            for (int slot = 0; slot < p.getNumTuples(); slot++) {
+                if (p.isSlotUsed(slot)) {
+                    continue;
+                }
+                RecordId rid = new RecordId(p.getId(), slot);
+                if (this.lockManager.tryAcquire(tid, rid, LockManager.Mode.X)) {
+                    p.insertTuple(t, slot);
+                    p.markDirty(true, tid);
+                    this.recordChange(tid, rid, null);
+                    return true;
+                }
+            }
+        }
+        return false;
+    }
+
+    // Helper method to remember how to undo a record change.
+    private void recordChange(TransactionId tid, RecordId rid, Tuple before) {
+        List<RecordChange> changes = this.recordChanges.get(tid);
+        if (changes == null) {
+            changes = Collections.synchronizedList(new ArrayList<RecordChange>());
+            List<RecordChange> other = this.recordChanges.putIfAbsent(tid, changes);
+            if (other != null) {
+                changes = other;
+            }
+        }
+        changes.add(new RecordChange(rid, before));
+    }
+
+    /**
+     * Release a pin taken by {@link #pinPage}. The page becomes a candidate
+     * for eviction again once all of its pins are released. Pins the
+     * transaction released by completing are not released again.
+     *
+     * @param tid the ID of the transaction that pinned the page
+     * @param pid the ID of the page to unpin
+     */
+    public void unpinPage(TransactionId tid, PageId pid) {
+        if (tid == null) {
+            BufferFrame frame = this.pageTable.get(pid);
+            if (frame != null) {
+                frame.unpin();
+            }
+            return;
+        }
+        List<BufferFrame> held = this.pins.get(tid);
+        if (held == null) {
+            return;
+        }
+        BufferFrame frame = null;
+        synchronized (held) {
+            for (int i = held.size() - 1; i >= 0; i--) {
+                if (held.get(i).getId().equals(pid)) {
+                    frame = held.remove(i);
+                    break;
+                }
+            }
+        }
+        if (frame != null) {
+            frame.unpin();
+        }
+    }
+
+    /**
+     * Sets the maximum number of pages a sequential scan reads ahead of the
+     * page it is on. Zero disables read-ahead.
+     *
+     * @see ReadAhead
+     */
+    public void setReadAheadPages(int pages) {
+        this.readAheadPages = Math.max(0, pages);
+    }
+
+    /**
+     * Returns the number of pages a scan may read ahead, given the ring it
+     * reads into. Read-ahead is capped so that pages read ahead never push
+     * out pages the scan has not consumed yet, and never crowd the pool.
+     *
+     * @param ring the scan ring of the scan, or null
+     */
+    public int getReadAheadPages(ScanRing ring) {
+        int limit = ring == null ? this.numPages / 4 : ring.getCapacity() - 1;
+        return Math.min(this.readAheadPages, limit);
+    }
+
+    /**
+     * Asynchronously reads the specified page into this BufferPool, so that
+     * a later request for it does not wait for the disk. This is a hint:
+     * the page is not locked or pinned, and the request is silently dropped
+     * if the page is already resident, too many requests are queued, or no
+     * frame can be freed.
+     *
+     * @param pid the ID of the page to read
+     * @param ring the scan ring to read the page into, or null
+     */
+    public void prefetchPage(final PageId pid, final ScanRing ring) {
+        if (this.pageTable.containsKey(pid)) {
+            return;
+        }
+        if (this.pendingPrefetches.incrementAndGet() > MAX_PENDING_PREFETCHES) {
+            this.pendingPrefetches.decrementAndGet();
+            return;
+        }
+
+        PREFETCHER.execute(new Runnable() {
+            public void run() {
+                try {
+                    BufferFrame frame = loadFrame(pid, ring, true);
+                    if (frame != null) {
+                        frame.unpin();
+                    }
+                } catch (DbException e) {
+                    // no free frame; the scan will read the page itself.
+                } catch (RuntimeException e) {
+                    // read errors are reported when the scan reads the page.
+                } finally {
+                    pendingPrefetches.decrementAndGet();
+                }
+            }
+        });
+    }
+
+    /**
+     * Returns a scan ring for a sequential scan over a table with the given
+     * number of pages, or null if the table fits in this BufferPool and the
+     * scan should use the main pool.
+     *
+     * @param tablePages the number of pages the scan will read
+     * @see ScanRing
+     */
+    public ScanRing newScanRing(int tablePages) {
+        if (tablePages <= this.numPages) {
+            return null;
+        }
+        return new ScanRing(Math.max(1, Math.min(SCAN_RING_PAGES, this.numPages / 8)));
+    }
+
+    /**
+     * Returns a scan ring like {@link #newScanRing(int)} for a scan of the
+     * specified transaction. The ring is released when the transaction
+     * completes, if the scan has not released it by then.
+     *
+     * @param tid the ID of the transaction scanning, or null
+     * @param tablePages the number of pages the scan will read
+     */
+    public ScanRing newScanRing(TransactionId tid, int tablePages) {
+        ScanRing ring = this.newScanRing(tablePages);
+        if (ring == null || tid == null) {
+            return ring;
+        }
+        List<ScanRing> created = this.rings.get(tid);
+        if (created == null) {
+            created = Collections.synchronizedList(new ArrayList<ScanRing>());
+            List<ScanRing> other = this.rings.putIfAbsent(tid, created);
+            if (other != null) {
+                created = other;
+            }
+        }
+        created.add(ring);
+        return ring;
+    }
+
+    /**
+     * Returns the frames of a scan ring to this BufferPool at the end of a
+     * scan. Ring pages that can be evicted right away are; the others are
+     * handed over to the replacement policy. Releasing a ring again does
+     * nothing.
+     *
+     * @param ring a ring created by {@link #newScanRing}
+     */
+    public synchronized void releaseScanRing(ScanRing ring) {
+        if (ring.isReleased()) {
+            return;
+        }
+        ring.release();
+        List<BufferFrame> frames = new ArrayList<BufferFrame>(ring.frames());
+        for (BufferFrame frame : frames) {
+            if (!this.recycleFrame(frame)) {
+                this.adoptFrame(frame);
+            }
+        }
+    }
+
+    /**
+     * Returns a pinned frame for the specified page, reading the page from
+     * disk if it is not resident.
+     *
+     * @param ring the scan ring to read the page into, or null
+     */
+    private BufferFrame pinFrame(PageId pid, ScanRing ring) throws DbException {
+        while (true) {
+            BufferFrame frame = this.pageTable.get(pid);
+            if (frame == null) {
+                frame = this.loadFrame(pid, ring, false);
+                if (frame != null) {
+                    return frame;
+                }
+            } else if (frame.pin()) {
+                ScanRing owner = frame.getRing();
+                if (owner == null) {
+                    this.recordAccess(frame);
+                } else if (ring == null) {
+                    // a page read by a scan is wanted by someone else.
+                    this.adoptFrame(frame);
+                }
+                return frame;
+            } else {
+                // the frame is being evicted; let the evicting thread finish.
+                Thread.yield();
+            }
+        }
+    }
+
+    /**
+     * Reserves a frame for the specified page and reads the page into it.
+     * Only the reservation happens under the BufferPool lock; the disk read
+     * does not, and concurrent requests for the same page wait on the frame.
+     *
+     * @param prefetch true if the page is being read ahead of a scan; a
+     *            prefetch gives up rather than grow a full scan ring.
+     * @return the pinned frame, or null if another thread published a frame
+     *         for this page first or a prefetch gave up.
+     */
+    private BufferFrame loadFrame(PageId pid, ScanRing ring, boolean prefetch)
+            throws DbException {
+        BufferFrame frame = new BufferFrame(pid);
+        frame.pin();
+
+        synchronized (this) {
+            if (this.pageTable.containsKey(pid)) {
+                return null;
+            }
+            if (ring != null && ring.isReleased()) {
+                // the scan is over; read ahead of it no more.
+                if (prefetch) {
+                    return null;
+                }
+                ring = null;
+            }
+            if (ring != null && ring.isFull() && !this.recycleRingFrame(ring)) {
+                // every frame of the ring is pinned.
+                if (prefetch) {
+                    return null;
+                }
+                this.adoptFrame(ring.oldest());
+            }
+            while (this.bufferIsFull()) {
+                this.evictPage();
+            }
+            if (this.arena != null) {
+                frame.setArenaSlot(this.arena.allocate());
+            }
+            if (ring == null) {
+                this.addFrame(frame);
+            } else {
+                frame.setRing(ring);
+                ring.add(frame);
+                this.pageTable.put(pid, frame);
+            }
+        }
+
+        try {
+            DbFile f = Database.getCatalog().getDbFile(pid.getTableId());
+            if (frame.getArenaSlot() >= 0 && f instanceof HeapFile) {
+                frame.setPage(((HeapFile) f).readPage(pid, this.arena.buffer(frame.getArenaSlot())));
+            } else {
+                frame.setPage(f.readPage(pid));
+            }
+        } catch (RuntimeException e) {
+            synchronized (this) {
+                this.releaseArenaSlot(frame, null);
+                if (frame.getRing() != null) {
+                    frame.getRing().remove(frame);
+                    this.pageTable.remove(pid, frame);
+                } else {
+                    this.removeFrame(frame);
+                }
+            }
+            frame.setLoadError(e);
+            if (e instanceof NoSuchElementException) {
+                throw new DbException("Page not found in database!");
+            }
+            throw e;
+        }
+        return frame;
+    }
+
+    /**
+     * Makes the specified page resident, replacing any cached version of it.
+     * Used for pages created outside the BufferPool, such as new pages
+     * appended to a file.
+     */
+    private synchronized void installPage(Page p) throws DbException {
+        PageId pid = p.getId();
+        BufferFrame frame = this.pageTable.get(pid);
+        if (frame != null) {
+            if (frame.isLoaded()) {
+                this.releaseArenaSlot(frame, p);
+            }
+            frame.setPage(p);
+            return;
+        }
+
+        frame = new BufferFrame(pid);
+        frame.setPage(p);
+        while (this.bufferIsFull()) {
+            this.evictPage();
+        }
+        this.addFrame(frame);
+    }
+
+    // Claims unpinned frames for the replacement policy.
+    private final ReplacementPolicy.Evictor evictor = new ReplacementPolicy.Evictor() {
+        public boolean tryEvict(PageId pid) {
+            BufferFrame frame = pageTable.get(pid);
+            return frame != null && !mustNotSteal(frame) && frame.markEvicted();
+        }
+    };
+
+    // Helper method to check if this buffer is full.
+    private boolean bufferIsFull() {
+        return this.pageTable.size() >= this.numPages;
+    }
+
+    // Helper method to publish a frame for a page that was just read in.
+    private void addFrame(BufferFrame frame) {
+        this.pageTable.put(frame.getId(), frame);
+        this.policyLock.lock();
+        try {
+            this.policy.recordMiss(frame.getId());
+        } finally {
+            this.policyLock.unlock();
+        }
+    }
+
+    /**
+     * Evicts a scan ring frame so that the ring can reuse its slot.
+     *
+     * @return false if the frame cannot be evicted right now, or its page
+     *         could not be written out, in which case it stays in the ring.
+     */
+    private synchronized boolean recycleFrame(BufferFrame frame) {
+        if (!this.evictor.tryEvict(frame.getId())) {
+            return false;
+        }
+        this.saveCommittedImage(frame.getId());
+        try {
+            this.flushPage(frame.getId());
+        } catch (IOException e) {
+            frame.unmarkEvicted();
+            return false;
+        }
+        frame.getRing().remove(frame);
+        frame.setRing(null);
+        this.pageTable.remove(frame.getId());
+        this.releaseArenaSlot(frame, null);
+        return true;
+    }
+
+    /**
+     * Returns the arena slot of a frame that is leaving the pool or getting
+     * a new page object. The frame's page, unless it is the page that
+     * stays, is first moved to the heap, as callers may still hold it.
      *
-     * @param tid the ID of the transaction requesting the page
-     * @param pid the ID of the requested page
-     * @param perm the requested permissions on the page
+     * @param keep the page that keeps using the frame, or null
      */
-    public Page getPage(TransactionId tid, PageId pid, Permissions perm)
-        throws TransactionAbortedException, DbException {
-        // some code goes here
-        if (pagesMap.containsKey(pid)) {
-            this.replacementQueue.remove(pid);
-            this.replacementQueue.add(pid);
-            return pagesMap.get(pid);
-        } else {
+    private synchronized void releaseArenaSlot(BufferFrame frame, Page keep) {
+        int slot = frame.getArenaSlot();
+        if (slot < 0) {
+            return;
+        }
+        if (frame.isLoaded()) {
+            Page p;
+            try {
+                p = frame.getPage();
+            } catch (DbException e) {
+                p = null;
+            }
+            if (p == keep) {
+                return;
+            }
+            if (p instanceof HeapPage) {
+                ((HeapPage) p).detach();
+            }
+        }
+        frame.setArenaSlot(-1);
+        this.arena.release(slot);
+    }
 
-            if (this.bufferIsFull()) {
-                //throw new DbException("BufferPool is full!");
-                this.evictPage();
+    // Helper method to recycle the least recently read unpinned frame of a
+    // scan ring.
+    private synchronized boolean recycleRingFrame(ScanRing ring) {
+        for (BufferFrame frame : new ArrayList<BufferFrame>(ring.frames())) {
+            if (this.recycleFrame(frame)) {
+                return true;
             }
+        }
+        return false;
+    }
+
+    // Helper method to hand a scan ring frame over to the replacement policy.
+    private synchronized void adoptFrame(BufferFrame frame) {
+        ScanRing ring = frame.getRing();
+        if (ring == null) {
+            return;
+        }
+        ring.remove(frame);
+        frame.setRing(null);
+        this.policyLock.lock();
+        try {
+            this.policy.recordMiss(frame.getId());
+        } finally {
+            this.policyLock.unlock();
+        }
+    }
 
+    // Helper method to drop a frame from the page table and the policy.
+    private void removeFrame(BufferFrame frame) {
+        if (!this.pageTable.remove(frame.getId(), frame)) {
+            return;
+        }
+        this.policyLock.lock();
+        try {
+            this.policy.remove(frame.getId());
+        } finally {
+            this.policyLock.unlock();
+        }
+    }
+
+    /**
+     * Records a hit on a resident frame. The hit is only queued; the policy
+     * is brought up to date once enough hits have piled up and no other
+     * thread is already doing so.
+     */
+    private void recordAccess(BufferFrame frame) {
+        this.accessBuffer.offer(frame.getId());
+        if (this.bufferedAccesses.incrementAndGet() >= ACCESS_BUFFER_LIMIT
+                && this.policyLock.tryLock()) {
             try {
-                DbFile f = Database.getCatalog().getDbFile(pid.getTableId());
-                Page p = f.readPage(pid);
-                pagesMap.put(pid, p);
-                this.replacementQueue.add(pid);
-                return p;
-            } catch (NoSuchElementException e) {
-                throw new DbException("Page not found in database!");
+                this.drainAccesses();
+            } finally {
+                this.policyLock.unlock();
             }
-
         }
     }
 
-    // Helper method to check if this buffer is full.
-    private boolean bufferIsFull() {
-        return pagesMap.size() == this.size;
+    // Helper method to apply queued hits to the policy. Caller must hold
+    // policyLock.
+    private void drainAccesses() {
+        PageId pid;
+        while ((pid = this.accessBuffer.poll()) != null) {
+            this.bufferedAccesses.decrementAndGet();
+            this.policy.recordHit(pid);
+        }
     }
 
     /**
@@ -97,6 +1058,7 @@ public class BufferPool {
     public  void releasePage(TransactionId tid, PageId pid) {
         // some code goes here
         // not necessary for proj1
+        this.lockManager.release(tid, pid);
     }
 
     /**
@@ -107,13 +1069,34 @@ public class BufferPool {
     public void transactionComplete(TransactionId tid) throws IOException {
         // some code goes here
         // not necessary for proj1
+        transactionComplete(tid, true);
     }
 
     /** Return true if the specified transaction has a lock on the specified page */
     public boolean holdsLock(TransactionId tid, PageId p) {
         // some code goes here
         // not necessary for proj1
-        return false;
+        return this.lockManager.holdsLock(tid, p);
+    }
+
+    /**
+     * Returns the time the specified transaction has spent waiting for page
+     * locks so far. Transactions that waited also report it through
+     * {@link Debug} when they complete.
+     *
+     * @return the wait time in nanoseconds
+     */
+    public long getLockWaitNanos(TransactionId tid) {
+        return this.lockManager.getWaitNanos(tid);
+    }
+
+    /**
+     * Makes lock requests that wait longer than the specified time abort
+     * their transaction, instead of aborting transactions only when they
+     * are deadlocked. Zero restores deadlock detection, the default.
+     */
+    public void setLockTimeout(long millis) {
+        this.lockManager.setTimeoutMillis(millis);
     }
 
     /**
@@ -127,6 +1110,181 @@ public class BufferPool {
         throws IOException {
         // some code goes here
         // not necessary for proj1
+        if (commit) {
+            this.flushPages(tid);
+        }
+        Long snapshot = this.snapshots.remove(tid);
+        if (snapshot != null) {
+            this.versions.endSnapshot(snapshot);
+        }
+        Set<PageId> undone = this.rolledBack.remove(tid);
+        if (undone == null) {
+            undone = this.undoRecordChanges(tid, commit);
+        }
+        this.completePages(tid, commit, undone);
+        this.writeSets.remove(tid);
+        this.releasePins(tid);
+        this.releaseRings(tid);
+
+        long waited = this.lockManager.releaseAll(tid);
+        if (waited > 0) {
+            Debug.log("Transaction %d waited %.3f ms for locks", tid.getId(), waited / 1e6);
+        }
+    }
+
+    /**
+     * Brings the pages the transaction wrote up to date with its outcome:
+     * after a commit the current contents become the before image, with
+     * the replaced images kept for running snapshots, and after an abort
+     * pages still dirty get their before image back, also on disk if they
+     * were written out with the changes. Only visits the pages in the
+     * transaction's write set.
+     */
+    private synchronized void completePages(TransactionId tid, boolean commit,
+            Set<PageId> undone) throws IOException {
+        synchronized (this.versions) {
+            long ts = commit ? this.versions.nextCommit() : 0;
+            Set<PageId> written = this.writeSets.get(tid);
+            if (written == null) {
+                return;
+            }
+            for (PageId pid : written) {
+                if (undone.contains(pid)
+                        || !this.lockManager.holdsLock(tid, pid, LockManager.Mode.X)) {
+                    continue;
+                }
+                this.completePage(pid, commit, ts);
+            }
+        }
+    }
+
+    // Helper method to complete one page the transaction held exclusively.
+    private void completePage(PageId pid, boolean commit, long ts) throws IOException {
+        BufferFrame frame = this.pageTable.get(pid);
+        Page p = null;
+        if (frame != null && frame.isLoaded()) {
+            try {
+                p = frame.getPage();
+            } catch (DbException e) {
+                // treat it like a page that is not resident.
+            }
+        }
+        if (commit) {
+            byte[] before = p instanceof HeapPage ? ((HeapPage) p).getChangedBeforeImage() : null;
+            this.versions.retire(pid, before, ts);
+            if (p != null) {
+                p.setBeforeImage();
+            }
+        } else {
+            byte[] committed = this.versions.discardStolen(pid);
+            try {
+                if (committed != null) {
+                    // the page was written out with the changes, so write
+                    // its committed image back over them.
+                    HeapPage restored = new HeapPage((HeapPageId) pid, committed);
+                    DbFile file = Database.getCatalog().getDbFile(pid.getTableId());
+                    file.writePage(restored);
+                    if (file instanceof HeapFile) {
+                        this.unforcedFiles.add((HeapFile) file);
+                    }
+                    if (p != null) {
+                        this.installPage(restored);
+                    }
+                    this.updateFreeSpace(restored);
+                } else if (p != null && p.isDirty() != null) {
+                    Page before = p.getBeforeImage();
+                    this.installPage(before);
+                    this.updateFreeSpace(before);
+                }
+            } catch (DbException e) {
+                throw new IOException("Failed to restore page " + pid + ": " + e.getMessage());
+            }
+        }
+        if (p == null || p.isDirty() == null) {
+            this.recLsns.remove(pid);
+        }
+    }
+
+    /**
+     * Undoes the record changes of an aborting transaction, latest first,
+     * and forgets them. The record locks the transaction still holds keep
+     * other transactions off the slots in the meantime.
+     *
+     * @return the pages that were changed back
+     */
+    private Set<PageId> undoRecordChanges(TransactionId tid, boolean commit)
+        throws IOException {
+        List<RecordChange> changes = this.recordChanges.remove(tid);
+        Set<PageId> pages = new HashSet<PageId>();
+        List<HeapPage> undonePages = new ArrayList<HeapPage>();
+        if (changes == null || commit) {
+            return pages;
+        }
+        try {
+            for (int i = changes.size() - 1; i >= 0; i--) {
+                RecordChange c = changes.get(i);
+                HeapPage p = (HeapPage) this.fetchPage(tid, c.rid.getPageId());
+                synchronized (p) {
+                    if (c.before == null) {
+                        p.deleteTuple(p.getTuple(c.rid.tupleno()));
+                    } else {
+                        p.insertTuple(c.before, c.rid.tupleno());
+                    }
+                    p.markDirty(true, tid);
+                }
+                if (pages.add(p.getId())) {
+                    undonePages.add(p);
+                }
+            }
+        } catch (DbException e) {
+            throw new IOException("Failed to undo changes of transaction " + tid.getId()
+                    + ": " + e.getMessage());
+        }
+        for (HeapPage p : undonePages) {
+            this.updateFreeSpace(p);
+        }
+        return pages;
+    }
+
+    // Helper method to record in the free-space map of its file whether a
+    // page put back by an abort has a free slot.
+    private void updateFreeSpace(Page p) {
+        DbFile file = Database.getCatalog().getDbFile(p.getId().getTableId());
+        if (file instanceof HeapFile && p instanceof HeapPage) {
+            ((HeapFile) file).updateFreeSpace((HeapPage) p);
+        }
+    }
+
+    /**
+     * Undoes the record changes of an aborting transaction, with record
+     * locking, and logs the undo as updates of the transaction, ahead of
+     * its ABORT record: updates logged after it would make recovery take
+     * the transaction for a live one, and undo the undo.
+     *
+     * @see LogFile#rollback
+     */
+    synchronized void rollbackRecords(TransactionId tid) throws IOException {
+        Set<PageId> undone = this.undoRecordChanges(tid, false);
+        for (PageId pid : undone) {
+            Page p = this.residentPage(pid);
+            if (p != null) {
+                synchronized (p) {
+                    this.logPage(p);
+                }
+            }
+        }
+        this.rolledBack.put(tid, undone);
+    }
+
+    /** An insert or delete of one record, as needed to undo it. */
+    private static class RecordChange {
+        final RecordId rid;
+        final Tuple before; // the deleted tuple, or null for an insert.
+
+        RecordChange(RecordId rid, Tuple before) {
+            this.rid = rid;
+            this.before = before;
+        }
     }
 
     /**
@@ -151,7 +1309,10 @@ public class BufferPool {
         ArrayList<Page> modifiedPages = f.insertTuple(tid, t);
         for (Page p : modifiedPages) {
             p.markDirty(true, tid);
-            pagesMap.put(p.getId(), p);
+            this.installPage(p);
+            if (tid != null) {
+                this.noteWriter(tid, p.getId());
+            }
         }
     }
 
@@ -175,53 +1336,599 @@ public class BufferPool {
         HeapFile f = (HeapFile) Database.getCatalog().getDbFile(
                         t.getRecordId().getPageId().getTableId()
                     );
+        if (this.recordLocking && tid != null) {
+            this.deleteRecord(tid, f, t);
+            return;
+        }
         Page modifiedPage = f.deleteTuple(tid, t);
 
         modifiedPage.markDirty(true, tid);
-        pagesMap.put(modifiedPage.getId(), modifiedPage);
+        this.installPage(modifiedPage);
+        if (tid != null) {
+            this.noteWriter(tid, modifiedPage.getId());
+        }
+    }
+
+    // Helper method to delete a tuple under record locking, locking only
+    // its record and remembering it for undo.
+    private void deleteRecord(TransactionId tid, HeapFile f, Tuple t)
+        throws DbException, TransactionAbortedException {
+        RecordId rid = t.getRecordId();
+        if (rid == null) {
+            throw new DbException("Tuple is not stored on any page!");
+        }
+        HeapPage p = (HeapPage) this.getPageForUpdate(tid, rid.getPageId());
+        this.lockManager.acquire(tid, rid, LockManager.Mode.X);
+        synchronized (p) {
+            if (!p.isSlotUsed(rid.tupleno())) {
+                throw new DbException("Tuple slot is already empty!");
+            }
+            Tuple before = p.getTuple(rid.tupleno());
+            Tuple copy = new Tuple(before.getTupleDesc());
+            for (int i = 0; i < copy.getTupleDesc().numFields(); i++) {
+                copy.setField(i, before.getField(i));
+            }
+            p.deleteTuple(t);
+            p.markDirty(true, tid);
+            this.recordChange(tid, rid, copy);
+            f.updateFreeSpace(p);
+        }
     }
 
     /**
-     * Flush all dirty pages to disk.
-     * NB: Be careful using this routine -- it writes dirty data to disk so will
-     *     break simpledb if running in NO STEAL mode.
+     * Flush all dirty pages to disk, including pages with uncommitted
+     * changes, even without steal, the default. Their changes are logged,
+     * and the log forced, before the pages are written, and their committed
+     * images are kept first, so that an abort or recovery can still undo
+     * the changes.
      */
-    public synchronized void flushAllPages() throws IOException {
+    public void flushAllPages() throws IOException {
         // some code goes here
         // not necessary for proj1
-        for (PageId pid : this.pagesMap.keySet()) {
-            this.flushPage(pid);
+        List<PageId> pids = new ArrayList<PageId>(this.pageTable.keySet());
+        this.logAhead(pids);
+        synchronized (this) {
+            for (PageId pid : pids) {
+                this.saveCommittedImage(pid);
+            }
+            this.flushBatch(pids);
+            this.forceFiles();
         }
-
     }
 
     /** Remove the specific page id from the buffer pool.
         Needed by the recovery manager to ensure that the
         buffer pool doesn't keep a rolled back page in its
-        cache.
+        cache. A pinned page stays, as its pins are released
+        by page id, but is read again from disk.
     */
     public synchronized void discardPage(PageId pid) {
         // some code goes here
+        BufferFrame frame = this.pageTable.get(pid);
+        if (frame == null) {
+            return;
+        }
+        if (!frame.markEvicted()) {
+            Page p = Database.getCatalog().getDbFile(pid.getTableId()).readPage(pid);
+            if (frame.isLoaded()) {
+                this.releaseArenaSlot(frame, p);
+            }
+            frame.setPage(p);
+            this.recLsns.remove(pid);
+            return;
+        }
+        if (frame.getRing() != null) {
+            frame.getRing().remove(frame);
+            frame.setRing(null);
+        }
+        this.removeFrame(frame);
+        this.releaseArenaSlot(frame, null);
+        this.recLsns.remove(pid);
     }
 
     /**
-     * Flushes a certain page to disk
+     * Flushes a certain page to disk. Changes to the page that are not
+     * logged yet are logged first, and the log forced, so that they can
+     * be undone if the transaction that made them does not commit.
      * @param pid an ID indicating the page to flush
      */
     private synchronized  void flushPage(PageId pid) throws IOException {
         // some code goes here
         // not necessary for proj1
-        Page p = this.pagesMap.get(pid);
-        if (p.isDirty() != null) {
-            Database.getCatalog().getDbFile(pid.getTableId()).writePage(p);
-        } 
+        Page p = this.residentPage(pid);
+        if (p == null) {
+            return;
+        }
+        DbFile file = Database.getCatalog().getDbFile(pid.getTableId());
+        if (file instanceof HeapFile) {
+            // written from a copy, so that record writers need not wait
+            // for the log force.
+            this.flushBatch(Collections.singletonList(pid));
+            return;
+        }
+        // nothing but page writers change pages of other files, so the
+        // page's monitor can be held through the force.
+        synchronized (p) {
+            if (p.isDirty() != null) {
+                if (this.logPage(p)) {
+                    Database.getLogFile().force();
+                }
+                file.writePage(p);
+                p.markDirty(false, null);
+                this.recLsns.remove(pid);
+            }
+        }
+    }
+
+    // Helper method to return a resident page, or null if it is not.
+    private Page residentPage(PageId pid) {
+        BufferFrame frame = this.pageTable.get(pid);
+        if (frame == null || !frame.isLoaded()) {
+            return null;
+        }
+        try {
+            return frame.getPage();
+        } catch (DbException e) {
+            return null;
+        }
+    }
+
+    /**
+     * Logs the changes to a dirty page since it was last logged, as an
+     * update of the transaction that dirtied it, or with record locking,
+     * as updates of the transactions that changed its records. Callers
+     * hold the page's monitor.
+     *
+     * @return true if a record was appended, and the log needs a force
+     *         before the page is written
+     */
+    private boolean logPage(Page p) throws IOException {
+        TransactionId dirtier = p.isDirty();
+        if (dirtier == null) {
+            return false;
+        }
+        if (!(p instanceof HeapPage)) {
+            Database.getLogFile().logWrite(dirtier, p.getBeforeImage(), p);
+            return true;
+        }
+        HeapPage hp = (HeapPage) p;
+        if (hp.isLogged()) {
+            return false;
+        }
+        if (this.recordLocking) {
+            this.logRecordChanges(hp);
+        } else {
+            Database.getLogFile().logWrite(dirtier, hp.getLoggedImage(), hp);
+        }
+        hp.setLoggedImage();
+        return true;
+    }
+
+    // Helper method to log the changes to a page with record locking, as
+    // one update per transaction of the slots it holds record locks on,
+    // the locks insertRecord and deleteRecord take; other changes are
+    // logged as an update of the transaction that dirtied the page.
+    private void logRecordChanges(HeapPage p) throws IOException {
+        HeapPage image = p.getLoggedImage();
+        Map<TransactionId, List<Integer>> writers = new LinkedHashMap<TransactionId, List<Integer>>();
+        for (int slot = 0; slot < p.getNumTuples(); slot++) {
+            if (Arrays.equals(image.getSlotImage(slot), p.getSlotImage(slot))) {
+                continue;
+            }
+            TransactionId writer = this.lockManager.exclusiveHolder(new RecordId(p.getId(), slot));
+            if (writer == null) {
+                writer = p.isDirty();
+            }
+            List<Integer> slots = writers.get(writer);
+            if (slots == null) {
+                slots = new ArrayList<Integer>();
+                writers.put(writer, slots);
+            }
+            slots.add(slot);
+        }
+        for (Map.Entry<TransactionId, List<Integer>> e : writers.entrySet()) {
+            HeapPage next = new HeapPage(p.getId(), image.getPageData());
+            for (int slot : e.getValue()) {
+                next.setSlotImage(slot, p.getSlotImage(slot));
+            }
+            Database.getLogFile().logSlotWrite(e.getKey(), image, next);
+            image = next;
+        }
+    }
+
+    // Helper method to log the changes to several pages with a single
+    // force of the log, ahead of writing them out with flushBatch. Callers
+    // do not hold the BufferPool monitor, so that the force holds up
+    // neither other threads nor, as no page monitor is held either, writers
+    // of the pages.
+    private void logAhead(Collection<PageId> pids) throws IOException {
+        boolean logged = false;
+        for (PageId pid : pids) {
+            Page p = this.residentPage(pid);
+            if (p != null) {
+                synchronized (p) {
+                    logged |= this.logPage(p);
+                }
+            }
+        }
+        if (logged) {
+            Database.getLogFile().force();
+        }
+    }
+
+    // Helper method to write out several pages. The pages are written in
+    // file order, and runs of adjacent pages of a HeapFile with a single
+    // gathering write. Changes not logged by logAhead are logged here, and
+    // the log forced before the run holding them is written.
+    private synchronized void flushBatch(Collection<PageId> pids) throws IOException {
+        List<PageId> sorted = new ArrayList<PageId>(pids);
+        Collections.sort(sorted, FILE_ORDER);
+        List<PageWrite> run = new ArrayList<PageWrite>();
+        HeapFile runFile = null;
+        for (PageId pid : sorted) {
+            DbFile file = Database.getCatalog().getDbFile(pid.getTableId());
+            if (!(file instanceof HeapFile)) {
+                this.flushPage(pid);
+                continue;
+            }
+            if (!run.isEmpty() && (file != runFile || run.size() == MAX_RUN_PAGES
+                    || run.get(run.size() - 1).page.getId().pageNumber() + 1 != pid.pageNumber())) {
+                this.writeRun(runFile, run);
+            }
+            PageWrite w = this.cleanForWrite(pid, run.size());
+            if (w != null) {
+                runFile = (HeapFile) file;
+                run.add(w);
+            }
+        }
+        if (!run.isEmpty()) {
+            this.writeRun(runFile, run);
+        }
+    }
+
+    /** Orders pages by table, then page number. */
+    private static final Comparator<PageId> FILE_ORDER = new Comparator<PageId>() {
+        public int compare(PageId a, PageId b) {
+            if (a.getTableId() != b.getTableId()) {
+                return a.getTableId() < b.getTableId() ? -1 : 1;
+            }
+            return a.pageNumber() < b.pageNumber() ? -1
+                    : a.pageNumber() == b.pageNumber() ? 0 : 1;
+        }
+    };
+
+    /**
+     * A copy of a page to be written out, with what it was dirty with, and
+     * whether its changes were logged without forcing the log.
+     */
+    private static class PageWrite {
+        final Page page;
+        final ByteBuffer image;
+        final TransactionId dirtier;
+        final Long recLsn;
+        final boolean logged;
+
+        PageWrite(Page page, ByteBuffer image, TransactionId dirtier, Long recLsn,
+                boolean logged) {
+            this.page = page;
+            this.image = image;
+            this.dirtier = dirtier;
+            this.recLsn = recLsn;
+            this.logged = logged;
+        }
+    }
+
+    // Helper method to mark a dirty page clean and copy it into the given
+    // slot of the run buffer, or return null if it is not dirty. Changes
+    // made since logAhead are logged first; writeRun forces the log.
+    private PageWrite cleanForWrite(PageId pid, int slot) throws IOException {
+        Page p = this.residentPage(pid);
+        if (p == null) {
+            return null;
+        }
+        synchronized (p) {
+            TransactionId dirtier = p.isDirty();
+            if (dirtier == null) {
+                return null;
+            }
+            boolean logged = this.logPage(p);
+            if (this.runBuffer == null) {
+                this.runBuffer = ByteBuffer.allocateDirect(MAX_RUN_PAGES * PAGE_SIZE);
+            }
+            this.runBuffer.clear();
+            this.runBuffer.position(slot * PAGE_SIZE);
+            this.runBuffer.limit((slot + 1) * PAGE_SIZE);
+            ByteBuffer image = this.runBuffer.slice();
+            image.put(p instanceof HeapPage ? ((HeapPage) p).getPageBuffer()
+                    : ByteBuffer.wrap(p.getPageData()));
+            image.flip();
+            PageWrite w = new PageWrite(p, image, dirtier, this.recLsns.remove(pid), logged);
+            p.markDirty(false, null);
+            return w;
+        }
+    }
+
+    // Helper method to write a run of adjacent pages and empty it, forcing
+    // the log first if cleanForWrite logged any of them. If the write
+    // fails, pages not dirtied again meanwhile are dirty again.
+    private void writeRun(HeapFile file, List<PageWrite> run) throws IOException {
+        ByteBuffer[] images = new ByteBuffer[run.size()];
+        boolean logged = false;
+        for (int i = 0; i < images.length; i++) {
+            images[i] = run.get(i).image;
+            logged |= run.get(i).logged;
+        }
+        try {
+            if (logged) {
+                Database.getLogFile().force();
+            }
+            file.writePages(run.get(0).page.getId().pageNumber(), images);
+        } catch (IOException e) {
+            for (PageWrite w : run) {
+                synchronized (w.page) {
+                    if (w.page.isDirty() == null) {
+                        w.page.markDirty(true, w.dirtier);
+                        if (w.recLsn != null) {
+                            this.recLsns.putIfAbsent(w.page.getId(), w.recLsn);
+                        }
+                    }
+                }
+            }
+            throw e;
+        } finally {
+            run.clear();
+        }
+        this.unforcedFiles.add(file);
     }
 
     /** Write all pages of the specified transaction to disk.
      */
-    public synchronized  void flushPages(TransactionId tid) throws IOException {
+    public void flushPages(TransactionId tid) throws IOException {
         // some code goes here
         // not necessary for proj1
+        // with record locking, pages the transaction changed may have been
+        // dirtied last by another transaction, so every page of its write
+        // set that is dirty is written.
+        Set<PageId> written = this.writeSets.get(tid);
+        List<PageId> pids = written == null ? null : new ArrayList<PageId>(written);
+        if (pids != null) {
+            this.logAhead(pids);
+        }
+        synchronized (this) {
+            if (pids != null) {
+                this.flushBatch(pids);
+            }
+            this.forceFiles();
+        }
+    }
+
+    /**
+     * Forces every file written since the last call to disk. Pages written
+     * by eviction are made durable here too.
+     */
+    private synchronized void forceFiles() throws IOException {
+        for (HeapFile file : this.unforcedFiles) {
+            file.force();
+        }
+        this.unforcedFiles.clear();
+    }
+
+    /**
+     * Returns the dirty page table for a checkpoint: the pages in the pool
+     * that have changes not on disk, each with the log position before its
+     * first change since it was last written. Recovery needs the log from
+     * the smallest of them on to redo the changes. Takes no BufferPool-wide
+     * lock, so the table may miss pages dirtied meanwhile, which are only
+     * logged after the checkpoint starts anyway.
+     *
+     * @param lsn the position given to pages dirtied without a write lock
+     */
+    public Map<PageId, Long> dirtyPages(long lsn) {
+        Map<PageId, Long> dirty = new HashMap<PageId, Long>();
+        for (BufferFrame frame : this.pageTable.values()) {
+            try {
+                if (frame.isLoaded() && frame.getPage().isDirty() != null) {
+                    Long recLsn = this.recLsns.get(frame.getId());
+                    dirty.put(frame.getId(), recLsn == null ? lsn : Math.min(recLsn, lsn));
+                }
+            } catch (DbException e) {
+                // not loaded, so not dirty
+            }
+        }
+        return dirty;
+    }
+
+    /**
+     * Starts or stops the page writer, a background thread that every
+     * intervalMillis writes out up to batch dirty pages, those dirty the
+     * longest first, so that checkpoints need not write pages themselves
+     * and the log they need for recovery stays short.
+     * <p>
+     * Pages are written like evicted pages: the changes are logged and the
+     * log forced first, and the committed image is kept so that an abort
+     * can write it back. Without steal, pages with uncommitted changes are
+     * left alone.
+     *
+     * @see #setSteal
+     * @param intervalMillis the pause between rounds; 0 stops the writer
+     * @param batch the most pages written per round
+     */
+    public void setPageWriter(long intervalMillis, int batch) {
+        this.pageWriter.configure(intervalMillis, batch);
+    }
+
+    /**
+     * Starts or stops the page cleaner, a background thread that every
+     * intervalMillis writes out the dirty pages among the next batch pages
+     * the replacement policy would evict, so that requests that miss find
+     * clean victims and need not write before they read.
+     * <p>
+     * Pinned pages are skipped. Without steal, so are pages with
+     * uncommitted changes, which eviction leaves alone anyway; with steal,
+     * they are written like evicted pages.
+     *
+     * @see #setSteal
+     * @param intervalMillis the pause between rounds; 0 stops the cleaner
+     * @param batch how many of the next victims to look at per round
+     */
+    public void setPageCleaner(long intervalMillis, int batch) {
+        this.pageCleaner.configure(intervalMillis, batch);
+    }
+
+    /**
+     * A daemon thread that every interval writes out up to a batch of
+     * dirty pages, and exits when it is turned off.
+     */
+    private abstract static class BackgroundWriter {
+        private final String name;
+        private long millis; // guarded by this; 0 when off
+        private int batch; // guarded by this
+        private Thread thread; // guarded by this; null when not running
+
+        BackgroundWriter(String name) {
+            this.name = name;
+        }
+
+        /** Writes out up to batch pages; returns the number written. */
+        abstract int write(int batch) throws IOException;
+
+        synchronized void configure(long intervalMillis, int batch) {
+            this.millis = intervalMillis;
+            this.batch = batch;
+            this.notifyAll();
+            if (intervalMillis > 0 && this.thread == null) {
+                this.thread = new Thread(this.name) {
+                    public void run() {
+                        loop();
+                    }
+                };
+                this.thread.setDaemon(true);
+                this.thread.start();
+            }
+        }
+
+        private void loop() {
+            while (true) {
+                int n;
+                synchronized (this) {
+                    if (this.millis > 0) {
+                        try {
+                            this.wait(this.millis);
+                        } catch (InterruptedException e) {
+                            // check the settings again
+                        }
+                    }
+                    if (this.millis == 0) {
+                        this.thread = null;
+                        return;
+                    }
+                    n = this.batch;
+                }
+                try {
+                    this.write(n);
+                } catch (IOException e) {
+                    Debug.log("%s failed: %s", this.name, e.getMessage());
+                }
+            }
+        }
+    }
+
+    /**
+     * Writes out up to max dirty pages, those dirty the longest first,
+     * logging their changes ahead of them. Only holds the BufferPool
+     * monitor while it writes the batch.
+     *
+     * @return the number of pages written
+     */
+    int writeDirtyPages(int max) throws IOException {
+        final Map<PageId, Long> dirty = this.dirtyPages(Long.MAX_VALUE);
+        List<PageId> oldest = new ArrayList<PageId>();
+        for (PageId pid : dirty.keySet()) {
+            BufferFrame frame = this.pageTable.get(pid);
+            if (frame != null && !this.mustNotSteal(frame)) {
+                oldest.add(pid);
+            }
+        }
+        Collections.sort(oldest, new Comparator<PageId>() {
+            public int compare(PageId a, PageId b) {
+                return dirty.get(a).compareTo(dirty.get(b));
+            }
+        });
+        if (oldest.size() > max) {
+            oldest = oldest.subList(0, max);
+        }
+        if (oldest.isEmpty()) {
+            return 0;
+        }
+
+        this.logAhead(oldest);
+        synchronized (this) {
+            for (PageId pid : oldest) {
+                this.saveCommittedImage(pid);
+            }
+            this.flushBatch(oldest);
+            this.forceFiles();
+        }
+        return oldest.size();
+    }
+
+    /**
+     * Writes out the dirty pages among the next max pages the replacement
+     * policy would evict, except pinned pages and, without steal, pages
+     * with uncommitted changes. The files are not forced; commits force
+     * them.
+     *
+     * @return the number of pages written
+     */
+    int cleanPages(int max) throws IOException {
+        List<PageId> next;
+        this.policyLock.lock();
+        try {
+            this.drainAccesses();
+            next = this.policy.victims(max);
+        } finally {
+            this.policyLock.unlock();
+        }
+        List<PageId> dirty = new ArrayList<PageId>();
+        for (PageId pid : next) {
+            BufferFrame frame = this.pageTable.get(pid);
+            if (frame == null || frame.isPinned() || this.mustNotSteal(frame)) {
+                continue;
+            }
+            Page p = this.residentPage(pid);
+            if (p != null && p.isDirty() != null) {
+                dirty.add(pid);
+            }
+        }
+        if (dirty.isEmpty()) {
+            return 0;
+        }
+
+        this.logAhead(dirty);
+        synchronized (this) {
+            for (PageId pid : dirty) {
+                this.saveCommittedImage(pid);
+            }
+            this.flushBatch(dirty);
+        }
+        return dirty.size();
+    }
+
+    // Helper method to keep the committed image of a dirty page that is
+    // about to be written out before its writer commits.
+    private void saveCommittedImage(PageId pid) {
+        BufferFrame frame = this.pageTable.get(pid);
+        if (frame == null || !frame.isLoaded()) {
+            return;
+        }
+        try {
+            Page p = frame.getPage();
+            if (p.isDirty() != null && p instanceof HeapPage) {
+                this.versions.saveStolen(pid, ((HeapPage) p).getCommittedData());
+            }
+        } catch (DbException e) {
+            // nothing to save.
+        }
     }
 
     /**
@@ -231,11 +1938,42 @@ public class BufferPool {
     private synchronized  void evictPage() throws DbException {
         // some code goes here
         // not necessary for proj1
-        PageId pid = this.replacementQueue.remove(0);
+        PageId pid;
+        this.policyLock.lock();
+        try {
+            this.drainAccesses();
+            pid = this.policy.evict(this.evictor);
+        } finally {
+            this.policyLock.unlock();
+        }
+
+        if (pid == null) {
+            throw new DbException("All pages in the buffer pool are pinned or dirty!");
+        }
+
+        this.saveCommittedImage(pid);
         try {
             this.flushPage(pid);
-        } catch (IOException e) {}
-        this.pagesMap.remove(pid);
+        } catch (IOException e) {
+            // the page is still dirty; keep it, and give it back to the
+            // policy, which forgot it once it was claimed.
+            BufferFrame frame = this.pageTable.get(pid);
+            if (frame != null) {
+                frame.unmarkEvicted();
+                this.policyLock.lock();
+                try {
+                    this.policy.recordMiss(pid);
+                } finally {
+                    this.policyLock.unlock();
+                }
+            }
+            throw new DbException("Failed to write page " + pid + " before evicting it: "
+                    + e.getMessage());
+        }
+        BufferFrame frame = this.pageTable.remove(pid);
+        if (frame != null) {
+            this.releaseArenaSlot(frame, null);
+        }
     }
 
 }
@@ -0,0 +1,199 @@
+package simpledb;
+
+import java.io.IOException;
+import java.nio.ByteBuffer;
+import java.util.NoSuchElementException;
+
+/**
+ * BulkLoader appends large numbers of tuples to a HeapFile without going
+ * through the BufferPool one tuple at a time. Tuples are encoded straight
+ * into whole pages in memory, and the pages are appended to the end of the
+ * file in runs of {@link #BATCH_PAGES} with one write per run, so loading
+ * runs close to the sequential write bandwidth of the disk.
+ * <p>
+ * Bulk loading is not transactional: the pages are not locked, logged or
+ * cached, and become visible to scans as soon as they are written. It is
+ * meant for filling tables that no other transaction is using. Existing
+ * pages are never touched; new page numbers are reserved through the
+ * file's {@link FreeSpaceMap}, so regular inserts running at the same time
+ * append their pages elsewhere.
+ * <p>
+ * {@link #finish} writes the last page, syncs the file, adds the table to
+ * the catalog if it is not there yet, and refreshes its statistics.
+ *
+ * <pre>
+ *     BulkLoader loader = new BulkLoader(file, "lineitem");
+ *     while (...) {
+ *         loader.add(tuple);
+ *     }
+ *     loader.finish();
+ * </pre>
+ */
+public class BulkLoader {
+
+    /** Number of pages written with each write. */
+    public static final int BATCH_PAGES = 256;
+
+    private final HeapFile file;
+    private final String tableName;
+    private final TupleDesc td;
+    private final int slotsPerPage;
+    private final int headerSize;
+    private final int tupleSize;
+
+    private final ByteBuffer batch; // pages waiting to be written.
+    private int pages; // complete pages in batch.
+    private int slot; // next free slot of the page being filled.
+    private long tuples;
+    private boolean finished;
+
+    /**
+     * Creates a loader that appends to the specified file, which is added
+     * to the catalog under tableName by {@link #finish} if it is not in the
+     * catalog already.
+     *
+     * @param tableName the name of the table, or null if the file is
+     *            already in the catalog or should not be added to it
+     */
+    public BulkLoader(HeapFile file, String tableName) {
+        this.file = file;
+        this.tableName = tableName;
+        this.td = file.getTupleDesc();
+        this.slotsPerPage = HeapPage.numSlots(this.td);
+        this.headerSize = HeapPage.headerSize(this.slotsPerPage);
+        this.tupleSize = this.td.getSize();
+        this.batch = ByteBuffer.allocateDirect(BATCH_PAGES * BufferPool.PAGE_SIZE);
+    }
+
+    /** Creates a loader that appends to a file already in the catalog. */
+    public BulkLoader(HeapFile file) {
+        this(file, null);
+    }
+
+    /**
+     * Appends the specified tuple. The tuple's RecordId is not set.
+     *
+     * @throws DbException if the tuple does not match the file's TupleDesc
+     *             or the loader has been finished.
+     */
+    public void add(Tuple t) throws DbException, IOException {
+        if (this.finished) {
+            throw new DbException("BulkLoader has been finished");
+        }
+        if (!this.td.equals(t.getTupleDesc())) {
+            throw new DbException("TupleDesc mismatch!");
+        }
+
+        int pageStart = this.pages * BufferPool.PAGE_SIZE;
+        if (this.slot == 0) {
+            for (int i = 0; i < this.headerSize; i++) {
+                this.batch.put(pageStart + i, (byte) 0);
+            }
+        }
+
+        int header = pageStart + this.slot / 8;
+        this.batch.put(header, (byte) (this.batch.get(header) | (1 << (this.slot % 8))));
+        int offset = pageStart + this.headerSize + this.slot * this.tupleSize;
+        for (int j = 0; j < this.td.numFields(); j++) {
+            Type type = this.td.getFieldType(j);
+            type.write(t.getField(j), this.batch, offset);
+            offset += type.getLen();
+        }
+        this.tuples++;
+
+        if (++this.slot == this.slotsPerPage) {
+            this.slot = 0;
+            if (++this.pages == BATCH_PAGES) {
+                this.writeBatch();
+            }
+        }
+    }
+
+    /**
+     * Writes all remaining tuples, syncs the file, and registers the table
+     * with the catalog and its statistics.
+     *
+     * @return the number of tuples loaded.
+     */
+    public long finish() throws IOException {
+        if (this.finished) {
+            return this.tuples;
+        }
+        this.finished = true;
+
+        int lastPage = -1;
+        if (this.slot > 0) {
+            // zero the unused part of the last page.
+            int pageStart = this.pages * BufferPool.PAGE_SIZE;
+            int used = this.headerSize + this.slot * this.tupleSize;
+            for (int i = pageStart + used; i < pageStart + BufferPool.PAGE_SIZE; i++) {
+                this.batch.put(i, (byte) 0);
+            }
+            this.pages++;
+            lastPage = this.writeBatch() + this.pages - 1;
+            this.file.getFreeSpaceMap().markFree(lastPage);
+        } else if (this.pages > 0) {
+            this.writeBatch();
+        }
+        this.file.force();
+
+        this.register();
+        return this.tuples;
+    }
+
+    /**
+     * Appends the complete pages of the batch to the file.
+     *
+     * @return the page number of the first page written.
+     */
+    private int writeBatch() throws IOException {
+        int first = this.file.getFreeSpaceMap().allocatePages(this.file.numPages(), this.pages);
+        ByteBuffer buf = this.batch.duplicate();
+        buf.position(0);
+        buf.limit(this.pages * BufferPool.PAGE_SIZE);
+        this.file.writePages(first, buf);
+        if (this.slot == 0) {
+            this.pages = 0;
+        }
+        return first;
+    }
+
+    // Helper method to add the table to the catalog if needed, and to bring
+    // its statistics up to date.
+    private void register() {
+        Catalog catalog = Database.getCatalog();
+        String name;
+        try {
+            name = catalog.getTableName(this.file.getId());
+        } catch (NoSuchElementException e) {
+            if (this.tableName == null) {
+                return;
+            }
+            catalog.addTable(this.file, this.tableName);
+            name = this.tableName;
+        }
+        TableStats.setTableStats(name, new TableStats(this.file.getId(), TableStats.IOCOSTPERPAGE));
+    }
+
+    /**
+     * Loads every tuple of child into the specified table. The load runs
+     * outside any transaction; use an {@link Insert} instead for tables
+     * that other transactions may be using.
+     *
+     * @return the number of tuples loaded.
+     * @throws DbException if the table is not a HeapFile or the tuples do
+     *             not match it.
+     */
+    public static long load(DbIterator child, int tableId)
+            throws DbException, TransactionAbortedException, IOException {
+        DbFile f = Database.getCatalog().getDbFile(tableId);
+        if (!(f instanceof HeapFile)) {
+            throw new DbException("Bulk loading needs a HeapFile");
+        }
+        BulkLoader loader = new BulkLoader((HeapFile) f);
+        while (child.hasNext()) {
+            loader.add(child.next());
+        }
+        return loader.finish();
+    }
+}
@@ -0,0 +1,115 @@
+package simpledb;
+
+import java.util.*;
+
+/**
+ * ClockPolicy approximates LRU with one reference bit per page. A hit only
+ * sets the bit, and the clock hand clears bits as it sweeps past pages
+ * looking for one that has not been referenced since the last sweep.
+ */
+public class ClockPolicy implements ReplacementPolicy {
+
+    private final ArrayList<PageId> slots; // the clock face; null for a free slot.
+    private final HashMap<PageId, Integer> slotOf;
+    private final BitSet referenced;
+    private final LinkedList<Integer> freeSlots;
+    private int hand;
+    private long hits;
+    private long misses;
+
+    public ClockPolicy() {
+        this.slots = new ArrayList<PageId>();
+        this.slotOf = new HashMap<PageId, Integer>();
+        this.referenced = new BitSet();
+        this.freeSlots = new LinkedList<Integer>();
+        this.hand = 0;
+    }
+
+    public void recordHit(PageId pid) {
+        this.hits++;
+        Integer slot = this.slotOf.get(pid);
+        if (slot != null) {
+            this.referenced.set(slot);
+        }
+    }
+
+    public void recordMiss(PageId pid) {
+        this.misses++;
+        int slot;
+        if (this.freeSlots.isEmpty()) {
+            slot = this.slots.size();
+            this.slots.add(pid);
+        } else {
+            slot = this.freeSlots.removeFirst();
+            this.slots.set(slot, pid);
+        }
+        this.slotOf.put(pid, slot);
+        this.referenced.set(slot);
+    }
+
+    public void remove(PageId pid) {
+        Integer slot = this.slotOf.remove(pid);
+        if (slot != null) {
+            this.slots.set(slot, null);
+            this.referenced.clear(slot);
+            this.freeSlots.addLast(slot);
+        }
+    }
+
+    public PageId evict(Evictor evictor) {
+        // the first sweep clears every reference bit, so two sweeps are
+        // enough to offer every page to the evictor at least once.
+        int n = this.slots.size();
+        for (int scanned = 0; scanned < 2 * n; scanned++) {
+            if (this.hand >= n) {
+                this.hand = 0;
+            }
+            int slot = this.hand++;
+            PageId pid = this.slots.get(slot);
+            if (pid == null) {
+                continue;
+            }
+            if (this.referenced.get(slot)) {
+                this.referenced.clear(slot);
+            } else if (evictor.tryEvict(pid)) {
+                this.remove(pid);
+                return pid;
+            }
+        }
+        return null;
+    }
+
+    public List<PageId> victims(int n) {
+        // the hand offers unreferenced pages on its first sweep, and the
+        // pages whose bits it clears on the second.
+        List<PageId> next = new ArrayList<PageId>();
+        int size = this.slots.size();
+        for (int pass = 0; pass < 2; pass++) {
+            for (int i = 0; i < size && next.size() < n; i++) {
+                int slot = (this.hand + i) % size;
+                PageId pid = this.slots.get(slot);
+                if (pid != null && this.referenced.get(slot) == (pass == 1)) {
+                    next.add(pid);
+                }
+            }
+        }
+        return next;
+    }
+
+    public long getHits() {
+        return this.hits;
+    }
+
+    public long getMisses() {
+        return this.misses;
+    }
+
+    public void resetStats() {
+        this.hits = 0;
+        this.misses = 0;
+    }
+
+    public String toString() {
+        return "CLOCK";
+    }
+}
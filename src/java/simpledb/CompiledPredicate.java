@@ -0,0 +1,27 @@
+package simpledb;
+
+/**
+ * CompiledPredicate tests tuples against a Predicate, or a conjunction of
+ * Predicates, with code specialized for their field types and operators,
+ * instead of going through {@link Field#compare} for every tuple.
+ *
+ * @see PredicateCompiler
+ */
+public abstract class CompiledPredicate {
+
+    /** @return true if t passes the predicate. */
+    public abstract boolean matches(Tuple t);
+
+    /**
+     * @return true if the tuple a TupleView is on passes the predicate,
+     *         read without materializing it.
+     */
+    public abstract boolean matches(TupleView v);
+
+    /**
+     * Narrows the selection of a batch to the rows that pass the predicate.
+     *
+     * @param batch the batch to filter in place
+     */
+    public abstract void filter(TupleBatch batch);
+}
@@ -54,6 +54,23 @@ public class Database {
         return _instance._bufferpool;
     }
 
+    /** Method used for testing -- create a new instance of the
+        buffer pool with the given replacement policy and return it
+    */
+    public static BufferPool resetBufferPool(int pages, ReplacementPolicy policy) {
+        _instance._bufferpool = new BufferPool(pages, policy);
+        return _instance._bufferpool;
+    }
+
+    /** Method used for testing -- create a new instance of the
+        buffer pool with the given replacement policy, keeping page
+        bytes off the Java heap if offHeap is set, and return it
+    */
+    public static BufferPool resetBufferPool(int pages, ReplacementPolicy policy, boolean offHeap) {
+        _instance._bufferpool = new BufferPool(pages, policy, offHeap);
+        return _instance._bufferpool;
+    }
+
     //reset the database, used for unit tests only.
     public static void reset() {
     	_instance = new Database();
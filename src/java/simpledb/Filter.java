@@ -5,11 +5,17 @@ import java.util.*;
 /**
  * Filter is an operator that implements a relational select.
  */
-public class Filter extends Operator {
+public class Filter extends Operator implements BatchIterator {
 
     private static final long serialVersionUID = 1L;
     private Predicate p;
     private DbIterator child;
+    // Set by open: the predicates of this Filter and of the chain of Filters
+    // below it, compiled, and the first child below that chain, which this
+    // Filter reads directly.
+    private transient CompiledPredicate compiled;
+    private transient DbIterator source;
+    private transient BatchIterator batchSource;
 
     /**
      * Constructor accepts a predicate to apply and a child operator to read
@@ -40,13 +46,40 @@ public class Filter extends Operator {
             TransactionAbortedException {
         // some code goes here
         this.child.open();
+        this.compile();
         super.open();
     }
 
+    /**
+     * Compiles the predicates of this Filter and of the Filters directly
+     * below it into one conjunction, tested from the bottom up as the
+     * chain would, so that the chain reads its source without a call
+     * through every Filter for every tuple. A SeqScan source tests its
+     * tuples on the page bytes, and materializes only those that pass.
+     *
+     * @see PredicateCompiler
+     */
+    private void compile() {
+        LinkedList<Predicate> chain = new LinkedList<Predicate>();
+        chain.addFirst(this.p);
+        DbIterator it = this.child;
+        while (it instanceof Filter) {
+            Filter f = (Filter) it;
+            chain.addFirst(f.p);
+            it = f.child;
+        }
+        this.compiled = PredicateCompiler.compile(chain);
+        this.source = it;
+        this.batchSource = null;
+    }
+
     public void close() {
         // some code goes here
         this.child.close();
         super.close();
+        this.compiled = null;
+        this.source = null;
+        this.batchSource = null;
     }
 
     public void rewind() throws DbException, TransactionAbortedException {
@@ -68,14 +101,39 @@ public class Filter extends Operator {
     protected Tuple fetchNext() throws NoSuchElementException,
             TransactionAbortedException, DbException {
         // some code goes here
-        while(child.hasNext()) {
-            Tuple t = child.next();
-            if (this.p.filter(t)) { return t; }
+        if (source instanceof SeqScan) {
+            return ((SeqScan) source).next(this.compiled);
+        }
+        while(source.hasNext()) {
+            Tuple t = source.next();
+            if (this.compiled.matches(t)) { return t; }
         }
 
         return null;
     }
 
+    /**
+     * Returns the next batch of the child, with the rows that do not pass
+     * the predicate dropped from its selection. Batches that no row of
+     * passes are skipped.
+     */
+    public TupleBatch nextBatch() throws DbException, TransactionAbortedException {
+        if (this.compiled == null) {
+            throw new IllegalStateException("Operator not yet open");
+        }
+        if (this.batchSource == null) {
+            this.batchSource = Batches.batched(this.source);
+        }
+        TupleBatch batch;
+        while ((batch = this.batchSource.nextBatch()) != null) {
+            this.compiled.filter(batch);
+            if (batch.size() > 0) {
+                return batch;
+            }
+        }
+        return null;
+    }
+
     @Override
     public DbIterator[] getChildren() {
         // some code goes here
@@ -86,6 +144,9 @@ public class Filter extends Operator {
     public void setChildren(DbIterator[] children) {
         // some code goes here
         this.child = children[0];
+        this.compiled = null;
+        this.source = null;
+        this.batchSource = null;
     }
 
 }
@@ -0,0 +1,77 @@
+package simpledb;
+
+import java.nio.ByteBuffer;
+
+/**
+ * FrameArena holds the page bytes of an off-heap BufferPool. It allocates
+ * direct memory once, up front, and hands it out one page-sized frame at a
+ * time, so that resident pages cost the garbage collector nothing beyond
+ * their small HeapPage objects, and a pool can be sized to most of the
+ * machine's memory without long GC pauses.
+ * <p>
+ * Frames are identified by slot number. Memory is allocated in chunks of
+ * at most {@link #CHUNK_BYTES}, since a single direct buffer cannot exceed
+ * 2 GB.
+ *
+ * @see BufferPool#BufferPool(int, ReplacementPolicy, boolean)
+ */
+class FrameArena {
+
+    /** Bytes per direct buffer allocated by the arena. */
+    static final int CHUNK_BYTES = 1 << 30;
+
+    private static final int FRAMES_PER_CHUNK = CHUNK_BYTES / BufferPool.PAGE_SIZE;
+
+    private final ByteBuffer[] chunks;
+    private final int[] free; // stack of free slots.
+    private int freeCount;
+
+    /**
+     * Allocates an arena of the given number of page frames.
+     *
+     * @throws OutOfMemoryError if the direct memory cannot be allocated.
+     */
+    FrameArena(int frames) {
+        int numChunks = (frames + FRAMES_PER_CHUNK - 1) / FRAMES_PER_CHUNK;
+        this.chunks = new ByteBuffer[numChunks];
+        for (int i = 0; i < numChunks; i++) {
+            int chunkFrames = Math.min(FRAMES_PER_CHUNK, frames - i * FRAMES_PER_CHUNK);
+            this.chunks[i] = ByteBuffer.allocateDirect(chunkFrames * BufferPool.PAGE_SIZE);
+        }
+        this.free = new int[frames];
+        for (int i = 0; i < frames; i++) {
+            this.free[i] = frames - 1 - i;
+        }
+        this.freeCount = frames;
+    }
+
+    /** @return the total number of frames in this arena. */
+    int capacity() {
+        return this.free.length;
+    }
+
+    /** @return a free slot, or -1 if every frame is in use. */
+    synchronized int allocate() {
+        if (this.freeCount == 0) {
+            return -1;
+        }
+        return this.free[--this.freeCount];
+    }
+
+    /** Returns a slot to the arena. The frame must no longer be referenced. */
+    synchronized void release(int slot) {
+        this.free[this.freeCount++] = slot;
+    }
+
+    /**
+     * Returns a buffer over the frame of the specified slot, with position 0
+     * and capacity {@link BufferPool#PAGE_SIZE}.
+     */
+    ByteBuffer buffer(int slot) {
+        ByteBuffer chunk = this.chunks[slot / FRAMES_PER_CHUNK].duplicate();
+        int offset = (slot % FRAMES_PER_CHUNK) * BufferPool.PAGE_SIZE;
+        chunk.limit(offset + BufferPool.PAGE_SIZE);
+        chunk.position(offset);
+        return chunk.slice();
+    }
+}
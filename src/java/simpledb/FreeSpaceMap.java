@@ -0,0 +1,117 @@
+package simpledb;
+
+import java.util.BitSet;
+
+/**
+ * FreeSpaceMap tracks which pages of a HeapFile may have a free slot, so
+ * that {@link HeapFile#insertTuple} can go straight to a page with room
+ * instead of reading the file from the start.
+ * <p>
+ * The map holds one bit per page. A clear bit means the page is known to
+ * be full; a set bit means it may have room. Pages that existed when the
+ * map was created start out set and are cleared the first time an insert
+ * finds them full, so the map is built up as a side effect of inserting
+ * rather than by reading the whole file up front. {@link HeapFile}
+ * clears a page's bit when an insert fills it and sets it again when a
+ * tuple is deleted, and the {@link BufferPool} and recovery do the same
+ * when they put an older image of a page back.
+ * <p>
+ * Bits are hints: an insert still checks the page it is given, so a stale
+ * set bit costs one page read and never a wrong result. Finding a page
+ * costs amortized O(1), because the search resumes from the lowest page
+ * that may have room.
+ *
+ * @see HeapFile#getFreeSpaceMap
+ */
+public class FreeSpaceMap {
+
+    private final BitSet mayHaveRoom;
+    private int lowest; // no page below this one may have room.
+    private int numPages; // pages known to the map.
+
+    /**
+     * Creates a free-space map for a file with the given number of pages,
+     * all of which may have room.
+     */
+    public FreeSpaceMap(int numPages) {
+        this.mayHaveRoom = new BitSet(numPages);
+        this.mayHaveRoom.set(0, numPages);
+        this.lowest = 0;
+        this.numPages = numPages;
+    }
+
+    /**
+     * @return the lowest numbered page that may have a free slot, or -1 if
+     *         every page is known to be full.
+     */
+    public synchronized int nextPageWithRoom() {
+        int page = this.mayHaveRoom.nextSetBit(this.lowest);
+        this.lowest = page < 0 ? this.numPages : page;
+        return page < this.numPages ? page : -1;
+    }
+
+    /**
+     * @return the lowest numbered page, at or after the specified page, that
+     *         may have a free slot, or -1 if there is none. Lets an insert
+     *         that cannot use a page with room move on to the next one.
+     */
+    public synchronized int nextPageWithRoom(int from) {
+        if (from <= this.lowest) {
+            return this.nextPageWithRoom();
+        }
+        int page = this.mayHaveRoom.nextSetBit(from);
+        return page >= 0 && page < this.numPages ? page : -1;
+    }
+
+    /** Records that the specified page has no free slots. */
+    public synchronized void markFull(int pageNo) {
+        this.mayHaveRoom.clear(pageNo);
+    }
+
+    /** Records that the specified page has at least one free slot. */
+    public synchronized void markFree(int pageNo) {
+        if (pageNo >= this.numPages) {
+            // a page appended without allocatePage(); pages in between
+            // are unknown, so they may have room too.
+            this.mayHaveRoom.set(this.numPages, pageNo);
+            this.numPages = pageNo + 1;
+        }
+        this.mayHaveRoom.set(pageNo);
+        this.lowest = Math.min(this.lowest, pageNo);
+    }
+
+    /**
+     * Reserves the page number for a new page at the end of the file. Each
+     * call returns a different page, so concurrent inserts never append the
+     * same page. The new page is recorded as full until
+     * {@link #markFree} is called for it.
+     *
+     * @param filePages the number of pages currently in the file, which may
+     *            include pages written without going through this map
+     */
+    public synchronized int allocatePage(int filePages) {
+        return this.allocatePages(filePages, 1);
+    }
+
+    /**
+     * Reserves a run of consecutive page numbers at the end of the file, as
+     * {@link #allocatePage} does for one page.
+     *
+     * @return the first page of the run.
+     */
+    public synchronized int allocatePages(int filePages, int count) {
+        if (filePages > this.numPages) {
+            this.mayHaveRoom.set(this.numPages, filePages);
+            this.lowest = Math.min(this.lowest, this.numPages);
+            this.numPages = filePages;
+        }
+        int first = this.numPages;
+        this.numPages += count;
+        return first;
+    }
+
+    /** @return the number of pages known to this map. */
+    public synchronized int numPages() {
+        return this.numPages;
+    }
+}
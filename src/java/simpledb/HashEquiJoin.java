@@ -5,7 +5,7 @@ import java.util.*;
 /**
  * The Join operator implements the relational join operation.
  */
-public class HashEquiJoin extends Operator {
+public class HashEquiJoin extends Operator implements BatchIterator {
 
     private static final long serialVersionUID = 1L;
     private JoinPredicate pred;
@@ -13,6 +13,7 @@ public class HashEquiJoin extends Operator {
     private TupleDesc comboTD;
     transient private Tuple t1 = null;
     transient private Tuple t2 = null;
+    transient private boolean loaded; // whether the first part of child1 was read.
 
     /**
      * Constructor. Accepts to children to join and the predicate to join them
@@ -76,7 +77,9 @@ public class HashEquiJoin extends Operator {
             TransactionAbortedException {
         child1.open();
         child2.open();
-        loadMap();
+        // child1 is read on the first call, a tuple or a batch at a time.
+        this.loaded = false;
+        super.open();
     }
 
     public void close() {
@@ -87,11 +90,15 @@ public class HashEquiJoin extends Operator {
         this.t2=null;
         this.listIt=null;
         this.map.clear();
+        this.resetBatches();
     }
 
     public void rewind() throws DbException, TransactionAbortedException {
         child1.rewind();
         child2.rewind();
+        this.listIt = null;
+        this.loaded = false;
+        this.resetBatches();
     }
 
     transient Iterator<Tuple> listIt = null;
@@ -132,6 +139,12 @@ public class HashEquiJoin extends Operator {
 
 
     protected Tuple fetchNext() throws TransactionAbortedException, DbException {
+        if (!this.loaded) {
+            this.loaded = true;
+            if (!loadMap()) {
+                return null;
+            }
+        }
         if (listIt != null && listIt.hasNext()) {
             return processList();
         }
@@ -160,6 +173,132 @@ public class HashEquiJoin extends Operator {
         return null;
     }
 
+    // State of the batch-at-a-time join. The rows of up to MAP_SIZE tuples
+    // of child1 are kept column by column in build, chained by the hash of
+    // their join field: heads and tails hold the first and last row of
+    // each bucket, and chain the next row of each row, or -1.
+    transient private BatchIterator batchChild1, batchChild2;
+    transient private TupleBatch build, out;
+    transient private int[] heads, tails, chain;
+    transient private TupleBatch buildIn, probe; // current batches of child1 and child2.
+    transient private int buildInNext, probeNext; // next index in their selections.
+    transient private int probeRow; // row of probe being joined.
+    transient private int match; // next row of build to check against probeRow, or -1.
+    transient private boolean done;
+
+    // Helper method to drop the state of the batch join.
+    private void resetBatches() {
+        this.buildIn = null;
+        this.probe = null;
+        this.match = -1;
+        this.done = false;
+    }
+
+    /**
+     * Returns the next batch of joined tuples, in the order of
+     * {@link #fetchNext}. The tuples of child1 are hashed a part of up to
+     * MAP_SIZE at a time, and child2 is read once for each part.
+     */
+    public TupleBatch nextBatch() throws DbException, TransactionAbortedException {
+        if (!this.loaded) {
+            this.loaded = true;
+            this.batchChild1 = Batches.batched(this.child1);
+            this.batchChild2 = Batches.batched(this.child2);
+            if (this.build == null) {
+                this.build = new TupleBatch(this.child1.getTupleDesc(), MAP_SIZE);
+                this.out = new TupleBatch(this.comboTD);
+                int buckets = Integer.highestOneBit(MAP_SIZE * 2 - 1) << 1;
+                this.heads = new int[buckets];
+                this.tails = new int[buckets];
+                this.chain = new int[MAP_SIZE];
+            }
+            this.resetBatches();
+            this.done = !this.loadBatchMap();
+        }
+        if (this.done) {
+            return null;
+        }
+
+        int key1 = this.pred.getField1();
+        int key2 = this.pred.getField2();
+        int width1 = this.child1.getTupleDesc().numFields();
+        this.out.clear();
+        while (!this.out.isFull()) {
+            if (this.match >= 0) {
+                int row = this.match;
+                this.match = this.chain[row];
+                if (sameKey(this.build, row, key1, this.probe, this.probeRow, key2)) {
+                    int r = this.out.addRow();
+                    this.out.copyRow(r, this.build, row, 0);
+                    this.out.copyRow(r, this.probe, this.probeRow, width1);
+                }
+            } else if (this.probe != null && this.probeNext < this.probe.size()) {
+                this.probeRow = this.probe.selection()[this.probeNext++];
+                this.match = this.heads[this.bucket(this.probe, this.probeRow, key2)];
+            } else {
+                this.probe = this.batchChild2.nextBatch();
+                this.probeNext = 0;
+                if (this.probe == null) {
+                    // child2 is done: advance child1
+                    this.child2.rewind();
+                    if (!this.loadBatchMap()) {
+                        this.done = true;
+                        break;
+                    }
+                }
+            }
+        }
+        return this.out.size() > 0 ? this.out : null;
+    }
+
+    // Helper method to hash the next part of child1 into build.
+    private boolean loadBatchMap() throws DbException, TransactionAbortedException {
+        int key1 = this.pred.getField1();
+        this.build.clear();
+        Arrays.fill(this.heads, -1);
+        while (!this.build.isFull()) {
+            if (this.buildIn == null || this.buildInNext >= this.buildIn.size()) {
+                this.buildIn = this.batchChild1.nextBatch();
+                this.buildInNext = 0;
+                if (this.buildIn == null) {
+                    break;
+                }
+                continue;
+            }
+            int r = this.build.addRow();
+            this.build.copyRow(r, this.buildIn, this.buildIn.selection()[this.buildInNext++], 0);
+            int b = this.bucket(this.build, r, key1);
+            this.chain[r] = -1;
+            if (this.heads[b] < 0) {
+                this.heads[b] = r;
+            } else {
+                this.chain[this.tails[b]] = r;
+            }
+            this.tails[b] = r;
+        }
+        return this.build.size() > 0;
+    }
+
+    // Helper method to find the bucket of the join field of a row.
+    private int bucket(TupleBatch batch, int row, int field) {
+        int h;
+        if (batch.getTupleDesc().getFieldType(field) == Type.INT_TYPE) {
+            h = batch.getInts(field)[row];
+        } else {
+            h = batch.getStrings(field)[row].hashCode();
+        }
+        h *= 0x9E3779B9;
+        return (h ^ (h >>> 16)) & (this.heads.length - 1);
+    }
+
+    private static boolean sameKey(TupleBatch b1, int row1, int field1,
+            TupleBatch b2, int row2, int field2) {
+        if (b1.getTupleDesc().getFieldType(field1) == Type.INT_TYPE) {
+            return b1.getInts(field1)[row1] == b2.getInts(field2)[row2];
+        }
+        return b1.getStrings(field1)[row1].equals(b2.getStrings(field2)[row2]);
+    }
+
     @Override
     public DbIterator[] getChildren() {
         return new DbIterator[]{this.child1, this.child2};
@@ -1,6 +1,11 @@
 package simpledb;
 
 import java.io.*;
+import java.nio.ByteBuffer;
+import java.nio.MappedByteBuffer;
+import java.nio.channels.ClosedByInterruptException;
+import java.nio.channels.ClosedChannelException;
+import java.nio.channels.FileChannel;
 import java.util.*;
 
 /**
@@ -9,14 +14,41 @@ import java.util.*;
  * size, and the file is simply a collection of those pages. HeapFile works
  * closely with HeapPage. The format of HeapPages is described in the HeapPage
  * constructor.
+ * <p>
+ * All page I/O goes through a single FileChannel that is opened on first use
+ * and kept for the life of the HeapFile. Reads and writes are positional, so
+ * any number of threads may use the channel at the same time. Writes are not
+ * forced to the disk as they happen; {@link #force} is called at commit
+ * points instead.
+ * <p>
+ * Read-mostly tables can be switched to a memory-mapped read path with
+ * {@link #setMemoryMapped}. Pages are then copied straight out of the OS
+ * page cache instead of being read with a system call. The file is mapped
+ * in segments of {@link #MAP_SEGMENT_BYTES}, so files larger than the 2 GB
+ * limit of a single mapping are supported; if mapping fails, reads fall
+ * back to the channel.
  * 
  * @see simpledb.HeapPage#HeapPage
  * @author Sam Madden
  */
 public class HeapFile implements DbFile {
 
+    /** Bytes per mapped segment of a memory-mapped file. */
+    public static final int MAP_SEGMENT_BYTES = 64 << 20;
+
     private File f;
     private TupleDesc td;
+    private volatile boolean memoryMapped;
+
+    private transient volatile FileChannel channel;
+    private transient volatile boolean unforced; // written since the last force()
+
+    // Read-only mappings of consecutive MAP_SEGMENT_BYTES regions of the
+    // file; only the last one may be shorter. Null until the first mapped
+    // read.
+    private transient volatile MappedByteBuffer[] segments;
+
+    private transient volatile FreeSpaceMap freeSpace; // created on first insert.
 
     /**
      * Constructs a heap file backed by the specified file.
@@ -68,19 +100,30 @@ public class HeapFile implements DbFile {
     // see DbFile.java for javadocs
     public Page readPage(PageId pid) {
         // some code goes here
+        return this.readPage(pid, ByteBuffer.allocate(BufferPool.PAGE_SIZE));
+    }
+
+    /**
+     * Reads the specified page into the given buffer, and returns a page
+     * backed by that buffer. Used by the BufferPool to read pages into
+     * frames it manages itself.
+     *
+     * @param buf a buffer of {@link BufferPool#PAGE_SIZE} bytes, starting at
+     *            position 0; the returned page takes ownership of it.
+     * @throws IllegalArgumentException if the page is not in this file.
+     */
+    public HeapPage readPage(PageId pid, ByteBuffer buf) {
         if(pid.getTableId() != this.getId()) {
             throw new IllegalArgumentException("Page cannot be found in this file!");
         }
 
         try {
-            RandomAccessFile raf = new RandomAccessFile(this.f, "r");
-            byte[] page = new byte[BufferPool.PAGE_SIZE];
-            raf.seek(pid.pageNumber() * BufferPool.PAGE_SIZE);
-            raf.read(page, 0, BufferPool.PAGE_SIZE);
-            raf.close();
-            return (Page) new HeapPage(new HeapPageId(pid.getTableId(), pid.pageNumber()), page);
-        } catch (FileNotFoundException e) {
-            e.printStackTrace();
+            long offset = (long) pid.pageNumber() * BufferPool.PAGE_SIZE;
+            if (!this.memoryMapped || !this.readMapped(buf, offset)) {
+                readFully(buf, offset);
+            }
+            buf.clear();
+            return new HeapPage(new HeapPageId(pid.getTableId(), pid.pageNumber()), buf);
         } catch (IOException e) {
             e.printStackTrace();
         }
@@ -92,12 +135,231 @@ public class HeapFile implements DbFile {
     public void writePage(Page page) throws IOException {
         // some code goes here
         // not necessary for proj1
-        RandomAccessFile raf = new RandomAccessFile(this.f, "rw");
         PageId pid = page.getId();
-        long offset = BufferPool.PAGE_SIZE * pid.pageNumber();
-        raf.seek(offset);
-        raf.write(page.getPageData());
-        raf.close();
+        long offset = (long) BufferPool.PAGE_SIZE * pid.pageNumber();
+        ByteBuffer buf = page instanceof HeapPage ? ((HeapPage) page).getPageBuffer()
+                : ByteBuffer.wrap(page.getPageData());
+        writeFully(buf, offset);
+    }
+
+    /**
+     * Writes a run of consecutive pages with a single write, bypassing the
+     * BufferPool. Used by {@link BulkLoader} to append pages.
+     *
+     * @param firstPage the page number of the first page in pages
+     * @param pages the bytes of the pages, from position to limit; a
+     *            multiple of {@link BufferPool#PAGE_SIZE} bytes.
+     */
+    void writePages(int firstPage, ByteBuffer pages) throws IOException {
+        writeFully(pages, (long) firstPage * BufferPool.PAGE_SIZE - pages.position());
+    }
+
+    /**
+     * Writes a run of consecutive pages with a single gathering write,
+     * bypassing the BufferPool. Used by the BufferPool to write out runs of
+     * adjacent dirty pages.
+     *
+     * @param firstPage the page number of the first page in pages
+     * @param pages the pages, one PAGE_SIZE buffer each, in order
+     */
+    synchronized void writePages(int firstPage, ByteBuffer[] pages) throws IOException {
+        // a gathering write uses the channel's position, which positional
+        // reads and writes leave alone, so only these writes serialize.
+        long offset = (long) firstPage * BufferPool.PAGE_SIZE;
+        long remaining = (long) pages.length * BufferPool.PAGE_SIZE;
+        while (remaining > 0) {
+            try {
+                FileChannel ch = this.getChannel();
+                ch.position(offset);
+                long n = ch.write(pages);
+                offset += n;
+                remaining -= n;
+            } catch (ClosedChannelException e) {
+                retryAfterClose(e);
+            }
+        }
+        this.unforced = true;
+    }
+
+    /**
+     * Forces every page written to this file since the last call to disk.
+     * Called by the BufferPool at commit points, so that a transaction that
+     * writes many pages pays for a single sync.
+     *
+     * @throws IOException if the sync fails
+     */
+    public void force() throws IOException {
+        if (this.unforced) {
+            this.unforced = false;
+            this.getChannel().force(false);
+        }
+    }
+
+    /**
+     * Closes the channel backing this file. The channel is reopened if the
+     * file is used again.
+     */
+    public synchronized void close() throws IOException {
+        this.segments = null;
+        if (this.channel != null) {
+            this.channel.close();
+            this.channel = null;
+        }
+    }
+
+    /**
+     * Sets whether pages are read through a memory mapping of the file
+     * rather than with positional reads. Writes always go through the
+     * channel; the mapping sees them because both share the OS page cache.
+     */
+    public synchronized void setMemoryMapped(boolean memoryMapped) {
+        this.memoryMapped = memoryMapped;
+        if (!memoryMapped) {
+            this.segments = null;
+        }
+    }
+
+    /** @return true if pages are read through a memory mapping. */
+    public boolean isMemoryMapped() {
+        return this.memoryMapped;
+    }
+
+    /**
+     * Copies the page at the specified offset out of the mapping, extending
+     * the mapping first if the file has grown past it.
+     *
+     * @return false if the page is not in the file or cannot be mapped, in
+     *         which case it must be read from the channel.
+     */
+    private boolean readMapped(ByteBuffer page, long offset) throws IOException {
+        int segment = (int) (offset / MAP_SEGMENT_BYTES);
+        int position = (int) (offset % MAP_SEGMENT_BYTES);
+
+        MappedByteBuffer[] segs = this.segments;
+        if (segs == null || segment >= segs.length
+                || segs[segment].capacity() < position + page.remaining()) {
+            segs = this.remap();
+            if (segs == null || segment >= segs.length
+                    || segs[segment].capacity() < position + page.remaining()) {
+                return false;
+            }
+        }
+
+        ByteBuffer buf = segs[segment].duplicate();
+        buf.position(position);
+        buf.limit(position + page.remaining());
+        page.put(buf);
+        return true;
+    }
+
+    /**
+     * Extends the mapping to the current end of the file. Full segments are
+     * kept; only the last, partial segment is mapped again, so a growing
+     * file is remapped one segment at a time.
+     *
+     * @return the new segments, or null if the file could not be mapped.
+     */
+    private synchronized MappedByteBuffer[] remap() throws IOException {
+        if (!this.memoryMapped) {
+            return null;
+        }
+        FileChannel ch = this.getChannel();
+        long size = ch.size();
+        MappedByteBuffer[] old = this.segments;
+        int count = (int) ((size + MAP_SEGMENT_BYTES - 1) / MAP_SEGMENT_BYTES);
+        if (old != null && old.length == count
+                && (count == 0 || old[count - 1].capacity() == size - (long) (count - 1) * MAP_SEGMENT_BYTES)) {
+            return old; // another thread got here first.
+        }
+
+        MappedByteBuffer[] segs = new MappedByteBuffer[count];
+        try {
+            for (int i = 0; i < count; i++) {
+                long start = (long) i * MAP_SEGMENT_BYTES;
+                if (old != null && i < old.length && old[i].capacity() == MAP_SEGMENT_BYTES) {
+                    segs[i] = old[i];
+                } else {
+                    segs[i] = ch.map(FileChannel.MapMode.READ_ONLY, start,
+                            Math.min(MAP_SEGMENT_BYTES, size - start));
+                }
+            }
+        } catch (ClosedChannelException e) {
+            return null; // closed by an interrupt; retried on the channel.
+        } catch (IOException e) {
+            // out of address space or mappings; read through the channel.
+            this.memoryMapped = false;
+            this.segments = null;
+            return null;
+        }
+        this.segments = segs;
+        return segs;
+    }
+
+    /**
+     * Returns the channel backing this file, opening it on first use. Files
+     * that cannot be opened for writing are opened read-only.
+     */
+    private FileChannel getChannel() throws IOException {
+        FileChannel ch = this.channel;
+        if (ch != null && ch.isOpen()) {
+            return ch;
+        }
+        synchronized (this) {
+            if (this.channel == null || !this.channel.isOpen()) {
+                RandomAccessFile raf;
+                try {
+                    raf = new RandomAccessFile(this.f, "rw");
+                } catch (FileNotFoundException e) {
+                    raf = new RandomAccessFile(this.f, "r");
+                }
+                this.channel = raf.getChannel();
+            }
+            return this.channel;
+        }
+    }
+
+    /**
+     * Reads from the specified offset until buf is full or the end of the
+     * file is reached. Bytes past the end of the file are set to zero.
+     */
+    private void readFully(ByteBuffer buf, long offset) throws IOException {
+        while (buf.hasRemaining()) {
+            int n;
+            try {
+                n = this.getChannel().read(buf, offset + buf.position());
+            } catch (ClosedChannelException e) {
+                retryAfterClose(e);
+                continue;
+            }
+            if (n < 0) {
+                while (buf.hasRemaining()) {
+                    buf.put((byte) 0);
+                }
+            }
+        }
+    }
+
+    /** Writes all of buf at the specified offset. */
+    private void writeFully(ByteBuffer buf, long offset) throws IOException {
+        while (buf.hasRemaining()) {
+            try {
+                this.getChannel().write(buf, offset + buf.position());
+            } catch (ClosedChannelException e) {
+                retryAfterClose(e);
+            }
+        }
+        this.unforced = true;
+    }
+
+    /**
+     * An interrupt during channel I/O closes the channel for every thread
+     * using it. The interrupted thread gets the exception; the others reopen
+     * the channel and retry.
+     */
+    private static void retryAfterClose(ClosedChannelException e) throws IOException {
+        if (e instanceof ClosedByInterruptException || Thread.currentThread().isInterrupted()) {
+            throw e;
+        }
     }
 
     /**
@@ -105,7 +367,13 @@ public class HeapFile implements DbFile {
      */
     public int numPages() {
         // some code goes here
-        return (int)Math.ceil(this.f.length()/BufferPool.PAGE_SIZE);
+        long length;
+        try {
+            length = this.channel != null ? this.getChannel().size() : this.f.length();
+        } catch (IOException e) {
+            length = this.f.length();
+        }
+        return (int)Math.ceil(length/BufferPool.PAGE_SIZE);
     }
 
     // see DbFile.java for javadocs
@@ -114,33 +382,110 @@ public class HeapFile implements DbFile {
         // some code goes here
         // not necessary for proj1
         ArrayList<Page> modifiedPage = new ArrayList<Page>();
-        for (int i = 0; i < this.numPages(); i++) {
-            HeapPageId pid = new HeapPageId(this.getId(), i);
+        BufferPool bp = Database.getBufferPool();
+        FreeSpaceMap fsm = this.getFreeSpaceMap();
+        if (tid != null && bp.isRecordLocking()) {
+            modifiedPage.add(this.insertRecord(bp, fsm, tid, t));
+            return modifiedPage;
+        }
+        int pageNo;
+        while ((pageNo = fsm.nextPageWithRoom()) >= 0) {
+            HeapPageId pid = new HeapPageId(this.getId(), pageNo);
+            boolean locked = bp.holdsLock(tid, pid);
 
-            HeapPage p = (HeapPage) Database.getBufferPool().getPage(
-                            tid, pid, Permissions.READ_WRITE
-                        );
+            HeapPage p = (HeapPage) bp.getPage(tid, pid, Permissions.READ_WRITE);
 
             if (p.getNumEmptySlots() != 0) {
                 p.insertTuple(t);
+                this.updateFreeSpace(p);
                 modifiedPage.add(p);
                 return modifiedPage;
             }
+            fsm.markFull(pageNo);
+            if (!locked) {
+                // nothing was read or written, so other inserts need not wait.
+                bp.releasePage(tid, pid);
+            }
         }
 
-        HeapPageId newPid = new HeapPageId(getId(), this.numPages());
-        HeapPage newP = new HeapPage(newPid, HeapPage.createEmptyPageData());
-        newP.insertTuple(t);
-
-        RandomAccessFile raf = new RandomAccessFile(f, "rw");
-        raf.seek(this.numPages() * BufferPool.PAGE_SIZE);
-        raf.write(newP.getPageData(), 0, BufferPool.PAGE_SIZE);
-        raf.close();
+        // extend the file with an empty page, and fill it through the
+        // BufferPool so that the insert is locked and can be rolled back.
+        HeapPageId newPid = new HeapPageId(getId(), fsm.allocatePage(this.numPages()));
+        this.writePage(new HeapPage(newPid, HeapPage.createEmptyPageData()));
 
+        HeapPage newP = (HeapPage) bp.getPage(tid, newPid, Permissions.READ_WRITE);
+        newP.insertTuple(t);
+        this.updateFreeSpace(newP);
         modifiedPage.add(newP);
         return modifiedPage;
     }
 
+    // Helper method to insert a tuple under record locking. Pages whose
+    // free slots are all locked by other transactions are skipped but stay
+    // in the free-space map, since those slots may free up again.
+    private HeapPage insertRecord(BufferPool bp, FreeSpaceMap fsm, TransactionId tid, Tuple t)
+            throws DbException, IOException, TransactionAbortedException {
+        int pageNo = fsm.nextPageWithRoom();
+        while (true) {
+            if (pageNo < 0) {
+                HeapPageId newPid = new HeapPageId(getId(), fsm.allocatePage(this.numPages()));
+                this.writePage(new HeapPage(newPid, HeapPage.createEmptyPageData()));
+                pageNo = newPid.pageNumber();
+            }
+            HeapPageId pid = new HeapPageId(this.getId(), pageNo);
+            boolean locked = bp.holdsLock(tid, pid);
+            HeapPage p = (HeapPage) bp.getPageForUpdate(tid, pid);
+            if (bp.insertRecord(tid, p, t)) {
+                this.updateFreeSpace(p);
+                return p;
+            }
+            if (p.getNumEmptySlots() == 0) {
+                fsm.markFull(pageNo);
+            }
+            if (!locked) {
+                bp.releasePage(tid, pid);
+            }
+            pageNo = fsm.nextPageWithRoom(pageNo + 1);
+        }
+    }
+
+    /**
+     * Returns the free-space map of this file, creating it on first use.
+     * Inserts use it to find a page with a free slot without reading the
+     * file from the start.
+     */
+    public FreeSpaceMap getFreeSpaceMap() {
+        FreeSpaceMap fsm = this.freeSpace;
+        if (fsm == null) {
+            synchronized (this) {
+                if (this.freeSpace == null) {
+                    this.freeSpace = new FreeSpaceMap(this.numPages());
+                }
+                fsm = this.freeSpace;
+            }
+        }
+        return fsm;
+    }
+
+    /**
+     * Records in the free-space map whether the specified page of this file
+     * has a free slot. Called after a page changes, whether by an insert or
+     * a delete, or by an older image of it being put back. Does nothing
+     * until the map is created, since a new map assumes every page may
+     * have room.
+     */
+    void updateFreeSpace(HeapPage p) {
+        FreeSpaceMap fsm = this.freeSpace;
+        if (fsm == null) {
+            return;
+        }
+        if (p.getNumEmptySlots() == 0) {
+            fsm.markFull(p.getId().pageNumber());
+        } else {
+            fsm.markFree(p.getId().pageNumber());
+        }
+    }
+
     // see DbFile.java for javadocs
     public Page deleteTuple(TransactionId tid, Tuple t) throws DbException,
             TransactionAbortedException {
@@ -151,6 +496,7 @@ public class HeapFile implements DbFile {
                                     Permissions.READ_WRITE
                                 );
         p.deleteTuple(t);
+        this.updateFreeSpace(p);
         return p;
     }
 
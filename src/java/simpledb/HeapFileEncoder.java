@@ -1,7 +1,16 @@
 package simpledb;
 
 import java.io.*;
+import java.nio.ByteBuffer;
+import java.nio.channels.FileChannel;
 import java.util.ArrayList;
+import java.util.LinkedList;
+import java.util.concurrent.Callable;
+import java.util.concurrent.ExecutionException;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.concurrent.Future;
+import java.util.concurrent.ThreadFactory;
 
 /**
  * HeapFileEncoder reads a comma delimited text file or accepts
@@ -9,10 +18,22 @@ import java.util.ArrayList;
  * pages of binary data in the appropriate format for simpledb heap pages
  * Pages are padded out to a specified length, and written consecutive in a
  * data file.
+ * <p>
+ * Text files are encoded in parallel and streamed, so files of many
+ * gigabytes can be converted in bounded memory: the input is read in
+ * segments that end at line boundaries, the segments are parsed into
+ * fixed-size records on a pool of threads, and a single writer packs the
+ * records into pages in input order and writes them through one channel.
  */
 
 public class HeapFileEncoder {
 
+  /** Bytes of input read per segment handed to a parsing thread. */
+  static final int SEGMENT_BYTES = 4 << 20;
+
+  /** Number of pages the writer buffers before each write. */
+  private static final int WRITE_BATCH_PAGES = 256;
+
   /** Convert the specified tuple list (with only integer fields) into a binary
    * page file. <br>
    *
@@ -26,29 +47,36 @@ public class HeapFileEncoder {
    * @param outFile The output file to write data to
    * @param npagebytes The number of bytes per page in the output file
    * @param numFields the number of fields in each input tuple
-   * @throws IOException if the temporary/output file can't be opened
+   * @throws IOException if the output file can't be opened
    */
   public static void convert(ArrayList<ArrayList<Integer>> tuples, File outFile, int npagebytes, int numFields) throws IOException {
-      File tempInput = File.createTempFile("tempTable", ".txt");
-      tempInput.deleteOnExit();
-      BufferedWriter bw = new BufferedWriter(new FileWriter(tempInput));
-      for (ArrayList<Integer> tuple : tuples) {
-          int writtenFields = 0;
-          for (Integer field : tuple) {
-              writtenFields++;
-              if (writtenFields > numFields) {
-                  throw new RuntimeException("Tuple has more than " + numFields + " fields: (" +
+      Type[] ts = new Type[numFields];
+      for (int i = 0; i < ts.length; i++) {
+          ts[i] = Type.INT_TYPE;
+      }
+      PageWriter writer = new PageWriter(outFile, npagebytes, ts);
+      try {
+          // encode a page's worth of records at a time, with no text detour.
+          ByteBuffer records = ByteBuffer.allocate(writer.nrecords * writer.nrecbytes);
+          int count = 0;
+          for (ArrayList<Integer> tuple : tuples) {
+              if (tuple.size() != numFields) {
+                  throw new RuntimeException("Tuple has " + tuple.size() + " fields instead of " + numFields + ": (" +
                           Utility.listToString(tuple) + ")");
               }
-              bw.write(String.valueOf(field));
-              if (writtenFields < numFields) {
-                  bw.write(',');
+              for (Integer field : tuple) {
+                  records.putInt(field);
+              }
+              if (++count == writer.nrecords) {
+                  writer.addRecords(records.array(), count);
+                  records.clear();
+                  count = 0;
               }
           }
-          bw.write('\n');
+          writer.addRecords(records.array(), count);
+      } finally {
+          writer.close();
       }
-      bw.close();
-      convert(tempInput, outFile, npagebytes, numFields);
   }
 
       public static void convert(File inFile, File outFile, int npagebytes,
@@ -66,6 +94,18 @@ public class HeapFileEncoder {
       convert(inFile,outFile,npagebytes,numFields,typeAr,',');
   }
 
+  /** Convert the specified input text file into a binary page file, using
+   * one parsing thread per processor.
+   *
+   * @see #convert(File, File, int, int, Type[], char, int)
+   */
+  public static void convert(File inFile, File outFile, int npagebytes,
+                 int numFields, Type[] typeAr, char fieldSeparator)
+      throws IOException {
+      convert(inFile, outFile, npagebytes, numFields, typeAr, fieldSeparator,
+              Runtime.getRuntime().availableProcessors());
+  }
+
    /** Convert the specified input text file into a binary
     * page file. <br>
     * Assume format of the input file is (note that only integer fields are
@@ -75,6 +115,10 @@ public class HeapFileEncoder {
     * ...<br>
     * where each row represents a tuple.<br>
     * <p>
+    * Blank lines and carriage returns are ignored, and fields are trimmed.
+    * A last line without a newline is still a row. An integer field that
+    * cannot be parsed is reported on standard output and stored as 0.
+    * <p>
     * The format of the output file will be as specified in HeapPage and
     * HeapFile.
     *
@@ -84,143 +128,347 @@ public class HeapFileEncoder {
     * @param outFile The output file to write data to
     * @param npagebytes The number of bytes per page in the output file
     * @param numFields the number of fields in each input line/output tuple
+    * @param threads the number of threads that parse the input
     * @throws IOException if the input/output file can't be opened or a
     *   malformed input line is encountered
     */
   public static void convert(File inFile, File outFile, int npagebytes,
-                 int numFields, Type[] typeAr, char fieldSeparator)
+                 int numFields, Type[] typeAr, char fieldSeparator, int threads)
       throws IOException {
+      if (typeAr.length != numFields) {
+          throw new IllegalArgumentException("Expected " + numFields + " types, got " + typeAr.length);
+      }
+
+      ExecutorService parsers = threads > 1 ? Executors.newFixedThreadPool(threads, new ThreadFactory() {
+          public Thread newThread(Runnable r) {
+              Thread t = new Thread(r, "simpledb-encoder");
+              t.setDaemon(true);
+              return t;
+          }
+      }) : null;
+      LinkedList<Future<Records>> pending = new LinkedList<Future<Records>>();
+
+      FileChannel in = new FileInputStream(inFile).getChannel();
+      PageWriter writer = new PageWriter(outFile, npagebytes, typeAr);
+      try {
+          byte[] carry = new byte[0]; // start of a line cut off by the previous segment.
+          long offset = 0; // file offset of the first byte of carry.
+          boolean eof = false;
+          while (!eof) {
+              // read a segment, and cut it after its last newline.
+              byte[] seg = new byte[Math.max(SEGMENT_BYTES, carry.length * 2)];
+              System.arraycopy(carry, 0, seg, 0, carry.length);
+              ByteBuffer buf = ByteBuffer.wrap(seg, carry.length, seg.length - carry.length);
+              while (buf.hasRemaining()) {
+                  if (in.read(buf) < 0) {
+                      eof = true;
+                      break;
+                  }
+              }
+              int len = buf.position();
+              int end = len;
+              if (!eof) {
+                  while (end > 0 && seg[end - 1] != '\n') {
+                      end--;
+                  }
+              }
+              carry = new byte[len - end];
+              System.arraycopy(seg, end, carry, 0, carry.length);
+              if (end == 0) {
+                  continue; // a line longer than the segment; read on.
+              }
+
+              ChunkEncoder chunk = new ChunkEncoder(seg, end, offset, typeAr, fieldSeparator);
+              offset += end;
+              if (parsers == null) {
+                  writer.addRecords(chunk.call());
+              } else {
+                  pending.add(parsers.submit(chunk));
+                  if (pending.size() >= 2 * threads) {
+                      writer.addRecords(result(pending.removeFirst()));
+                  }
+              }
+          }
+          while (!pending.isEmpty()) {
+              writer.addRecords(result(pending.removeFirst()));
+          }
+      } finally {
+          if (parsers != null) {
+              parsers.shutdownNow();
+          }
+          in.close();
+          writer.close();
+      }
+  }
+
+  // Helper method to wait for a parsed segment.
+  private static Records result(Future<Records> f) throws IOException {
+      try {
+          return f.get();
+      } catch (InterruptedException e) {
+          Thread.currentThread().interrupt();
+          throw new InterruptedIOException("Interrupted while encoding");
+      } catch (ExecutionException e) {
+          if (e.getCause() instanceof IOException) {
+              throw (IOException) e.getCause();
+          }
+          throw new RuntimeException(e.getCause());
+      }
+  }
+
+  /** Fixed-size binary records, in input order. */
+  private static class Records {
+      final byte[] data;
+      final int count;
+
+      Records(byte[] data, int count) {
+          this.data = data;
+          this.count = count;
+      }
+  }
+
+  /**
+   * Parses the lines of one segment of the input into binary records. A
+   * segment holds whole lines only, except that the last segment of the
+   * file may end without a newline.
+   */
+  private static class ChunkEncoder implements Callable<Records> {
+      private final byte[] text;
+      private final int length;
+      private final long fileOffset;
+      private final Type[] types;
+      private final int separator;
+      private final int nrecbytes;
+
+      private byte[] out;
+      private int outPos;
+
+      ChunkEncoder(byte[] text, int length, long fileOffset, Type[] types, char separator) {
+          this.text = text;
+          this.length = length;
+          this.fileOffset = fileOffset;
+          this.types = types;
+          this.separator = separator;
+          int n = 0;
+          for (Type t : types) {
+              n += t.getLen();
+          }
+          this.nrecbytes = n;
+      }
+
+      public Records call() throws IOException {
+          // at least 2 bytes of text per integer field, so this rarely grows.
+          this.out = new byte[Math.max(this.nrecbytes, this.length / Math.max(1, 2 * this.types.length) * this.nrecbytes)];
+          int count = 0;
+          int lineStart = 0;
+          while (lineStart < this.length) {
+              int lineEnd = lineStart;
+              while (lineEnd < this.length && this.text[lineEnd] != '\n') {
+                  lineEnd++;
+              }
+              if (this.parseLine(lineStart, lineEnd)) {
+                  count++;
+              }
+              lineStart = lineEnd + 1;
+          }
+          return new Records(this.out, count);
+      }
+
+      /** @return false if the line is blank. */
+      private boolean parseLine(int start, int end) throws IOException {
+          boolean blank = true;
+          for (int i = start; i < end; i++) {
+              if (this.text[i] != '\r') {
+                  blank = false;
+                  break;
+              }
+          }
+          if (blank) {
+              return false;
+          }
 
-      int nrecbytes = 0;
-      for (int i = 0; i < numFields ; i++) {
-          nrecbytes += typeAr[i].getLen();
-      }
-      int nrecords = (npagebytes * 8) /  (nrecbytes * 8 + 1);  //floor comes for free
-      
-    //  per record, we need one bit; there are nrecords per page, so we need
-    // nrecords bits, i.e., ((nrecords/32)+1) integers.
-    int nheaderbytes = (nrecords / 8);
-    if (nheaderbytes * 8 < nrecords)
-        nheaderbytes++;  //ceiling
-    int nheaderbits = nheaderbytes * 8;
-
-    BufferedReader br = new BufferedReader(new FileReader(inFile));
-    FileOutputStream os = new FileOutputStream(outFile);
-
-    // our numbers probably won't be much larger than 1024 digits
-    char buf[] = new char[1024];
-
-    int curpos = 0;
-    int recordcount = 0;
-    int npages = 0;
-    int fieldNo = 0;
-
-    ByteArrayOutputStream headerBAOS = new ByteArrayOutputStream(nheaderbytes);
-    DataOutputStream headerStream = new DataOutputStream(headerBAOS);
-    ByteArrayOutputStream pageBAOS = new ByteArrayOutputStream(npagebytes);
-    DataOutputStream pageStream = new DataOutputStream(pageBAOS);
-
-    boolean done = false;
-    boolean first = true;
-    while (!done) {
-        int c = br.read();
-        
-        // Ignore Windows/Notepad special line endings
-        if (c == '\r')
-            continue;
-
-        if (c == '\n') {
-            if (first)
-                continue;
-            recordcount++;
-            first = true;
-        } else
-            first = false;
-        if (c == fieldSeparator || c == '\n' || c == '\r') {
-            String s = new String(buf, 0, curpos);
-            if (typeAr[fieldNo] == Type.INT_TYPE) {
-                try {
-                    pageStream.writeInt(Integer.parseInt(s.trim()));
-                } catch (NumberFormatException e) {
-                    System.out.println ("BAD LINE : " + s);
-                }
-            }
-            else   if (typeAr[fieldNo] == Type.STRING_TYPE) {
-                s = s.trim();
-                int overflow = Type.STRING_LEN - s.length();
-                if (overflow < 0) {
-                    String news = s.substring(0,Type.STRING_LEN);
-                    s  = news;
-                }
-                pageStream.writeInt(s.length());
-                pageStream.writeBytes(s);
-                while (overflow-- > 0)
-                    pageStream.write((byte)0);
-            }
-            curpos = 0;
-            if (c == '\n')
-                fieldNo = 0;
-            else
-                fieldNo++;
-            
-        } else if (c == -1) {
-            done = true;
-            
-        } else {
-            buf[curpos++] = (char)c;
-            continue;
-        }
-        
-        // if we wrote a full page of records, or if we're done altogether,
-        // write out the header of the page.
-        //
-        // in the header, write a 1 for bits that correspond to records we've
-        // written and 0 for empty slots.
-        //
-        // when we're done, also flush the page to disk, but only if it has
-        // records on it.  however, if this file is empty, do flush an empty
-        // page to disk.
-        if (recordcount >= nrecords
-            || done && recordcount > 0
-            || done && npages == 0) {
-            int i = 0;
-            byte headerbyte = 0;
-            
-            for (i=0; i<nheaderbits; i++) {
-                if (i < recordcount)
-                    headerbyte |= (1 << (i % 8));
-                
-                if (((i+1) % 8) == 0) {
-                    headerStream.writeByte(headerbyte);
-                    headerbyte = 0;
-                }
-            }
-            
-            if (i % 8 > 0)
-                headerStream.writeByte(headerbyte);
-            
-            // pad the rest of the page with zeroes
-            
-            for (i=0; i<(npagebytes - (recordcount * nrecbytes + nheaderbytes)); i++)
-                pageStream.writeByte(0);
-            
-            // write header and body to file
-            headerStream.flush();
-            headerBAOS.writeTo(os);
-            pageStream.flush();
-            pageBAOS.writeTo(os);
-            
-            // reset header and body for next page
-            headerBAOS = new ByteArrayOutputStream(nheaderbytes);
-            headerStream = new DataOutputStream(headerBAOS);
-            pageBAOS = new ByteArrayOutputStream(npagebytes);
-            pageStream = new DataOutputStream(pageBAOS);
-            
-            recordcount = 0;
-            npages++;
-        }
-    }
-    br.close();
-    os.close();
+          if (this.outPos + this.nrecbytes > this.out.length) {
+              byte[] bigger = new byte[this.out.length * 2];
+              System.arraycopy(this.out, 0, bigger, 0, this.outPos);
+              this.out = bigger;
+          }
+
+          int fieldStart = start;
+          for (int f = 0; f < this.types.length; f++) {
+              int fieldEnd = fieldStart;
+              while (fieldEnd < end && this.text[fieldEnd] != this.separator) {
+                  fieldEnd++;
+              }
+              boolean last = f == this.types.length - 1;
+              if ((fieldEnd == end) != last) {
+                  throw new IOException("Malformed line at byte " + (this.fileOffset + start)
+                          + ": expected " + this.types.length + " fields: "
+                          + new String(this.text, start, end - start).trim());
+              }
+              if (this.types[f] == Type.INT_TYPE) {
+                  this.writeInt(fieldStart, fieldEnd);
+              } else {
+                  this.writeString(fieldStart, fieldEnd);
+              }
+              fieldStart = fieldEnd + 1;
+          }
+          return true;
+      }
+
+      private void writeInt(int start, int end) {
+          // trim spaces and carriage returns
+          while (start < end && (this.text[start] <= ' ')) {
+              start++;
+          }
+          while (end > start && (this.text[end - 1] <= ' ')) {
+              end--;
+          }
+
+          int i = start;
+          boolean negative = false;
+          if (i < end && (this.text[i] == '-' || this.text[i] == '+')) {
+              negative = this.text[i] == '-';
+              i++;
+          }
+          long value = 0;
+          boolean valid = i < end && end - i <= 10;
+          for (; valid && i < end; i++) {
+              int d = this.text[i] - '0';
+              if (d < 0 || d > 9) {
+                  valid = false;
+              }
+              value = value * 10 + d;
+          }
+          if (negative) {
+              value = -value;
+          }
+          if (!valid || value > Integer.MAX_VALUE || value < Integer.MIN_VALUE) {
+              System.out.println("BAD LINE : " + new String(this.text, start, end - start));
+              value = 0;
+          }
+
+          int v = (int) value;
+          this.out[this.outPos++] = (byte) (v >>> 24);
+          this.out[this.outPos++] = (byte) (v >>> 16);
+          this.out[this.outPos++] = (byte) (v >>> 8);
+          this.out[this.outPos++] = (byte) v;
+      }
+
+      private void writeString(int start, int end) {
+          // same encoding as StringField.serialize
+          String s = new String(this.text, start, end - start).replace("\r", "").trim();
+          if (s.length() > Type.STRING_LEN) {
+              s = s.substring(0, Type.STRING_LEN);
+          }
+          int len = s.length();
+          this.out[this.outPos++] = (byte) (len >>> 24);
+          this.out[this.outPos++] = (byte) (len >>> 16);
+          this.out[this.outPos++] = (byte) (len >>> 8);
+          this.out[this.outPos++] = (byte) len;
+          for (int i = 0; i < Type.STRING_LEN; i++) {
+              this.out[this.outPos++] = i < len ? (byte) s.charAt(i) : 0;
+          }
+      }
+  }
+
+  /**
+   * Packs records into pages, in the order they are added, and writes the
+   * pages sequentially to the output file.
+   */
+  private static class PageWriter {
+      final int npagebytes;
+      final int nrecbytes;
+      final int nrecords; // records per page.
+      final int nheaderbytes;
+
+      private final FileChannel out;
+      private final ByteBuffer batch;
+      private int pagesInBatch;
+      private int recordsInPage;
+      private long pagesWritten;
+
+      PageWriter(File outFile, int npagebytes, Type[] typeAr) throws IOException {
+          int n = 0;
+          for (Type t : typeAr) {
+              n += t.getLen();
+          }
+          this.npagebytes = npagebytes;
+          this.nrecbytes = n;
+          this.nrecords = (npagebytes * 8) / (n * 8 + 1); //floor comes for free
+          this.nheaderbytes = (this.nrecords + 7) / 8;
+          this.out = new FileOutputStream(outFile).getChannel();
+          this.batch = ByteBuffer.allocateDirect(WRITE_BATCH_PAGES * npagebytes);
+      }
+
+      void addRecords(Records r) throws IOException {
+          this.addRecords(r.data, r.count);
+      }
+
+      void addRecords(byte[] records, int count) throws IOException {
+          int done = 0;
+          while (done < count) {
+              int page = this.pagesInBatch * this.npagebytes;
+              if (this.recordsInPage == 0) {
+                  this.clearPage(page);
+              }
+              int n = Math.min(count - done, this.nrecords - this.recordsInPage);
+
+              ByteBuffer body = this.batch.duplicate();
+              body.position(page + this.nheaderbytes + this.recordsInPage * this.nrecbytes);
+              body.put(records, done * this.nrecbytes, n * this.nrecbytes);
+              for (int slot = this.recordsInPage; slot < this.recordsInPage + n; slot++) {
+                  int h = page + slot / 8;
+                  this.batch.put(h, (byte) (this.batch.get(h) | (1 << (slot % 8))));
+              }
+
+              done += n;
+              this.recordsInPage += n;
+              if (this.recordsInPage == this.nrecords) {
+                  this.finishPage();
+              }
+          }
+      }
+
+      private void clearPage(int page) {
+          for (int i = page; i < page + this.npagebytes; i++) {
+              this.batch.put(i, (byte) 0);
+          }
+      }
+
+      private void finishPage() throws IOException {
+          this.recordsInPage = 0;
+          if (++this.pagesInBatch == WRITE_BATCH_PAGES) {
+              this.writeBatch();
+          }
+      }
+
+      private void writeBatch() throws IOException {
+          ByteBuffer buf = this.batch.duplicate();
+          buf.position(0);
+          buf.limit(this.pagesInBatch * this.npagebytes);
+          while (buf.hasRemaining()) {
+              this.out.write(buf);
+          }
+          this.pagesWritten += this.pagesInBatch;
+          this.pagesInBatch = 0;
+      }
+
+      /**
+       * Writes the last, partly filled page and closes the file. An empty
+       * input still produces one empty page.
+       */
+      void close() throws IOException {
+          try {
+              if (this.recordsInPage > 0) {
+                  this.finishPage();
+              } else if (this.pagesWritten == 0 && this.pagesInBatch == 0) {
+                  this.clearPage(0);
+                  this.finishPage();
+              }
+              this.writeBatch();
+          } finally {
+              this.out.close();
+          }
+      }
   }
 }
@@ -10,8 +10,13 @@ public class HeapFileIterator implements DbFileIterator {
     private HeapFile file;
 
     private int currentPageNumber;
+    private HeapPageId currentPageId; // pinned while the iterator is on it.
     private Iterator<Tuple> currentPageIterator;
+    private HeapPage currentPage;
+    private TupleView currentView; // for nextBatch and next(p); created on first use per page.
     private BufferPool buffer;
+    private ScanRing ring; // private frames for scans of large tables, or null.
+    private ReadAhead readAhead;
     private int numPages;
 
     public HeapFileIterator(TransactionId tid, HeapFile file) {
@@ -27,14 +32,48 @@ public class HeapFileIterator implements DbFileIterator {
      */
     @Override
     public void open() throws DbException, TransactionAbortedException {
+        this.start();
+    }
+
+    // Helper method to start reading from the first page, with a new scan
+    // ring if the last one was released.
+    private void start() throws TransactionAbortedException, DbException {
+        if (this.ring == null) {
+            this.ring = this.buffer.newScanRing(this.tid, this.numPages);
+        }
+        this.readAhead = new ReadAhead(this.buffer, this.file.getId(), this.numPages, this.ring);
         this.currentPageNumber = 0;
         this.setCurrentPageIterator();
     }
 
     private void setCurrentPageIterator() throws TransactionAbortedException, DbException {
-        HeapPageId currentPageId = new HeapPageId(this.file.getId(), this.currentPageNumber);
-        HeapPage currentPage = (HeapPage) this.buffer.getPage(this.tid, currentPageId, Permissions.READ_WRITE);
+        this.releaseCurrentPage();
+        HeapPageId pageId = new HeapPageId(this.file.getId(), this.currentPageNumber);
+        HeapPage currentPage = (HeapPage) this.buffer.pinPage(
+                this.tid, pageId, Permissions.READ_ONLY, this.ring);
+        this.currentPageId = pageId;
+        this.currentPage = currentPage;
+        this.currentView = null;
         this.currentPageIterator = currentPage.iterator();
+        this.readAhead.access(this.currentPageNumber);
+    }
+
+    // Helper method to unpin the page the iterator is currently on.
+    private void releaseCurrentPage() {
+        if (this.currentPageId != null) {
+            this.buffer.unpinPage(this.tid, this.currentPageId);
+            this.currentPageId = null;
+        }
+    }
+
+    // Helper method to give back the current page and the scan ring once
+    // the iterator has run out or is closed.
+    private void finish() {
+        this.releaseCurrentPage();
+        if (this.ring != null) {
+            this.buffer.releaseScanRing(this.ring);
+            this.ring = null;
+        }
     }
 
     /** @return true if there are more tuples available. */
@@ -49,6 +88,7 @@ public class HeapFileIterator implements DbFileIterator {
             this.setCurrentPageIterator();
             return this.hasNext();
         } else {
+            this.finish();
             return false;
         }
     }
@@ -69,14 +109,67 @@ public class HeapFileIterator implements DbFileIterator {
         }
     }
 
+    /**
+     * Reads the next tuples into batch, until it is full or the file ends,
+     * straight from the bytes of the pages. Use either this, next(p), or
+     * hasNext and next after opening or rewinding the iterator.
+     *
+     * @return false if there were no more tuples
+     */
+    boolean nextBatch(TupleBatch batch) throws DbException, TransactionAbortedException {
+        batch.clear();
+        while (this.currentPageIterator != null && !batch.isFull()) {
+            if (this.currentView == null) {
+                this.currentView = this.currentPage.tupleView();
+            }
+            if (this.currentView.readInto(batch)) {
+                break; // full
+            }
+            this.nextPage();
+        }
+        return batch.size() > 0;
+    }
+
+    /**
+     * Returns the next tuple that passes p. Tuples are tested on the bytes
+     * of the pages, and only those that pass are materialized.
+     *
+     * @return the tuple, or null if there are no more tuples that pass
+     * @see #nextBatch
+     */
+    Tuple next(CompiledPredicate p) throws DbException, TransactionAbortedException {
+        while (this.currentPageIterator != null) {
+            if (this.currentView == null) {
+                this.currentView = this.currentPage.tupleView();
+            }
+            while (this.currentView.next()) {
+                if (p.matches(this.currentView)) {
+                    return this.currentView.toTuple();
+                }
+            }
+            this.nextPage();
+        }
+        return null;
+    }
+
+    // Helper method to move nextBatch and next(p) to the next page, or past the end.
+    private void nextPage() throws DbException, TransactionAbortedException {
+        if (this.currentPageNumber >= this.numPages - 1) {
+            this.finish();
+            this.currentPageIterator = null;
+        } else {
+            this.currentPageNumber++;
+            this.setCurrentPageIterator();
+        }
+    }
+
     /**
      * Resets the iterator to the start.
      * @throws DbException When rewind is unsupported.
      */
     @Override
     public void rewind() throws DbException, TransactionAbortedException {
-        this.currentPageNumber = 0;
-        this.setCurrentPageIterator();
+        this.start();
     }
 
     /**
@@ -84,6 +177,9 @@ public class HeapFileIterator implements DbFileIterator {
      */
     @Override
     public void close() {
+        this.finish();
         this.currentPageIterator = null;
+        this.currentPage = null;
+        this.currentView = null;
     }
 }
\ No newline at end of file
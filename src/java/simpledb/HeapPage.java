@@ -2,7 +2,7 @@ package simpledb;
 
 import java.util.*;
 import java.io.*;
-import java.math.*;
+import java.nio.ByteBuffer;
 
 /**
  * Each instance of HeapPage stores data for one page of HeapFiles and 
@@ -16,12 +16,27 @@ public class HeapPage implements Page {
 
     HeapPageId pid;
     TupleDesc td;
-    byte header[];
-    Tuple tuples[];
     int numSlots;
+    int headerSize;
     TransactionId dirtyTid;
 
-    byte[] oldData;
+    // The raw page: header bytes followed by the tuple slots. Tuples are
+    // decoded from it when their slot is first read, and inserts write
+    // their fields straight into it, so the buffer is always the current
+    // on-disk image of the page. May be a frame of an off-heap BufferPool;
+    // see detach().
+    volatile ByteBuffer data;
+    Tuple tuples[]; // decoded tuples by slot; allocated on first use.
+
+    // The page as it was at the last setBeforeImage(), or null if it has
+    // not been modified since. Copied on the first write after
+    // setBeforeImage(), so reading a page costs no copy. Volatile so that
+    // snapshot readers can tell whether a writer started meanwhile.
+    volatile byte[] oldData;
+
+    // The page as it was last logged, or null if it has not been logged
+    // since setBeforeImage(); see getLoggedImage().
+    byte[] loggedData;
 
     /**
      * Create a HeapPage from a set of bytes of data read from disk.
@@ -35,40 +50,49 @@ public class HeapPage implements Page {
      * <p>
      *      ceiling(no. tuple slots / 8)
      * <p>
+     * The page keeps its own copy of data; see
+     * {@link #HeapPage(HeapPageId, ByteBuffer)} to create a page without
+     * copying.
+     *
      * @see Database#getCatalog
      * @see Catalog#getTupleDesc
      * @see BufferPool#PAGE_SIZE
      */
     public HeapPage(HeapPageId id, byte[] data) throws IOException {
+        this(id, ByteBuffer.wrap(data.clone()));
+    }
+
+    /**
+     * Create a HeapPage over a buffer holding the bytes of the page, in the
+     * format described in {@link #HeapPage(HeapPageId, byte[])}. The page
+     * takes ownership of the buffer: nothing is copied or decoded up front,
+     * and later changes to the page are written into the buffer.
+     *
+     * @param data a buffer of {@link BufferPool#PAGE_SIZE} bytes, starting
+     *            at position 0.
+     */
+    public HeapPage(HeapPageId id, ByteBuffer data) {
+        if (data.capacity() != BufferPool.PAGE_SIZE) {
+            throw new IllegalArgumentException("Page data must be " + BufferPool.PAGE_SIZE + " bytes");
+        }
         this.pid = id;
         this.td = Database.getCatalog().getTupleDesc(id.getTableId());
         this.numSlots = getNumTuples();
-        DataInputStream dis = new DataInputStream(new ByteArrayInputStream(data));
-
-        // allocate and read the header slots of this page
-        header = new byte[getHeaderSize()];
-        for (int i=0; i<header.length; i++)
-            header[i] = dis.readByte();
-
-        try{
-            // allocate and read the actual records of this page
-            tuples = new Tuple[numSlots];
-            for (int i=0; i<tuples.length; i++)
-                tuples[i] = readNextTuple(dis,i);
-        }catch(NoSuchElementException e){
-            e.printStackTrace();
-        }
-        dis.close();
-
-        setBeforeImage();
+        this.headerSize = getHeaderSize();
+        this.data = data;
     }
 
     /** Retrieve the number of tuples on this page.
         @return the number of tuples on this page
     */
-    private int getNumTuples() {
+    int getNumTuples() {
         // some code goes here
-        int tupleSize = this.td.getSize();
+        return numSlots(this.td);
+    }
+
+    /** @return the number of tuple slots on a page of tuples of type td. */
+    static int numSlots(TupleDesc td) {
+        int tupleSize = td.getSize();
         int result = (int) Math.floor(((BufferPool.PAGE_SIZE * 8.0) / (tupleSize * 8.0 + 1.0)));
         return result;
     }
@@ -77,27 +101,89 @@ public class HeapPage implements Page {
      * Computes the number of bytes in the header of a page in a HeapFile with each tuple occupying tupleSize bytes
      * @return the number of bytes in the header of a page in a HeapFile with each tuple occupying tupleSize bytes
      */
-    private int getHeaderSize() {
+    int getHeaderSize() {
         // some code goes here
-        int result = (int) Math.ceil(this.numSlots / 8.0);
+        return headerSize(this.numSlots);
+    }
+
+    /** @return the number of header bytes on a page with numSlots slots. */
+    static int headerSize(int numSlots) {
+        int result = (int) Math.ceil(numSlots / 8.0);
         return result;            
     }
     
     /** Return a view of this page before it was modified
         -- used by recovery */
     public HeapPage getBeforeImage(){
-        try {
-            return new HeapPage(pid,oldData);
-        } catch (IOException e) {
-            e.printStackTrace();
-            //should never happen -- we parsed it OK before!
-            System.exit(1);
-        }
-        return null;
+        byte[] before = this.oldData != null ? this.oldData.clone() : this.getPageData();
+        return new HeapPage(pid, ByteBuffer.wrap(before));
     }
     
     public void setBeforeImage() {
-        oldData = getPageData().clone();
+        oldData = null;
+        loggedData = null;
+    }
+
+    /**
+     * @return the page as it was last logged, or else its before image:
+     *         the image the next log record of the page changes, so that
+     *         the records of a page redo and undo one after the other.
+     */
+    HeapPage getLoggedImage() {
+        byte[] logged = this.loggedData;
+        if (logged == null) {
+            return this.getBeforeImage();
+        }
+        return new HeapPage(pid, ByteBuffer.wrap(logged.clone()));
+    }
+
+    /** Remembers the current contents of the page as logged. */
+    void setLoggedImage() {
+        this.loggedData = this.getPageData();
+    }
+
+    /** @return true if the page was logged and is unchanged since. */
+    boolean isLogged() {
+        byte[] logged = this.loggedData;
+        if (logged == null) {
+            return false;
+        }
+        ByteBuffer current = this.data.duplicate();
+        current.clear();
+        return current.equals(ByteBuffer.wrap(logged));
+    }
+
+    /**
+     * @return a copy of the page as of the last setBeforeImage(), taken
+     *         without locks while a writer may be changing the page.
+     */
+    byte[] getCommittedData() {
+        byte[] old = this.oldData;
+        if (old == null) {
+            // a writer saves the before image before its first change, so
+            // if there still is none the copy was not written into.
+            byte[] current = this.getPageData();
+            old = this.oldData;
+            if (old == null) {
+                return current;
+            }
+        }
+        return old.clone();
+    }
+
+    /**
+     * @return the before image if the page was changed since the last
+     *         setBeforeImage(), or null.
+     */
+    byte[] getChangedBeforeImage() {
+        return this.oldData;
+    }
+
+    /** Saves the before image, if needed, ahead of a change to the page. */
+    private void beforeWrite() {
+        if (this.oldData == null) {
+            this.oldData = this.getPageData();
+        }
     }
 
     /**
@@ -108,37 +194,39 @@ public class HeapPage implements Page {
         return this.pid;
     }
 
+    /** @return the offset in the page of the specified tuple slot. */
+    private int slotOffset(int slotId) {
+        return this.headerSize + slotId * this.td.getSize();
+    }
+
     /**
-     * Suck up tuples from the source file.
+     * Returns the tuple in the specified slot, decoding it from the page
+     * data the first time it is read. Tuples of pages in direct memory are
+     * decoded on every read instead, so that resident off-heap pages keep
+     * nothing on the Java heap.
      */
-    private Tuple readNextTuple(DataInputStream dis, int slotId) throws NoSuchElementException {
-        // if associated bit is not set, read forward to the next tuple, and
-        // return null.
-        if (!isSlotUsed(slotId)) {
-            for (int i=0; i<td.getSize(); i++) {
-                try {
-                    dis.readByte();
-                } catch (IOException e) {
-                    throw new NoSuchElementException("error reading empty tuple");
-                }
-            }
-            return null;
+    Tuple getTuple(int slotId) {
+        Tuple[] cache = this.tuples;
+        if (cache == null && !this.data.isDirect()) {
+            cache = this.tuples = new Tuple[this.numSlots];
+        }
+        Tuple t = cache != null ? cache[slotId] : null;
+        if (t != null) {
+            return t;
         }
 
         // read fields in the tuple
-        Tuple t = new Tuple(td);
-        RecordId rid = new RecordId(pid, slotId);
-        t.setRecordId(rid);
-        try {
-            for (int j=0; j<td.numFields(); j++) {
-                Field f = td.getFieldType(j).parse(dis);
-                t.setField(j, f);
-            }
-        } catch (java.text.ParseException e) {
-            e.printStackTrace();
-            throw new NoSuchElementException("parsing error!");
+        t = new Tuple(td);
+        t.setRecordId(new RecordId(pid, slotId));
+        int offset = slotOffset(slotId);
+        for (int j=0; j<td.numFields(); j++) {
+            Type type = td.getFieldType(j);
+            t.setField(j, type.parse(this.data, offset));
+            offset += type.getLen();
+        }
+        if (cache != null) {
+            cache[slotId] = t;
         }
-
         return t;
     }
 
@@ -154,64 +242,43 @@ public class HeapPage implements Page {
      * @return A byte array correspond to the bytes of this page.
      */
     public byte[] getPageData() {
-        int len = BufferPool.PAGE_SIZE;
-        ByteArrayOutputStream baos = new ByteArrayOutputStream(len);
-        DataOutputStream dos = new DataOutputStream(baos);
-
-        // create the header of the page
-        for (int i=0; i<header.length; i++) {
-            try {
-                dos.writeByte(header[i]);
-            } catch (IOException e) {
-                // this really shouldn't happen
-                e.printStackTrace();
-            }
-        }
-
-        // create the tuples
-        for (int i=0; i<tuples.length; i++) {
-
-            // empty slot
-            if (!isSlotUsed(i)) {
-                for (int j=0; j<td.getSize(); j++) {
-                    try {
-                        dos.writeByte(0);
-                    } catch (IOException e) {
-                        e.printStackTrace();
-                    }
-
-                }
-                continue;
-            }
-
-            // non-empty slot
-            for (int j=0; j<td.numFields(); j++) {
-                Field f = tuples[i].getField(j);
-                try {
-                    f.serialize(dos);
-                
-                } catch (IOException e) {
-                    e.printStackTrace();
-                }
-            }
-        }
+        byte[] bytes = new byte[BufferPool.PAGE_SIZE];
+        ByteBuffer buf = this.data.duplicate();
+        buf.clear();
+        buf.get(bytes);
+        return bytes;
+    }
 
-        // padding
-        int zerolen = BufferPool.PAGE_SIZE - (header.length + td.getSize() * tuples.length); //- numSlots * td.getSize();
-        byte[] zeroes = new byte[zerolen];
-        try {
-            dos.write(zeroes, 0, zerolen);
-        } catch (IOException e) {
-            e.printStackTrace();
-        }
+    /**
+     * Moves the bytes of this page to the Java heap. Called by an off-heap
+     * BufferPool when it evicts the page, before it reuses the page's frame
+     * for another page, so that callers still holding this page keep
+     * seeing its contents. Takes the page's monitor, as record writers
+     * change the page under it.
+     */
+    synchronized void detach() {
+        this.data = ByteBuffer.wrap(this.getPageData());
+    }
 
-        try {
-            dos.flush();
-        } catch (IOException e) {
-            e.printStackTrace();
-        }
+    /**
+     * Returns a flyweight cursor over the tuples of this page, which reads
+     * fields without decoding whole tuples.
+     *
+     * @see TupleView
+     */
+    public TupleView tupleView() {
+        return new TupleView(this, this.td);
+    }
 
-        return baos.toByteArray();
+    /**
+     * Returns a read-only view of the bytes of this page, positioned at 0.
+     * Unlike {@link #getPageData}, nothing is copied, so the view changes
+     * with the page.
+     */
+    public ByteBuffer getPageBuffer() {
+        ByteBuffer buf = this.data.asReadOnlyBuffer();
+        buf.clear();
+        return buf;
     }
 
     /**
@@ -247,7 +314,15 @@ public class HeapPage implements Page {
             throw new DbException("Tuple slot is already empty!");
         }
 
+        beforeWrite();
         markSlotUsed(tupleNo, false);
+        int offset = slotOffset(tupleNo);
+        for (int j = 0; j < td.getSize(); j++) {
+            this.data.put(offset + j, (byte) 0);
+        }
+        if (this.tuples != null) {
+            this.tuples[tupleNo] = null;
+        }
         t.setRecordId(null);
     }
 
@@ -265,18 +340,77 @@ public class HeapPage implements Page {
             throw new DbException("This page is full!");
         } 
 
+        for (int i = 0; i < numSlots; i++) {
+            if (!isSlotUsed(i)) {
+                insertTuple(t, i);
+                break;
+            }
+        }
+    }
+
+    /**
+     * Adds the specified tuple to the page in the specified slot, which
+     * must be empty. Used when the slot of a tuple matters, as when record
+     * locks decide which slots are free to take.
+     * @throws DbException if the slot is in use or tupledesc is mismatch.
+     */
+    void insertTuple(Tuple t, int slot) throws DbException {
+        if (isSlotUsed(slot)) {
+            throw new DbException("Tuple slot is already in use!");
+        }
+
         if (!this.td.equals(t.getTupleDesc())) {
             throw new DbException("TupleDesc mismatch!");
         }
 
-        for (int i = 0; i < tuples.length; i++) {
-            if (!isSlotUsed(i)) {
-                markSlotUsed(i, true);
-                tuples[i] = t;
-                t.setRecordId(new RecordId(this.pid, i));
-                break;
-            }
+        beforeWrite();
+        markSlotUsed(slot, true);
+        int offset = slotOffset(slot);
+        for (int j = 0; j < td.numFields(); j++) {
+            Type type = td.getFieldType(j);
+            type.write(t.getField(j), this.data, offset);
+            offset += type.getLen();
+        }
+        if (this.tuples != null) {
+            tuples[slot] = t;
+        }
+        t.setRecordId(new RecordId(this.pid, slot));
+    }
+
+    /**
+     * @return a copy of the bytes of a slot, or null if the slot is empty.
+     */
+    byte[] getSlotImage(int slot) {
+        if (!isSlotUsed(slot)) {
+            return null;
+        }
+        byte[] image = new byte[td.getSize()];
+        int offset = slotOffset(slot);
+        for (int j = 0; j < image.length; j++) {
+            image[j] = this.data.get(offset + j);
         }
+        return image;
+    }
+
+    /**
+     * Sets the bytes of a slot, as recovery replays a logged change to it,
+     * or empties the slot if image is null.
+     */
+    void setSlotImage(int slot, byte[] image) {
+        beforeWrite();
+        markSlotUsed(slot, image != null);
+        int offset = slotOffset(slot);
+        for (int j = 0; j < td.getSize(); j++) {
+            this.data.put(offset + j, image != null ? image[j] : 0);
+        }
+        if (this.tuples != null) {
+            this.tuples[slot] = null;
+        }
+    }
+
+    /** @return the size in bytes of a slot of this page. */
+    int getSlotSize() {
+        return td.getSize();
     }
 
     /**
@@ -307,12 +441,15 @@ public class HeapPage implements Page {
      */
     public int getNumEmptySlots() {
         // some code goes here
-        int count = 0;
-        for (int i = 0; i < this.getNumTuples(); i++) {
-            if (!isSlotUsed(i)) {count++;}
+        int used = 0;
+        for (int i = 0; i < numSlots / 8; i++) {
+            used += Integer.bitCount(this.data.get(i) & 0xff);
+        }
+        for (int i = numSlots - numSlots % 8; i < numSlots; i++) {
+            if (isSlotUsed(i)) {used++;}
         }
 
-        return count;
+        return numSlots - used;
     }
 
     /**
@@ -323,7 +460,7 @@ public class HeapPage implements Page {
         int index = i/8;
         int offset = i%8;
         byte mask = (byte)(1 << offset);
-        return (header[index] & mask) != 0;
+        return (this.data.get(index) & mask) != 0;
     }
 
     /**
@@ -335,10 +472,11 @@ public class HeapPage implements Page {
         int index = i/8;
         int offset = i%8;
         byte mask = (byte)(1 << offset);
+        byte header = this.data.get(index);
         if (value) {
-            header[index] = (byte) (header[index]|mask);
+            this.data.put(index, (byte) (header|mask));
         } else {
-            header[index] = (byte) (header[index]&(~mask));
+            this.data.put(index, (byte) (header&(~mask)));
         }
     }
 
@@ -348,42 +486,37 @@ public class HeapPage implements Page {
      */
     public Iterator<Tuple> iterator() {
         // some code goes here
-        List<Tuple> validTuples = this.getValidTupleList();
-        return new TupleIterator<Tuple>(validTuples.iterator());
+        return new TupleIterator();
     }
 
-
     /**
-     * Helper method to return valid tuple as a list, for iterator use.
-     * @return valid tuples as a list.
-     */
-    private List<Tuple> getValidTupleList() {
-        List<Tuple> validTuples = new ArrayList<Tuple>();
-        for (int i = 0; i < tuples.length; i++) {
-            if (isSlotUsed(i)) { validTuples.add(tuples[i]); }
-        }
-        return validTuples;
-    }
-
-    /**
-     * Auxiliary class to implement iterator for the iterator function in HeapPage class.
+     * Auxiliary class to implement iterator for the iterator function in
+     * HeapPage class. Tuples are decoded as the iterator reaches them.
      */  
-    private class TupleIterator<Tuple> implements Iterator<Tuple> {
+    private class TupleIterator implements Iterator<Tuple> {
 
-        private Iterator<Tuple> tIterator;
+        private int next = nextUsedSlot(0);
 
-        public TupleIterator(Iterator<Tuple> tIterator) {
-            this.tIterator = tIterator;
+        private int nextUsedSlot(int from) {
+            while (from < numSlots && !isSlotUsed(from)) {
+                from++;
+            }
+            return from;
         }
 
         @Override
         public boolean hasNext() {
-            return this.tIterator.hasNext();
+            return this.next < numSlots;
         }
 
         @Override
         public Tuple next() {
-            return this.tIterator.next();
+            if (!hasNext()) {
+                throw new NoSuchElementException();
+            }
+            Tuple t = getTuple(this.next);
+            this.next = nextUsedSlot(this.next + 1);
+            return t;
         }
 
         @Override
@@ -393,4 +526,3 @@ public class HeapPage implements Page {
 
     }
 }
-
@@ -16,9 +16,10 @@ public class IntegerAggregator implements Aggregator {
     private String afieldName; // Used when build TupleDesc.
     private String gbfieldName; // Used when build TupleDesc.
 
-    private Map<Field, Field> aggregates;
-    private Map<Field, Integer> countMap;
-    private Map<Field, Integer> sumMap;
+    // count, sum, min and max of the aggregate field in each group, from
+    // which every Op's result follows.
+    private Map<Field, int[]> groups;
+    private static final int COUNT = 0, SUM = 1, MIN = 2, MAX = 3;
 
     /**
      * Aggregate constructor
@@ -41,11 +42,7 @@ public class IntegerAggregator implements Aggregator {
         this.gbfieldtype = gbfieldtype;
         this.afield = afield;
         this.what = what;
-        this.aggregates = new HashMap<Field, Field>();
-        if (what == Op.AVG) {
-            this.countMap = new HashMap<Field, Integer>();
-            this.sumMap = new HashMap<Field, Integer>();
-        }
+        this.groups = new HashMap<Field, int[]>();
     }
 
     /**
@@ -65,87 +62,99 @@ public class IntegerAggregator implements Aggregator {
             this.gbfieldName = tup.getTupleDesc().getFieldName(gbfield);
             key = tup.getField(gbfield);
         }
-    
-        IntField value = (IntField) aggregates.get(key);
-        IntField currentAggValue = (IntField) tup.getField(afield);
-
-        switch (what) {
-            case COUNT: this.handleCount(key, value, currentAggValue); break;
-            case SUM: this.handleSUM(key, value, currentAggValue); break;
-            case AVG: this.handleAVG(key, value, currentAggValue); break;
-            case MIN: this.handleMIN(key, value, currentAggValue); break;
-            case MAX: this.handleMAX(key, value, currentAggValue); break;
-            default: 
-                throw new IllegalStateException("Wrong Op type in IntegerAggregator!"); 
-        }
+        merge(this.group(key), ((IntField) tup.getField(afield)).getValue());
     }
 
-    private void handleCount (Field key, IntField value, IntField currentAggValue) {
-        int count;
-        if (value == null) {
-            count = 1;
-        } else {
-            count = value.getValue()+1;
+    /**
+     * Merges the selected rows of a batch into their groups. Without
+     * grouping the rows are folded in a single loop; with grouping, runs
+     * of rows with the same group share one lookup.
+     */
+    public void mergeBatchIntoGroups(TupleBatch batch) {
+        int n = batch.size();
+        if (n == 0) {
+            return;
         }
-
-        aggregates.put(key, new IntField(count));
-    }    
-
-    private void handleSUM (Field key, IntField value, IntField currentAggValue) {
-        int sum;
-
-        if (value == null) {
-            sum = currentAggValue.getValue();
-        } else {
-            sum = value.getValue() + currentAggValue.getValue();
+        TupleDesc td = batch.getTupleDesc();
+        this.afieldName = td.getFieldName(afield);
+        int[] values = batch.getInts(afield);
+        int[] sel = batch.selection();
+        if (this.gbfield == NO_GROUPING) {
+            int[] acc = this.group(new IntField(NO_GROUPING));
+            int sum = acc[SUM], min = acc[MIN], max = acc[MAX];
+            for (int i = 0; i < n; i++) {
+                int v = values[sel[i]];
+                sum += v;
+                min = Math.min(min, v);
+                max = Math.max(max, v);
+            }
+            acc[COUNT] += n;
+            acc[SUM] = sum;
+            acc[MIN] = min;
+            acc[MAX] = max;
+            return;
         }
 
-        aggregates.put(key, new IntField(sum));
-    }
-
-    private void handleAVG (Field key, IntField value, IntField currentAggValue) {
-        int count;
-        int sum;
-        int avg;
-
-        if (value == null) {
-            avg = currentAggValue.getValue();
-            count = 1;
-            sum = avg;
+        this.gbfieldName = td.getFieldName(gbfield);
+        int[] acc = null;
+        if (td.getFieldType(gbfield) == Type.INT_TYPE) {
+            int[] keys = batch.getInts(gbfield);
+            int last = 0;
+            for (int i = 0; i < n; i++) {
+                int row = sel[i];
+                if (acc == null || keys[row] != last) {
+                    last = keys[row];
+                    acc = this.group(new IntField(last));
+                }
+                merge(acc, values[row]);
+            }
         } else {
-            sum = sumMap.get(key) + currentAggValue.getValue();
-            count = countMap.get(key) + 1;
-            avg = sum / count;
+            String[] keys = batch.getStrings(gbfield);
+            String last = null;
+            for (int i = 0; i < n; i++) {
+                int row = sel[i];
+                if (acc == null || !keys[row].equals(last)) {
+                    last = keys[row];
+                    acc = this.group(new StringField(last, Type.STRING_LEN));
+                }
+                merge(acc, values[row]);
+            }
         }
-
-        sumMap.put(key, sum);
-        countMap.put(key, count);
-        aggregates.put(key, new IntField(avg));
     }
 
-    private void handleMIN (Field key, IntField value, IntField currentAggValue) {
-        int min;
-
-        if (value == null) {
-            min = currentAggValue.getValue();
-        } else {
-            min = Math.min(currentAggValue.getValue(), value.getValue());
+    // Helper method to return the state of a group, creating it if needed.
+    private int[] group(Field key) {
+        int[] acc = this.groups.get(key);
+        if (acc == null) {
+            acc = new int[] { 0, 0, Integer.MAX_VALUE, Integer.MIN_VALUE };
+            this.groups.put(key, acc);
         }
-
-        aggregates.put(key, new IntField(min));
+        return acc;
     }
 
-    private void handleMAX (Field key, IntField value, IntField currentAggValue) {
-        int max;
+    private static void merge(int[] acc, int v) {
+        acc[COUNT]++;
+        acc[SUM] += v;
+        acc[MIN] = Math.min(acc[MIN], v);
+        acc[MAX] = Math.max(acc[MAX], v);
+    }
 
-        if (value == null) {
-            max = currentAggValue.getValue();
-        } else {
-            max = Math.max(currentAggValue.getValue(), value.getValue());
+    // Helper method to compute the aggregate of a group, or null for a
+    // group that does not exist.
+    private Field result(int[] acc) {
+        if (acc == null) {
+            return null;
         }
-
-        aggregates.put(key, new IntField(max));
-    }    
+        switch (what) {
+            case COUNT: return new IntField(acc[COUNT]);
+            case SUM: return new IntField(acc[SUM]);
+            case AVG: return new IntField(acc[SUM] / acc[COUNT]);
+            case MIN: return new IntField(acc[MIN]);
+            case MAX: return new IntField(acc[MAX]);
+            default:
+                throw new IllegalStateException("Wrong Op type in IntegerAggregator!");
+        }
+    }
 
     /**
      * Create a DbIterator over group aggregate results.
@@ -162,14 +171,14 @@ public class IntegerAggregator implements Aggregator {
 
         if (this.gbfield == NO_GROUPING) {
             Tuple aggregateTuple = new Tuple(td);
-            aggregateTuple.setField(0, aggregates.get(new IntField(NO_GROUPING)));
+            aggregateTuple.setField(0, result(groups.get(new IntField(NO_GROUPING))));
 
             tupleList.add(aggregateTuple);
         } else {
-            for (Map.Entry<Field, Field> agg : aggregates.entrySet()) { 
+            for (Map.Entry<Field, int[]> agg : groups.entrySet()) { 
                 Tuple aggregateTuple = new Tuple(td);
                 aggregateTuple.setField(0, agg.getKey());
-                aggregateTuple.setField(1, agg.getValue());
+                aggregateTuple.setField(1, result(agg.getValue()));
 
                 tupleList.add(aggregateTuple);
             }
@@ -0,0 +1,641 @@
+package simpledb;
+
+import java.util.*;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.atomic.AtomicLong;
+import java.util.concurrent.locks.LockSupport;
+
+/**
+ * LockManager implements strict two-phase locking on behalf of
+ * transactions. Locks are held until they are released explicitly,
+ * normally when the transaction completes.
+ * <p>
+ * Locks can be taken on tables, pages and records, identified by
+ * {@link #tableKey}, {@link PageId} and {@link RecordId}. Besides shared
+ * (S) and exclusive (X) locks, the intention modes IS, IX and SIX let a
+ * transaction announce on a table or page that it locks some of the
+ * records below, so that transactions can lock different records of one
+ * page concurrently while whole-page locks still exclude them. A
+ * transaction that requests a mode on a resource it already holds is
+ * upgraded to the weakest mode covering both.
+ * <p>
+ * Lock state is kept per resource. Finding it and checking whether a
+ * transaction already holds a lock do not take any lock, so the common case
+ * of a transaction revisiting a page it has locked is cheap. Requests that
+ * conflict queue in arrival order on the resource, except that upgrades go
+ * first, and the waiting threads park until the lock is granted to them.
+ * <p>
+ * Deadlocks are found in the wait-for graph, whose edges lead from each
+ * waiting transaction to the transactions holding conflicting locks or
+ * queued ahead of it. The graph is searched for a cycle as soon as a
+ * request has to wait, and again by every waiter at a fixed interval, so a
+ * deadlock is broken within that interval at the latest. The youngest
+ * transaction of the cycle, the one with the largest id, is aborted, as it
+ * has likely done the least work.
+ * <p>
+ * Alternatively, a lock timeout can be set: then requests that wait longer
+ * than the timeout abort their transaction, and the graph is not searched.
+ * Timeouts are spread out randomly, so that transactions deadlocked on
+ * each other do not all give up at once.
+ *
+ * @see BufferPool
+ */
+class LockManager {
+
+    /** Lock modes, from weakest to strongest. */
+    enum Mode {
+        IS, IX, S, SIX, X;
+
+        private static final boolean[][] COMPATIBLE = {
+            //  IS     IX     S      SIX    X
+            { true,  true,  true,  true,  false }, // IS
+            { true,  true,  false, false, false }, // IX
+            { true,  false, true,  false, false }, // S
+            { true,  false, false, false, false }, // SIX
+            { false, false, false, false, false }, // X
+        };
+
+        /** @return true if two transactions may hold this and other at once. */
+        boolean isCompatibleWith(Mode other) {
+            return COMPATIBLE[this.ordinal()][other.ordinal()];
+        }
+
+        /** @return true if holding this mode grants everything other does. */
+        boolean covers(Mode other) {
+            switch (this) {
+            case X:
+                return true;
+            case SIX:
+                return other != X;
+            case S:
+                return other == S || other == IS;
+            case IX:
+                return other == IX || other == IS;
+            default:
+                return other == IS;
+            }
+        }
+
+        /** @return the weakest mode covering both this and other. */
+        Mode join(Mode other) {
+            if (this.covers(other)) {
+                return this;
+            }
+            if (other.covers(this)) {
+                return other;
+            }
+            return SIX; // S and IX
+        }
+    }
+
+    /** Interval at which waiting requests search for deadlocks again, in ms. */
+    static final long DETECTION_INTERVAL_MILLIS = 50;
+
+    private final ConcurrentHashMap<Object, LockState> locks;
+    private final ConcurrentHashMap<TransactionId, TransactionLocks> transactions;
+    private volatile long timeoutNanos; // 0 to detect deadlocks instead.
+    private final Random random;
+
+    // Serializes deadlock searches, so that two searches finding the same
+    // cycle agree on its victim.
+    private final Object detector;
+
+    LockManager() {
+        this.locks = new ConcurrentHashMap<Object, LockState>();
+        this.transactions = new ConcurrentHashMap<TransactionId, TransactionLocks>();
+        this.timeoutNanos = 0;
+        this.random = new Random();
+        this.detector = new Object();
+    }
+
+    /** @return the resource that stands for a whole table. */
+    static Object tableKey(int tableId) {
+        return new TableKey(tableId);
+    }
+
+    /**
+     * Sets the time a request waits for a lock before its transaction is
+     * aborted, instead of detecting deadlocks. A request waits between this
+     * time and twice this time. Zero turns deadlock detection back on.
+     */
+    void setTimeoutMillis(long millis) {
+        this.timeoutNanos = millis * 1000000L;
+    }
+
+    /**
+     * Acquires a lock on the specified resource for the specified
+     * transaction, waiting until no other transaction holds a conflicting
+     * lock. Returns immediately if the transaction already holds a strong
+     * enough lock.
+     *
+     * @throws TransactionAbortedException if the transaction was chosen to
+     *             break a deadlock, the lock timeout expired, or the thread
+     *             was interrupted
+     */
+    void acquire(TransactionId tid, Object resource, Mode mode)
+            throws TransactionAbortedException {
+        while (true) {
+            LockState lock = this.lockState(resource);
+            if (lock.isHeldBy(tid, mode)) {
+                return;
+            }
+
+            Waiter w;
+            synchronized (lock) {
+                if (lock.retired) {
+                    continue; // replaced by a new LockState; look it up again.
+                }
+                Mode target = lock.target(tid, mode);
+                if (lock.canGrant(tid, target, true)) {
+                    this.grant(lock, tid, target);
+                    return;
+                }
+                w = new Waiter(tid, target, Thread.currentThread(), lock);
+                this.transaction(tid).waiting.add(w);
+                if (lock.modeOf(tid) != null) {
+                    lock.waiters.addFirst(w);
+                } else {
+                    lock.waiters.addLast(w);
+                }
+            }
+            this.await(lock, w);
+            return;
+        }
+    }
+
+    /**
+     * Acquires a lock on the specified resource if that is possible without
+     * waiting.
+     *
+     * @return true if the transaction now holds the lock
+     */
+    boolean tryAcquire(TransactionId tid, Object resource, Mode mode) {
+        while (true) {
+            LockState lock = this.lockState(resource);
+            if (lock.isHeldBy(tid, mode)) {
+                return true;
+            }
+            synchronized (lock) {
+                if (lock.retired) {
+                    continue;
+                }
+                Mode target = lock.target(tid, mode);
+                if (!lock.canGrant(tid, target, true)) {
+                    this.retireIfUnused(lock);
+                    return false;
+                }
+                this.grant(lock, tid, target);
+                return true;
+            }
+        }
+    }
+
+    // Helper method to find or create the lock state of a resource.
+    private LockState lockState(Object resource) {
+        LockState lock = this.locks.get(resource);
+        if (lock == null) {
+            lock = new LockState(resource);
+            LockState other = this.locks.putIfAbsent(resource, lock);
+            if (other != null) {
+                lock = other;
+            }
+        }
+        return lock;
+    }
+
+    /**
+     * Parks the current thread until its queued request is granted, or
+     * gives up and withdraws the request.
+     */
+    private void await(LockState lock, Waiter w) throws TransactionAbortedException {
+        long start = System.nanoTime();
+        long timeout = this.timeoutNanos;
+        long deadline = start + timeout + (long) (this.random.nextDouble() * timeout);
+        long interval = DETECTION_INTERVAL_MILLIS * 1000000L;
+        boolean interrupted = false;
+        try {
+            if (timeout == 0 && this.isDeadlocked(w)) {
+                w.aborted = true;
+            }
+            while (!w.granted && !w.aborted) {
+                long left = timeout == 0 ? interval : deadline - System.nanoTime();
+                if (left <= 0) {
+                    break;
+                }
+                if (Thread.interrupted()) {
+                    interrupted = true;
+                    break;
+                }
+                LockSupport.parkNanos(lock, left);
+                if (timeout == 0 && !w.granted && !w.aborted && this.isDeadlocked(w)) {
+                    w.aborted = true;
+                }
+            }
+        } finally {
+            // also reached when the thread is stopped while parked.
+            TransactionLocks locks = this.transaction(w.tid);
+            locks.waitNanos.addAndGet(System.nanoTime() - start);
+            locks.waiting.remove(w);
+            if (!w.granted) {
+                synchronized (lock) {
+                    if (!w.granted) {
+                        lock.waiters.remove(w);
+                        this.grantWaiters(lock);
+                        this.retireIfUnused(lock);
+                    }
+                }
+            }
+        }
+
+        if (!w.granted) {
+            if (interrupted) {
+                Thread.currentThread().interrupt();
+            }
+            Debug.log(1, "Transaction %d aborted waiting for a lock on %s%s",
+                    w.tid.getId(), lock.resource, w.aborted ? " to break a deadlock" : "");
+            throw new TransactionAbortedException();
+        }
+    }
+
+    /**
+     * Searches the wait-for graph for a cycle through the transaction of a
+     * waiting request. If there is one, its youngest transaction is chosen
+     * as the victim; other victims are woken up to abort themselves.
+     *
+     * @return true if the request's own transaction is the victim
+     */
+    private boolean isDeadlocked(Waiter w) {
+        synchronized (this.detector) {
+            List<TransactionId> cycle = new ArrayList<TransactionId>();
+            if (!this.findCycle(w.tid, w.tid, cycle, new HashSet<TransactionId>())) {
+                return false;
+            }
+            TransactionId victim = w.tid;
+            for (TransactionId t : cycle) {
+                if (t.getId() > victim.getId()) {
+                    victim = t;
+                }
+            }
+            if (victim.equals(w.tid)) {
+                return true;
+            }
+            TransactionLocks locks = this.transactions.get(victim);
+            if (locks != null) {
+                for (Waiter v : locks.waiting) {
+                    v.aborted = true;
+                    LockSupport.unpark(v.thread);
+                }
+            }
+            return false;
+        }
+    }
+
+    /**
+     * Depth-first search for a path in the wait-for graph from tid back to
+     * start. On success, path holds the transactions of the cycle.
+     */
+    private boolean findCycle(TransactionId tid, TransactionId start,
+            List<TransactionId> path, Set<TransactionId> visited) {
+        path.add(tid);
+        visited.add(tid);
+        for (TransactionId next : this.waitsFor(tid)) {
+            if (next.equals(start)) {
+                return true;
+            }
+            if (!visited.contains(next) && this.findCycle(next, start, path, visited)) {
+                return true;
+            }
+        }
+        path.remove(path.size() - 1);
+        return false;
+    }
+
+    /**
+     * @return the transactions the specified transaction waits for: those
+     *         holding a conflicting lock on a resource it waits for, and
+     *         those queued ahead of it for that resource with a conflicting
+     *         request.
+     */
+    private Set<TransactionId> waitsFor(TransactionId tid) {
+        Set<TransactionId> result = new HashSet<TransactionId>();
+        TransactionLocks locks = this.transactions.get(tid);
+        if (locks == null) {
+            return result;
+        }
+        for (Waiter w : locks.waiting) {
+            if (w.aborted) {
+                continue; // about to withdraw; no longer part of any cycle.
+            }
+            synchronized (w.lock) {
+                if (!w.lock.waiters.contains(w)) {
+                    continue;
+                }
+                for (Holder h : w.lock.holders) {
+                    if (!h.mode.isCompatibleWith(w.mode)) {
+                        result.add(h.tid);
+                    }
+                }
+                for (Waiter ahead : w.lock.waiters) {
+                    if (ahead == w) {
+                        break;
+                    }
+                    if (!ahead.aborted && !ahead.mode.isCompatibleWith(w.mode)) {
+                        result.add(ahead.tid);
+                    }
+                }
+            }
+        }
+        result.remove(tid);
+        return result;
+    }
+
+    /** @return true if the transaction holds any lock on the resource. */
+    boolean holdsLock(TransactionId tid, Object resource) {
+        return this.holdsLock(tid, resource, Mode.IS);
+    }
+
+    /**
+     * @return true if the transaction holds a lock on the resource that
+     *         covers the specified mode.
+     */
+    boolean holdsLock(TransactionId tid, Object resource, Mode mode) {
+        LockState lock = this.locks.get(resource);
+        return lock != null && lock.isHeldBy(tid, mode);
+    }
+
+    /**
+     * @return the mode in which the transaction holds the resource, or null
+     *         if it holds no lock on it.
+     */
+    Mode heldMode(TransactionId tid, Object resource) {
+        LockState lock = this.locks.get(resource);
+        return lock == null ? null : lock.modeOf(tid);
+    }
+
+    /**
+     * @return the transaction holding an exclusive lock on the resource, or
+     *         null if no transaction does.
+     */
+    TransactionId exclusiveHolder(Object resource) {
+        LockState lock = this.locks.get(resource);
+        if (lock == null) {
+            return null;
+        }
+        for (Holder h : lock.holders) {
+            if (h.mode == Mode.X) {
+                return h.tid;
+            }
+        }
+        return null;
+    }
+
+    /** Releases any lock the transaction holds on the specified resource. */
+    void release(TransactionId tid, Object resource) {
+        TransactionLocks locks = this.transactions.get(tid);
+        if (locks != null) {
+            locks.resources.remove(resource);
+        }
+        LockState lock = this.locks.get(resource);
+        if (lock != null) {
+            this.release(lock, tid);
+        }
+    }
+
+    /**
+     * Releases every lock held by the specified transaction and forgets
+     * about the transaction.
+     *
+     * @return the time the transaction spent waiting for locks, in ns
+     */
+    long releaseAll(TransactionId tid) {
+        TransactionLocks locks = this.transactions.remove(tid);
+        if (locks == null) {
+            return 0;
+        }
+        for (Object resource : locks.resources) {
+            LockState lock = this.locks.get(resource);
+            if (lock != null) {
+                this.release(lock, tid);
+            }
+        }
+        return locks.waitNanos.get();
+    }
+
+    /** @return the pages the specified transaction holds a lock on. */
+    Set<PageId> lockedPages(TransactionId tid) {
+        TransactionLocks locks = this.transactions.get(tid);
+        if (locks == null) {
+            return Collections.emptySet();
+        }
+        Set<PageId> pages = new HashSet<PageId>();
+        for (Object resource : locks.resources) {
+            if (resource instanceof PageId) {
+                pages.add((PageId) resource);
+            }
+        }
+        return pages;
+    }
+
+    /** @return the time the transaction has spent waiting for locks, in ns. */
+    long getWaitNanos(TransactionId tid) {
+        TransactionLocks locks = this.transactions.get(tid);
+        return locks == null ? 0 : locks.waitNanos.get();
+    }
+
+    // Helper method to release a lock, and hand it to waiting requests.
+    private void release(LockState lock, TransactionId tid) {
+        synchronized (lock) {
+            if (lock.retired || lock.modeOf(tid) == null) {
+                return;
+            }
+            lock.setMode(tid, null);
+            this.grantWaiters(lock);
+            this.retireIfUnused(lock);
+        }
+    }
+
+    // Helper method to grant a lock. Caller must hold the lock's monitor.
+    private void grant(LockState lock, TransactionId tid, Mode mode) {
+        this.transaction(tid).resources.add(lock.resource);
+        lock.setMode(tid, mode);
+    }
+
+    /**
+     * Grants queued requests, in queue order, until one cannot be granted.
+     * Caller must hold the lock's monitor.
+     */
+    private void grantWaiters(LockState lock) {
+        Waiter w;
+        while ((w = lock.waiters.peekFirst()) != null
+                && lock.canGrant(w.tid, w.mode, false)) {
+            lock.waiters.pollFirst();
+            this.grant(lock, w.tid, w.mode);
+            w.granted = true;
+            LockSupport.unpark(w.thread);
+        }
+    }
+
+    /**
+     * Drops the state of a resource nobody holds or waits for. Caller must
+     * hold the lock's monitor.
+     */
+    private void retireIfUnused(LockState lock) {
+        if (lock.holders.length == 0 && lock.waiters.isEmpty()) {
+            lock.retired = true;
+            this.locks.remove(lock.resource, lock);
+        }
+    }
+
+    // Helper method to get the lock bookkeeping of a transaction.
+    private TransactionLocks transaction(TransactionId tid) {
+        TransactionLocks locks = this.transactions.get(tid);
+        if (locks == null) {
+            locks = new TransactionLocks();
+            TransactionLocks other = this.transactions.putIfAbsent(tid, locks);
+            if (other != null) {
+                locks = other;
+            }
+        }
+        return locks;
+    }
+
+    /**
+     * The lock state of one resource. The holders are published through a
+     * volatile, copy-on-write array so that they can be read without the
+     * monitor; they are changed, and the queue is used, only under the
+     * monitor.
+     */
+    private static class LockState {
+        final Object resource;
+        volatile Holder[] holders = new Holder[0];
+        final ArrayDeque<Waiter> waiters = new ArrayDeque<Waiter>();
+        boolean retired; // removed from the lock table; must not be used.
+
+        LockState(Object resource) {
+            this.resource = resource;
+        }
+
+        /** @return the mode tid holds, or null. */
+        Mode modeOf(TransactionId tid) {
+            for (Holder h : this.holders) {
+                if (h.tid.equals(tid)) {
+                    return h.mode;
+                }
+            }
+            return null;
+        }
+
+        boolean isHeldBy(TransactionId tid, Mode mode) {
+            Mode held = this.modeOf(tid);
+            return held != null && held.covers(mode);
+        }
+
+        /** @return the mode tid must hold to also have the requested mode. */
+        Mode target(TransactionId tid, Mode mode) {
+            Mode held = this.modeOf(tid);
+            return held == null ? mode : held.join(mode);
+        }
+
+        /**
+         * @param checkQueue true for a new request, which must not overtake
+         *            queued requests unless it is an upgrade
+         */
+        boolean canGrant(TransactionId tid, Mode mode, boolean checkQueue) {
+            boolean holds = false;
+            for (Holder h : this.holders) {
+                if (h.tid.equals(tid)) {
+                    holds = true;
+                } else if (!h.mode.isCompatibleWith(mode)) {
+                    return false;
+                }
+            }
+            return !checkQueue || holds || this.waiters.isEmpty();
+        }
+
+        /** Sets the mode tid holds, or removes it if mode is null. */
+        void setMode(TransactionId tid, Mode mode) {
+            Holder[] h = this.holders;
+            for (int i = 0; i < h.length; i++) {
+                if (h[i].tid.equals(tid)) {
+                    Holder[] copy;
+                    if (mode == null) {
+                        copy = new Holder[h.length - 1];
+                        System.arraycopy(h, 0, copy, 0, i);
+                        System.arraycopy(h, i + 1, copy, i, copy.length - i);
+                    } else {
+                        copy = h.clone();
+                        copy[i] = new Holder(tid, mode);
+                    }
+                    this.holders = copy;
+                    return;
+                }
+            }
+            if (mode != null) {
+                Holder[] copy = Arrays.copyOf(h, h.length + 1);
+                copy[h.length] = new Holder(tid, mode);
+                this.holders = copy;
+            }
+        }
+    }
+
+    /** A transaction holding a lock, and its mode. */
+    private static class Holder {
+        final TransactionId tid;
+        final Mode mode;
+
+        Holder(TransactionId tid, Mode mode) {
+            this.tid = tid;
+            this.mode = mode;
+        }
+    }
+
+    /** A queued lock request. */
+    private static class Waiter {
+        final TransactionId tid;
+        final Mode mode; // the mode to hold once granted, including upgrades.
+        final Thread thread;
+        final LockState lock;
+        volatile boolean granted;
+        volatile boolean aborted; // chosen to break a deadlock.
+
+        Waiter(TransactionId tid, Mode mode, Thread thread, LockState lock) {
+            this.tid = tid;
+            this.mode = mode;
+            this.thread = thread;
+            this.lock = lock;
+        }
+    }
+
+    /**
+     * The locks held and waited for by one transaction, and the time it
+     * spent waiting.
+     */
+    private static class TransactionLocks {
+        final Set<Object> resources = Collections.newSetFromMap(
+                new ConcurrentHashMap<Object, Boolean>());
+        final Set<Waiter> waiting = Collections.newSetFromMap(
+                new ConcurrentHashMap<Waiter, Boolean>());
+        final AtomicLong waitNanos = new AtomicLong(0);
+    }
+
+    /** Identifies a table as a lockable resource. */
+    private static class TableKey {
+        final int tableId;
+
+        TableKey(int tableId) {
+            this.tableId = tableId;
+        }
+
+        public boolean equals(Object o) {
+            return o instanceof TableKey && ((TableKey) o).tableId == this.tableId;
+        }
+
+        public int hashCode() {
+            return this.tableId;
+        }
+
+        public String toString() {
+            return "table " + this.tableId;
+        }
+    }
+}
@@ -2,8 +2,11 @@
 package simpledb;
 
 import java.io.*;
+import java.nio.ByteBuffer;
+import java.nio.channels.FileChannel;
 import java.util.*;
-import java.lang.reflect.*;
+import java.util.concurrent.BlockingQueue;
+import java.util.concurrent.LinkedBlockingQueue;
 
 /**
 LogFile implements the recovery subsystem of SimpleDb.  This class is
@@ -35,24 +38,35 @@ must not be declared synchronized and must begin with a block like:
 */
 
 /**
-<p> The format of the log file is as follows:
+<p> The format of the log is as follows:
 
 <ul>
 
-<li> The first long integer of the file represents the offset of the
+<li> The log is a stream of bytes addressed by LSN (log sequence
+number), the position of a byte in the stream since the log was
+created.  LSNs are never reused, so truncating the log does not move
+any record.
+
+<li> The stream is stored in segment files of a fixed size next to the
+log file, named after it with the number of the segment appended:
+segment n of log "log" is "log.n" and holds the stream from LSN
+n * segment size on.  Records may span segments.  Truncation deletes
+whole segments from the front.
+
+<li> The log file itself holds a single long integer, the LSN of the
 last written checkpoint, or -1 if there are no checkpoints
 
-<li> All additional data in the log consists of log records.  Log
+<li> All data in the segments consists of log records.  Log
 records are variable length.
 
 <li> Each log record begins with an integer type and a long integer
 transaction id.
 
-<li> Each log record ends with a long integer file offset representing
-the position in the log file where the record began.
+<li> Each log record ends with a long integer LSN representing
+the position in the log where the record began.
 
-<li> There are five record types: ABORT, COMMIT, UPDATE, BEGIN, and
-CHECKPOINT
+<li> There are six record types: ABORT, COMMIT, UPDATE, UPDATE_DELTA,
+BEGIN, and CHECKPOINT
 
 <li> ABORT, COMMIT, and BEGIN records contain no additional data
 
@@ -61,11 +75,20 @@ after image.  These images are serialized Page objects, and can be
 accessed with the LogFile.readPageData() and LogFile.writePageData()
 methods.  See LogFile.print() for an example.
 
+<li>UPDATE_DELTA records log the same change as an UPDATE record, as
+the before and after images of just the slots of a HeapPage that
+changed; see PageDelta for their format.  LogFile.logWrite() writes
+them whenever they are smaller than the two page images.
+
 <li> CHECKPOINT records consist of active transactions at the time
-the checkpoint was taken and their first log record on disk.  The format
-of the record is an integer count of the number of transactions, as well
-as a long integer transaction id and a long integer first record offset
-for each active transaction.
+the checkpoint was taken and their first log record on disk, and of the
+pages that were dirty in the BufferPool.  The format of the record is an
+integer count of the number of transactions, as well as a long integer
+transaction id and a long integer first record offset for each active
+transaction, followed by an integer count of the number of dirty pages,
+and an integer table id, an integer page number and a long integer LSN
+for each dirty page.  Changes to a dirty page that are not on disk
+were all logged at or after its LSN.
 
 </ul>
 
@@ -74,7 +97,7 @@ for each active transaction.
 public class LogFile {
 
     File logFile;
-    RandomAccessFile raf;
+    RandomAccessFile raf; // holds the checkpoint LSN
     Boolean recoveryUndecided; // no call to recover() and no append to log
 
     static final int ABORT_RECORD = 1;
@@ -82,6 +105,7 @@ public class LogFile {
     static final int UPDATE_RECORD = 3;
     static final int BEGIN_RECORD = 4;
     static final int CHECKPOINT_RECORD = 5;
+    static final int UPDATE_DELTA_RECORD = 6;
     static final long NO_CHECKPOINT_ID = -1;
 
     static int INT_SIZE = 4;
@@ -93,6 +117,65 @@ public class LogFile {
 
     HashMap<Long,Long> tidToFirstLogRecord = new HashMap<Long,Long>();
 
+    // Log records are serialized into the active log buffer under this
+    // monitor, which holds the log from LSN bufferStart on. The
+    // log writer thread swaps in the spare buffer and writes the full one
+    // out holding only forceLock, so appends go on meanwhile. Committers
+    // wait on groupLock until the writer has forced their record; the
+    // writer gathers them for up to maxCommitDelayNanos or until
+    // maxCommitBatch are waiting, and forces once for all of them.
+    //
+    // Segments written since the last force stay open, keyed by segment
+    // number, under forceLock; the others are opened as they are needed.
+    //
+    // Lock order: this, then forceLock, then groupLock.
+    static final long DEFAULT_SEGMENT_SIZE = 16 << 20;
+    static final int LOG_BUFFER_SIZE = 1 << 20;
+    static final long WRITER_IDLE_MILLIS = 1000;
+    private ByteBuffer logBuffer = ByteBuffer.allocateDirect(LOG_BUFFER_SIZE);
+    private ByteBuffer spareBuffer = ByteBuffer.allocateDirect(LOG_BUFFER_SIZE); // null while written
+    private long bufferStart = 0;
+    private final DataOutputStream out = new DataOutputStream(new BufferAppender());
+    final long segmentSize;
+    private final TreeMap<Long, RandomAccessFile> openSegments =
+        new TreeMap<Long, RandomAccessFile>(); // guarded by forceLock
+    private final Object forceLock = new Object();
+    private final Object groupLock = new Object();
+    private long durableLsn = 0; // guarded by groupLock
+    private long requestedLsn = 0; // guarded by groupLock
+    private boolean writeRequested = false; // guarded by groupLock
+    private int waitingCommits = 0; // guarded by groupLock
+    private Thread writer; // guarded by groupLock; null when not running
+    private IOException writerError; // guarded by groupLock
+    private volatile long maxCommitDelayNanos = 0;
+    private volatile int maxCommitBatch = 64;
+    private volatile long forces = 0;
+    private volatile boolean deltaRecords = true;
+    private volatile int recoveryThreads = Runtime.getRuntime().availableProcessors();
+
+    // Decoders of logged pages by page class name; see registerPageDecoder().
+    private static final Map<String, PageDecoder> decoders =
+        Collections.synchronizedMap(new HashMap<String, PageDecoder>());
+
+    static {
+        registerPageDecoder(HeapPage.class.getName(), new PageDecoder() {
+            public Page decode(int[] id, byte[] data) throws IOException {
+                return new HeapPage(new HeapPageId(id[0], id[1]), ByteBuffer.wrap(data));
+            }
+        });
+    }
+
+    /** Registers the decoder that builds pages of the named class back
+        from their images in the log.  HeapPage is registered already.
+
+        @param pageClassName The name of the page class, as returned by
+            Class.getName()
+        @param decoder The decoder for pages of that class
+    */
+    public static void registerPageDecoder(String pageClassName, PageDecoder decoder) {
+        decoders.put(pageClassName, decoder);
+    }
+
     /** Constructor.
         Initialize and back the log file with the specified file.
         We're not sure yet whether the caller is creating a brand new DB,
@@ -105,7 +188,19 @@ public class LogFile {
         @param f The log file's name
     */
     public LogFile(File f) throws IOException {
+        this(f, DEFAULT_SEGMENT_SIZE);
+    }
+
+    /** Constructor.
+        Like LogFile(File), storing the log in segments of the given
+        size.
+
+        @param f The log file's name
+        @param segmentSize The size in bytes of each log segment
+    */
+    public LogFile(File f, long segmentSize) throws IOException {
 	this.logFile = f;
+        this.segmentSize = segmentSize;
         raf = new RandomAccessFile(f, "rw");
         recoveryUndecided = true;
 
@@ -130,8 +225,238 @@ public class LogFile {
             raf.seek(0);
             raf.setLength(0);
             raf.writeLong(NO_CHECKPOINT_ID);
-            raf.seek(raf.length());
-            currentOffset = raf.getFilePointer();
+            synchronized (forceLock) {
+                deleteSegmentsBefore(Long.MAX_VALUE);
+            }
+            logBuffer.clear();
+            bufferStart = 0;
+            currentOffset = bufferStart;
+        }
+    }
+
+    /** @return the LSN the next record is appended at. */
+    synchronized long appendOffset() {
+        return bufferStart + logBuffer.position();
+    }
+
+    /** @return the file that holds segment n of the log. */
+    File segmentFile(long n) {
+        return new File(logFile.getPath() + "." + n);
+    }
+
+    // Helper method to return the open segment file with the given
+    // number, opening it if needed. Callers hold forceLock.
+    private RandomAccessFile openSegment(long n) throws IOException {
+        RandomAccessFile f = openSegments.get(n);
+        if (f == null) {
+            f = new RandomAccessFile(segmentFile(n), "rw");
+            openSegments.put(n, f);
+        }
+        return f;
+    }
+
+    // Helper method to force every segment written since the last force,
+    // and close all but the last one. Callers hold forceLock.
+    private void forceSegments() throws IOException {
+        while (!openSegments.isEmpty()) {
+            Map.Entry<Long, RandomAccessFile> e = openSegments.firstEntry();
+            e.getValue().getChannel().force(true);
+            if (openSegments.size() == 1) {
+                break;
+            }
+            e.getValue().close();
+            openSegments.remove(e.getKey());
+        }
+        forces++;
+    }
+
+    // Helper method to delete the segments that hold only log before the
+    // given LSN. Callers hold forceLock.
+    private void deleteSegmentsBefore(long lsn) throws IOException {
+        long last = lsn == Long.MAX_VALUE ? Long.MAX_VALUE : lsn / segmentSize;
+        Iterator<Map.Entry<Long, RandomAccessFile>> open = openSegments.entrySet().iterator();
+        while (open.hasNext()) {
+            Map.Entry<Long, RandomAccessFile> e = open.next();
+            if (e.getKey() < last) {
+                e.getValue().close();
+                open.remove();
+            }
+        }
+        for (long n : listSegments().headSet(last)) {
+            segmentFile(n).delete();
+        }
+    }
+
+    // Helper method to drop whatever follows the given LSN in the log,
+    // such as a record torn by a crash. Callers hold forceLock.
+    private void cutLog(long lsn) throws IOException {
+        long last = lsn / segmentSize;
+        for (long n : listSegments().tailSet(last, false)) {
+            segmentFile(n).delete();
+        }
+        if (segmentFile(last).exists()) {
+            openSegment(last).setLength(lsn % segmentSize);
+        }
+    }
+
+    // Helper method to return the numbers of the segments on disk.
+    private TreeSet<Long> listSegments() {
+        TreeSet<Long> segments = new TreeSet<Long>();
+        File dir = logFile.getAbsoluteFile().getParentFile();
+        String prefix = logFile.getName() + ".";
+        String[] names = dir.list();
+        for (int i = 0; names != null && i < names.length; i++) {
+            if (!names[i].startsWith(prefix)) {
+                continue;
+            }
+            try {
+                segments.add(Long.parseLong(names[i].substring(prefix.length())));
+            } catch (NumberFormatException e) {
+                continue;
+            }
+        }
+        return segments;
+    }
+
+    /** Returns a stream of the log from the given LSN on, up to the end
+        of the log written out; callers that need the whole log call
+        flushBuffer() first.  Reading past the end throws EOFException. */
+    DataInputStream openLog(long lsn) {
+        return new DataInputStream(new BufferedInputStream(new SegmentReader(lsn)));
+    }
+
+    /** Reads the log across segments. */
+    private class SegmentReader extends InputStream {
+        private long lsn;
+        private RandomAccessFile segment;
+        private long segmentNo = -1;
+
+        SegmentReader(long lsn) {
+            this.lsn = lsn;
+        }
+
+        public int read() throws IOException {
+            byte[] b = new byte[1];
+            return read(b, 0, 1) < 0 ? -1 : b[0] & 0xff;
+        }
+
+        public int read(byte[] b, int off, int len) throws IOException {
+            if (len == 0) {
+                return 0;
+            }
+            long n = lsn / segmentSize;
+            if (n != segmentNo) {
+                close();
+                File f = segmentFile(n);
+                if (!f.exists()) {
+                    return -1;
+                }
+                segment = new RandomAccessFile(f, "r");
+                segmentNo = n;
+            }
+            long offset = lsn % segmentSize;
+            segment.seek(offset);
+            int read = segment.read(b, off, (int) Math.min(len, segmentSize - offset));
+            if (read > 0) {
+                lsn += read;
+            }
+            return read;
+        }
+
+        public void close() throws IOException {
+            if (segment != null) {
+                segment.close();
+                segment = null;
+                segmentNo = -1;
+            }
+        }
+    }
+
+    /** @return the LSN up to which the log is known to be on disk. */
+    public long getDurableLsn() {
+        synchronized (groupLock) {
+            return durableLsn;
+        }
+    }
+
+    /** @return the LSN the next record is appended at. */
+    public synchronized long getCurrentLsn() {
+        return appendOffset();
+    }
+
+    /** Appends log records to the active log buffer. Callers hold the
+        LogFile monitor. */
+    private class BufferAppender extends OutputStream {
+        public void write(int b) throws IOException {
+            ensureRoom(1);
+            logBuffer.put((byte) b);
+        }
+
+        public void write(byte[] b, int off, int len) throws IOException {
+            ensureRoom(len);
+            logBuffer.put(b, off, len);
+        }
+
+        private void ensureRoom(int len) throws IOException {
+            if (logBuffer.remaining() >= len) {
+                return;
+            }
+            flushBuffer();
+            if (logBuffer.capacity() < len) {
+                logBuffer = ByteBuffer.allocateDirect(len);
+            }
+        }
+    }
+
+    // Helper method to have the log writer write out the buffer once it
+    // is half full, so that appends rarely find it full.
+    private void appended() {
+        if (logBuffer.position() >= logBuffer.capacity() / 2) {
+            synchronized (groupLock) {
+                writeRequested = true;
+                startWriter();
+                groupLock.notifyAll();
+            }
+        }
+    }
+
+    /** Writes the log buffer out to the log file, after any write the log
+        writer has in progress, so that the file holds the whole log. Does
+        not force it. */
+    synchronized void flushBuffer() throws IOException {
+        boolean interrupted = false;
+        while (spareBuffer == null) {
+            try {
+                wait();
+            } catch (InterruptedException e) {
+                interrupted = true;
+            }
+        }
+        if (interrupted) {
+            Thread.currentThread().interrupt();
+        }
+        synchronized (forceLock) {
+            writeAt(logBuffer, bufferStart);
+        }
+        bufferStart += logBuffer.position();
+        logBuffer.clear();
+    }
+
+    // Helper method to write the contents of a buffer to the log at the
+    // given LSN, across segments. Callers hold forceLock.
+    private void writeAt(ByteBuffer buffer, long lsn) throws IOException {
+        ByteBuffer b = buffer.duplicate();
+        b.flip();
+        while (b.hasRemaining()) {
+            long offset = lsn % segmentSize;
+            ByteBuffer part = b.duplicate();
+            part.limit(part.position() + (int) Math.min(part.remaining(), segmentSize - offset));
+            FileChannel channel = openSegment(lsn / segmentSize).getChannel();
+            while (part.hasRemaining()) {
+                offset += channel.write(part, offset);
+            }
+            lsn += part.position() - b.position();
+            b.position(part.position());
         }
     }
 
@@ -149,19 +474,19 @@ public class LogFile {
 
         synchronized (Database.getBufferPool()) {
 
+            // must do this here, since rollback only works for
+            // live transactions (needs tidToFirstLogRecord)
+            rollback(tid);
+
             synchronized(this) {
                 preAppend();
                 //Debug.log("ABORT");
                 //should we verify that this is a live transaction?
 
-                // must do this here, since rollback only works for
-                // live transactions (needs tidToFirstLogRecord)
-                rollback(tid);
-
-                raf.writeInt(ABORT_RECORD);
-                raf.writeLong(tid.getId());
-                raf.writeLong(currentOffset);
-                currentOffset = raf.getFilePointer();
+                out.writeInt(ABORT_RECORD);
+                out.writeLong(tid.getId());
+                out.writeLong(currentOffset);
+                currentOffset = appendOffset();
                 force();
                 tidToFirstLogRecord.remove(tid.getId());
             }
@@ -169,25 +494,206 @@ public class LogFile {
     }
 
     /** Write a commit record to disk for the specified tid,
-        and force the log to disk.
+        and force the log to disk. Concurrent commits share a force;
+        see setGroupCommit().
 
         @param tid The committing transaction.
     */
-    public synchronized void logCommit(TransactionId tid) throws IOException {
-        preAppend();
-        Debug.log("COMMIT " + tid.getId());
-        //should we verify that this is a live transaction?
+    public void logCommit(TransactionId tid) throws IOException {
+        long lsn;
+        synchronized (this) {
+            preAppend();
+            Debug.log("COMMIT " + tid.getId());
+            //should we verify that this is a live transaction?
+
+            out.writeInt(COMMIT_RECORD);
+            out.writeLong(tid.getId());
+            out.writeLong(currentOffset);
+            currentOffset = appendOffset();
+            tidToFirstLogRecord.remove(tid.getId());
+            if (maxCommitBatch <= 1) {
+                force();
+                return;
+            }
+            lsn = currentOffset;
+        }
+        awaitDurable(lsn);
+    }
 
-        raf.writeInt(COMMIT_RECORD);
-        raf.writeLong(tid.getId());
-        raf.writeLong(currentOffset);
-        currentOffset = raf.getFilePointer();
-        force();
-        tidToFirstLogRecord.remove(tid.getId());
+    /** Configure group commit.
+
+        @param maxDelayMicros How long the log writer waits for more
+        commits to join a force; 0 forces right away, which still batches
+        the commits that arrive during a force.
+        @param maxBatch The number of waiting commits at which the force
+        starts without further delay; 1 turns group commit off, so every
+        commit forces the log itself.
+    */
+    public void setGroupCommit(long maxDelayMicros, int maxBatch) {
+        maxCommitDelayNanos = Math.max(0, maxDelayMicros) * 1000;
+        maxCommitBatch = Math.max(1, maxBatch);
+    }
+
+    /** @return the number of times the log was forced to disk. */
+    public long getForceCount() {
+        return forces;
+    }
+
+    /** Waits until the log is on disk up to the given LSN, having the
+        log writer force it if needed. */
+    public void awaitDurable(long lsn) throws IOException {
+        boolean interrupted = false;
+        try {
+            synchronized (groupLock) {
+                if (durableLsn >= lsn) {
+                    return;
+                }
+                waitingCommits++;
+                try {
+                    requestedLsn = Math.max(requestedLsn, lsn);
+                    startWriter();
+                    groupLock.notifyAll();
+                    while (durableLsn < lsn) {
+                        if (writerError != null) {
+                            throw new IOException("log writer failed: " + writerError.getMessage());
+                        }
+                        try {
+                            groupLock.wait();
+                        } catch (InterruptedException e) {
+                            interrupted = true;
+                        }
+                    }
+                } finally {
+                    waitingCommits--;
+                }
+            }
+        } finally {
+            if (interrupted) {
+                Thread.currentThread().interrupt();
+            }
+        }
+    }
+
+    // Helper method to start the log writer thread, unless it is running.
+    // Callers hold groupLock.
+    private void startWriter() {
+        if (writer != null) {
+            return;
+        }
+        writerError = null;
+        writer = new Thread("log writer") {
+            public void run() {
+                runWriter();
+            }
+        };
+        writer.setDaemon(true);
+        writer.start();
+    }
+
+    // The log writer loop: writes out the log buffer when asked to, and
+    // forces it for waiting committers. Exits after being idle for a while.
+    private void runWriter() {
+        while (true) {
+            boolean force;
+            synchronized (groupLock) {
+                long idleSince = System.currentTimeMillis();
+                while (requestedLsn <= durableLsn && !writeRequested) {
+                    long idle = System.currentTimeMillis() - idleSince;
+                    if (idle >= WRITER_IDLE_MILLIS) {
+                        writer = null;
+                        return;
+                    }
+                    try {
+                        groupLock.wait(WRITER_IDLE_MILLIS - idle);
+                    } catch (InterruptedException e) {
+                        // keep serving; the writer exits only when idle.
+                    }
+                }
+                force = requestedLsn > durableLsn;
+                if (force) {
+                    gatherBatch();
+                }
+                writeRequested = false;
+            }
+            try {
+                this.writeOut(force);
+            } catch (IOException e) {
+                synchronized (groupLock) {
+                    writerError = e;
+                    writer = null;
+                    groupLock.notifyAll();
+                }
+                return;
+            }
+        }
+    }
+
+    // Helper method for the log writer to write out the active buffer,
+    // forcing it if asked to, while appends go to the spare buffer.
+    private void writeOut(boolean force) throws IOException {
+        ByteBuffer full;
+        long start;
+        long endLsn;
+        synchronized (this) {
+            full = logBuffer;
+            start = bufferStart;
+            logBuffer = spareBuffer;
+            spareBuffer = null;
+            bufferStart += full.position();
+            endLsn = bufferStart;
+        }
+        try {
+            synchronized (forceLock) {
+                writeAt(full, start);
+                if (force) {
+                    forceSegments();
+                }
+            }
+        } finally {
+            synchronized (this) {
+                full.clear();
+                spareBuffer = full;
+                notifyAll();
+            }
+        }
+        if (force) {
+            published(endLsn);
+        }
+    }
+
+    // Helper method to record that the log is on disk up to the given LSN,
+    // and wake the committers waiting for it.
+    private void published(long lsn) {
+        synchronized (groupLock) {
+            if (lsn > durableLsn) {
+                durableLsn = lsn;
+                groupLock.notifyAll();
+            }
+        }
+    }
+
+    // Helper method for the log writer to wait, holding groupLock, for
+    // more commits to join a force. Returns true if it was interrupted.
+    private boolean gatherBatch() {
+        long deadline = System.nanoTime() + maxCommitDelayNanos;
+        while (waitingCommits < maxCommitBatch) {
+            long remaining = deadline - System.nanoTime();
+            if (remaining <= 0) {
+                break;
+            }
+            try {
+                groupLock.wait(remaining / 1000000, (int) (remaining % 1000000));
+            } catch (InterruptedException e) {
+                return true;
+            }
+        }
+        return false;
     }
 
     /** Write an UPDATE record to disk for the specified tid and page
-        (with provided         before and after images.)
+        (with provided         before and after images.)  When only a
+        few slots of a HeapPage changed, writes an UPDATE_DELTA record
+        with just those slots instead.
         @param tid The transaction performing the write
         @param before The before image of the page
         @param after The after image of the page
@@ -197,8 +703,16 @@ public class LogFile {
     public  synchronized void logWrite(TransactionId tid, Page before,
                                        Page after)
         throws IOException  {
-        Debug.log("WRITE, offset = " + raf.getFilePointer());
+        Debug.log("WRITE, offset = " + currentOffset);
         preAppend();
+        PageDelta delta = null;
+        if (deltaRecords && before instanceof HeapPage && after instanceof HeapPage) {
+            delta = PageDelta.diff((HeapPage) before, (HeapPage) after);
+        }
+        if (delta != null) {
+            writeDelta(tid, delta);
+            return;
+        }
         /* update record conists of
 
            record type
@@ -207,18 +721,52 @@ public class LogFile {
            after page data
            start offset
         */
-        raf.writeInt(UPDATE_RECORD);
-        raf.writeLong(tid.getId());
+        out.writeInt(UPDATE_RECORD);
+        out.writeLong(tid.getId());
 
-        writePageData(raf,before);
-        writePageData(raf,after);
-        raf.writeLong(currentOffset);
-        currentOffset = raf.getFilePointer();
+        writePageData(out,before);
+        writePageData(out,after);
+        out.writeLong(currentOffset);
+        currentOffset = appendOffset();
+        appended();
 
         Debug.log("WRITE OFFSET = " + currentOffset);
     }
 
-    void writePageData(RandomAccessFile raf, Page p) throws IOException{
+    /** Write an UPDATE_DELTA record for a change to a page holding
+        records of several transactions, as record locking allows,
+        however many slots changed: undoing a full before image would
+        also undo the other transactions' changes to the page.
+        @param tid The transaction that changed the slots
+        @param before The page as last logged
+        @param after The page with the transaction's changes
+        @see BufferPool#setRecordLocking
+    */
+    public synchronized void logSlotWrite(TransactionId tid, HeapPage before,
+                                          HeapPage after)
+        throws IOException {
+        Debug.log("SLOT WRITE, offset = " + currentOffset);
+        preAppend();
+        writeDelta(tid, PageDelta.diff(before, after, false));
+    }
+
+    // Helper method to append an UPDATE_DELTA record.
+    private void writeDelta(TransactionId tid, PageDelta delta) throws IOException {
+        out.writeInt(UPDATE_DELTA_RECORD);
+        out.writeLong(tid.getId());
+        delta.write(out);
+        out.writeLong(currentOffset);
+        currentOffset = appendOffset();
+        appended();
+    }
+
+    /** Turn UPDATE_DELTA records on or off; with them off, logWrite()
+        always logs full page images. */
+    public void setDeltaRecords(boolean on) {
+        deltaRecords = on;
+    }
+
+    void writePageData(DataOutput raf, Page p) throws IOException{
         PageId pid = p.getId();
         int pageInfo[] = pid.serialize();
 
@@ -246,53 +794,24 @@ public class LogFile {
         //        Debug.log ("WROTE PAGE DATA, CLASS = " + pageClassName + ", table = " +  pid.getTableId() + ", page = " + pid.pageno());
     }
 
-    Page readPageData(RandomAccessFile raf) throws IOException {
-        PageId pid;
-        Page newPage = null;
-
+    Page readPageData(DataInput raf) throws IOException {
         String pageClassName = raf.readUTF();
-        String idClassName = raf.readUTF();
-
-        try {
-            Class<?> idClass = Class.forName(idClassName);
-            Class<?> pageClass = Class.forName(pageClassName);
+        raf.readUTF(); // id class name; the page decoder knows it
 
-            Constructor<?>[] idConsts = idClass.getDeclaredConstructors();
-            int numIdArgs = raf.readInt();
-            Object idArgs[] = new Object[numIdArgs];
-            for (int i = 0; i<numIdArgs;i++) {
-                idArgs[i] = new Integer(raf.readInt());
-            }
-            pid = (PageId)idConsts[0].newInstance(idArgs);
-
-            Constructor<?>[] pageConsts = pageClass.getDeclaredConstructors();
-            int pageSize = raf.readInt();
-
-            byte[] pageData = new byte[pageSize];
-            raf.read(pageData); //read before image
-
-            Object[] pageArgs = new Object[2];
-            pageArgs[0] = pid;
-            pageArgs[1] = pageData;
-
-            newPage = (Page)pageConsts[0].newInstance(pageArgs);
-
-            //            Debug.log("READ PAGE OF TYPE " + pageClassName + ", table = " + newPage.getId().getTableId() + ", page = " + newPage.getId().pageno());
-        } catch (ClassNotFoundException e){
-            e.printStackTrace();
-            throw new IOException();
-        } catch (InstantiationException e) {
-            e.printStackTrace();
-            throw new IOException();
-        } catch (IllegalAccessException e) {
-            e.printStackTrace();
-            throw new IOException();
-        } catch (InvocationTargetException e) {
-            e.printStackTrace();
-            throw new IOException();
+        int numIdArgs = raf.readInt();
+        int[] idArgs = new int[numIdArgs];
+        for (int i = 0; i < numIdArgs; i++) {
+            idArgs[i] = raf.readInt();
         }
-        return newPage;
+        int pageSize = raf.readInt();
+        byte[] pageData = new byte[pageSize];
+        raf.readFully(pageData);
 
+        PageDecoder decoder = decoders.get(pageClassName);
+        if (decoder == null) {
+            throw new IOException("No page decoder for " + pageClassName);
+        }
+        return decoder.decode(idArgs, pageData);
     }
 
     /** Write a BEGIN record for the specified transaction
@@ -307,168 +826,375 @@ public class LogFile {
             throw new IOException("double logXactionBegin()");
         }
         preAppend();
-        raf.writeInt(BEGIN_RECORD);
-        raf.writeLong(tid.getId());
-        raf.writeLong(currentOffset);
+        out.writeInt(BEGIN_RECORD);
+        out.writeLong(tid.getId());
+        out.writeLong(currentOffset);
         tidToFirstLogRecord.put(tid.getId(), currentOffset);
-        currentOffset = raf.getFilePointer();
+        currentOffset = appendOffset();
+        appended();
 
         Debug.log("BEGIN OFFSET = " + currentOffset);
     }
 
-    /** Checkpoint the log and write a checkpoint record. */
+    /** Checkpoint the log and write a checkpoint record.  The
+        checkpoint is fuzzy: it records the dirty page table of the
+        BufferPool instead of writing the dirty pages out, so it takes
+        neither the BufferPool monitor nor any time to write pages, and
+        transactions go on meanwhile.  The BufferPool's page writer
+        writes dirty pages out in the background.
+
+        @see BufferPool#setPageWriter
+    */
     public void logCheckpoint() throws IOException {
-        //make sure we have buffer pool lock before proceeding
-        synchronized (Database.getBufferPool()) {
-            synchronized (this) {
-                //Debug.log("CHECKPOINT, offset = " + raf.getFilePointer());
-                preAppend();
-                long startCpOffset, endCpOffset;
-                Set<Long> keys = tidToFirstLogRecord.keySet();
-                Iterator<Long> els = keys.iterator();
-                force();
-                Database.getBufferPool().flushAllPages();
-                startCpOffset = raf.getFilePointer();
-                raf.writeInt(CHECKPOINT_RECORD);
-                raf.writeLong(-1); //no tid , but leave space for convenience
-
-                //write list of outstanding transactions
-                raf.writeInt(keys.size());
-                while (els.hasNext()) {
-                    Long key = els.next();
-                    Debug.log("WRITING CHECKPOINT TRANSACTION ID: " + key);
-                    raf.writeLong(key);
-                    //Debug.log("WRITING CHECKPOINT TRANSACTION OFFSET: " + tidToFirstLogRecord.get(key));
-                    raf.writeLong(tidToFirstLogRecord.get(key));
-                }
+        synchronized (this) {
+            //Debug.log("CHECKPOINT, offset = " + raf.getFilePointer());
+            preAppend();
+            long startCpOffset = appendOffset();
+            Set<Long> keys = tidToFirstLogRecord.keySet();
+            Iterator<Long> els = keys.iterator();
+            Map<PageId, Long> dirty = Database.getBufferPool().dirtyPages(startCpOffset);
+            out.writeInt(CHECKPOINT_RECORD);
+            out.writeLong(-1); //no tid , but leave space for convenience
+
+            //write list of outstanding transactions
+            out.writeInt(keys.size());
+            while (els.hasNext()) {
+                Long key = els.next();
+                Debug.log("WRITING CHECKPOINT TRANSACTION ID: " + key);
+                out.writeLong(key);
+                //Debug.log("WRITING CHECKPOINT TRANSACTION OFFSET: " + tidToFirstLogRecord.get(key));
+                out.writeLong(tidToFirstLogRecord.get(key));
+            }
 
-                //once the CP is written, make sure the CP location at the
-                // beginning of the log file is updated
-                endCpOffset = raf.getFilePointer();
-                raf.seek(0);
-                raf.writeLong(startCpOffset);
-                raf.seek(endCpOffset);
-                raf.writeLong(currentOffset);
-                currentOffset = raf.getFilePointer();
-                //Debug.log("CP OFFSET = " + currentOffset);
+            //write the dirty page table
+            out.writeInt(dirty.size());
+            for (Map.Entry<PageId, Long> e : dirty.entrySet()) {
+                out.writeInt(e.getKey().getTableId());
+                out.writeInt(e.getKey().pageNumber());
+                out.writeLong(e.getValue());
             }
+            out.writeLong(currentOffset);
+            currentOffset = appendOffset();
+
+            //once the CP is on disk, make sure the CP location in the
+            // log file is updated
+            force();
+            raf.seek(0);
+            raf.writeLong(startCpOffset);
+            raf.getChannel().force(true);
+            //Debug.log("CP OFFSET = " + currentOffset);
         }
 
         logTruncate();
     }
 
     /** Truncate any unneeded portion of the log to reduce its space
-        consumption */
+        consumption.  Deletes the segments that hold only log from
+        before the last checkpoint, before the first record of every
+        transaction that was active at the checkpoint, and before the
+        first change to every page that was dirty at the checkpoint. */
     public synchronized void logTruncate() throws IOException {
         preAppend();
+        flushBuffer();
         raf.seek(0);
         long cpLoc = raf.readLong();
+        if (cpLoc == NO_CHECKPOINT_ID) {
+            return;
+        }
 
         long minLogRecord = cpLoc;
-
-        if (cpLoc != -1L) {
-            raf.seek(cpLoc);
-            int cpType = raf.readInt();
+        DataInputStream in = openLog(cpLoc);
+        try {
+            int cpType = in.readInt();
             @SuppressWarnings("unused")
-            long cpTid = raf.readLong();
+            long cpTid = in.readLong();
 
             if (cpType != CHECKPOINT_RECORD) {
                 throw new RuntimeException("Checkpoint pointer does not point to checkpoint record");
             }
 
-            int numOutstanding = raf.readInt();
+            int numOutstanding = in.readInt();
 
             for (int i = 0; i < numOutstanding; i++) {
                 @SuppressWarnings("unused")
-                long tid = raf.readLong();
-                long firstLogRecord = raf.readLong();
+                long tid = in.readLong();
+                long firstLogRecord = in.readLong();
                 if (firstLogRecord < minLogRecord) {
                     minLogRecord = firstLogRecord;
                 }
             }
+
+            int numDirty = in.readInt();
+            for (int i = 0; i < numDirty; i++) {
+                in.readInt(); // table id
+                in.readInt(); // page number
+                long recLsn = in.readLong();
+                if (recLsn < minLogRecord) {
+                    minLogRecord = recLsn;
+                }
+            }
+        } finally {
+            in.close();
         }
 
-        // we can truncate everything before minLogRecord
-        File newFile = new File("logtmp" + System.currentTimeMillis());
-        RandomAccessFile logNew = new RandomAccessFile(newFile, "rw");
-        logNew.seek(0);
-        logNew.writeLong((cpLoc - minLogRecord) + LONG_SIZE);
+        // we can drop every segment that ends before minLogRecord
+        Debug.log("TRUNCATING LOG BEFORE SEGMENT " + minLogRecord / segmentSize);
+        synchronized (forceLock) {
+            deleteSegmentsBefore(minLogRecord);
+        }
+    }
 
-        raf.seek(minLogRecord);
+    /** Rollback the specified transaction, setting the state of any
+        of pages it updated to their pre-updated state.  To preserve
+        transaction semantics, this should not be called on
+        transactions that have already committed (though this may not
+        be enforced by this method.)
 
-        //have to rewrite log records since offsets are different after truncation
-        while (true) {
-            try {
-                int type = raf.readInt();
-                long record_tid = raf.readLong();
-                long newStart = logNew.getFilePointer();
+        @param tid The transaction to rollback
+    */
+    public void rollback(TransactionId tid)
+        throws NoSuchElementException, IOException {
+        synchronized (Database.getBufferPool()) {
+            // some code goes here
+            Long first;
+            synchronized(this) {
+                first = tidToFirstLogRecord.get(tid.getId());
+            }
+            if (first == null) {
+                throw new NoSuchElementException("Transaction " + tid.getId() + " is not live");
+            }
+            if (Database.getBufferPool().isRecordLocking()) {
+                // pages hold other transactions' changes too; the
+                // BufferPool undoes the transaction's records itself,
+                // and logs the undo, without this monitor, as logging
+                // takes page monitors.
+                Database.getBufferPool().rollbackRecords(tid);
+                return;
+            }
+            synchronized(this) {
+                preAppend();
+                flushBuffer();
+                Map<Long, Long> firsts = new HashMap<Long, Long>();
+                firsts.put(tid.getId(), first);
+                Map<PageId, Page> pages = new HashMap<PageId, Page>();
+                undo(firsts, appendOffset(), pages);
+                for (Page p : pages.values()) {
+                    Database.getBufferPool().discardPage(p.getId());
+                }
+            }
+        }
+    }
 
-                Debug.log("NEW START = " + newStart);
+    /** A log record, as read back by rollback and recovery. */
+    private static class LogRecord {
+        int type;
+        long tid;
+        long lsn; // where the record starts
+        Page after; // UPDATE records
+        Page before; // UPDATE records
+        PageDelta delta; // UPDATE_DELTA records
+        Map<Long, Long> active; // CHECKPOINT records
+        Map<PageId, Long> dirty; // CHECKPOINT records
+
+        boolean isUpdate() {
+            return type == UPDATE_RECORD || type == UPDATE_DELTA_RECORD;
+        }
 
-                logNew.writeInt(type);
-                logNew.writeLong(record_tid);
+        PageId pageId() {
+            return delta != null ? delta.getPageId() : after.getId();
+        }
+    }
 
-                switch (type) {
-                case UPDATE_RECORD:
-                    Page before = readPageData(raf);
-                    Page after = readPageData(raf);
+    /** Reads log records one after the other, up to the end of the log
+        written out, or the first record torn by a crash. */
+    private class LogReader {
+        private long lsn;
+        private final DataInputStream in;
+
+        LogReader(long lsn) {
+            this.lsn = lsn;
+            in = new DataInputStream(new BufferedInputStream(new SegmentReader(lsn), 1 << 16) {
+                public int read() throws IOException {
+                    int b = super.read();
+                    if (b >= 0) {
+                        LogReader.this.lsn++;
+                    }
+                    return b;
+                }
+
+                public int read(byte[] b, int off, int len) throws IOException {
+                    int n = super.read(b, off, len);
+                    if (n > 0) {
+                        LogReader.this.lsn += n;
+                    }
+                    return n;
+                }
+            });
+        }
+
+        /** @return the LSN of the next record. */
+        long position() {
+            return lsn;
+        }
 
-                    writePageData(logNew, before);
-                    writePageData(logNew, after);
+        /** @return the next record, or null at the end of the log. */
+        LogRecord next() throws IOException {
+            LogRecord r = new LogRecord();
+            r.lsn = lsn;
+            try {
+                r.type = in.readInt();
+                r.tid = in.readLong();
+                switch (r.type) {
+                case ABORT_RECORD:
+                case COMMIT_RECORD:
+                case BEGIN_RECORD:
+                    break;
+                case UPDATE_RECORD:
+                    r.before = readPageData(in);
+                    r.after = readPageData(in);
+                    break;
+                case UPDATE_DELTA_RECORD:
+                    r.delta = PageDelta.read(in);
                     break;
                 case CHECKPOINT_RECORD:
-                    int numXactions = raf.readInt();
-                    logNew.writeInt(numXactions);
-                    while (numXactions-- > 0) {
-                        long xid = raf.readLong();
-                        long xoffset = raf.readLong();
-                        logNew.writeLong(xid);
-                        logNew.writeLong((xoffset - minLogRecord) + LONG_SIZE);
+                    r.active = new HashMap<Long, Long>();
+                    int numActive = in.readInt();
+                    for (int i = 0; i < numActive; i++) {
+                        long tid = in.readLong();
+                        r.active.put(tid, in.readLong());
+                    }
+                    r.dirty = new HashMap<PageId, Long>();
+                    int numDirty = in.readInt();
+                    for (int i = 0; i < numDirty; i++) {
+                        HeapPageId pid = new HeapPageId(in.readInt(), in.readInt());
+                        r.dirty.put(pid, in.readLong());
                     }
                     break;
-                case BEGIN_RECORD:
-                    tidToFirstLogRecord.put(record_tid,newStart);
-                    break;
+                default:
+                    return null;
+                }
+                // every record ends with its own LSN.
+                if (in.readLong() != r.lsn) {
+                    return null;
                 }
+            } catch (EOFException e) {
+                return null;
+            }
+            return r;
+        }
 
-                //all xactions finish with a pointer
-                logNew.writeLong(newStart);
-                raf.readLong();
+        void close() throws IOException {
+            in.close();
+        }
+    }
 
-            } catch (EOFException e) {
-                break;
+    // Helper method to return a page from the given map of pages being
+    // recovered, reading it from disk if it is not there yet.
+    private static Page recoveryPage(Map<PageId, Page> pages, PageId pid) {
+        Page p = pages.get(pid);
+        if (p == null) {
+            DbFile file = Database.getCatalog().getDbFile(pid.getTableId());
+            try {
+                p = file.readPage(pid);
+            } catch (IllegalArgumentException e) {
+                p = null;
             }
+            if (p == null) {
+                // the page was added to the file, but never written.
+                try {
+                    p = new HeapPage((HeapPageId) pid, HeapPage.createEmptyPageData());
+                } catch (IOException e) {
+                    throw new RuntimeException(e);
+                }
+            }
+            pages.put(pid, p);
+        }
+        return p;
+    }
+
+    // Helper method to redo a change recorded in the log.
+    private static void redo(Map<PageId, Page> pages, LogRecord r) {
+        if (r.delta != null) {
+            r.delta.redo((HeapPage) recoveryPage(pages, r.delta.getPageId()));
+        } else {
+            pages.put(r.after.getId(), r.after);
         }
+    }
 
-        Debug.log("TRUNCATING LOG;  WAS " + raf.length() + " BYTES ; NEW START : " + minLogRecord + " NEW LENGTH: " + (raf.length() - minLogRecord));
+    /** Undoes the changes that the given transactions logged from their
+        first records, mapped to by their ids, up to the LSN end, latest
+        first, on the given pages
+        being recovered, and writes the pages out.  For each page, the
+        undo is logged as one more update of the transaction that made
+        the page's last change, a compensation record, so that redo
+        repeats it should the system fail before the transactions'
+        ABORT records are on disk.  Callers hold this monitor. */
+    private void undo(Map<Long, Long> firsts, long end, Map<PageId, Page> pages)
+        throws IOException {
+        List<LogRecord> records = new ArrayList<LogRecord>();
+        LogReader reader = new LogReader(Collections.min(firsts.values()));
+        try {
+            LogRecord r;
+            while (reader.position() < end && (r = reader.next()) != null) {
+                Long first = firsts.get(r.tid);
+                if (r.isUpdate() && first != null && r.lsn >= first) {
+                    records.add(r);
+                }
+            }
+        } finally {
+            reader.close();
+        }
 
-        raf.close();
-        logFile.delete();
-        newFile.renameTo(logFile);
-        raf = new RandomAccessFile(logFile, "rw");
-        raf.seek(raf.length());
-        newFile.delete();
+        Map<PageId, Page> undone = new HashMap<PageId, Page>();
+        Map<PageId, Long> undoers = new HashMap<PageId, Long>();
+        for (int i = records.size() - 1; i >= 0; i--) {
+            LogRecord r = records.get(i);
+            PageId pid = r.pageId();
+            Page p = recoveryPage(pages, pid);
+            if (!undone.containsKey(pid)) {
+                undone.put(pid, copyPage(p));
+                undoers.put(pid, r.tid);
+            }
+            if (r.delta != null) {
+                r.delta.undo((HeapPage) p);
+            } else {
+                pages.put(pid, r.before);
+            }
+        }
 
-        currentOffset = raf.getFilePointer();
-        //print();
+        for (Map.Entry<PageId, Page> e : undone.entrySet()) {
+            TransactionId tid = new TransactionId(undoers.get(e.getKey()));
+            logWrite(tid, e.getValue(), pages.get(e.getKey()));
+        }
+        force();
+        writePages(pages.values());
     }
 
-    /** Rollback the specified transaction, setting the state of any
-        of pages it updated to their pre-updated state.  To preserve
-        transaction semantics, this should not be called on
-        transactions that have already committed (though this may not
-        be enforced by this method.)
+    // Helper method to copy a page being recovered.
+    private static Page copyPage(Page p) throws IOException {
+        if (p instanceof HeapPage) {
+            return new HeapPage((HeapPageId) p.getId(), p.getPageData());
+        }
+        return p.getBeforeImage();
+    }
 
-        @param tid The transaction to rollback
-    */
-    public void rollback(TransactionId tid)
-        throws NoSuchElementException, IOException {
-        synchronized (Database.getBufferPool()) {
-            synchronized(this) {
-                preAppend();
-                // some code goes here
+    // Helper method to write recovered pages to their files, note which
+    // of them have free slots, and force the files.
+    private static void writePages(Collection<Page> pages) throws IOException {
+        Set<HeapFile> written = new HashSet<HeapFile>();
+        for (Page p : pages) {
+            DbFile file = Database.getCatalog().getDbFile(p.getId().getTableId());
+            file.writePage(p);
+            if (file instanceof HeapFile) {
+                written.add((HeapFile) file);
+                if (p instanceof HeapPage) {
+                    ((HeapFile) file).updateFreeSpace((HeapPage) p);
+                }
             }
         }
+        for (HeapFile file : written) {
+            file.force();
+        }
     }
 
     /** Shutdown the logging system, writing out whatever state
@@ -479,6 +1205,12 @@ public class LogFile {
         try {
             logCheckpoint();  //simple way to shutdown is to write a checkpoint record
             raf.close();
+            synchronized (forceLock) {
+                for (RandomAccessFile f : openSegments.values()) {
+                    f.close();
+                }
+                openSegments.clear();
+            }
         } catch (IOException e) {
             System.out.println("ERROR SHUTTING DOWN -- IGNORING.");
             e.printStackTrace();
@@ -494,17 +1226,227 @@ public class LogFile {
             synchronized (this) {
                 recoveryUndecided = false;
                 // some code goes here
+                raf.seek(0);
+                long checkpoint = NO_CHECKPOINT_ID;
+                if (raf.length() >= LONG_SIZE) {
+                    checkpoint = raf.readLong();
+                } else {
+                    raf.writeLong(NO_CHECKPOINT_ID);
+                }
+                TreeSet<Long> segments = listSegments();
+                long start = segments.isEmpty() ? 0 : segments.first() * segmentSize;
+
+                // analysis starts from the transaction and dirty page
+                // tables of the checkpoint; without one, every change in
+                // the log is redone.
+                Map<Long, Long> active = new HashMap<Long, Long>();
+                Map<PageId, Long> dirty = new HashMap<PageId, Long>();
+                long redoStart = start;
+                if (checkpoint != NO_CHECKPOINT_ID) {
+                    LogReader reader = new LogReader(checkpoint);
+                    LogRecord cp = reader.next();
+                    reader.close();
+                    if (cp == null || cp.type != CHECKPOINT_RECORD) {
+                        throw new IOException("Checkpoint pointer does not point to checkpoint record");
+                    }
+                    active.putAll(cp.active);
+                    dirty.putAll(cp.dirty);
+                    redoStart = checkpoint;
+                    for (long recLsn : dirty.values()) {
+                        redoStart = Math.min(redoStart, recLsn);
+                    }
+                    redoStart = Math.max(redoStart, start);
+                }
+
+                // a single pass over the log finishes the analysis and
+                // hands the changes to redo to the redo threads.
+                Redo redo = new Redo(recoveryThreads);
+                LogReader reader = new LogReader(redoStart);
+                long end = redoStart;
+                long maxTid = -1;
+                try {
+                    LogRecord r;
+                    while ((r = reader.next()) != null) {
+                        end = reader.position();
+                        maxTid = Math.max(maxTid, r.tid);
+                        if (r.lsn < checkpoint) {
+                            // before the checkpoint, only pages it lists
+                            // as dirty can lack the change on disk.
+                            Long recLsn = r.isUpdate() ? dirty.get(r.pageId()) : null;
+                            if (recLsn != null && r.lsn >= recLsn) {
+                                redo.add(r);
+                            }
+                            continue;
+                        }
+                        switch (r.type) {
+                        case BEGIN_RECORD:
+                            active.put(r.tid, r.lsn);
+                            break;
+                        case COMMIT_RECORD:
+                        case ABORT_RECORD:
+                            active.remove(r.tid);
+                            break;
+                        case UPDATE_RECORD:
+                        case UPDATE_DELTA_RECORD:
+                            if (!active.containsKey(r.tid)) {
+                                active.put(r.tid, r.lsn);
+                            }
+                            redo.add(r);
+                            break;
+                        default:
+                            break;
+                        }
+                    }
+                } finally {
+                    reader.close();
+                }
+                Map<PageId, Page> pages = redo.finish();
+                if (maxTid >= 0) {
+                    new TransactionId(maxTid);
+                }
+                Debug.log("RECOVERY: redid %d pages up to LSN %d, %d transactions to undo",
+                        pages.size(), end, active.size());
+
+                // appends go on after the last whole record.
+                synchronized (forceLock) {
+                    cutLog(end);
+                }
+                logBuffer.clear();
+                bufferStart = end;
+                currentOffset = end;
+                published(end);
+                tidToFirstLogRecord.clear();
+
+                if (active.isEmpty()) {
+                    writePages(pages.values());
+                } else {
+                    undo(active, end, pages);
+                    for (Long tid : active.keySet()) {
+                        out.writeInt(ABORT_RECORD);
+                        out.writeLong(tid);
+                        out.writeLong(currentOffset);
+                        currentOffset = appendOffset();
+                    }
+                    force();
+                }
+                for (PageId pid : pages.keySet()) {
+                    Database.getBufferPool().discardPage(pid);
+                }
             }
          }
     }
 
+    /** Sets the number of threads that recover() redoes changes on.  The
+        pages are divided among them by page id, and each thread redoes
+        the changes to its pages in log order. */
+    public void setRecoveryThreads(int threads) {
+        recoveryThreads = Math.max(1, threads);
+    }
+
+    /** Redoes logged changes on several threads. */
+    private static class Redo {
+        private static final int BATCH = 64;
+        private final RedoWorker[] workers;
+        private final List<List<LogRecord>> batches = new ArrayList<List<LogRecord>>();
+
+        Redo(int threads) {
+            workers = new RedoWorker[threads];
+            for (int i = 0; i < threads; i++) {
+                workers[i] = new RedoWorker();
+                workers[i].start();
+                batches.add(new ArrayList<LogRecord>(BATCH));
+            }
+        }
+
+        /** Hands a change to the thread that owns its page. */
+        void add(LogRecord r) throws IOException {
+            int i = (r.pageId().hashCode() & Integer.MAX_VALUE) % workers.length;
+            List<LogRecord> batch = batches.get(i);
+            batch.add(r);
+            if (batch.size() == BATCH) {
+                workers[i].put(batch);
+                batches.set(i, new ArrayList<LogRecord>(BATCH));
+            }
+        }
+
+        /** Waits for the threads to redo every change.
+            @return the redone pages */
+        Map<PageId, Page> finish() throws IOException {
+            for (int i = 0; i < workers.length; i++) {
+                if (!batches.get(i).isEmpty()) {
+                    workers[i].put(batches.get(i));
+                }
+                workers[i].put(new ArrayList<LogRecord>());
+            }
+            Map<PageId, Page> pages = new HashMap<PageId, Page>();
+            for (RedoWorker w : workers) {
+                try {
+                    w.join();
+                } catch (InterruptedException e) {
+                    throw new InterruptedIOException("Interrupted during recovery");
+                }
+                if (w.error != null) {
+                    IOException e = new IOException("Redo failed: " + w.error);
+                    e.initCause(w.error);
+                    throw e;
+                }
+                pages.putAll(w.pages);
+            }
+            return pages;
+        }
+    }
+
+    /** A redo thread, which redoes the changes to the pages it owns in
+        the order it is handed them. An empty batch ends it. */
+    private static class RedoWorker extends Thread {
+        private final BlockingQueue<List<LogRecord>> queue =
+            new LinkedBlockingQueue<List<LogRecord>>(16);
+        final Map<PageId, Page> pages = new HashMap<PageId, Page>();
+        volatile Throwable error;
+
+        RedoWorker() {
+            super("redo");
+            setDaemon(true);
+        }
+
+        void put(List<LogRecord> batch) throws IOException {
+            try {
+                queue.put(batch);
+            } catch (InterruptedException e) {
+                throw new InterruptedIOException("Interrupted during recovery");
+            }
+        }
+
+        public void run() {
+            try {
+                while (true) {
+                    List<LogRecord> batch = queue.take();
+                    if (batch.isEmpty()) {
+                        return;
+                    }
+                    if (error == null) {
+                        for (LogRecord r : batch) {
+                            redo(pages, r);
+                        }
+                    }
+                }
+            } catch (Throwable t) {
+                error = t;
+            }
+        }
+    }
+
     /** Print out a human readable represenation of the log */
     public void print() throws IOException {
         // some code goes here
     }
 
     public  synchronized void force() throws IOException {
-        raf.getChannel().force(true);
+        flushBuffer();
+        synchronized (forceLock) {
+            forceSegments();
+        }
+        published(bufferStart);
     }
 
 }
@@ -0,0 +1,162 @@
+package simpledb;
+
+import java.util.*;
+
+/**
+ * LruKPolicy implements LRU-K (O'Neil, O'Neil and Weikum). It evicts the
+ * page whose K-th most recent reference is oldest. Pages referenced fewer
+ * than K times are evicted first, least recently used first, so a page
+ * touched once by a large scan cannot push out pages that are referenced
+ * over and over.
+ * <p>
+ * Reference histories of evicted pages are retained for a while, so that a
+ * hot page that is evicted and read back in keeps its priority.
+ */
+public class LruKPolicy implements ReplacementPolicy {
+
+    /** Default K: the classic LRU-2. */
+    public static final int DEFAULT_K = 2;
+
+    /** Reference history of one page: its last K reference times. */
+    private static class History {
+        final PageId pid;
+        final long[] refs; // most recent first; 0 if there is no such reference.
+
+        History(PageId pid, int k) {
+            this.pid = pid;
+            this.refs = new long[k];
+        }
+
+        void reference(long now) {
+            System.arraycopy(refs, 0, refs, 1, refs.length - 1);
+            refs[0] = now;
+        }
+
+        boolean isFull() {
+            return refs[refs.length - 1] != 0;
+        }
+    }
+
+    // eviction order: pages with fewer than K references first (by last
+    // reference), then by K-th most recent reference. Times are unique, so
+    // no two histories compare equal.
+    private static final Comparator<History> EVICTION_ORDER = new Comparator<History>() {
+        public int compare(History a, History b) {
+            boolean aFull = a.isFull();
+            boolean bFull = b.isFull();
+            if (aFull != bFull) {
+                return aFull ? 1 : -1;
+            }
+            long ta = aFull ? a.refs[a.refs.length - 1] : a.refs[0];
+            long tb = bFull ? b.refs[b.refs.length - 1] : b.refs[0];
+            return ta < tb ? -1 : (ta == tb ? 0 : 1);
+        }
+    };
+
+    private final int k;
+    private final HashMap<PageId, History> resident;
+    private final TreeSet<History> order;
+    private final LinkedHashMap<PageId, History> retained;
+    private long clock;
+    private long hits;
+    private long misses;
+
+    /**
+     * Creates an LRU-K policy.
+     *
+     * @param k number of references considered per page.
+     * @param retainedHistories number of evicted pages whose histories are
+     *            remembered; typically the size of the buffer pool.
+     */
+    public LruKPolicy(int k, final int retainedHistories) {
+        if (k < 1) {
+            throw new IllegalArgumentException("K must be at least 1");
+        }
+        this.k = k;
+        this.resident = new HashMap<PageId, History>();
+        this.order = new TreeSet<History>(EVICTION_ORDER);
+        this.retained = new LinkedHashMap<PageId, History>() {
+            private static final long serialVersionUID = 1L;
+
+            protected boolean removeEldestEntry(Map.Entry<PageId, History> eldest) {
+                return size() > retainedHistories;
+            }
+        };
+        this.clock = 0;
+    }
+
+    /** Creates an LRU-2 policy for a buffer pool of the given size. */
+    public LruKPolicy(int numPages) {
+        this(DEFAULT_K, numPages);
+    }
+
+    public void recordHit(PageId pid) {
+        this.hits++;
+        History h = this.resident.get(pid);
+        if (h != null) {
+            this.order.remove(h);
+            h.reference(++this.clock);
+            this.order.add(h);
+        }
+    }
+
+    public void recordMiss(PageId pid) {
+        this.misses++;
+        History h = this.retained.remove(pid);
+        if (h == null) {
+            h = new History(pid, this.k);
+        }
+        h.reference(++this.clock);
+        this.resident.put(pid, h);
+        this.order.add(h);
+    }
+
+    public void remove(PageId pid) {
+        History h = this.resident.remove(pid);
+        if (h != null) {
+            this.order.remove(h);
+        }
+    }
+
+    public PageId evict(Evictor evictor) {
+        Iterator<History> it = this.order.iterator();
+        while (it.hasNext()) {
+            History h = it.next();
+            if (evictor.tryEvict(h.pid)) {
+                it.remove();
+                this.resident.remove(h.pid);
+                this.retained.put(h.pid, h);
+                return h.pid;
+            }
+        }
+        return null;
+    }
+
+    public List<PageId> victims(int n) {
+        List<PageId> next = new ArrayList<PageId>();
+        for (History h : this.order) {
+            if (next.size() >= n) {
+                break;
+            }
+            next.add(h.pid);
+        }
+        return next;
+    }
+
+    public long getHits() {
+        return this.hits;
+    }
+
+    public long getMisses() {
+        return this.misses;
+    }
+
+    public void resetStats() {
+        this.hits = 0;
+        this.misses = 0;
+    }
+
+    public String toString() {
+        return "LRU-" + this.k;
+    }
+}
@@ -0,0 +1,74 @@
+package simpledb;
+
+import java.util.*;
+
+/**
+ * LruPolicy evicts the least recently used page. This is the BufferPool's
+ * default policy.
+ */
+public class LruPolicy implements ReplacementPolicy {
+
+    // resident pages, least recently used first.
+    private final LinkedHashMap<PageId, Boolean> recency;
+    private long hits;
+    private long misses;
+
+    public LruPolicy() {
+        this.recency = new LinkedHashMap<PageId, Boolean>(16, 0.75f, true);
+    }
+
+    public void recordHit(PageId pid) {
+        this.hits++;
+        // get() moves the page to the most recently used end.
+        this.recency.get(pid);
+    }
+
+    public void recordMiss(PageId pid) {
+        this.misses++;
+        this.recency.put(pid, Boolean.TRUE);
+    }
+
+    public void remove(PageId pid) {
+        this.recency.remove(pid);
+    }
+
+    public PageId evict(Evictor evictor) {
+        Iterator<PageId> it = this.recency.keySet().iterator();
+        while (it.hasNext()) {
+            PageId pid = it.next();
+            if (evictor.tryEvict(pid)) {
+                it.remove();
+                return pid;
+            }
+        }
+        return null;
+    }
+
+    public List<PageId> victims(int n) {
+        List<PageId> next = new ArrayList<PageId>();
+        for (PageId pid : this.recency.keySet()) {
+            if (next.size() >= n) {
+                break;
+            }
+            next.add(pid);
+        }
+        return next;
+    }
+
+    public long getHits() {
+        return this.hits;
+    }
+
+    public long getMisses() {
+        return this.misses;
+    }
+
+    public void resetStats() {
+        this.hits = 0;
+        this.misses = 0;
+    }
+
+    public String toString() {
+        return "LRU";
+    }
+}
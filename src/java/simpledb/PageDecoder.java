@@ -0,0 +1,20 @@
+package simpledb;
+
+import java.io.IOException;
+
+/**
+ * Builds pages back from the images the log keeps of them. Recovery and
+ * rollback look up the decoder of each logged page by the name of the
+ * page's class.
+ *
+ * @see LogFile#registerPageDecoder
+ */
+public interface PageDecoder {
+
+    /**
+     * @param id the page id, as returned by {@link PageId#serialize}
+     * @param data the page data, as returned by {@link Page#getPageData}
+     * @return the page with the given id and contents
+     */
+    public Page decode(int[] id, byte[] data) throws IOException;
+}
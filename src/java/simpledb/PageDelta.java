@@ -0,0 +1,169 @@
+package simpledb;
+
+import java.io.*;
+import java.util.ArrayList;
+
+/**
+ * PageDelta is the slot-level difference between two images of a
+ * {@link HeapPage}, as logged by UPDATE_DELTA records: for every slot
+ * that changed, its bytes before and after the change, or null where the
+ * slot was empty. It holds enough to redo and to undo the change, at a
+ * fraction of the size of two full page images when a transaction
+ * touches a few tuples of a page.
+ * <p>
+ * The format of a delta is the table id and page number of the page, the
+ * slot size, the number of changed slots, and for each changed slot its
+ * number, a byte of flags telling which of its images follow, and those
+ * images.
+ */
+class PageDelta {
+
+    private static final int BEFORE_USED = 1;
+    private static final int AFTER_USED = 2;
+
+    private final HeapPageId pid;
+    private final int slotSize;
+    private final int[] slots;
+    private final byte[][] before;
+    private final byte[][] after;
+
+    private PageDelta(HeapPageId pid, int slotSize, int[] slots, byte[][] before,
+            byte[][] after) {
+        this.pid = pid;
+        this.slotSize = slotSize;
+        this.slots = slots;
+        this.before = before;
+        this.after = after;
+    }
+
+    /**
+     * Computes the delta between two images of a page.
+     *
+     * @return the delta, or null if it would not be smaller than the full
+     *         images, in which case the change should be logged whole
+     */
+    static PageDelta diff(HeapPage before, HeapPage after) {
+        return diff(before, after, true);
+    }
+
+    /**
+     * Computes the delta between two images of a page.
+     *
+     * @param bounded false to return the delta however large it is
+     * @return the delta, or null if it is bounded and would not be smaller
+     *         than the full images
+     */
+    static PageDelta diff(HeapPage before, HeapPage after, boolean bounded) {
+        if (!before.getId().equals(after.getId())) {
+            return null;
+        }
+        byte[] b = before.getPageData();
+        byte[] a = after.getPageData();
+        int slotSize = after.getSlotSize();
+        int headerSize = after.getHeaderSize();
+        int numSlots = after.getNumTuples();
+        int budget = 2 * b.length;
+
+        ArrayList<Integer> changed = new ArrayList<Integer>();
+        int size = 0;
+        for (int slot = 0; slot < numSlots; slot++) {
+            if (!sameSlot(b, a, slot, headerSize, slotSize)) {
+                changed.add(slot);
+                size += 5 + 2 * slotSize;
+                if (bounded && size >= budget) {
+                    return null;
+                }
+            }
+        }
+        int[] slots = new int[changed.size()];
+        byte[][] beforeImages = new byte[slots.length][];
+        byte[][] afterImages = new byte[slots.length][];
+        for (int i = 0; i < slots.length; i++) {
+            slots[i] = changed.get(i);
+            beforeImages[i] = before.getSlotImage(slots[i]);
+            afterImages[i] = after.getSlotImage(slots[i]);
+        }
+        return new PageDelta(after.getId(), slotSize, slots, beforeImages, afterImages);
+    }
+
+    // Helper method to compare a slot, header bit and bytes, of two images.
+    private static boolean sameSlot(byte[] b, byte[] a, int slot, int headerSize, int slotSize) {
+        int mask = 1 << (slot % 8);
+        if ((b[slot / 8] & mask) != (a[slot / 8] & mask)) {
+            return false;
+        }
+        int offset = headerSize + slot * slotSize;
+        for (int j = offset; j < offset + slotSize; j++) {
+            if (b[j] != a[j]) {
+                return false;
+            }
+        }
+        return true;
+    }
+
+    /** @return the page this delta changes. */
+    HeapPageId getPageId() {
+        return this.pid;
+    }
+
+    /** @return the number of slots this delta changes. */
+    int numSlots() {
+        return this.slots.length;
+    }
+
+    /** Applies the change to a page that does not have it yet. */
+    void redo(HeapPage page) {
+        for (int i = 0; i < this.slots.length; i++) {
+            page.setSlotImage(this.slots[i], this.after[i]);
+        }
+    }
+
+    /** Takes the change back out of a page that has it. */
+    void undo(HeapPage page) {
+        for (int i = this.slots.length - 1; i >= 0; i--) {
+            page.setSlotImage(this.slots[i], this.before[i]);
+        }
+    }
+
+    /** Writes the delta in its log format. */
+    void write(DataOutput out) throws IOException {
+        out.writeInt(this.pid.getTableId());
+        out.writeInt(this.pid.pageNumber());
+        out.writeInt(this.slotSize);
+        out.writeInt(this.slots.length);
+        for (int i = 0; i < this.slots.length; i++) {
+            out.writeInt(this.slots[i]);
+            out.writeByte((this.before[i] != null ? BEFORE_USED : 0)
+                    | (this.after[i] != null ? AFTER_USED : 0));
+            if (this.before[i] != null) {
+                out.write(this.before[i]);
+            }
+            if (this.after[i] != null) {
+                out.write(this.after[i]);
+            }
+        }
+    }
+
+    /** Reads a delta written by {@link #write}. */
+    static PageDelta read(DataInput in) throws IOException {
+        HeapPageId pid = new HeapPageId(in.readInt(), in.readInt());
+        int slotSize = in.readInt();
+        int n = in.readInt();
+        int[] slots = new int[n];
+        byte[][] before = new byte[n][];
+        byte[][] after = new byte[n][];
+        for (int i = 0; i < n; i++) {
+            slots[i] = in.readInt();
+            int flags = in.readByte();
+            if ((flags & BEFORE_USED) != 0) {
+                before[i] = new byte[slotSize];
+                in.readFully(before[i]);
+            }
+            if ((flags & AFTER_USED) != 0) {
+                after[i] = new byte[slotSize];
+                in.readFully(after[i]);
+            }
+        }
+        return new PageDelta(pid, slotSize, slots, before, after);
+    }
+}
@@ -11,6 +11,7 @@ public class Predicate implements Serializable {
     private int field;
     private Op op;
     private Field operand;
+    private transient CompiledPredicate compiled; // for filter(TupleBatch), on first use.
 
     /** Constants used for return codes in Field.compare */
     public enum Op implements Serializable {
@@ -116,6 +117,21 @@ public class Predicate implements Serializable {
         return t.getField(this.field).compare(this.op, this.operand);
     }
 
+    /**
+     * Narrows the selection of a batch to the rows that pass this
+     * predicate, as {@link #filter(Tuple)} decides them, without Field
+     * objects.
+     *
+     * @param batch the batch to filter in place
+     * @see PredicateCompiler
+     */
+    public void filter(TupleBatch batch) {
+        if (this.compiled == null) {
+            this.compiled = PredicateCompiler.compile(this);
+        }
+        this.compiled.filter(batch);
+    }
+
     /**
      * Returns something useful, like "f = field_id op = op_string operand =
      * operand_string
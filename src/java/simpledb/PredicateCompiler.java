@@ -0,0 +1,464 @@
+package simpledb;
+
+import java.util.*;
+import java.util.concurrent.ConcurrentHashMap;
+
+/**
+ * PredicateCompiler turns Predicates into {@link CompiledPredicate}s. Each
+ * shape of predicate, a field type and an operator, has its own class: an
+ * integer comparison is a single comparison of the raw value, compiled to
+ * a branch-free loop over a batch, and a string comparison holds a matcher
+ * prepared from its operand. The template for each shape is chosen once
+ * and cached, and compiling a predicate binds its field and operand to it.
+ * <p>
+ * A chain of predicates, such as the stacked Filters that
+ * {@link LogicalPlan#physicalPlan} builds for a table, compiles to their
+ * conjunction, which tests them in order and stops at the first that fails.
+ */
+public class PredicateCompiler {
+
+    private static final Map<String, Template> templates = new ConcurrentHashMap<String, Template>();
+
+    private PredicateCompiler() {
+    }
+
+    /** @return a compiled predicate equivalent to p.filter(). */
+    public static CompiledPredicate compile(Predicate p) {
+        Type type = p.getOperand().getType();
+        String shape = type + " " + p.getOp().name();
+        Template t = templates.get(shape);
+        if (t == null) {
+            t = template(type, p.getOp());
+            templates.put(shape, t);
+        }
+        return t.bind(p.getField(), p.getOperand());
+    }
+
+    /**
+     * @return a compiled predicate that passes the tuples that pass every
+     *         predicate of chain, tested in order.
+     */
+    public static CompiledPredicate compile(List<Predicate> chain) {
+        if (chain.size() == 1) {
+            return compile(chain.get(0));
+        }
+        CompiledPredicate[] parts = new CompiledPredicate[chain.size()];
+        for (int i = 0; i < parts.length; i++) {
+            parts[i] = compile(chain.get(i));
+        }
+        return new And(parts);
+    }
+
+    /** @return the number of predicate shapes compiled so far. */
+    static int shapes() {
+        return templates.size();
+    }
+
+    /** Makes the CompiledPredicate of a shape for a field and operand. */
+    private static abstract class Template {
+        abstract CompiledPredicate bind(int field, Field operand);
+    }
+
+    // Helper method to choose the class for a shape.
+    private static Template template(Type type, final Predicate.Op op) {
+        if (type == Type.INT_TYPE) {
+            switch (op) {
+            case EQUALS:
+            case LIKE: // IntField.compare treats LIKE as EQUALS.
+                return new Template() {
+                    CompiledPredicate bind(int field, Field operand) {
+                        return new IntEquals(field, operand);
+                    }
+                };
+            case NOT_EQUALS:
+                return new Template() {
+                    CompiledPredicate bind(int field, Field operand) {
+                        return new IntNotEquals(field, operand);
+                    }
+                };
+            case GREATER_THAN:
+                return new Template() {
+                    CompiledPredicate bind(int field, Field operand) {
+                        return new IntGreaterThan(field, operand);
+                    }
+                };
+            case GREATER_THAN_OR_EQ:
+                return new Template() {
+                    CompiledPredicate bind(int field, Field operand) {
+                        return new IntGreaterThanOrEq(field, operand);
+                    }
+                };
+            case LESS_THAN:
+                return new Template() {
+                    CompiledPredicate bind(int field, Field operand) {
+                        return new IntLessThan(field, operand);
+                    }
+                };
+            case LESS_THAN_OR_EQ:
+                return new Template() {
+                    CompiledPredicate bind(int field, Field operand) {
+                        return new IntLessThanOrEq(field, operand);
+                    }
+                };
+            }
+        } else {
+            switch (op) {
+            case EQUALS:
+                return new Template() {
+                    CompiledPredicate bind(int field, Field operand) {
+                        return new StringEquals(field, operand, true);
+                    }
+                };
+            case NOT_EQUALS:
+                return new Template() {
+                    CompiledPredicate bind(int field, Field operand) {
+                        return new StringEquals(field, operand, false);
+                    }
+                };
+            case LIKE:
+                return new Template() {
+                    CompiledPredicate bind(int field, Field operand) {
+                        return new StringLike(field, operand);
+                    }
+                };
+            default:
+                return new Template() {
+                    CompiledPredicate bind(int field, Field operand) {
+                        return new StringOrder(field, op, operand);
+                    }
+                };
+            }
+        }
+        throw new IllegalArgumentException("Cannot compile " + type + " " + op);
+    }
+
+    /**
+     * Base of the integer comparisons. Each subclass compares the raw value
+     * in both matches and filter, so the JIT compiles every loop for a
+     * single operator. The batch loops write every row to the selection and
+     * keep it by advancing out, so they have no data-dependent branches.
+     */
+    private static abstract class IntCompare extends CompiledPredicate {
+        final int field;
+        final int w;
+
+        IntCompare(int field, Field operand) {
+            this.field = field;
+            this.w = ((IntField) operand).getValue();
+        }
+
+        final int value(Tuple t) {
+            return ((IntField) t.getField(this.field)).getValue();
+        }
+
+        final int value(TupleView v) {
+            return v.getInt(this.field);
+        }
+    }
+
+    private static final class IntEquals extends IntCompare {
+        IntEquals(int field, Field operand) {
+            super(field, operand);
+        }
+
+        public boolean matches(Tuple t) {
+            return this.value(t) == this.w;
+        }
+
+        public boolean matches(TupleView v) {
+            return this.value(v) == this.w;
+        }
+
+        public void filter(TupleBatch batch) {
+            int[] sel = batch.selection();
+            int[] col = batch.getInts(this.field);
+            int w = this.w, n = batch.size(), out = 0;
+            for (int i = 0; i < n; i++) {
+                int row = sel[i];
+                sel[out] = row;
+                out += col[row] == w ? 1 : 0;
+            }
+            batch.setSize(out);
+        }
+    }
+
+    private static final class IntNotEquals extends IntCompare {
+        IntNotEquals(int field, Field operand) {
+            super(field, operand);
+        }
+
+        public boolean matches(Tuple t) {
+            return this.value(t) != this.w;
+        }
+
+        public boolean matches(TupleView v) {
+            return this.value(v) != this.w;
+        }
+
+        public void filter(TupleBatch batch) {
+            int[] sel = batch.selection();
+            int[] col = batch.getInts(this.field);
+            int w = this.w, n = batch.size(), out = 0;
+            for (int i = 0; i < n; i++) {
+                int row = sel[i];
+                sel[out] = row;
+                out += col[row] != w ? 1 : 0;
+            }
+            batch.setSize(out);
+        }
+    }
+
+    private static final class IntGreaterThan extends IntCompare {
+        IntGreaterThan(int field, Field operand) {
+            super(field, operand);
+        }
+
+        public boolean matches(Tuple t) {
+            return this.value(t) > this.w;
+        }
+
+        public boolean matches(TupleView v) {
+            return this.value(v) > this.w;
+        }
+
+        public void filter(TupleBatch batch) {
+            int[] sel = batch.selection();
+            int[] col = batch.getInts(this.field);
+            int w = this.w, n = batch.size(), out = 0;
+            for (int i = 0; i < n; i++) {
+                int row = sel[i];
+                sel[out] = row;
+                out += col[row] > w ? 1 : 0;
+            }
+            batch.setSize(out);
+        }
+    }
+
+    private static final class IntGreaterThanOrEq extends IntCompare {
+        IntGreaterThanOrEq(int field, Field operand) {
+            super(field, operand);
+        }
+
+        public boolean matches(Tuple t) {
+            return this.value(t) >= this.w;
+        }
+
+        public boolean matches(TupleView v) {
+            return this.value(v) >= this.w;
+        }
+
+        public void filter(TupleBatch batch) {
+            int[] sel = batch.selection();
+            int[] col = batch.getInts(this.field);
+            int w = this.w, n = batch.size(), out = 0;
+            for (int i = 0; i < n; i++) {
+                int row = sel[i];
+                sel[out] = row;
+                out += col[row] >= w ? 1 : 0;
+            }
+            batch.setSize(out);
+        }
+    }
+
+    private static final class IntLessThan extends IntCompare {
+        IntLessThan(int field, Field operand) {
+            super(field, operand);
+        }
+
+        public boolean matches(Tuple t) {
+            return this.value(t) < this.w;
+        }
+
+        public boolean matches(TupleView v) {
+            return this.value(v) < this.w;
+        }
+
+        public void filter(TupleBatch batch) {
+            int[] sel = batch.selection();
+            int[] col = batch.getInts(this.field);
+            int w = this.w, n = batch.size(), out = 0;
+            for (int i = 0; i < n; i++) {
+                int row = sel[i];
+                sel[out] = row;
+                out += col[row] < w ? 1 : 0;
+            }
+            batch.setSize(out);
+        }
+    }
+
+    private static final class IntLessThanOrEq extends IntCompare {
+        IntLessThanOrEq(int field, Field operand) {
+            super(field, operand);
+        }
+
+        public boolean matches(Tuple t) {
+            return this.value(t) <= this.w;
+        }
+
+        public boolean matches(TupleView v) {
+            return this.value(v) <= this.w;
+        }
+
+        public void filter(TupleBatch batch) {
+            int[] sel = batch.selection();
+            int[] col = batch.getInts(this.field);
+            int w = this.w, n = batch.size(), out = 0;
+            for (int i = 0; i < n; i++) {
+                int row = sel[i];
+                sel[out] = row;
+                out += col[row] <= w ? 1 : 0;
+            }
+            batch.setSize(out);
+        }
+    }
+
+    /** Base of the string comparisons, which test one value at a time. */
+    private static abstract class StringCompare extends CompiledPredicate {
+        final int field;
+        final String w;
+
+        StringCompare(int field, Field operand) {
+            this.field = field;
+            this.w = ((StringField) operand).getValue();
+        }
+
+        abstract boolean test(String v);
+
+        public final boolean matches(Tuple t) {
+            return this.test(((StringField) t.getField(this.field)).getValue());
+        }
+
+        public final boolean matches(TupleView v) {
+            return this.test(v.getString(this.field));
+        }
+
+        public final void filter(TupleBatch batch) {
+            int[] sel = batch.selection();
+            String[] col = batch.getStrings(this.field);
+            int n = batch.size(), out = 0;
+            for (int i = 0; i < n; i++) {
+                int row = sel[i];
+                if (this.test(col[row])) {
+                    sel[out++] = row;
+                }
+            }
+            batch.setSize(out);
+        }
+    }
+
+    /** EQUALS or NOT_EQUALS, which first rule out values of another length. */
+    private static final class StringEquals extends StringCompare {
+        private final boolean equals;
+        private final int length;
+
+        StringEquals(int field, Field operand, boolean equals) {
+            super(field, operand);
+            this.equals = equals;
+            this.length = this.w.length();
+        }
+
+        boolean test(String v) {
+            return (v.length() == this.length && v.equals(this.w)) == this.equals;
+        }
+    }
+
+    /** The ordering operators, as a table of which compareTo signs pass. */
+    private static final class StringOrder extends StringCompare {
+        private final boolean[] passes = new boolean[3]; // by sign + 1.
+
+        StringOrder(int field, Predicate.Op op, Field operand) {
+            super(field, operand);
+            this.passes[0] = op == Predicate.Op.LESS_THAN || op == Predicate.Op.LESS_THAN_OR_EQ;
+            this.passes[1] = op == Predicate.Op.LESS_THAN_OR_EQ || op == Predicate.Op.GREATER_THAN_OR_EQ;
+            this.passes[2] = op == Predicate.Op.GREATER_THAN || op == Predicate.Op.GREATER_THAN_OR_EQ;
+        }
+
+        boolean test(String v) {
+            return this.passes[Integer.signum(v.compareTo(this.w)) + 1];
+        }
+    }
+
+    /**
+     * LIKE, which StringField.compare takes as "contains". The operand's
+     * characters are prepared once, with a Horspool shift table for its
+     * last character, so a value is searched without rescanning it from
+     * every position.
+     */
+    private static final class StringLike extends StringCompare {
+        private static final int ALPHABET = 128;
+        private final char[] pattern;
+        private final int[] shift = new int[ALPHABET];
+        private int otherShift; // shift for characters outside ALPHABET.
+
+        StringLike(int field, Field operand) {
+            super(field, operand);
+            this.pattern = this.w.toCharArray();
+            int m = this.pattern.length;
+            Arrays.fill(this.shift, m);
+            this.otherShift = m;
+            for (int i = 0; i < m - 1; i++) {
+                if (this.pattern[i] < ALPHABET) {
+                    this.shift[this.pattern[i]] = m - 1 - i;
+                } else {
+                    this.otherShift = Math.min(this.otherShift, m - 1 - i);
+                }
+            }
+        }
+
+        boolean test(String v) {
+            char[] p = this.pattern;
+            int m = p.length;
+            if (m == 0) {
+                return true;
+            }
+            int end = m - 1; // position in v of the pattern's last character.
+            while (end < v.length()) {
+                char c = v.charAt(end);
+                if (c == p[m - 1]) {
+                    int i = m - 2;
+                    while (i >= 0 && v.charAt(end - (m - 1 - i)) == p[i]) {
+                        i--;
+                    }
+                    if (i < 0) {
+                        return true;
+                    }
+                }
+                end += c < ALPHABET ? this.shift[c] : this.otherShift;
+            }
+            return false;
+        }
+    }
+
+    /** A conjunction, which tests its parts in order. */
+    private static final class And extends CompiledPredicate {
+        private final CompiledPredicate[] parts;
+
+        And(CompiledPredicate[] parts) {
+            this.parts = parts;
+        }
+
+        public boolean matches(Tuple t) {
+            for (CompiledPredicate p : this.parts) {
+                if (!p.matches(t)) {
+                    return false;
+                }
+            }
+            return true;
+        }
+
+        public boolean matches(TupleView v) {
+            for (CompiledPredicate p : this.parts) {
+                if (!p.matches(v)) {
+                    return false;
+                }
+            }
+            return true;
+        }
+
+        public void filter(TupleBatch batch) {
+            for (int i = 0; i < this.parts.length && batch.size() > 0; i++) {
+                this.parts[i].filter(batch);
+            }
+        }
+    }
+}
@@ -5,12 +5,15 @@ import java.util.*;
 /**
  * Project is an operator that implements a relational projection.
  */
-public class Project extends Operator {
+public class Project extends Operator implements BatchIterator {
 
     private static final long serialVersionUID = 1L;
     private DbIterator child;
     private TupleDesc td;
     private ArrayList<Integer> outFieldIds;
+    private transient BatchIterator batchChild;
+    private transient TupleBatch batch;
+    private transient int[] columns; // child column of each output column.
 
     /**
      * Constructor accepts a child operator to read tuples to apply projection
@@ -80,6 +83,29 @@ public class Project extends Operator {
         return null;
     }
 
+    /**
+     * Returns the next batch of the child, projected. The projected batch
+     * shares the child's column arrays and selection, so nothing is copied.
+     */
+    public TupleBatch nextBatch() throws DbException, TransactionAbortedException {
+        if (this.batchChild == null) {
+            this.batchChild = Batches.batched(this.child);
+        }
+        TupleBatch in = this.batchChild.nextBatch();
+        if (in == null) {
+            return null;
+        }
+        if (this.batch == null) {
+            this.batch = new TupleBatch(this.td, 0);
+            this.columns = new int[this.outFieldIds.size()];
+            for (int i = 0; i < this.columns.length; i++) {
+                this.columns[i] = this.outFieldIds.get(i);
+            }
+        }
+        this.batch.project(in, this.columns);
+        return this.batch;
+    }
+
     @Override
     public DbIterator[] getChildren() {
         return new DbIterator[] { this.child };
@@ -90,6 +116,7 @@ public class Project extends Operator {
 	if (this.child!=children[0])
 	{
 	    this.child = children[0];
+	    this.batchChild = null;
 	}
     }
     
@@ -0,0 +1,69 @@
+package simpledb;
+
+/**
+ * ReadAhead issues asynchronous prefetches for a scan over the pages of one
+ * file. It watches the pages the scan asks for: while they are consecutive
+ * the read-ahead window starts small and doubles on every page, up to the
+ * limit set by the BufferPool; a jump to any other page is taken as random
+ * access and closes the window again.
+ *
+ * @see BufferPool#prefetchPage
+ */
+public class ReadAhead {
+
+    /** Window opened by the first sequential access. */
+    private static final int INITIAL_WINDOW = 4;
+
+    private final BufferPool bp;
+    private final int tableId;
+    private final int numPages;
+    private final ScanRing ring;
+
+    private int window;
+    private int lastPage;
+    private int prefetchedTo; // highest page already requested.
+
+    /**
+     * @param bp the BufferPool to read pages into
+     * @param tableId the id of the file being scanned
+     * @param numPages the number of pages in the file
+     * @param ring the scan ring pages are read into, or null
+     */
+    public ReadAhead(BufferPool bp, int tableId, int numPages, ScanRing ring) {
+        this.bp = bp;
+        this.tableId = tableId;
+        this.numPages = numPages;
+        this.ring = ring;
+        this.window = 0;
+        this.lastPage = -1;
+        this.prefetchedTo = -1;
+    }
+
+    /**
+     * Notes that the scan has moved to the specified page, and requests the
+     * pages after it that fall in the read-ahead window.
+     *
+     * @param pageNo the page the scan is now reading
+     */
+    public void access(int pageNo) {
+        int maxWindow = this.bp.getReadAheadPages(this.ring);
+        if (pageNo == this.lastPage + 1) {
+            this.window = Math.min(Math.max(INITIAL_WINDOW, this.window * 2), maxWindow);
+        } else {
+            this.window = 0;
+            this.prefetchedTo = pageNo;
+        }
+        this.lastPage = pageNo;
+
+        int end = Math.min(pageNo + this.window, this.numPages - 1);
+        for (int p = Math.max(this.prefetchedTo, pageNo) + 1; p <= end; p++) {
+            this.bp.prefetchPage(new HeapPageId(this.tableId, p), this.ring);
+        }
+        this.prefetchedTo = Math.max(this.prefetchedTo, end);
+    }
+
+    /** @return the current read-ahead window, in pages. */
+    public int getWindow() {
+        return this.window;
+    }
+}
@@ -0,0 +1,65 @@
+package simpledb;
+
+import java.util.List;
+
+/**
+ * ReplacementPolicy decides which resident page the BufferPool evicts when
+ * it needs a free frame. A policy is chosen when the BufferPool is built.
+ * <p>
+ * The BufferPool serializes all calls into its policy, so implementations
+ * do not need to be thread-safe. Hits may be reported late, in batches,
+ * and may name pages that have been evicted in the meantime; policies must
+ * count such hits but otherwise ignore them.
+ *
+ * @see BufferPool#BufferPool(int, ReplacementPolicy)
+ */
+public interface ReplacementPolicy {
+
+    /**
+     * Callback used by {@link ReplacementPolicy#evict} to claim a victim.
+     * A page may be refused, for instance because it is pinned.
+     */
+    public interface Evictor {
+        /**
+         * Tries to evict the specified page.
+         *
+         * @return true if the page was claimed and will leave the pool.
+         */
+        public boolean tryEvict(PageId pid);
+    }
+
+    /** Records a request for a page that was already resident. */
+    public void recordHit(PageId pid);
+
+    /** Records a request for a page that was not resident and was read in. */
+    public void recordMiss(PageId pid);
+
+    /** Forgets a resident page that left the pool other than through evict. */
+    public void remove(PageId pid);
+
+    /**
+     * Chooses a page to evict, in the policy's order of preference, and
+     * forgets it once evictor has claimed it.
+     *
+     * @return the evicted page, or null if evictor refused every page.
+     */
+    public PageId evict(Evictor evictor);
+
+    /**
+     * Lists the pages evict would offer first, in that order, without
+     * changing the policy's state, so that the BufferPool can write out
+     * dirty ones ahead of eviction.
+     *
+     * @param n the most pages to list.
+     */
+    public List<PageId> victims(int n);
+
+    /** @return the number of hits recorded since the last resetStats. */
+    public long getHits();
+
+    /** @return the number of misses recorded since the last resetStats. */
+    public long getMisses();
+
+    /** Resets the hit and miss counters. */
+    public void resetStats();
+}
@@ -0,0 +1,66 @@
+package simpledb;
+
+import java.util.*;
+
+/**
+ * ScanRing is a small, private set of buffer frames used by one large
+ * sequential scan, in the spirit of PostgreSQL's ring buffer access
+ * strategy. Pages that the scan reads in are placed in the ring instead of
+ * being handed to the BufferPool's replacement policy, and once the ring is
+ * full the scan recycles its own oldest frame. A scan over a table much
+ * larger than the pool therefore uses only a handful of frames and leaves
+ * the working set of other queries alone.
+ * <p>
+ * Pages that were already resident are used where they are. A ring page
+ * that another query requests, or that cannot be recycled (because it is
+ * pinned or dirty), is handed over to the replacement policy.
+ * <p>
+ * Rings are created by {@link BufferPool#newScanRing} and must be returned
+ * with {@link BufferPool#releaseScanRing} when the scan finishes; rings
+ * created for a transaction are returned when it completes at the latest.
+ * All state is guarded by the BufferPool that created the ring.
+ */
+public class ScanRing {
+
+    private final int capacity;
+    private final LinkedList<BufferFrame> frames; // oldest first.
+    private boolean released; // returned to the BufferPool; takes no new frames.
+
+    ScanRing(int capacity) {
+        this.capacity = capacity;
+        this.frames = new LinkedList<BufferFrame>();
+    }
+
+    /** @return the maximum number of frames in this ring. */
+    public int getCapacity() {
+        return this.capacity;
+    }
+
+    boolean isFull() {
+        return this.frames.size() >= this.capacity;
+    }
+
+    void add(BufferFrame frame) {
+        this.frames.addLast(frame);
+    }
+
+    void remove(BufferFrame frame) {
+        this.frames.remove(frame);
+    }
+
+    boolean isReleased() {
+        return this.released;
+    }
+
+    void release() {
+        this.released = true;
+    }
+
+    BufferFrame oldest() {
+        return this.frames.getFirst();
+    }
+
+    List<BufferFrame> frames() {
+        return this.frames;
+    }
+}
@@ -7,7 +7,7 @@ import java.util.*;
  * each tuple of a table in no particular order (e.g., as they are laid out on
  * disk).
  */
-public class SeqScan implements DbIterator {
+public class SeqScan implements BatchIterator {
 
     private static final long serialVersionUID = 1L;
     
@@ -16,6 +16,7 @@ public class SeqScan implements DbIterator {
     private String tableAlias;
 
     private DbFileIterator i;
+    private transient TupleBatch batch;
 
     /**
      * Creates a sequential scan over the specified table as a part of the
@@ -136,8 +137,56 @@ public class SeqScan implements DbIterator {
         return this.i.next();
     }
 
+    /**
+     * Returns the next batch of tuples. Tuples of a HeapFile are read
+     * straight from the pages into the batch, with their RecordIds.
+     */
+    public TupleBatch nextBatch() throws DbException, TransactionAbortedException {
+        if (this.i == null) {
+            throw new IllegalStateException("Iterator has not been opened yet!");
+        }
+        if (this.batch == null) {
+            this.batch = new TupleBatch(this.getTupleDesc());
+        }
+        if (this.i instanceof HeapFileIterator) {
+            return ((HeapFileIterator) this.i).nextBatch(this.batch) ? this.batch : null;
+        }
+        this.batch.clear();
+        while (!this.batch.isFull() && this.i.hasNext()) {
+            this.batch.add(this.i.next());
+        }
+        return this.batch.size() > 0 ? this.batch : null;
+    }
+
+    /**
+     * Returns the next tuple that passes p, for a Filter reading this scan.
+     * Tuples of a HeapFile are tested on the bytes of the pages, and only
+     * those that pass are materialized. Use either this, nextBatch, or
+     * hasNext and next after opening or rewinding the scan.
+     *
+     * @return the tuple, or null if there are no more tuples that pass
+     */
+    Tuple next(CompiledPredicate p) throws DbException, TransactionAbortedException {
+        if (this.i == null) {
+            throw new IllegalStateException("Iterator has not been opened yet!");
+        }
+        if (this.i instanceof HeapFileIterator) {
+            return ((HeapFileIterator) this.i).next(p);
+        }
+        while (this.i.hasNext()) {
+            Tuple t = this.i.next();
+            if (p.matches(t)) {
+                return t;
+            }
+        }
+        return null;
+    }
+
     public void close() {
         // some code goes here
+        if (this.i != null) {
+            this.i.close();
+        }
         this.i = null;
     }
 
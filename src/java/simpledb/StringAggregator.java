@@ -15,7 +15,7 @@ public class StringAggregator implements Aggregator {
     private String afieldName; // Used when build TupleDesc.
     private String gbfieldName; // Used when build TupleDesc.
 
-    private Map<Field, Field> aggregates;
+    private Map<Field, int[]> aggregates; // count of each group.
 
     /**
      * Aggregate constructor
@@ -35,7 +35,7 @@ public class StringAggregator implements Aggregator {
         this.gbfieldtype = gbfieldtype;
         this.afield = afield;
 
-        aggregates = new HashMap<Field, Field>();
+        aggregates = new HashMap<Field, int[]>();
     }
 
     /**
@@ -54,17 +54,50 @@ public class StringAggregator implements Aggregator {
             gbfieldName = tup.getTupleDesc().getFieldName(gbfield);
         }
 
-        IntField value = (IntField) aggregates.get(key);
-
-        int count;
+        this.group(key)[0]++;
+    }
 
-        if (value == null) {
-            count = 1;
-        } else {
-            count = value.getValue() + 1;
+    /**
+     * Merges the selected rows of a batch into their groups; runs of rows
+     * with the same group share one lookup.
+     */
+    public void mergeBatchIntoGroups(TupleBatch batch) {
+        int n = batch.size();
+        if (n == 0) {
+            return;
         }
+        TupleDesc td = batch.getTupleDesc();
+        afieldName = td.getFieldName(afield);
+        if (gbfield == NO_GROUPING) {
+            this.group(new IntField(NO_GROUPING))[0] += n;
+            return;
+        }
+        gbfieldName = td.getFieldName(gbfield);
+        int[] sel = batch.selection();
+        Field last = null;
+        int run = 0;
+        for (int i = 0; i < n; i++) {
+            Field key = batch.getField(sel[i], gbfield);
+            if (last == null || !key.equals(last)) {
+                if (last != null) {
+                    this.group(last)[0] += run;
+                }
+                last = key;
+                run = 0;
+            }
+            run++;
+        }
+        this.group(last)[0] += run;
+    }
 
-        aggregates.put(key, new IntField(count));
+    // Helper method to return the count of a group, creating it if needed.
+    private int[] group(Field key) {
+        int[] count = aggregates.get(key);
+        if (count == null) {
+            count = new int[1];
+            aggregates.put(key, count);
+        }
+        return count;
     }
 
     /**
@@ -82,14 +115,15 @@ public class StringAggregator implements Aggregator {
 
         if (this.gbfield == NO_GROUPING) {
             Tuple aggregateTuple = new Tuple(td);
-            aggregateTuple.setField(0, aggregates.get(new IntField(NO_GROUPING)));
+            int[] count = aggregates.get(new IntField(NO_GROUPING));
+            aggregateTuple.setField(0, count == null ? null : new IntField(count[0]));
 
             tupleList.add(aggregateTuple);
         } else {
-            for (Map.Entry<Field, Field> agg : aggregates.entrySet()) { 
+            for (Map.Entry<Field, int[]> agg : aggregates.entrySet()) { 
                 Tuple aggregateTuple = new Tuple(td);
                 aggregateTuple.setField(0, agg.getKey());
-                aggregateTuple.setField(1, agg.getValue());
+                aggregateTuple.setField(1, new IntField(agg.getValue()[0]));
 
                 tupleList.add(aggregateTuple);
             }
@@ -25,6 +25,17 @@ public class Transaction {
         }
     }
 
+    /**
+     * Start the transaction as a read-only query that reads a snapshot of
+     * the database as of now, without locks.
+     *
+     * @see BufferPool#beginSnapshot
+     */
+    public void startReadOnly() {
+        start();
+        Database.getBufferPool().beginSnapshot(tid);
+    }
+
     public TransactionId getId() {
         return tid;
     }
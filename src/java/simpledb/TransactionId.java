@@ -17,6 +17,18 @@ public class TransactionId implements Serializable {
         myid = counter.getAndIncrement();
     }
 
+    /**
+     * Creates the id of a transaction read back from the log, and makes
+     * sure that new transactions get higher ids.
+     */
+    TransactionId(long id) {
+        myid = id;
+        long next = counter.get();
+        while (next <= id && !counter.compareAndSet(next, id + 1)) {
+            next = counter.get();
+        }
+    }
+
     public long getId() {
         return myid;
     }
@@ -0,0 +1,277 @@
+package simpledb;
+
+import java.util.ArrayList;
+
+/**
+ * TupleBatch holds a batch of tuples column by column, for operators that
+ * process many tuples per call instead of one; see {@link BatchIterator}.
+ * <p>
+ * Each integer column is an <code>int[]</code> and each string column a
+ * <code>String[]</code>, indexed by row. A selection vector lists the rows
+ * that are part of the batch, in order, so that a filter drops rows by
+ * shortening the selection instead of moving column values:
+ *
+ * <pre>
+ *     int[] sel = batch.selection();
+ *     int[] col = batch.getInts(1);
+ *     for (int i = 0; i &lt; batch.size(); i++) {
+ *         sum += col[sel[i]];
+ *     }
+ * </pre>
+ *
+ * Rows read from a table also carry their RecordId. Operators reuse their
+ * batches, so a batch is only valid until the next call to the operator
+ * that returned it; use {@link #getTuple} for a tuple that has to outlive
+ * it.
+ */
+public class TupleBatch {
+
+    /** Number of rows a batch holds unless a capacity is given. */
+    public static final int DEFAULT_CAPACITY = 1024;
+
+    private final TupleDesc td;
+    private int capacity;
+    private int[][] ints; // per column; null for columns that are not INT_TYPE.
+    private String[][] strings; // per column; null for columns that are not STRING_TYPE.
+    // RecordIds: rows keep the index of their page in pageIds, or -1, so
+    // that a row costs no object store. null until a row has a RecordId.
+    private ArrayList<PageId> pageIds;
+    private int[] pageIndexes;
+    private int[] slots; // slot of each row on its page.
+    private int rows; // rows written to the columns.
+    private int[] sel;
+    private int size; // rows selected.
+
+    /** Creates an empty batch of DEFAULT_CAPACITY rows. */
+    public TupleBatch(TupleDesc td) {
+        this(td, DEFAULT_CAPACITY);
+    }
+
+    /** Creates an empty batch that holds up to capacity rows. */
+    public TupleBatch(TupleDesc td, int capacity) {
+        this.td = td;
+        this.capacity = capacity;
+        int n = td.numFields();
+        this.ints = new int[n][];
+        this.strings = new String[n][];
+        for (int i = 0; i < n; i++) {
+            if (td.getFieldType(i) == Type.INT_TYPE) {
+                this.ints[i] = new int[capacity];
+            } else {
+                this.strings[i] = new String[capacity];
+            }
+        }
+        this.sel = new int[capacity];
+    }
+
+    /** @return the TupleDesc of the tuples in this batch. */
+    public TupleDesc getTupleDesc() {
+        return this.td;
+    }
+
+    /** @return the number of selected rows. */
+    public int size() {
+        return this.size;
+    }
+
+    /** @return the number of rows the batch holds. */
+    public int capacity() {
+        return this.capacity;
+    }
+
+    /** @return true if no more rows can be added. */
+    public boolean isFull() {
+        return this.rows >= this.capacity;
+    }
+
+    /**
+     * @return the selection vector: the first size() entries are the
+     *         selected rows, in order. A filter may overwrite it in place
+     *         and call {@link #setSize}.
+     */
+    public int[] selection() {
+        return this.sel;
+    }
+
+    /** Keeps only the first n rows of the selection vector. */
+    public void setSize(int n) {
+        if (n < 0 || n > this.size) {
+            throw new IllegalArgumentException("cannot select " + n + " of " + this.size + " rows");
+        }
+        this.size = n;
+    }
+
+    /**
+     * @return the values of integer column i, by row.
+     * @throws IllegalArgumentException if column i is not an INT_TYPE column.
+     */
+    public int[] getInts(int i) {
+        if (this.ints[i] == null) {
+            throw new IllegalArgumentException("Field " + i + " is not an integer");
+        }
+        return this.ints[i];
+    }
+
+    /**
+     * @return the values of string column i, by row.
+     * @throws IllegalArgumentException if column i is not a STRING_TYPE column.
+     */
+    public String[] getStrings(int i) {
+        if (this.strings[i] == null) {
+            throw new IllegalArgumentException("Field " + i + " is not a string");
+        }
+        return this.strings[i];
+    }
+
+    /** @return column i of the given row, as a new Field object. */
+    public Field getField(int row, int i) {
+        if (this.ints[i] != null) {
+            return new IntField(this.ints[i][row]);
+        }
+        return new StringField(this.strings[i][row], Type.STRING_LEN);
+    }
+
+    /** @return the RecordId of the given row, or null if it has none. */
+    public RecordId getRecordId(int row) {
+        if (this.pageIndexes == null || this.pageIndexes[row] < 0) {
+            return null;
+        }
+        return new RecordId(this.pageIds.get(this.pageIndexes[row]), this.slots[row]);
+    }
+
+    /** @return the i-th selected row, as a new Tuple. */
+    public Tuple getTuple(int i) {
+        int row = this.sel[i];
+        Tuple t = new Tuple(this.td);
+        for (int c = 0; c < this.ints.length; c++) {
+            t.setField(c, this.getField(row, c));
+        }
+        t.setRecordId(this.getRecordId(row));
+        return t;
+    }
+
+    /** Empties the batch. */
+    public void clear() {
+        this.rows = 0;
+        this.size = 0;
+        if (this.pageIds != null) {
+            this.pageIds.clear();
+        }
+    }
+
+    /**
+     * Adds a selected row with unset values, which the caller writes into
+     * the column arrays.
+     *
+     * @return the index of the new row
+     * @throws IllegalStateException if the batch is full
+     */
+    public int addRow() {
+        if (this.isFull()) {
+            throw new IllegalStateException("TupleBatch is full");
+        }
+        int row = this.rows++;
+        if (this.pageIndexes != null) {
+            this.pageIndexes[row] = -1;
+        }
+        this.sel[this.size++] = row;
+        return row;
+    }
+
+    /** Adds a copy of t as a selected row. */
+    public void add(Tuple t) {
+        int row = this.addRow();
+        for (int c = 0; c < this.ints.length; c++) {
+            Field f = t.getField(c);
+            if (this.ints[c] != null) {
+                this.ints[c][row] = ((IntField) f).getValue();
+            } else {
+                this.strings[c][row] = ((StringField) f).getValue();
+            }
+        }
+        RecordId rid = t.getRecordId();
+        if (rid != null) {
+            this.setRecordId(row, rid.getPageId(), rid.tupleno());
+        }
+    }
+
+    /** Adds the tuple a TupleView is on as a selected row. */
+    public void add(TupleView v) {
+        int row = this.addRow();
+        for (int c = 0; c < this.ints.length; c++) {
+            if (this.ints[c] != null) {
+                this.ints[c][row] = v.getInt(c);
+            } else {
+                this.strings[c][row] = v.getString(c);
+            }
+        }
+        this.setRecordId(row, v.getPageId(), v.getSlot());
+    }
+
+    /**
+     * Copies every column of a row of another batch into this batch's
+     * columns from toColumn on.
+     */
+    public void copyRow(int row, TupleBatch from, int fromRow, int toColumn) {
+        for (int c = 0; c < from.ints.length; c++) {
+            if (from.ints[c] != null) {
+                this.ints[toColumn + c][row] = from.ints[c][fromRow];
+            } else {
+                this.strings[toColumn + c][row] = from.strings[c][fromRow];
+            }
+        }
+    }
+
+    /** Sets the RecordId of a row. */
+    public void setRecordId(int row, PageId pid, int slot) {
+        this.setRecordId(row, this.pageIndex(pid), slot);
+    }
+
+    /**
+     * @return the index of a page for {@link #setRecordId(int, int, int)},
+     *         which is the same for every row of the page added until the
+     *         batch is cleared.
+     */
+    int pageIndex(PageId pid) {
+        if (this.pageIds == null) {
+            this.pageIds = new ArrayList<PageId>();
+            this.pageIndexes = new int[this.capacity];
+            this.slots = new int[this.capacity];
+        }
+        int last = this.pageIds.size() - 1;
+        if (last >= 0 && this.pageIds.get(last).equals(pid)) {
+            return last;
+        }
+        this.pageIds.add(pid);
+        return last + 1;
+    }
+
+    /** Sets the RecordId of a row to a slot of the page of pageIndex. */
+    void setRecordId(int row, int pageIndex, int slot) {
+        this.pageIndexes[row] = pageIndex;
+        this.slots[row] = slot;
+    }
+
+    /**
+     * Makes this batch the given columns of another batch, sharing their
+     * values, selection and RecordIds instead of copying them. The batch
+     * then changes whenever the other batch does.
+     *
+     * @param in a batch with the columns of this batch's TupleDesc, in the
+     *            order given by columns
+     * @param columns the column of in for each column of this batch
+     */
+    public void project(TupleBatch in, int[] columns) {
+        for (int c = 0; c < columns.length; c++) {
+            this.ints[c] = in.ints[columns[c]];
+            this.strings[c] = in.strings[columns[c]];
+        }
+        this.capacity = in.capacity;
+        this.pageIds = in.pageIds;
+        this.pageIndexes = in.pageIndexes;
+        this.slots = in.slots;
+        this.rows = in.rows;
+        this.sel = in.sel;
+        this.size = in.size;
+    }
+}
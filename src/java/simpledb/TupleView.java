@@ -0,0 +1,224 @@
+package simpledb;
+
+import java.nio.ByteBuffer;
+
+/**
+ * TupleView is a flyweight cursor over the tuples of a HeapPage. It reads
+ * fields straight out of the page's bytes, on or off the heap, without
+ * creating Tuple or Field objects, so an operator that only looks at a
+ * few fields of each tuple allocates nothing per tuple.
+ * <p>
+ * A view is positioned before the first used slot; each call to
+ * {@link #next} moves it to the next used slot. Use {@link #toTuple} when
+ * a tuple has to outlive the cursor. The view reads the page as it is, so
+ * the page must stay pinned while the view is in use.
+ *
+ * <pre>
+ *     TupleView v = page.tupleView();
+ *     while (v.next()) {
+ *         sum += v.getInt(1);
+ *     }
+ * </pre>
+ *
+ * @see HeapPage#tupleView
+ */
+public class TupleView {
+
+    private final HeapPage page;
+    private final TupleDesc td;
+    private final int[] fieldOffsets; // offset of each field within a tuple.
+    private final int tupleSize;
+    private int slot;
+    private int offset; // offset of the current tuple in the page.
+
+    TupleView(HeapPage page, TupleDesc td) {
+        this.page = page;
+        this.td = td;
+        this.fieldOffsets = new int[td.numFields()];
+        int off = 0;
+        for (int i = 0; i < this.fieldOffsets.length; i++) {
+            this.fieldOffsets[i] = off;
+            off += td.getFieldType(i).getLen();
+        }
+        this.tupleSize = off;
+        this.reset();
+    }
+
+    /** Moves the view back before the first tuple of the page. */
+    public void reset() {
+        this.slot = -1;
+        this.offset = -1;
+    }
+
+    /**
+     * Moves the view to the next used slot of the page.
+     *
+     * @return false if there are no more tuples on the page.
+     */
+    public boolean next() {
+        int numSlots = this.page.numSlots;
+        do {
+            this.slot++;
+        } while (this.slot < numSlots && !this.page.isSlotUsed(this.slot));
+        if (this.slot >= numSlots) {
+            this.offset = -1;
+            return false;
+        }
+        this.offset = this.page.headerSize + this.slot * this.tupleSize;
+        return true;
+    }
+
+    /** @return the TupleDesc of the tuples in this view. */
+    public TupleDesc getTupleDesc() {
+        return this.td;
+    }
+
+    /** @return the slot of the current tuple. */
+    public int getSlot() {
+        this.checkPositioned();
+        return this.slot;
+    }
+
+    /** @return the id of the page the view reads. */
+    public PageId getPageId() {
+        return this.page.getId();
+    }
+
+    /** @return the RecordId of the current tuple. */
+    public RecordId getRecordId() {
+        return new RecordId(this.page.getId(), this.getSlot());
+    }
+
+    /**
+     * Reads an integer field of the current tuple.
+     *
+     * @throws IllegalArgumentException if field i is not an INT_TYPE field.
+     */
+    public int getInt(int i) {
+        if (this.td.getFieldType(i) != Type.INT_TYPE) {
+            throw new IllegalArgumentException("Field " + i + " is not an integer");
+        }
+        this.checkPositioned();
+        return this.page.data.getInt(this.offset + this.fieldOffsets[i]);
+    }
+
+    /**
+     * Reads a string field of the current tuple.
+     *
+     * @throws IllegalArgumentException if field i is not a STRING_TYPE field.
+     */
+    public String getString(int i) {
+        if (this.td.getFieldType(i) != Type.STRING_TYPE) {
+            throw new IllegalArgumentException("Field " + i + " is not a string");
+        }
+        this.checkPositioned();
+        // same decoding as Type.STRING_TYPE.parse.
+        ByteBuffer data = this.page.data;
+        int off = this.offset + this.fieldOffsets[i];
+        int len = Math.max(0, Math.min(Type.STRING_LEN, data.getInt(off)));
+        byte[] bs = new byte[len];
+        for (int b = 0; b < len; b++) {
+            bs[b] = data.get(off + 4 + b);
+        }
+        return new String(bs);
+    }
+
+    /**
+     * Adds the tuples after the current one to batch, with their RecordIds,
+     * until the batch is full or the page ends.
+     *
+     * @return false if the page ended
+     */
+    boolean readInto(TupleBatch batch) {
+        ByteBuffer data = this.page.data;
+        int pageIndex = batch.pageIndex(this.page.getId());
+        int numSlots = this.page.numSlots;
+        int headerSize = this.page.headerSize;
+        int n = this.fieldOffsets.length;
+        int[][] ints = new int[n][];
+        for (int c = 0; c < n; c++) {
+            if (this.td.getFieldType(c) == Type.INT_TYPE) {
+                ints[c] = batch.getInts(c);
+            }
+        }
+        int slot = this.slot;
+        try {
+            while (!batch.isFull()) {
+                do {
+                    slot++;
+                } while (slot < numSlots && (data.get(slot >>> 3) & (1 << (slot & 7))) == 0);
+                if (slot >= numSlots) {
+                    this.offset = -1;
+                    return false;
+                }
+                int offset = headerSize + slot * this.tupleSize;
+                int row = batch.addRow();
+                for (int c = 0; c < n; c++) {
+                    if (ints[c] != null) {
+                        ints[c][row] = data.getInt(offset + this.fieldOffsets[c]);
+                    } else {
+                        this.slot = slot;
+                        this.offset = offset;
+                        batch.getStrings(c)[row] = this.getString(c);
+                    }
+                }
+                batch.setRecordId(row, pageIndex, slot);
+            }
+            this.offset = headerSize + slot * this.tupleSize;
+            return true;
+        } finally {
+            this.slot = Math.min(slot, numSlots);
+        }
+    }
+
+    /** @return field i of the current tuple, as a new Field object. */
+    public Field getField(int i) {
+        this.checkPositioned();
+        return this.td.getFieldType(i).parse(this.page.data, this.offset + this.fieldOffsets[i]);
+    }
+
+    /**
+     * Compares field i of the current tuple with the given operand, as
+     * {@link Field#compare} would, without materializing integer fields.
+     */
+    public boolean compare(int i, Predicate.Op op, Field operand) {
+        if (this.td.getFieldType(i) == Type.INT_TYPE) {
+            int v = this.getInt(i);
+            int w = ((IntField) operand).getValue();
+            switch (op) {
+            case EQUALS:
+                return v == w;
+            case NOT_EQUALS:
+                return v != w;
+            case GREATER_THAN:
+                return v > w;
+            case GREATER_THAN_OR_EQ:
+                return v >= w;
+            case LESS_THAN:
+                return v < w;
+            case LESS_THAN_OR_EQ:
+                return v <= w;
+            case LIKE:
+                return v == w;
+            }
+            return false;
+        }
+        return this.getField(i).compare(op, operand);
+    }
+
+    /** @return a copy of the current tuple that does not depend on the page. */
+    public Tuple toTuple() {
+        Tuple t = new Tuple(this.td);
+        for (int i = 0; i < this.fieldOffsets.length; i++) {
+            t.setField(i, this.getField(i));
+        }
+        t.setRecordId(this.getRecordId());
+        return t;
+    }
+
+    private void checkPositioned() {
+        if (this.offset < 0) {
+            throw new IllegalStateException("TupleView is not on a tuple");
+        }
+    }
+}
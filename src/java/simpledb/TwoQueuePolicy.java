@@ -0,0 +1,153 @@
+package simpledb;
+
+import java.util.*;
+
+/**
+ * TwoQueuePolicy implements the full 2Q algorithm (Johnson and Shasha).
+ * A page read in for the first time enters A1in, a FIFO queue; hits on it
+ * there are treated as correlated and ignored. When a page is evicted from
+ * A1in its id is remembered in A1out. A page that misses again while it is
+ * remembered in A1out has proven itself hot and enters Am, an LRU queue.
+ * A sequential scan therefore cycles through A1in without disturbing Am.
+ */
+public class TwoQueuePolicy implements ReplacementPolicy {
+
+    private final int kin; // target size of A1in.
+    private final int kout; // maximum size of A1out.
+
+    // queues of page ids, oldest first; Am is kept in access order.
+    private final LinkedHashMap<PageId, Boolean> a1in;
+    private final LinkedHashMap<PageId, Boolean> a1out;
+    private final LinkedHashMap<PageId, Boolean> am;
+    private long hits;
+    private long misses;
+
+    /**
+     * Creates a 2Q policy.
+     *
+     * @param kin target number of resident pages in A1in.
+     * @param kout number of page ids remembered in A1out.
+     */
+    public TwoQueuePolicy(int kin, int kout) {
+        this.kin = Math.max(1, kin);
+        this.kout = Math.max(1, kout);
+        this.a1in = new LinkedHashMap<PageId, Boolean>();
+        this.a1out = new LinkedHashMap<PageId, Boolean>();
+        this.am = new LinkedHashMap<PageId, Boolean>(16, 0.75f, true);
+    }
+
+    /**
+     * Creates a 2Q policy for a buffer pool of the given size, with the
+     * sizes recommended by the paper: A1in holds a quarter of the pool and
+     * A1out remembers half as many pages as the pool holds.
+     */
+    public TwoQueuePolicy(int numPages) {
+        this(numPages / 4, numPages / 2);
+    }
+
+    public void recordHit(PageId pid) {
+        this.hits++;
+        // get() moves the page to the most recently used end of Am; hits
+        // on A1in pages are deliberately not recorded.
+        this.am.get(pid);
+    }
+
+    public void recordMiss(PageId pid) {
+        this.misses++;
+        if (this.a1out.remove(pid) != null) {
+            this.am.put(pid, Boolean.TRUE);
+        } else {
+            this.a1in.put(pid, Boolean.TRUE);
+        }
+    }
+
+    public void remove(PageId pid) {
+        if (this.a1in.remove(pid) == null) {
+            this.am.remove(pid);
+        }
+    }
+
+    public PageId evict(Evictor evictor) {
+        PageId victim;
+        if (this.a1in.size() > this.kin || this.am.isEmpty()) {
+            victim = this.evictFrom(this.a1in, evictor);
+            if (victim != null) {
+                this.remember(victim);
+                return victim;
+            }
+            return this.evictFrom(this.am, evictor);
+        }
+
+        victim = this.evictFrom(this.am, evictor);
+        if (victim == null) {
+            victim = this.evictFrom(this.a1in, evictor);
+            if (victim != null) {
+                this.remember(victim);
+            }
+        }
+        return victim;
+    }
+
+    // Helper method to evict the oldest page of a queue that evictor accepts.
+    private PageId evictFrom(LinkedHashMap<PageId, Boolean> queue, Evictor evictor) {
+        Iterator<PageId> it = queue.keySet().iterator();
+        while (it.hasNext()) {
+            PageId pid = it.next();
+            if (evictor.tryEvict(pid)) {
+                it.remove();
+                return pid;
+            }
+        }
+        return null;
+    }
+
+    // Helper method to remember a page evicted from A1in in A1out.
+    private void remember(PageId pid) {
+        this.a1out.put(pid, Boolean.TRUE);
+        if (this.a1out.size() > this.kout) {
+            Iterator<PageId> it = this.a1out.keySet().iterator();
+            it.next();
+            it.remove();
+        }
+    }
+
+    public List<PageId> victims(int n) {
+        List<PageId> next = new ArrayList<PageId>();
+        if (this.a1in.size() > this.kin || this.am.isEmpty()) {
+            listFrom(this.a1in, n, next);
+            listFrom(this.am, n, next);
+        } else {
+            listFrom(this.am, n, next);
+            listFrom(this.a1in, n, next);
+        }
+        return next;
+    }
+
+    // Helper method to append pages of a queue to next, oldest first, until
+    // it holds n pages. Iterating does not reorder Am.
+    private static void listFrom(LinkedHashMap<PageId, Boolean> queue, int n, List<PageId> next) {
+        for (PageId pid : queue.keySet()) {
+            if (next.size() >= n) {
+                return;
+            }
+            next.add(pid);
+        }
+    }
+
+    public long getHits() {
+        return this.hits;
+    }
+
+    public long getMisses() {
+        return this.misses;
+    }
+
+    public void resetStats() {
+        this.hits = 0;
+        this.misses = 0;
+    }
+
+    public String toString() {
+        return "2Q";
+    }
+}
@@ -2,6 +2,7 @@ package simpledb;
 
 import java.text.ParseException;
 import java.io.*;
+import java.nio.ByteBuffer;
 
 /**
  * Class representing a type in SimpleDB.
@@ -24,6 +25,16 @@ public enum Type implements Serializable {
             }
         }
 
+        @Override
+        public Field parse(ByteBuffer buf, int offset) {
+            return new IntField(buf.getInt(offset));
+        }
+
+        @Override
+        public void write(Field f, ByteBuffer buf, int offset) {
+            buf.putInt(offset, ((IntField) f).getValue());
+        }
+
     }, STRING_TYPE() {
         @Override
         public int getLen() {
@@ -42,6 +53,28 @@ public enum Type implements Serializable {
                 throw new ParseException("couldn't parse", 0);
             }
         }
+
+        @Override
+        public Field parse(ByteBuffer buf, int offset) {
+            int strLen = Math.max(0, Math.min(STRING_LEN, buf.getInt(offset)));
+            byte bs[] = new byte[strLen];
+            for (int i = 0; i < strLen; i++) {
+                bs[i] = buf.get(offset + 4 + i);
+            }
+            return new StringField(new String(bs), STRING_LEN);
+        }
+
+        @Override
+        public void write(Field f, ByteBuffer buf, int offset) {
+            // same layout as StringField.serialize: length, low byte of
+            // each char, zero padding.
+            String s = ((StringField) f).getValue();
+            int strLen = Math.min(STRING_LEN, s.length());
+            buf.putInt(offset, strLen);
+            for (int i = 0; i < STRING_LEN; i++) {
+                buf.put(offset + 4 + i, i < strLen ? (byte) s.charAt(i) : 0);
+            }
+        }
     };
     
     public static final int STRING_LEN = 128;
@@ -60,4 +93,23 @@ public enum Type implements Serializable {
    */
     public abstract Field parse(DataInputStream dis) throws ParseException;
 
+  /**
+   * @return a Field object of the same type as this object that has contents
+   *   read from the specified buffer. The position of the buffer is not
+   *   changed.
+   * @param buf The buffer to read from
+   * @param offset The absolute offset of the field in buf
+   */
+    public abstract Field parse(ByteBuffer buf, int offset);
+
+  /**
+   * Writes a field of this type into the specified buffer, in the same
+   * format as {@link Field#serialize}. Always writes {@link #getLen} bytes.
+   * The position of the buffer is not changed.
+   * @param f The field to write
+   * @param buf The buffer to write to
+   * @param offset The absolute offset of the field in buf
+   */
+    public abstract void write(Field f, ByteBuffer buf, int offset);
+
 }
@@ -0,0 +1,162 @@
+package simpledb;
+
+import java.util.*;
+
+/**
+ * VersionStore keeps the committed images of pages that snapshot readers
+ * may still need after writers have moved the pages on, so that read-only
+ * transactions can read a consistent state of the database without
+ * taking locks.
+ * <p>
+ * Every commit that changes pages gets a timestamp from a logical clock,
+ * and a snapshot started at time T sees each page as of the last commit
+ * at or before T. When a commit replaces a page's committed image while
+ * snapshots are running, the old image is kept, tagged with the commit
+ * time that ended it; the images of a page form a chain, newest first.
+ * A snapshot reads the oldest image in the chain that was still current
+ * at its start, or, if there is none, the page's current committed image.
+ * <p>
+ * An image is garbage once every running snapshot started at or after
+ * the commit that ended it, so chains are cut back whenever the oldest
+ * snapshot finishes, and commits keep no images while no snapshot runs.
+ * <p>
+ * The committed image of a page that is dirty in the BufferPool is its
+ * before image. Pages that are evicted or written out while dirty leave
+ * their committed image here until their writer completes, since the copy
+ * on disk is no longer committed.
+ * <p>
+ * All methods synchronize on the store; {@link BufferPool} holds its
+ * monitor while it reads a page's current image for a snapshot, and while
+ * it commits, so that a snapshot never sees half of a commit.
+ */
+class VersionStore {
+
+    /** A committed image of a page that was replaced at time end. */
+    private static class Version {
+        final byte[] data;
+        final long end;
+        Version older;
+
+        Version(byte[] data, long end, Version older) {
+            this.data = data;
+            this.end = end;
+            this.older = older;
+        }
+    }
+
+    private long clock;
+    // start times of the running snapshots, with the number started at each.
+    private final TreeMap<Long, Integer> snapshots = new TreeMap<Long, Integer>();
+    private final Map<PageId, Version> versions = new HashMap<PageId, Version>();
+    // committed images of pages evicted while dirty.
+    private final Map<PageId, byte[]> stolen = new HashMap<PageId, byte[]>();
+
+    /** @return the start time of a new snapshot, which must be ended. */
+    synchronized long beginSnapshot() {
+        Integer n = this.snapshots.get(this.clock);
+        this.snapshots.put(this.clock, n == null ? 1 : n + 1);
+        return this.clock;
+    }
+
+    /** Ends a snapshot, and drops the images no running snapshot needs. */
+    synchronized void endSnapshot(long start) {
+        Integer n = this.snapshots.get(start);
+        if (n == null) {
+            return;
+        }
+        if (n > 1) {
+            this.snapshots.put(start, n - 1);
+            return;
+        }
+        this.snapshots.remove(start);
+        if (this.snapshots.isEmpty() || this.snapshots.firstKey() > start) {
+            this.collect();
+        }
+    }
+
+    /** @return a timestamp for a commit that is about to install images. */
+    synchronized long nextCommit() {
+        return ++this.clock;
+    }
+
+    /**
+     * Records that a commit at time ts replaced the committed image of a
+     * page, which was before, unless the page was evicted meanwhile, in
+     * which case its image was saved by {@link #saveStolen}.
+     */
+    synchronized void retire(PageId pid, byte[] before, long ts) {
+        byte[] saved = this.stolen.remove(pid);
+        if (saved != null) {
+            before = saved;
+        }
+        if (!this.snapshots.isEmpty() && before != null) {
+            this.versions.put(pid, new Version(before, ts, this.versions.get(pid)));
+        }
+    }
+
+    /** Saves the committed image of a dirty page that is being evicted. */
+    synchronized void saveStolen(PageId pid, byte[] committed) {
+        if (!this.stolen.containsKey(pid)) {
+            this.stolen.put(pid, committed);
+        }
+    }
+
+    /**
+     * Forgets the saved image of a page whose writer aborted.
+     *
+     * @return the committed image, or null if the page was not written
+     *         out while dirty
+     */
+    synchronized byte[] discardStolen(PageId pid) {
+        return this.stolen.remove(pid);
+    }
+
+    /**
+     * @return the image of the page a snapshot started at the given time
+     *         sees, or null if it sees the current committed image
+     */
+    synchronized byte[] lookup(PageId pid, long start) {
+        byte[] visible = null;
+        for (Version v = this.versions.get(pid); v != null && v.end > start; v = v.older) {
+            visible = v.data;
+        }
+        if (visible == null) {
+            visible = this.stolen.get(pid);
+        }
+        return visible;
+    }
+
+    /** @return the number of old page images kept. */
+    synchronized int size() {
+        int n = 0;
+        for (Version v : this.versions.values()) {
+            for (; v != null; v = v.older) {
+                n++;
+            }
+        }
+        return n;
+    }
+
+    // Helper method to cut back every chain to the images that the oldest
+    // running snapshot can still see.
+    private void collect() {
+        if (this.snapshots.isEmpty()) {
+            this.versions.clear();
+            return;
+        }
+        long oldest = this.snapshots.firstKey();
+        Iterator<Map.Entry<PageId, Version>> it = this.versions.entrySet().iterator();
+        while (it.hasNext()) {
+            Map.Entry<PageId, Version> e = it.next();
+            Version v = e.getValue();
+            if (v.end <= oldest) {
+                it.remove();
+                continue;
+            }
+            while (v.older != null && v.older.end > oldest) {
+                v = v.older;
+            }
+            v.older = null;
+        }
+    }
+}
@@ -0,0 +1,446 @@
+package simpledb;
+
+import java.io.IOException;
+import java.nio.ByteBuffer;
+import java.util.Queue;
+import java.util.concurrent.ConcurrentLinkedQueue;
+
+import org.junit.Before;
+import org.junit.Test;
+
+import static org.junit.Assert.*;
+import junit.framework.JUnit4TestAdapter;
+
+public class BufferPoolTest extends TestUtil.CreateHeapFile {
+    private PageId p0, p1, p2;
+    private TransactionId tid;
+
+    /**
+     * Set up initial resources for each unit test.
+     */
+    @Before public void setUp() throws Exception {
+        super.setUp();
+
+        // create a new empty HeapFile and populate it with three pages.
+        tid = new TransactionId();
+        for (int i = 0; i < 1025; ++i) {
+            empty.insertTuple(tid, Utility.getHeapTuple(i, 2));
+        }
+        assertEquals(3, empty.numPages());
+
+        this.p0 = new HeapPageId(empty.getId(), 0);
+        this.p1 = new HeapPageId(empty.getId(), 1);
+        this.p2 = new HeapPageId(empty.getId(), 2);
+    }
+
+    /**
+     * Unit test for BufferPool.getPage(): a resident page is returned as the
+     * same object on every lookup.
+     */
+    @Test public void getResidentPage() throws Exception {
+        BufferPool bp = Database.resetBufferPool(2);
+        Page page = bp.getPage(tid, p0, Permissions.READ_ONLY);
+        assertSame(page, bp.getPage(tid, p0, Permissions.READ_ONLY));
+    }
+
+    /**
+     * Unit test for BufferPool.pinPage(): a pinned page survives eviction.
+     */
+    @Test public void pinnedPageIsNotEvicted() throws Exception {
+        BufferPool bp = Database.resetBufferPool(2);
+        Page pinned = bp.pinPage(tid, p0, Permissions.READ_ONLY);
+        bp.getPage(tid, p1, Permissions.READ_ONLY);
+        bp.getPage(tid, p2, Permissions.READ_ONLY);
+        assertSame(pinned, bp.getPage(tid, p0, Permissions.READ_ONLY));
+        bp.unpinPage(tid, p0);
+    }
+
+    /**
+     * Unit test for BufferPool.getPage(): a miss fails when every resident
+     * page is pinned, and succeeds again once a pin is released.
+     */
+    @Test public void allPagesPinned() throws Exception {
+        BufferPool bp = Database.resetBufferPool(2);
+        bp.pinPage(tid, p0, Permissions.READ_ONLY);
+        bp.pinPage(tid, p1, Permissions.READ_ONLY);
+        try {
+            bp.getPage(tid, p2, Permissions.READ_ONLY);
+            fail("expected DbException when all pages are pinned");
+        } catch (DbException e) {
+            // expected
+        }
+
+        bp.unpinPage(tid, p1);
+        assertNotNull(bp.getPage(tid, p2, Permissions.READ_ONLY));
+        bp.unpinPage(tid, p0);
+    }
+
+    /**
+     * Unit test for the write sets: without steal, a page dirtied by a
+     * running transaction is never evicted, a commit writes only its own
+     * transaction's pages, and an abort restores the before image.
+     */
+    @Test public void writeSetsAndNoSteal() throws Exception {
+        BufferPool setup = Database.getBufferPool();
+        setup.getPage(tid, p0, Permissions.READ_WRITE).markDirty(true, tid);
+        setup.getPage(tid, p1, Permissions.READ_WRITE).markDirty(true, tid);
+        setup.flushAllPages();
+        BufferPool bp = Database.resetBufferPool(2);
+        assertFalse(bp.isSteal());
+        TransactionId a = new TransactionId();
+        TransactionId b = new TransactionId();
+        HeapPage pa = (HeapPage) bp.getPage(a, p0, Permissions.READ_WRITE);
+        pa.deleteTuple(pa.getTuple(0));
+        pa.markDirty(true, a);
+        HeapPage pb = (HeapPage) bp.getPage(b, p1, Permissions.READ_WRITE);
+        pb.deleteTuple(pb.getTuple(0));
+        pb.markDirty(true, b);
+        try {
+            bp.getPage(tid, p2, Permissions.READ_ONLY);
+            fail("expected DbException when all pages are dirty");
+        } catch (DbException e) {
+            // expected
+        }
+
+        bp.transactionComplete(a, true);
+        assertFalse(((HeapPage) empty.readPage(p0)).isSlotUsed(0));
+        assertSame(b, pb.isDirty());
+        assertTrue(((HeapPage) empty.readPage(p1)).isSlotUsed(0));
+
+        bp.transactionComplete(b, false);
+        assertTrue(((HeapPage) bp.getPage(tid, p1, Permissions.READ_ONLY)).isSlotUsed(0));
+        assertNotNull(bp.getPage(tid, p2, Permissions.READ_ONLY));
+    }
+
+    /**
+     * Unit test for BufferPool.discardPage(): a pinned page is read again
+     * from disk in its frame, so that its pins are released on that frame.
+     */
+    @Test public void discardPinnedPage() throws Exception {
+        BufferPool setup = Database.getBufferPool();
+        setup.getPage(tid, p0, Permissions.READ_WRITE).markDirty(true, tid);
+        setup.flushAllPages();
+        BufferPool bp = Database.resetBufferPool(2);
+        HeapPage pinned = (HeapPage) bp.pinPage(tid, p0, Permissions.READ_WRITE);
+        pinned.deleteTuple(pinned.getTuple(0));
+        pinned.markDirty(true, tid);
+        bp.discardPage(p0);
+
+        HeapPage reread = (HeapPage) bp.pinPage(tid, p0, Permissions.READ_ONLY);
+        assertNotSame(pinned, reread);
+        assertTrue(reread.isSlotUsed(0));
+        assertNull(reread.isDirty());
+        bp.unpinPage(tid, p0);
+        bp.unpinPage(tid, p0);
+        bp.getPage(tid, p1, Permissions.READ_ONLY);
+        assertNotNull(bp.getPage(tid, p2, Permissions.READ_ONLY));
+    }
+
+    /**
+     * Unit test for eviction: a dirty page that cannot be written out stays
+     * in the pool, dirty, and the miss that would have evicted it fails.
+     */
+    @Test public void failedEviction() throws Exception {
+        BufferPool setup = Database.getBufferPool();
+        setup.getPage(tid, p0, Permissions.READ_WRITE).markDirty(true, tid);
+        setup.flushAllPages();
+        BufferPool bp = Database.resetBufferPool(1);
+        bp.setSteal(true);
+        Database.getCatalog().addTable(new HeapFile(empty.getFile(), empty.getTupleDesc()) {
+            public void writePage(Page page) throws IOException {
+                throw new IOException("disk full");
+            }
+
+            void writePages(int firstPage, ByteBuffer[] pages) throws IOException {
+                throw new IOException("disk full");
+            }
+        }, "failing");
+        HeapPage dirty = (HeapPage) bp.getPage(tid, p0, Permissions.READ_WRITE);
+        dirty.deleteTuple(dirty.getTuple(0));
+        dirty.markDirty(true, tid);
+        try {
+            bp.getPage(tid, p1, Permissions.READ_ONLY);
+            fail("expected DbException when the page to evict cannot be written");
+        } catch (DbException e) {
+            // expected
+        }
+
+        assertSame(dirty, bp.getPage(tid, p0, Permissions.READ_ONLY));
+        assertSame(tid, dirty.isDirty());
+        assertTrue(((HeapPage) empty.readPage(p0)).isSlotUsed(0));
+    }
+
+    /**
+     * Unit test for BufferPool.getPage() from many threads: every thread
+     * sees a single copy of each page, even while pages are being evicted.
+     * Threads pinning a page at the same time must get the same object;
+     * with 8 threads and 2 frames a pin may find every frame pinned, and
+     * is then retried.
+     */
+    @Test public void concurrentGetPage() throws Exception {
+        final BufferPool bp = Database.resetBufferPool(2);
+        final PageId[] pids = new PageId[] { p0, p1, p2 };
+        final Page[] shared = new Page[pids.length];
+        final int[] holders = new int[pids.length];
+        final Queue<Throwable> errors = new ConcurrentLinkedQueue<Throwable>();
+
+        Thread[] threads = new Thread[8];
+        for (int i = 0; i < threads.length; i++) {
+            final int seed = i;
+            threads[i] = new Thread() {
+                public void run() {
+                    try {
+                        for (int j = 0; j < 2000; j++) {
+                            int k = (seed + j) % pids.length;
+                            Page p = null;
+                            while (p == null) {
+                                try {
+                                    p = bp.pinPage(tid, pids[k], Permissions.READ_ONLY);
+                                } catch (DbException e) {
+                                    // every frame is pinned; try again.
+                                    Thread.yield();
+                                }
+                            }
+                            synchronized (holders) {
+                                if (holders[k] == 0) {
+                                    shared[k] = p;
+                                } else if (shared[k] != p) {
+                                    throw new AssertionError("two copies of " + pids[k]);
+                                }
+                                holders[k]++;
+                            }
+                            if (!p.getId().equals(pids[k])) {
+                                throw new AssertionError("got page " + p.getId() + " for " + pids[k]);
+                            }
+                            synchronized (holders) {
+                                holders[k]--;
+                            }
+                            bp.unpinPage(tid, pids[k]);
+                        }
+                    } catch (Throwable t) {
+                        errors.add(t);
+                    }
+                }
+            };
+            threads[i].start();
+        }
+        for (Thread t : threads) {
+            t.join();
+        }
+
+        for (Throwable t : errors) {
+            throw new RuntimeException(t);
+        }
+    }
+
+    /**
+     * Unit test for an off-heap BufferPool: pages read into direct memory
+     * have the same contents as pages read from the file, stay in their
+     * frames while their transaction runs, and keep their contents after
+     * they are evicted and their frames reused.
+     */
+    @Test public void offHeapPool() throws Exception {
+        BufferPool bp = Database.resetBufferPool(2, new LruPolicy(), true);
+        assertTrue(bp.isOffHeap());
+
+        HeapPage first = (HeapPage) bp.getPage(tid, p0, Permissions.READ_ONLY);
+        byte[] expected = empty.readPage(p0).getPageData();
+        assertArrayEquals(expected, first.getPageData());
+
+        // pages handed out stay in their frames until their transaction
+        // completes.
+        TransactionId other = new TransactionId();
+        bp.getPage(other, p1, Permissions.READ_ONLY);
+        try {
+            bp.getPage(other, p2, Permissions.READ_ONLY);
+            fail("expected DbException while every page is in use");
+        } catch (DbException e) {
+            // expected
+        }
+        assertSame(first, bp.getPage(tid, p0, Permissions.READ_ONLY));
+
+        bp.transactionComplete(tid);
+        bp.getPage(other, p2, Permissions.READ_ONLY); // evicts p0
+        assertArrayEquals(expected, first.getPageData());
+        assertArrayEquals(empty.readPage(p2).getPageData(),
+                bp.getPage(other, p2, Permissions.READ_ONLY).getPageData());
+        bp.transactionComplete(other);
+        TransactionId later = new TransactionId();
+        assertNotSame(first, bp.getPage(later, p0, Permissions.READ_ONLY));
+
+        // without a transaction to hold it, a page is copied out.
+        Page copy = bp.getPage(null, p0, Permissions.READ_ONLY);
+        assertNotSame(copy, bp.getPage(null, p0, Permissions.READ_ONLY));
+        assertArrayEquals(expected, copy.getPageData());
+    }
+
+    /**
+     * Unit test for record locking: two transactions delete records of the
+     * same page without waiting for each other, and aborting one undoes
+     * only its own changes.
+     */
+    @Test public void recordLocking() throws Exception {
+        BufferPool bp = Database.getBufferPool();
+        bp.getPage(tid, p0, Permissions.READ_WRITE).markDirty(true, tid);
+        bp.flushAllPages();
+        bp = Database.resetBufferPool(BufferPool.DEFAULT_PAGES);
+        bp.setRecordLocking(true);
+        bp.setLockTimeout(1000);
+
+        TransactionId tid1 = new TransactionId();
+        TransactionId tid2 = new TransactionId();
+        HeapPage page = (HeapPage) bp.getPage(tid1, p0, Permissions.READ_ONLY);
+        Tuple first = page.getTuple(0);
+        Tuple second = page.getTuple(1);
+        bp.releasePage(tid1, p0);
+
+        bp.deleteTuple(tid1, first);
+        bp.deleteTuple(tid2, second);
+        assertFalse(page.isSlotUsed(0));
+        assertFalse(page.isSlotUsed(1));
+
+        // the slot tid1 freed stays locked until it completes.
+        Tuple t = Utility.getHeapTuple(-1, 2);
+        bp.insertTuple(tid2, empty.getId(), t);
+        assertEquals(new RecordId(p0, 1), t.getRecordId());
+
+        bp.transactionComplete(tid1, false);
+        bp.transactionComplete(tid2, true);
+        assertTrue(page.isSlotUsed(0));
+        assertEquals(first.getField(0), page.getTuple(0).getField(0));
+        assertEquals(new IntField(-1), page.getTuple(1).getField(0));
+
+        // the commit wrote the page, with the undone delete.
+        HeapPage onDisk = (HeapPage) empty.readPage(p0);
+        assertTrue(onDisk.isSlotUsed(0));
+        assertEquals(new IntField(-1), onDisk.getTuple(1).getField(0));
+    }
+
+    /**
+     * Unit test for snapshot reads: a read-only transaction reads a page
+     * a writer holds exclusively without waiting, sees neither the
+     * uncommitted nor the later committed change, and the old image is
+     * dropped when it completes.
+     */
+    @Test public void snapshotRead() throws Exception {
+        BufferPool bp = Database.getBufferPool();
+        bp.getPage(tid, p0, Permissions.READ_WRITE).markDirty(true, tid);
+        bp.flushAllPages();
+        bp = Database.resetBufferPool(BufferPool.DEFAULT_PAGES);
+
+        TransactionId writer = new TransactionId();
+        HeapPage page = (HeapPage) bp.getPage(writer, p0, Permissions.READ_WRITE);
+        page.deleteTuple(page.getTuple(0));
+        page.markDirty(true, writer);
+
+        TransactionId reader = new TransactionId();
+        bp.beginSnapshot(reader);
+        HeapPage before = (HeapPage) bp.getPage(reader, p0, Permissions.READ_ONLY);
+        assertTrue(before.isSlotUsed(0));
+        assertFalse(bp.holdsLock(reader, p0));
+
+        bp.transactionComplete(writer, true);
+        assertEquals(1, bp.getVersionCount());
+        assertTrue(((HeapPage) bp.pinPage(reader, p0, Permissions.READ_ONLY)).isSlotUsed(0));
+        bp.unpinPage(reader, p0);
+        try {
+            bp.getPage(reader, p1, Permissions.READ_WRITE);
+            fail("expected DbException for a write in a snapshot");
+        } catch (DbException e) {
+            // expected
+        }
+
+        TransactionId later = new TransactionId();
+        bp.beginSnapshot(later);
+        assertFalse(((HeapPage) bp.getPage(later, p0, Permissions.READ_ONLY)).isSlotUsed(0));
+        bp.transactionComplete(reader);
+        bp.transactionComplete(later);
+        assertEquals(0, bp.getVersionCount());
+    }
+
+    /**
+     * Unit test for the page writer: it leaves uncommitted changes alone
+     * without steal, and with steal writes them out and leaves the page
+     * clean, and an abort writes the committed image back over them.
+     */
+    @Test public void pageWriter() throws Exception {
+        BufferPool bp = Database.getBufferPool();
+        bp.getPage(tid, p0, Permissions.READ_WRITE).markDirty(true, tid);
+        bp.flushAllPages();
+        bp = Database.resetBufferPool(BufferPool.DEFAULT_PAGES);
+
+        TransactionId writer = new TransactionId();
+        HeapPage page = (HeapPage) bp.getPage(writer, p0, Permissions.READ_WRITE);
+        page.deleteTuple(page.getTuple(0));
+        page.markDirty(true, writer);
+        assertEquals(1, bp.dirtyPages(Long.MAX_VALUE).size());
+        assertTrue(bp.dirtyPages(Long.MAX_VALUE).get(p0) < Long.MAX_VALUE);
+        assertEquals(0, bp.writeDirtyPages(10));
+
+        bp.setSteal(true);
+        bp.setPageWriter(5, 10);
+        for (int i = 0; i < 200 && page.isDirty() != null; i++) {
+            Thread.sleep(10);
+        }
+        bp.setPageWriter(0, 0);
+        assertNull(page.isDirty());
+        assertTrue(bp.dirtyPages(Long.MAX_VALUE).isEmpty());
+        assertFalse(((HeapPage) empty.readPage(p0)).isSlotUsed(0));
+
+        bp.transactionComplete(writer, false);
+        assertTrue(((HeapPage) empty.readPage(p0)).isSlotUsed(0));
+        assertTrue(((HeapPage) bp.getPage(tid, p0, Permissions.READ_ONLY)).isSlotUsed(0));
+        assertEquals(0, bp.writeDirtyPages(10));
+    }
+
+    /**
+     * Unit test for the page cleaner: it leaves uncommitted changes alone
+     * without steal, and with steal writes out the dirty, unpinned pages
+     * next in line for eviction, which an abort then puts back.
+     */
+    @Test public void pageCleaner() throws Exception {
+        BufferPool setup = Database.getBufferPool();
+        setup.getPage(tid, p0, Permissions.READ_WRITE).markDirty(true, tid);
+        setup.getPage(tid, p1, Permissions.READ_WRITE).markDirty(true, tid);
+        setup.getPage(tid, p2, Permissions.READ_WRITE).markDirty(true, tid);
+        setup.flushAllPages();
+        BufferPool bp = Database.resetBufferPool(3);
+
+        TransactionId writer = new TransactionId();
+        HeapPage[] pages = new HeapPage[3];
+        PageId[] pids = new PageId[] { p0, p1, p2 };
+        for (int i = 0; i < 3; i++) {
+            pages[i] = (HeapPage) bp.getPage(writer, pids[i], Permissions.READ_WRITE);
+            pages[i].deleteTuple(pages[i].getTuple(0));
+            pages[i].markDirty(true, writer);
+        }
+        bp.pinPage(writer, p2, Permissions.READ_WRITE);
+        assertEquals(0, bp.cleanPages(3));
+
+        bp.setSteal(true);
+        bp.setPageCleaner(5, 3);
+        for (int i = 0; i < 200 && (pages[0].isDirty() != null || pages[1].isDirty() != null); i++) {
+            Thread.sleep(10);
+        }
+        bp.setPageCleaner(0, 0);
+        assertNull(pages[0].isDirty());
+        assertNull(pages[1].isDirty());
+        assertSame(writer, pages[2].isDirty());
+        assertFalse(((HeapPage) empty.readPage(p0)).isSlotUsed(0));
+        assertFalse(((HeapPage) empty.readPage(p1)).isSlotUsed(0));
+        assertTrue(((HeapPage) empty.readPage(p2)).isSlotUsed(0));
+
+        bp.unpinPage(writer, p2);
+        bp.transactionComplete(writer, false);
+        assertTrue(((HeapPage) empty.readPage(p0)).isSlotUsed(0));
+        assertTrue(((HeapPage) empty.readPage(p1)).isSlotUsed(0));
+        assertTrue(((HeapPage) bp.getPage(tid, p2, Permissions.READ_ONLY)).isSlotUsed(0));
+    }
+
+    /**
+     * JUnit suite target
+     */
+    public static junit.framework.Test suite() {
+        return new JUnit4TestAdapter(BufferPoolTest.class);
+    }
+}
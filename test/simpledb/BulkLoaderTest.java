@@ -0,0 +1,121 @@
+package simpledb;
+
+import java.io.File;
+import java.util.ArrayList;
+
+import org.junit.Before;
+import org.junit.Test;
+
+import static org.junit.Assert.*;
+import junit.framework.JUnit4TestAdapter;
+
+public class BulkLoaderTest extends TestUtil.CreateHeapFile {
+    private TransactionId tid;
+
+    /**
+     * Set up initial resources for each unit test.
+     */
+    @Before public void setUp() throws Exception {
+        super.setUp();
+        tid = new TransactionId();
+    }
+
+    /** @return the sum of the first field of every tuple in f. */
+    private long sumFirstField(HeapFile f) throws Exception {
+        DbFileIterator it = f.iterator(tid);
+        it.open();
+        long sum = 0;
+        while (it.hasNext()) {
+            sum += ((IntField) it.next().getField(0)).getValue();
+        }
+        it.close();
+        return sum;
+    }
+
+    /**
+     * Unit test for BulkLoader: tuples loaded in several batches and a
+     * partial last page can all be read back.
+     */
+    @Test public void loadAndScan() throws Exception {
+        int rows = 504 * BulkLoader.BATCH_PAGES + 504 * 3 + 10;
+        BulkLoader loader = new BulkLoader(empty);
+        long expected = 0;
+        for (int i = 0; i < rows; i++) {
+            loader.add(Utility.getHeapTuple(new int[] { i, -i }));
+            expected += i;
+        }
+        assertEquals(rows, loader.finish());
+
+        // the empty file starts with one empty page, which is left alone.
+        assertEquals(1 + BulkLoader.BATCH_PAGES + 4, empty.numPages());
+        assertEquals(expected, sumFirstField(empty));
+    }
+
+    /**
+     * Unit test for BulkLoader: loading appends after existing pages, and
+     * the next insert goes to the free slots of the last loaded page.
+     */
+    @Test public void appendThenInsert() throws Exception {
+        empty.insertTuple(tid, Utility.getHeapTuple(1, 2));
+        BulkLoader loader = new BulkLoader(empty);
+        for (int i = 0; i < 600; i++) {
+            loader.add(Utility.getHeapTuple(2, 2));
+        }
+        loader.finish();
+        assertEquals(3, empty.numPages());
+
+        empty.getFreeSpaceMap().markFull(0);
+        empty.insertTuple(tid, Utility.getHeapTuple(3, 2));
+        assertEquals(3, empty.numPages());
+        assertEquals(1 + 600 * 2 + 3, sumFirstField(empty));
+    }
+
+    /**
+     * Unit test for BulkLoader.finish(): a new file is added to the catalog
+     * and gets statistics.
+     */
+    @Test public void registersTable() throws Exception {
+        File f = File.createTempFile("bulk", ".dat");
+        f.deleteOnExit();
+        HeapFile table = new HeapFile(f, Utility.getTupleDesc(2));
+        BulkLoader loader = new BulkLoader(table, "bulk");
+        for (int i = 0; i < 100; i++) {
+            loader.add(Utility.getHeapTuple(i, 2));
+        }
+        loader.finish();
+
+        assertEquals(table.getId(), Database.getCatalog().getTableId("bulk"));
+        assertNotNull(TableStats.getTableStats("bulk"));
+        assertEquals(100, TableStats.getTableStats("bulk").estimateTableCardinality(1.0));
+    }
+
+    /**
+     * Unit test for BulkLoader.add(): tuples of the wrong type are refused.
+     */
+    @Test(expected=DbException.class) public void wrongTupleDesc() throws Exception {
+        new BulkLoader(empty).add(Utility.getHeapTuple(1, 3));
+    }
+
+    /**
+     * Unit test for BulkLoader.load(): every tuple of the child is loaded
+     * into the table.
+     */
+    @Test public void loadFromChild() throws Exception {
+        ArrayList<Tuple> tuples = new ArrayList<Tuple>();
+        for (int i = 0; i < 600; i++) {
+            tuples.add(Utility.getHeapTuple(new int[] { i, i }));
+        }
+        TupleIterator child = new TupleIterator(empty.getTupleDesc(), tuples);
+        child.open();
+        assertEquals(600, BulkLoader.load(child, empty.getId()));
+        child.close();
+        assertEquals(599 * 600 / 2, sumFirstField(empty));
+    }
+
+    /**
+     * JUnit suite target
+     */
+    public static junit.framework.Test suite() {
+        return new JUnit4TestAdapter(BulkLoaderTest.class);
+    }
+}
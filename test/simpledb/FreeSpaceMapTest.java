@@ -0,0 +1,117 @@
+package simpledb;
+
+import org.junit.Before;
+import org.junit.Test;
+
+import static org.junit.Assert.*;
+import junit.framework.JUnit4TestAdapter;
+
+public class FreeSpaceMapTest extends TestUtil.CreateHeapFile {
+    private TransactionId tid;
+
+    /**
+     * Set up initial resources for each unit test.
+     */
+    @Before public void setUp() throws Exception {
+        super.setUp();
+        tid = new TransactionId();
+    }
+
+    /**
+     * Unit test for FreeSpaceMap: pages are handed out lowest first, and
+     * full pages are skipped until they are freed again.
+     */
+    @Test public void findsLowestPageWithRoom() {
+        FreeSpaceMap fsm = new FreeSpaceMap(3);
+        assertEquals(0, fsm.nextPageWithRoom());
+        fsm.markFull(0);
+        fsm.markFull(1);
+        assertEquals(2, fsm.nextPageWithRoom());
+        fsm.markFull(2);
+        assertEquals(-1, fsm.nextPageWithRoom());
+
+        fsm.markFree(1);
+        assertEquals(1, fsm.nextPageWithRoom());
+    }
+
+    /**
+     * Unit test for FreeSpaceMap.allocatePage(): new pages are never handed
+     * out twice, and pages written behind the map's back are picked up.
+     */
+    @Test public void allocatePage() {
+        FreeSpaceMap fsm = new FreeSpaceMap(2);
+        fsm.markFull(0);
+        fsm.markFull(1);
+        assertEquals(2, fsm.allocatePage(2));
+        assertEquals(3, fsm.allocatePage(2));
+        assertEquals(-1, fsm.nextPageWithRoom());
+
+        assertEquals(6, fsm.allocatePage(6));
+        assertEquals(4, fsm.nextPageWithRoom());
+    }
+
+    /**
+     * Unit test for HeapFile.insertTuple(): a slot freed by a delete is
+     * reused before the file grows.
+     */
+    @Test public void insertReusesFreedSlot() throws Exception {
+        Tuple first = null;
+        for (int i = 0; i < 1008; ++i) {
+            Tuple t = Utility.getHeapTuple(i, 2);
+            empty.insertTuple(tid, t);
+            if (i == 0) {
+                first = t;
+            }
+        }
+        assertEquals(2, empty.numPages());
+        assertEquals(-1, empty.getFreeSpaceMap().nextPageWithRoom());
+
+        empty.deleteTuple(tid, first);
+        assertEquals(0, empty.getFreeSpaceMap().nextPageWithRoom());
+        empty.insertTuple(tid, Utility.getHeapTuple(42, 2));
+        assertEquals(2, empty.numPages());
+
+        empty.insertTuple(tid, Utility.getHeapTuple(43, 2));
+        assertEquals(3, empty.numPages());
+    }
+
+    /**
+     * Unit test for BufferPool.transactionComplete(): a page filled by an
+     * insert that aborts has room again for later inserts, with page and
+     * with record locking.
+     */
+    @Test public void abortedInsertLeavesPageFree() throws Exception {
+        abortInsertThatFillsPage(false);
+        setUp();
+        abortInsertThatFillsPage(true);
+    }
+
+    private void abortInsertThatFillsPage(boolean recordLocking) throws Exception {
+        BufferPool bp = Database.getBufferPool();
+        bp.setRecordLocking(recordLocking);
+        for (int i = 0; i < 503; ++i) {
+            bp.insertTuple(tid, empty.getId(), Utility.getHeapTuple(i, 2));
+        }
+        bp.transactionComplete(tid);
+        assertEquals(1, empty.numPages());
+        assertEquals(0, empty.getFreeSpaceMap().nextPageWithRoom());
+
+        TransactionId aborted = new TransactionId();
+        bp.insertTuple(aborted, empty.getId(), Utility.getHeapTuple(503, 2));
+        assertEquals(-1, empty.getFreeSpaceMap().nextPageWithRoom());
+        bp.transactionComplete(aborted, false);
+        assertEquals(0, empty.getFreeSpaceMap().nextPageWithRoom());
+
+        TransactionId later = new TransactionId();
+        bp.insertTuple(later, empty.getId(), Utility.getHeapTuple(504, 2));
+        bp.transactionComplete(later);
+        assertEquals(1, empty.numPages());
+    }
+
+    /**
+     * JUnit suite target
+     */
+    public static junit.framework.Test suite() {
+        return new JUnit4TestAdapter(FreeSpaceMapTest.class);
+    }
+}
@@ -0,0 +1,138 @@
+package simpledb;
+
+import java.io.*;
+import java.util.ArrayList;
+import java.util.Arrays;
+
+import org.junit.Test;
+
+import static org.junit.Assert.*;
+import junit.framework.JUnit4TestAdapter;
+
+public class HeapFileEncoderTest {
+
+    /** @return the contents of f. */
+    private static byte[] readAll(File f) throws IOException {
+        byte[] data = new byte[(int) f.length()];
+        DataInputStream in = new DataInputStream(new FileInputStream(f));
+        try {
+            in.readFully(data);
+        } finally {
+            in.close();
+        }
+        return data;
+    }
+
+    /** @return a text file with the specified contents. */
+    private static File textFile(String contents) throws IOException {
+        File f = File.createTempFile("encoder", ".txt");
+        f.deleteOnExit();
+        Writer w = new OutputStreamWriter(new FileOutputStream(f));
+        try {
+            w.write(contents);
+        } finally {
+            w.close();
+        }
+        return f;
+    }
+
+    /**
+     * Unit test for HeapFileEncoder.convert(): an input spanning several
+     * segments encodes to the same pages with one thread and with several,
+     * and every row can be read back.
+     */
+    @Test public void parallelMatchesSerial() throws Exception {
+        StringBuilder sb = new StringBuilder();
+        long expected = 0;
+        int rows = 0;
+        while (sb.length() < 2 * HeapFileEncoder.SEGMENT_BYTES + 1000) {
+            sb.append(rows).append(",").append(-rows).append(",12345678\n");
+            expected += rows;
+            rows++;
+        }
+        File in = textFile(sb.toString());
+
+        File serial = File.createTempFile("serial", ".dat");
+        serial.deleteOnExit();
+        File parallel = File.createTempFile("parallel", ".dat");
+        parallel.deleteOnExit();
+        Type[] types = new Type[] { Type.INT_TYPE, Type.INT_TYPE, Type.INT_TYPE };
+        HeapFileEncoder.convert(in, serial, BufferPool.PAGE_SIZE, 3, types, ',', 1);
+        HeapFileEncoder.convert(in, parallel, BufferPool.PAGE_SIZE, 3, types, ',', 4);
+        assertTrue(Arrays.equals(readAll(serial), readAll(parallel)));
+
+        HeapFile f = Utility.openHeapFile(3, parallel);
+        TransactionId tid = new TransactionId();
+        DbFileIterator it = f.iterator(tid);
+        it.open();
+        long sum = 0;
+        int count = 0;
+        while (it.hasNext()) {
+            sum += ((IntField) it.next().getField(0)).getValue();
+            count++;
+        }
+        it.close();
+        assertEquals(rows, count);
+        assertEquals(expected, sum);
+    }
+
+    /**
+     * Unit test for HeapFileEncoder.convert(): string fields, blank lines,
+     * carriage returns and a last line without a newline.
+     */
+    @Test public void stringsAndLineEnds() throws Exception {
+        File in = textFile("1,abc\r\n\n2, padded \n3,last");
+        File out = File.createTempFile("strings", ".dat");
+        out.deleteOnExit();
+        Type[] types = new Type[] { Type.INT_TYPE, Type.STRING_TYPE };
+        HeapFileEncoder.convert(in, out, BufferPool.PAGE_SIZE, 2, types, ',', 2);
+        assertEquals(BufferPool.PAGE_SIZE, out.length());
+
+        HeapFile f = new HeapFile(out, new TupleDesc(types));
+        Database.getCatalog().addTable(f, "strings");
+        DbFileIterator it = f.iterator(new TransactionId());
+        it.open();
+        String[] expected = new String[] { "abc", "padded", "last" };
+        for (int i = 0; i < expected.length; i++) {
+            Tuple t = it.next();
+            assertEquals(new IntField(i + 1), t.getField(0));
+            assertEquals(new StringField(expected[i], Type.STRING_LEN), t.getField(1));
+        }
+        assertFalse(it.hasNext());
+        it.close();
+    }
+
+    /**
+     * Unit test for HeapFileEncoder.convert(): a line with the wrong number
+     * of fields is rejected.
+     */
+    @Test public void malformedLine() throws Exception {
+        File in = textFile("1,2\n3\n");
+        File out = File.createTempFile("malformed", ".dat");
+        out.deleteOnExit();
+        try {
+            HeapFileEncoder.convert(in, out, BufferPool.PAGE_SIZE, 2);
+            fail("expected IOException for a short line");
+        } catch (IOException e) {
+            // expected
+        }
+    }
+
+    /**
+     * Unit test for HeapFileEncoder.convert() from a tuple list: an empty
+     * list still produces one empty page.
+     */
+    @Test public void emptyTupleList() throws Exception {
+        File out = File.createTempFile("empty", ".dat");
+        out.deleteOnExit();
+        HeapFileEncoder.convert(new ArrayList<ArrayList<Integer>>(), out, BufferPool.PAGE_SIZE, 2);
+        assertEquals(BufferPool.PAGE_SIZE, out.length());
+    }
+
+    /**
+     * JUnit suite target
+     */
+    public static junit.framework.Test suite() {
+        return new JUnit4TestAdapter(HeapFileEncoderTest.class);
+    }
+}
@@ -1,5 +1,7 @@
 package simpledb;
 
+import java.util.concurrent.atomic.AtomicReference;
+
 import org.junit.After;
 import org.junit.Before;
 import org.junit.Test;
@@ -43,6 +45,90 @@ public class HeapFileWriteTest extends TestUtil.CreateHeapFile {
         assertEquals(3, empty.numPages());
     }
 
+    /**
+     * Unit test for HeapFile.writePage() and HeapFile.readPage(): a page
+     * written through the file's channel reads back the same, before and
+     * after it is forced.
+     */
+    @Test public void writeAndReadPage() throws Exception {
+        HeapPageId pid = new HeapPageId(empty.getId(), 0);
+        HeapPage page = new HeapPage(pid, HeapPage.createEmptyPageData());
+        page.insertTuple(Utility.getHeapTuple(42, 2));
+        empty.writePage(page);
+        assertEquals(1, empty.numPages());
+        assertArrayEquals(page.getPageData(), empty.readPage(pid).getPageData());
+
+        empty.force();
+        assertArrayEquals(page.getPageData(), empty.readPage(pid).getPageData());
+
+        empty.close();
+        assertArrayEquals(page.getPageData(), empty.readPage(pid).getPageData());
+    }
+
+    /**
+     * Unit test for HeapFile.readPage() through a memory mapping: pages
+     * appended after the file was mapped are read correctly, and pages past
+     * the end of the file read as empty.
+     */
+    @Test public void memoryMappedReadPage() throws Exception {
+        empty.setMemoryMapped(true);
+        for (int i = 0; i < 3; i++) {
+            HeapPageId pid = new HeapPageId(empty.getId(), i);
+            HeapPage page = new HeapPage(pid, HeapPage.createEmptyPageData());
+            page.insertTuple(Utility.getHeapTuple(i, 2));
+            empty.writePage(page);
+            assertArrayEquals(page.getPageData(), empty.readPage(pid).getPageData());
+        }
+        assertTrue(empty.isMemoryMapped());
+
+        HeapPage past = (HeapPage) empty.readPage(new HeapPageId(empty.getId(), 3));
+        assertFalse(past.iterator().hasNext());
+
+        empty.setMemoryMapped(false);
+        Tuple t = ((HeapPage) empty.readPage(new HeapPageId(empty.getId(), 2))).iterator().next();
+        assertEquals(new IntField(2), t.getField(0));
+    }
+
+    /**
+     * Unit test for HeapFile.readPage() from many threads at once.
+     */
+    @Test public void concurrentReadPage() throws Exception {
+        final int PAGES = 8;
+        for (int i = 0; i < PAGES; i++) {
+            HeapPage page = new HeapPage(new HeapPageId(empty.getId(), i),
+                    HeapPage.createEmptyPageData());
+            page.insertTuple(Utility.getHeapTuple(i, 2));
+            empty.writePage(page);
+        }
+
+        final AtomicReference<Throwable> error = new AtomicReference<Throwable>();
+        Thread[] threads = new Thread[4];
+        for (int i = 0; i < threads.length; i++) {
+            final int seed = i;
+            threads[i] = new Thread() {
+                public void run() {
+                    try {
+                        for (int j = 0; j < 500; j++) {
+                            int pageNo = (seed + j) % PAGES;
+                            HeapPage p = (HeapPage) empty.readPage(new HeapPageId(empty.getId(), pageNo));
+                            Tuple t = p.iterator().next();
+                            assertEquals(new IntField(pageNo), t.getField(0));
+                        }
+                    } catch (Throwable t) {
+                        error.compareAndSet(null, t);
+                    }
+                }
+            };
+            threads[i].start();
+        }
+        for (Thread t : threads) {
+            t.join();
+        }
+        if (error.get() != null) {
+            throw new RuntimeException(error.get());
+        }
+    }
+
     /**
      * JUnit suite target
      */
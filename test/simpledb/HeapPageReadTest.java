@@ -6,6 +6,7 @@ import simpledb.systemtest.SystemTestUtil;
 
 import java.io.File;
 import java.io.IOException;
+import java.nio.ByteBuffer;
 import java.util.*;
 
 import org.junit.Before;
@@ -99,6 +100,32 @@ public class HeapPageReadTest extends SimpleDbTestBase {
         }
     }
 
+    /**
+     * Unit test for HeapPage.tupleView(), over a page in direct memory.
+     */
+    @Test public void testTupleView() throws Exception {
+        ByteBuffer buf = ByteBuffer.allocateDirect(BufferPool.PAGE_SIZE);
+        buf.put(EXAMPLE_DATA);
+        buf.clear();
+        HeapPage page = new HeapPage(pid, buf);
+        TupleView view = page.tupleView();
+
+        int row = 0;
+        while (view.next()) {
+            assertEquals(EXAMPLE_VALUES[row][0], view.getInt(0));
+            assertEquals(new IntField(EXAMPLE_VALUES[row][1]), view.getField(1));
+            assertTrue(view.compare(0, Predicate.Op.EQUALS, new IntField(EXAMPLE_VALUES[row][0])));
+            assertEquals(new RecordId(pid, row), view.toTuple().getRecordId());
+            row++;
+        }
+        assertEquals(EXAMPLE_VALUES.length, row);
+        assertFalse(view.next());
+
+        view.reset();
+        assertTrue(view.next());
+        assertEquals(0, view.getSlot());
+    }
+
     /**
      * Unit test for HeapPage.getNumEmptySlots()
      */
@@ -1,5 +1,6 @@
 package simpledb;
 
+import static org.junit.Assert.assertArrayEquals;
 import static org.junit.Assert.assertEquals;
 import static org.junit.Assert.assertTrue;
 
@@ -126,6 +127,30 @@ public class HeapPageWriteTest extends SimpleDbTestBase {
         }
     }
 
+    /**
+     * Unit test for HeapPage.getPageData() after changes: the bytes of a
+     * changed page decode to the same tuples, and the before image is the
+     * page as it was loaded.
+     */
+    @Test public void pageDataAfterChanges() throws Exception {
+        HeapPage page = new HeapPage(pid, HeapPageReadTest.EXAMPLE_DATA);
+        Tuple first = page.iterator().next();
+        page.deleteTuple(first);
+        page.insertTuple(Utility.getHeapTuple(new int[] { 7, 8 }));
+
+        HeapPage copy = new HeapPage(pid, page.getPageData());
+        Iterator<Tuple> expected = page.iterator();
+        Iterator<Tuple> actual = copy.iterator();
+        while (expected.hasNext()) {
+            assertTrue(TestUtil.compareTuples(expected.next(), actual.next()));
+        }
+        assertEquals(false, actual.hasNext());
+
+        assertArrayEquals(HeapPageReadTest.EXAMPLE_DATA, page.getBeforeImage().getPageData());
+        page.setBeforeImage();
+        assertArrayEquals(page.getPageData(), page.getBeforeImage().getPageData());
+    }
+
     /**
      * JUnit suite target
      */
@@ -0,0 +1,180 @@
+package simpledb;
+
+import java.util.concurrent.atomic.AtomicReference;
+
+import org.junit.Before;
+import org.junit.Test;
+
+import static org.junit.Assert.*;
+import junit.framework.JUnit4TestAdapter;
+
+public class LockManagerTest {
+    private LockManager lm;
+    private PageId p0, p1;
+    private TransactionId tid1, tid2;
+
+    /**
+     * Set up initial resources for each unit test.
+     */
+    @Before public void setUp() {
+        lm = new LockManager();
+        p0 = new HeapPageId(1, 0);
+        p1 = new HeapPageId(1, 1);
+        tid1 = new TransactionId();
+        tid2 = new TransactionId();
+    }
+
+    /**
+     * Starts a thread that acquires a lock, and returns a reference that is
+     * set to "ok" or the exception once the thread is done.
+     */
+    private AtomicReference<Object> acquireAsync(final TransactionId tid, final Object pid,
+            final LockManager.Mode mode) {
+        final AtomicReference<Object> result = new AtomicReference<Object>();
+        Thread t = new Thread() {
+            public void run() {
+                try {
+                    lm.acquire(tid, pid, mode);
+                    result.set("ok");
+                } catch (TransactionAbortedException e) {
+                    result.set(e);
+                }
+            }
+        };
+        t.setDaemon(true);
+        t.start();
+        return result;
+    }
+
+    // Helper method to wait for an asynchronous acquire to finish.
+    private Object await(AtomicReference<Object> result) throws InterruptedException {
+        for (int i = 0; i < 200 && result.get() == null; i++) {
+            Thread.sleep(10);
+        }
+        return result.get();
+    }
+
+    /**
+     * Unit test for LockManager: a waiting exclusive request is granted once
+     * the shared holder completes, and its wait is recorded.
+     */
+    @Test public void waiterGrantedOnRelease() throws Exception {
+        lm.acquire(tid1, p0, LockManager.Mode.S);
+        lm.acquire(tid1, p1, LockManager.Mode.X);
+        AtomicReference<Object> waiter = acquireAsync(tid2, p0, LockManager.Mode.X);
+        Thread.sleep(50);
+        assertNull(waiter.get());
+
+        lm.releaseAll(tid1);
+        assertEquals("ok", await(waiter));
+        assertTrue(lm.holdsLock(tid2, p0, LockManager.Mode.X));
+        assertFalse(lm.holdsLock(tid1, p1));
+        assertTrue(lm.getWaitNanos(tid2) >= 40 * 1000000L);
+    }
+
+    /**
+     * Unit test for LockManager: the only sharer of a page upgrades right
+     * away, and a second sharer makes the upgrade wait.
+     */
+    @Test public void upgrade() throws Exception {
+        lm.acquire(tid1, p0, LockManager.Mode.S);
+        lm.acquire(tid1, p0, LockManager.Mode.X);
+        assertTrue(lm.holdsLock(tid1, p0, LockManager.Mode.X));
+        lm.releaseAll(tid1);
+
+        lm.acquire(tid1, p0, LockManager.Mode.S);
+        lm.acquire(tid2, p0, LockManager.Mode.S);
+        AtomicReference<Object> upgrade = acquireAsync(tid1, p0, LockManager.Mode.X);
+        Thread.sleep(50);
+        assertNull(upgrade.get());
+        lm.release(tid2, p0);
+        assertEquals("ok", await(upgrade));
+        assertTrue(lm.holdsLock(tid1, p0, LockManager.Mode.X));
+    }
+
+    /**
+     * Unit test for LockManager: a request waiting beyond the lock timeout
+     * aborts, and leaves the holder's lock in place.
+     */
+    @Test public void timeout() throws Exception {
+        lm.setTimeoutMillis(20);
+        lm.acquire(tid1, p0, LockManager.Mode.X);
+        AtomicReference<Object> waiter = acquireAsync(tid2, p0, LockManager.Mode.S);
+        assertTrue(await(waiter) instanceof TransactionAbortedException);
+        assertTrue(lm.holdsLock(tid1, p0, LockManager.Mode.X));
+        assertFalse(lm.holdsLock(tid2, p0));
+    }
+
+    /**
+     * Unit test for LockManager: of two transactions waiting for each
+     * other, the younger one is aborted and the older one gets its lock.
+     */
+    @Test public void deadlockAbortsYoungest() throws Exception {
+        lm.acquire(tid1, p0, LockManager.Mode.X);
+        lm.acquire(tid2, p1, LockManager.Mode.X);
+        AtomicReference<Object> older = acquireAsync(tid1, p1, LockManager.Mode.X);
+        Thread.sleep(50);
+        assertNull(older.get());
+
+        AtomicReference<Object> younger = acquireAsync(tid2, p0, LockManager.Mode.S);
+        assertTrue(await(younger) instanceof TransactionAbortedException);
+        assertNull(older.get());
+        lm.releaseAll(tid2);
+        assertEquals("ok", await(older));
+    }
+
+    /**
+     * Unit test for LockManager: a deadlock where the youngest transaction
+     * is not the one that closes the cycle still aborts the youngest.
+     */
+    @Test public void deadlockAbortsOtherWaiter() throws Exception {
+        lm.acquire(tid1, p0, LockManager.Mode.S);
+        lm.acquire(tid2, p0, LockManager.Mode.S);
+        AtomicReference<Object> younger = acquireAsync(tid2, p0, LockManager.Mode.X);
+        Thread.sleep(50);
+        assertNull(younger.get());
+
+        AtomicReference<Object> older = acquireAsync(tid1, p0, LockManager.Mode.X);
+        assertTrue(await(younger) instanceof TransactionAbortedException);
+        lm.releaseAll(tid2);
+        assertEquals("ok", await(older));
+        assertTrue(lm.holdsLock(tid1, p0, LockManager.Mode.X));
+    }
+
+    /**
+     * Unit test for LockManager: intention locks on a page are compatible
+     * with each other, record locks below them are independent, and a
+     * shared lock on the page waits for the intention-exclusive holders.
+     */
+    @Test public void intentionLocks() throws Exception {
+        RecordId r0 = new RecordId(p0, 0);
+        RecordId r1 = new RecordId(p0, 1);
+        lm.acquire(tid1, p0, LockManager.Mode.IX);
+        lm.acquire(tid2, p0, LockManager.Mode.IX);
+        lm.acquire(tid1, r0, LockManager.Mode.X);
+        assertTrue(lm.tryAcquire(tid2, r1, LockManager.Mode.X));
+        assertFalse(lm.tryAcquire(tid2, r0, LockManager.Mode.X));
+
+        TransactionId reader = new TransactionId();
+        AtomicReference<Object> scan = acquireAsync(reader, p0, LockManager.Mode.S);
+        Thread.sleep(50);
+        assertNull(scan.get());
+        lm.releaseAll(tid1);
+        assertNull(scan.get());
+        lm.releaseAll(tid2);
+        assertEquals("ok", await(scan));
+
+        // S joined with IX is SIX, which still admits intention-shared.
+        lm.acquire(reader, p0, LockManager.Mode.IX);
+        assertTrue(lm.holdsLock(reader, p0, LockManager.Mode.SIX));
+        assertTrue(lm.tryAcquire(tid1, p0, LockManager.Mode.IS));
+        assertFalse(lm.tryAcquire(tid2, p0, LockManager.Mode.IX));
+    }
+
+    /**
+     * JUnit suite target
+     */
+    public static junit.framework.Test suite() {
+        return new JUnit4TestAdapter(LockManagerTest.class);
+    }
+}
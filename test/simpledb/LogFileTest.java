@@ -0,0 +1,221 @@
+package simpledb;
+
+import java.io.*;
+import java.util.concurrent.atomic.AtomicReference;
+
+import org.junit.After;
+import org.junit.Before;
+import org.junit.Test;
+
+import static org.junit.Assert.*;
+import junit.framework.JUnit4TestAdapter;
+
+public class LogFileTest {
+    private LogFile log;
+    private File file;
+
+    /**
+     * Set up initial resources for each unit test.
+     */
+    @Before public void setUp() throws Exception {
+        file = File.createTempFile("logfile", ".log");
+        file.deleteOnExit();
+        log = new LogFile(file);
+    }
+
+    /**
+     * Deletes the log segments a test wrote.
+     */
+    @After public void tearDown() {
+        for (long n = 0; n < 1000; n++) {
+            log.segmentFile(n).delete();
+        }
+    }
+
+    // Helper method to commit a transaction from each of several threads.
+    private void commitConcurrently(int threads) throws Exception {
+        final AtomicReference<Throwable> error = new AtomicReference<Throwable>();
+        Thread[] committers = new Thread[threads];
+        for (int i = 0; i < threads; i++) {
+            committers[i] = new Thread() {
+                public void run() {
+                    try {
+                        TransactionId tid = new TransactionId();
+                        log.logXactionBegin(tid);
+                        log.logCommit(tid);
+                    } catch (Throwable t) {
+                        error.compareAndSet(null, t);
+                    }
+                }
+            };
+            committers[i].start();
+        }
+        for (Thread t : committers) {
+            t.join(10000);
+            assertFalse("committer hung", t.isAlive());
+        }
+        if (error.get() != null) {
+            throw new RuntimeException(error.get());
+        }
+    }
+
+    /**
+     * Unit test for LogFile.logCommit(): with group commit, concurrent
+     * commits that gather within the delay share a single force.
+     */
+    @Test public void groupCommit() throws Exception {
+        log.setGroupCommit(5000000, 8);
+        commitConcurrently(8);
+        assertEquals(1, log.getForceCount());
+        assertEquals(16, log.getTotalRecords());
+    }
+
+    /**
+     * Unit test for LogFile.logCommit(): a batch size of one forces the log
+     * for every commit.
+     */
+    @Test public void groupCommitOff() throws Exception {
+        log.setGroupCommit(0, 1);
+        commitConcurrently(4);
+        assertEquals(4, log.getForceCount());
+    }
+
+    /**
+     * Unit test for LogFile.logCommit(): a commit after a checkpoint, which
+     * rewrites the log file, still completes.
+     */
+    @Test public void commitAfterTruncate() throws Exception {
+        TransactionId tid = new TransactionId();
+        log.logXactionBegin(tid);
+        log.logCommit(tid);
+        log.logCheckpoint();
+        commitConcurrently(2);
+        assertTrue(log.getForceCount() >= 2);
+    }
+
+    /**
+     * Unit test for the LogFile buffer: records that need no durability
+     * stay in memory, and waiting for their LSN writes and forces them.
+     */
+    @Test public void bufferedAppends() throws Exception {
+        for (int i = 0; i < 1000; i++) {
+            log.logXactionBegin(new TransactionId());
+        }
+        assertEquals(0, log.getForceCount());
+        assertEquals(0, log.segmentFile(0).length());
+        assertTrue(log.getDurableLsn() < log.getCurrentLsn());
+
+        long lsn = log.getCurrentLsn();
+        log.awaitDurable(lsn);
+        assertEquals(1, log.getForceCount());
+        assertTrue(log.getDurableLsn() >= lsn);
+        assertEquals(log.appendOffset(), log.segmentFile(0).length());
+    }
+
+    /**
+     * Unit test for LogFile.logWrite(): a one-tuple insert is logged as a
+     * small delta record, or as full page images with deltas off.
+     */
+    @Test public void deltaRecords() throws Exception {
+        File data = File.createTempFile("delta", ".dat");
+        data.deleteOnExit();
+        HeapFile f = Utility.createEmptyHeapFile(data.getAbsolutePath(), 2);
+        HeapPageId pid = new HeapPageId(f.getId(), 0);
+        HeapPage before = new HeapPage(pid, HeapPage.createEmptyPageData());
+        HeapPage after = new HeapPage(pid, HeapPage.createEmptyPageData());
+        after.insertTuple(Utility.getHeapTuple(1, 2));
+
+        TransactionId tid = new TransactionId();
+        log.logXactionBegin(tid);
+        long start = log.appendOffset();
+        log.logWrite(tid, before, after);
+        long delta = log.appendOffset() - start;
+        assertTrue(delta < 64);
+
+        log.setDeltaRecords(false);
+        start = log.appendOffset();
+        log.logWrite(tid, before, after);
+        assertTrue(log.appendOffset() - start > 2 * BufferPool.PAGE_SIZE);
+    }
+
+    /**
+     * Unit test for the segmented log: records are read back across
+     * segment boundaries, and a checkpoint deletes exactly the segments
+     * that end before the oldest record still needed.
+     */
+    @Test public void segments() throws Exception {
+        log = new LogFile(file, 256);
+        TransactionId open = new TransactionId();
+        log.logXactionBegin(open);
+        for (int i = 0; i < 100; i++) {
+            TransactionId tid = new TransactionId();
+            log.logXactionBegin(tid);
+            log.logCommit(tid);
+        }
+        long end = log.getCurrentLsn();
+        assertTrue(log.segmentFile(end / 256).exists());
+
+        DataInputStream in = log.openLog(0);
+        int records = 0;
+        for (long lsn = 0; lsn < end; lsn += 20) {
+            int type = in.readInt();
+            assertTrue(type == LogFile.BEGIN_RECORD || type == LogFile.COMMIT_RECORD);
+            in.readLong();
+            assertEquals(lsn, in.readLong());
+            records++;
+        }
+        in.close();
+        assertEquals(201, records);
+
+        // the open transaction keeps the whole log.
+        log.logCheckpoint();
+        assertTrue(log.segmentFile(0).exists());
+
+        log.logCommit(open);
+        long checkpoint = log.getCurrentLsn();
+        log.logCheckpoint();
+        assertFalse(log.segmentFile(0).exists());
+        assertFalse(log.segmentFile(checkpoint / 256 - 1).exists());
+        assertTrue(log.segmentFile(checkpoint / 256).exists());
+    }
+
+    /**
+     * Unit test for fuzzy checkpoints: the checkpoint records the dirty
+     * pages of the BufferPool without writing them out.
+     */
+    @Test public void fuzzyCheckpoint() throws Exception {
+        File data = File.createTempFile("checkpoint", ".dat");
+        data.deleteOnExit();
+        HeapFile table = Utility.createEmptyHeapFile(data.getAbsolutePath(), 2);
+        TransactionId tid = new TransactionId();
+        log.logXactionBegin(tid);
+        Database.getBufferPool().insertTuple(tid, table.getId(), Utility.getHeapTuple(1, 2));
+        HeapPageId pid = new HeapPageId(table.getId(), 0);
+
+        log.logCheckpoint();
+        assertNotNull(Database.getBufferPool().getPage(tid, pid, Permissions.READ_ONLY).isDirty());
+
+        RandomAccessFile control = new RandomAccessFile(file, "r");
+        long checkpoint = control.readLong();
+        control.close();
+        DataInputStream in = log.openLog(checkpoint);
+        assertEquals(LogFile.CHECKPOINT_RECORD, in.readInt());
+        in.readLong();
+        assertEquals(1, in.readInt());
+        assertEquals(tid.getId(), in.readLong());
+        assertEquals(0, in.readLong());
+        assertEquals(1, in.readInt());
+        assertEquals(table.getId(), in.readInt());
+        assertEquals(0, in.readInt());
+        assertTrue(in.readLong() <= checkpoint);
+        in.close();
+        Database.getBufferPool().transactionComplete(tid, false);
+    }
+
+    /**
+     * JUnit suite target
+     */
+    public static junit.framework.Test suite() {
+        return new JUnit4TestAdapter(LogFileTest.class);
+    }
+}
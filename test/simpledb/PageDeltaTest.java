@@ -0,0 +1,72 @@
+package simpledb;
+
+import java.io.*;
+import java.util.Arrays;
+
+import org.junit.Before;
+import org.junit.Test;
+
+import static org.junit.Assert.*;
+import junit.framework.JUnit4TestAdapter;
+
+public class PageDeltaTest extends TestUtil.CreateHeapFile {
+    private HeapPage before, after;
+
+    /**
+     * Set up initial resources for each unit test.
+     */
+    @Before public void setUp() throws Exception {
+        super.setUp();
+        HeapPageId pid = new HeapPageId(empty.getId(), 0);
+        before = new HeapPage(pid, HeapPage.createEmptyPageData());
+        for (int i = 0; i < 10; i++) {
+            before.insertTuple(Utility.getHeapTuple(i, 2));
+        }
+        after = new HeapPage(pid, before.getPageData());
+    }
+
+    /**
+     * Unit test for PageDelta: a delta of an insert and a delete redoes
+     * and undoes the change exactly, and survives the log format.
+     */
+    @Test public void redoAndUndo() throws Exception {
+        after.deleteTuple(after.getTuple(3));
+        after.insertTuple(Utility.getHeapTuple(42, 2));
+        after.insertTuple(Utility.getHeapTuple(43, 2));
+
+        PageDelta delta = PageDelta.diff(before, after);
+        assertEquals(2, delta.numSlots()); // slot 3 reused, and slot 10.
+
+        ByteArrayOutputStream bytes = new ByteArrayOutputStream();
+        delta.write(new DataOutputStream(bytes));
+        assertTrue(bytes.size() < 100);
+        delta = PageDelta.read(new DataInputStream(new ByteArrayInputStream(bytes.toByteArray())));
+        assertEquals(after.getId(), delta.getPageId());
+
+        HeapPage page = new HeapPage(before.getId(), before.getPageData());
+        delta.redo(page);
+        assertTrue(Arrays.equals(after.getPageData(), page.getPageData()));
+        assertEquals(new IntField(42), page.getTuple(3).getField(0));
+        delta.undo(page);
+        assertTrue(Arrays.equals(before.getPageData(), page.getPageData()));
+    }
+
+    /**
+     * Unit test for PageDelta.diff(): a change to most of a page is not
+     * worth a delta.
+     */
+    @Test public void largeChangeFallsBack() throws Exception {
+        while (after.getNumEmptySlots() > 0) {
+            after.insertTuple(Utility.getHeapTuple(7, 2));
+        }
+        assertNull(PageDelta.diff(before, after));
+        assertEquals(0, PageDelta.diff(before, before).numSlots());
+    }
+
+    /**
+     * JUnit suite target
+     */
+    public static junit.framework.Test suite() {
+        return new JUnit4TestAdapter(PageDeltaTest.class);
+    }
+}
@@ -0,0 +1,129 @@
+package simpledb;
+
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.List;
+
+import org.junit.Test;
+
+import simpledb.systemtest.SimpleDbTestBase;
+import static org.junit.Assert.*;
+import junit.framework.JUnit4TestAdapter;
+
+public class PredicateCompilerTest extends SimpleDbTestBase {
+
+  private static final int[] INTS = new int[] { Integer.MIN_VALUE, -1, 0, 1, 7, Integer.MAX_VALUE };
+  private static final String[] STRINGS = new String[] { "", "a", "ab", "abc", "b", "abab",
+      "xabcx", "bab", "été", "té", "aab" };
+
+  // Helper method to make tuples of an int and a string column.
+  private static List<Tuple> tuples() {
+    List<Tuple> tuples = new ArrayList<Tuple>();
+    TupleDesc td = new TupleDesc(new Type[] { Type.INT_TYPE, Type.STRING_TYPE });
+    for (int i : INTS) {
+      for (String s : STRINGS) {
+        Tuple t = new Tuple(td);
+        t.setField(0, new IntField(i));
+        t.setField(1, new StringField(s, Type.STRING_LEN));
+        tuples.add(t);
+      }
+    }
+    return tuples;
+  }
+
+  // Helper method to check a compiled predicate against the predicates it was compiled from.
+  private static void check(CompiledPredicate compiled, Predicate... chain) {
+    List<Tuple> tuples = tuples();
+    TupleBatch batch = new TupleBatch(tuples.get(0).getTupleDesc());
+    List<Integer> expected = new ArrayList<Integer>();
+    for (int i = 0; i < tuples.size(); i++) {
+      Tuple t = tuples.get(i);
+      boolean passes = true;
+      for (Predicate p : chain) {
+        passes &= p.filter(t);
+      }
+      assertEquals(Arrays.toString(chain) + " on " + t, passes, compiled.matches(t));
+      if (passes) {
+        expected.add(i);
+      }
+      batch.add(t);
+    }
+
+    compiled.filter(batch);
+    List<Integer> actual = new ArrayList<Integer>();
+    for (int i = 0; i < batch.size(); i++) {
+      actual.add(batch.selection()[i]);
+    }
+    assertEquals(Arrays.toString(chain), expected, actual);
+  }
+
+  /**
+   * Compiled predicates agree with Predicate.filter for every operator.
+   */
+  @Test public void matchesInterpreted() {
+    for (Predicate.Op op : Predicate.Op.values()) {
+      for (int i : INTS) {
+        Predicate p = new Predicate(0, op, new IntField(i));
+        check(PredicateCompiler.compile(p), p);
+      }
+      for (String s : STRINGS) {
+        Predicate p = new Predicate(1, op, new StringField(s, Type.STRING_LEN));
+        check(PredicateCompiler.compile(p), p);
+      }
+    }
+  }
+
+  /**
+   * A chain compiles to the conjunction of its predicates.
+   */
+  @Test public void chain() {
+    Predicate p1 = new Predicate(0, Predicate.Op.GREATER_THAN, new IntField(-1));
+    Predicate p2 = new Predicate(1, Predicate.Op.LIKE, new StringField("ab", Type.STRING_LEN));
+    Predicate p3 = new Predicate(0, Predicate.Op.NOT_EQUALS, new IntField(7));
+    check(PredicateCompiler.compile(Arrays.asList(p1, p2, p3)), p1, p2, p3);
+  }
+
+  /**
+   * Predicates of the same shape share a template, whatever their fields
+   * and operands.
+   */
+  @Test public void cachedByShape() {
+    PredicateCompiler.compile(new Predicate(0, Predicate.Op.LESS_THAN, new IntField(1)));
+    int shapes = PredicateCompiler.shapes();
+    PredicateCompiler.compile(new Predicate(3, Predicate.Op.LESS_THAN, new IntField(2)));
+    PredicateCompiler.compile(new Predicate(0, Predicate.Op.LESS_THAN, new IntField(-5)));
+    assertEquals(shapes, PredicateCompiler.shapes());
+  }
+
+  /**
+   * A Filter over Filters returns the tuples that pass all of them, read
+   * a tuple or a batch at a time.
+   */
+  @Test public void filterChain() throws Exception {
+    Predicate p1 = new Predicate(0, Predicate.Op.GREATER_THAN_OR_EQ, new IntField(2));
+    Predicate p2 = new Predicate(1, Predicate.Op.LESS_THAN, new IntField(5));
+    int[] data = new int[] { 1, 1, 2, 2, 3, 9, 4, 4, 5, 6, 6, 0 };
+    DbIterator expected = TestUtil.createTupleList(2, new int[] { 2, 2, 4, 4, 6, 0 });
+
+    Filter chain = new Filter(p2, new Filter(p1, TestUtil.createTupleList(2, data)));
+    chain.open();
+    TestUtil.compareDbIterators(expected, chain);
+
+    chain.rewind();
+    expected.rewind();
+    TupleBatch batch = chain.nextBatch();
+    assertEquals(3, batch.size());
+    for (int i = 0; i < batch.size(); i++) {
+      assertTrue(TestUtil.compareTuples(expected.next(), batch.getTuple(i)));
+    }
+    assertNull(chain.nextBatch());
+    chain.close();
+  }
+
+  /**
+   * JUnit suite target
+   */
+  public static junit.framework.Test suite() {
+    return new JUnit4TestAdapter(PredicateCompilerTest.class);
+  }
+}
@@ -0,0 +1,81 @@
+package simpledb;
+
+import org.junit.Before;
+import org.junit.Test;
+
+import static org.junit.Assert.*;
+import junit.framework.JUnit4TestAdapter;
+
+public class ReadAheadTest extends TestUtil.CreateHeapFile {
+    private BufferPool bp;
+
+    /**
+     * Set up initial resources for each unit test.
+     */
+    @Before public void setUp() throws Exception {
+        super.setUp();
+        bp = Database.resetBufferPool(100);
+    }
+
+    /**
+     * Unit test for ReadAhead.access(): the window grows while access is
+     * sequential, up to the BufferPool's limit, and closes on a jump.
+     */
+    @Test public void windowAdapts() throws Exception {
+        ReadAhead ra = new ReadAhead(bp, empty.getId(), 1000, null);
+        assertEquals(25, bp.getReadAheadPages(null));
+
+        ra.access(0);
+        assertEquals(4, ra.getWindow());
+        ra.access(1);
+        assertEquals(8, ra.getWindow());
+        ra.access(2);
+        assertEquals(16, ra.getWindow());
+        ra.access(3);
+        assertEquals(25, ra.getWindow());
+
+        ra.access(500);
+        assertEquals(0, ra.getWindow());
+        ra.access(501);
+        assertEquals(4, ra.getWindow());
+    }
+
+    /**
+     * Unit test for ReadAhead.access(): read-ahead can be disabled, and is
+     * limited by the size of a scan ring.
+     */
+    @Test public void windowLimits() throws Exception {
+        bp.setReadAheadPages(0);
+        ReadAhead ra = new ReadAhead(bp, empty.getId(), 1000, null);
+        ra.access(0);
+        ra.access(1);
+        assertEquals(0, ra.getWindow());
+
+        bp.setReadAheadPages(BufferPool.DEFAULT_READ_AHEAD_PAGES);
+        ScanRing ring = bp.newScanRing(1000);
+        assertEquals(ring.getCapacity() - 1, bp.getReadAheadPages(ring));
+    }
+
+    /**
+     * Unit test for BufferPool.prefetchPage(): the page becomes resident
+     * without being requested.
+     */
+    @Test public void prefetchPage() throws Exception {
+        PageId pid = new HeapPageId(empty.getId(), 0);
+        bp.prefetchPage(pid, null);
+        for (int i = 0; i < 100 && bp.getReplacementPolicy().getMisses() == 0; i++) {
+            Thread.sleep(10);
+        }
+        assertEquals(1, bp.getReplacementPolicy().getMisses());
+
+        bp.getPage(new TransactionId(), pid, Permissions.READ_ONLY);
+        assertEquals(1, bp.getReplacementPolicy().getMisses());
+    }
+
+    /**
+     * JUnit suite target
+     */
+    public static junit.framework.Test suite() {
+        return new JUnit4TestAdapter(ReadAheadTest.class);
+    }
+}
@@ -0,0 +1,179 @@
+package simpledb;
+
+import java.util.*;
+
+import org.junit.Test;
+
+import static org.junit.Assert.*;
+import junit.framework.JUnit4TestAdapter;
+
+public class ReplacementPolicyTest {
+
+    /** Evictor that accepts every page except the pinned ones. */
+    private static class TestEvictor implements ReplacementPolicy.Evictor {
+        Set<PageId> pinned = new HashSet<PageId>();
+
+        public boolean tryEvict(PageId pid) {
+            return !pinned.contains(pid);
+        }
+    }
+
+    private static PageId pid(int n) {
+        return new HeapPageId(1, n);
+    }
+
+    /**
+     * Unit test for LruPolicy: evicts the least recently used page.
+     */
+    @Test public void lruEvictsLeastRecentlyUsed() {
+        ReplacementPolicy policy = new LruPolicy();
+        policy.recordMiss(pid(0));
+        policy.recordMiss(pid(1));
+        policy.recordMiss(pid(2));
+        policy.recordHit(pid(0));
+
+        assertEquals(pid(1), policy.evict(new TestEvictor()));
+        assertEquals(pid(2), policy.evict(new TestEvictor()));
+        assertEquals(pid(0), policy.evict(new TestEvictor()));
+        assertNull(policy.evict(new TestEvictor()));
+    }
+
+    /**
+     * Unit test for ClockPolicy: gives referenced pages a second chance.
+     */
+    @Test public void clockSkipsReferencedPages() {
+        ReplacementPolicy policy = new ClockPolicy();
+        TestEvictor evictor = new TestEvictor();
+        policy.recordMiss(pid(0));
+        policy.recordMiss(pid(1));
+        policy.recordMiss(pid(2));
+
+        // the first sweep clears all bits; page 0 is then the first victim.
+        assertEquals(pid(0), policy.evict(evictor));
+        policy.recordMiss(pid(3));
+        policy.recordHit(pid(1));
+        assertEquals(pid(2), policy.evict(evictor));
+    }
+
+    /**
+     * Unit test for LruKPolicy: a page referenced twice outlives newer pages
+     * referenced once, even across eviction.
+     */
+    @Test public void lruKPrefersPagesWithShortHistory() {
+        ReplacementPolicy policy = new LruKPolicy(2, 10);
+        TestEvictor evictor = new TestEvictor();
+        policy.recordMiss(pid(0));
+        policy.recordHit(pid(0));
+        policy.recordMiss(pid(1));
+        policy.recordMiss(pid(2));
+
+        assertEquals(pid(1), policy.evict(evictor));
+        assertEquals(pid(2), policy.evict(evictor));
+
+        // page 0 comes back with its history and outlives a fresh page.
+        assertEquals(pid(0), policy.evict(evictor));
+        policy.recordMiss(pid(0));
+        policy.recordMiss(pid(3));
+        assertEquals(pid(3), policy.evict(evictor));
+    }
+
+    /**
+     * Unit test for TwoQueuePolicy: a scan does not evict hot pages.
+     */
+    @Test public void twoQueueResistsScans() {
+        ReplacementPolicy policy = new TwoQueuePolicy(1, 4);
+        TestEvictor evictor = new TestEvictor();
+
+        // page 0 is seen twice across an eviction, so it is promoted to Am.
+        policy.recordMiss(pid(0));
+        policy.recordMiss(pid(1));
+        assertEquals(pid(0), policy.evict(evictor));
+        policy.recordMiss(pid(0));
+
+        // a scan over pages 10..19 only cycles through A1in.
+        for (int i = 10; i < 20; i++) {
+            policy.recordMiss(pid(i));
+            assertFalse(pid(0).equals(policy.evict(evictor)));
+        }
+    }
+
+    /**
+     * Unit test for all policies: pinned pages are skipped, and hits and
+     * misses are counted.
+     */
+    @Test public void skipsRefusedPagesAndCounts() {
+        ReplacementPolicy[] policies = new ReplacementPolicy[] {
+            new LruPolicy(), new ClockPolicy(), new LruKPolicy(4), new TwoQueuePolicy(4)
+        };
+        for (ReplacementPolicy policy : policies) {
+            TestEvictor evictor = new TestEvictor();
+            policy.recordMiss(pid(0));
+            policy.recordMiss(pid(1));
+            policy.recordHit(pid(0));
+            policy.recordHit(pid(7)); // a late hit on an evicted page.
+
+            evictor.pinned.add(pid(0));
+            evictor.pinned.add(pid(1));
+            assertNull(policy.toString(), policy.evict(evictor));
+
+            evictor.pinned.remove(pid(1));
+            assertEquals(policy.toString(), pid(1), policy.evict(evictor));
+            assertEquals(policy.toString(), 2, policy.getHits());
+            assertEquals(policy.toString(), 2, policy.getMisses());
+
+            policy.resetStats();
+            assertEquals(policy.toString(), 0, policy.getHits());
+        }
+    }
+
+    /**
+     * Unit test for all policies: victims lists the pages in the order
+     * evict takes them, and leaves that order alone.
+     */
+    @Test public void victimsMatchEvictionOrder() {
+        ReplacementPolicy[] policies = new ReplacementPolicy[] {
+            new LruPolicy(), new ClockPolicy(), new LruKPolicy(2, 10), new TwoQueuePolicy(8)
+        };
+        for (ReplacementPolicy policy : policies) {
+            for (int i = 0; i < 6; i++) {
+                policy.recordMiss(pid(i));
+            }
+            policy.recordHit(pid(1));
+            policy.recordHit(pid(3));
+
+            List<PageId> next = policy.victims(6);
+            assertEquals(policy.toString(), next.subList(0, 2), policy.victims(2));
+            assertEquals(policy.toString(), next, policy.victims(10));
+            for (PageId pid : next) {
+                assertEquals(policy.toString(), pid, policy.evict(new TestEvictor()));
+            }
+            assertTrue(policy.toString(), policy.victims(6).isEmpty());
+        }
+    }
+
+    /**
+     * Unit test for BufferPool with a replacement policy: the policy sees
+     * the pool's hits and misses.
+     */
+    @Test public void bufferPoolReportsToPolicy() throws Exception {
+        Database.reset();
+        HeapFile empty = Utility.createEmptyHeapFile(
+                java.io.File.createTempFile("policy", ".dat").getAbsolutePath(), 2);
+        BufferPool bp = Database.resetBufferPool(2, new ClockPolicy());
+        TransactionId tid = new TransactionId();
+        PageId p0 = new HeapPageId(empty.getId(), 0);
+
+        bp.getPage(tid, p0, Permissions.READ_ONLY);
+        bp.getPage(tid, p0, Permissions.READ_ONLY);
+        bp.getPage(tid, p0, Permissions.READ_ONLY);
+        assertEquals(1, bp.getReplacementPolicy().getMisses());
+        assertEquals(2, bp.getReplacementPolicy().getHits());
+    }
+
+    /**
+     * JUnit suite target
+     */
+    public static junit.framework.Test suite() {
+        return new JUnit4TestAdapter(ReplacementPolicyTest.class);
+    }
+}
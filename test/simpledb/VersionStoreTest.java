@@ -0,0 +1,91 @@
+package simpledb;
+
+import org.junit.Before;
+import org.junit.Test;
+
+import static org.junit.Assert.*;
+import junit.framework.JUnit4TestAdapter;
+
+public class VersionStoreTest {
+    private VersionStore store;
+    private PageId p0;
+    private byte[] v0, v1;
+
+    /**
+     * Set up initial resources for each unit test.
+     */
+    @Before public void setUp() {
+        store = new VersionStore();
+        p0 = new HeapPageId(1, 0);
+        v0 = new byte[] { 0 };
+        v1 = new byte[] { 1 };
+    }
+
+    /**
+     * Unit test for VersionStore.lookup(): each snapshot sees the image
+     * that was committed when it started, and new snapshots see the
+     * current one.
+     */
+    @Test public void snapshotsSeeTheirImage() {
+        long s0 = store.beginSnapshot();
+        store.retire(p0, v0, store.nextCommit());
+        long s1 = store.beginSnapshot();
+        store.retire(p0, v1, store.nextCommit());
+        long s2 = store.beginSnapshot();
+
+        assertSame(v0, store.lookup(p0, s0));
+        assertSame(v1, store.lookup(p0, s1));
+        assertNull(store.lookup(p0, s2));
+        assertNull(store.lookup(new HeapPageId(1, 1), s0));
+        store.endSnapshot(s0);
+        store.endSnapshot(s1);
+        store.endSnapshot(s2);
+    }
+
+    /**
+     * Unit test for VersionStore garbage collection: images are dropped
+     * once the oldest snapshot that could see them ends, and not kept at
+     * all while no snapshot runs.
+     */
+    @Test public void oldImagesAreCollected() {
+        store.retire(p0, v0, store.nextCommit());
+        assertEquals(0, store.size());
+
+        long s0 = store.beginSnapshot();
+        store.retire(p0, v0, store.nextCommit());
+        long s1 = store.beginSnapshot();
+        store.retire(p0, v1, store.nextCommit());
+        assertEquals(2, store.size());
+
+        // ending a younger snapshot frees nothing the older one needs.
+        store.endSnapshot(s1);
+        assertEquals(2, store.size());
+        assertSame(v0, store.lookup(p0, s0));
+
+        long s2 = store.beginSnapshot();
+        store.endSnapshot(s0);
+        assertEquals(0, store.size());
+        assertNull(store.lookup(p0, s2));
+        store.endSnapshot(s2);
+    }
+
+    /**
+     * Unit test for VersionStore: the image saved for a page evicted while
+     * dirty is what snapshots see until its writer commits.
+     */
+    @Test public void stolenPage() {
+        long s0 = store.beginSnapshot();
+        store.saveStolen(p0, v0);
+        assertSame(v0, store.lookup(p0, s0));
+        store.retire(p0, null, store.nextCommit());
+        assertSame(v0, store.lookup(p0, s0));
+        assertNull(store.lookup(p0, store.beginSnapshot()));
+    }
+
+    /**
+     * JUnit suite target
+     */
+    public static junit.framework.Test suite() {
+        return new JUnit4TestAdapter(VersionStoreTest.class);
+    }
+}
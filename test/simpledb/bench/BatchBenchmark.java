@@ -0,0 +1,70 @@
+package simpledb.bench;
+
+import java.io.File;
+
+import simpledb.*;
+
+/**
+ * Measures a scan, filter and aggregate over a cached table read a tuple
+ * at a time and a batch at a time. The query is the SUM of the first
+ * column of the rows whose first column, the page number, is below half
+ * the table, grouped by the second column; a tuple at a time, the rows of
+ * the filter are merged into an IntegerAggregator one by one. Rounds
+ * alternate between the two, since the first rounds warm up.
+ * <p>
+ * Usage: BatchBenchmark [pages] [rounds]
+ */
+public class BatchBenchmark {
+
+    public static void main(String[] args) throws Exception {
+        int pages = args.length > 0 ? Integer.parseInt(args[0]) : 4000;
+        int rounds = args.length > 1 ? Integer.parseInt(args[1]) : 10;
+
+        File data = File.createTempFile("batch", ".dat");
+        data.deleteOnExit();
+        ReadAheadBenchmark.writeFile(data, pages);
+        HeapFile table = new HeapFile(data, Utility.getTupleDesc(2));
+        Database.getCatalog().addTable(table, "batch");
+        Database.resetBufferPool(pages);
+        Predicate p = new Predicate(0, Predicate.Op.LESS_THAN, new IntField(pages / 2));
+
+        for (int round = 0; round < rounds; round++) {
+            boolean batches = round % 2 == 1;
+            TransactionId tid = new TransactionId();
+            Filter filter = new Filter(p, new SeqScan(tid, table.getId(), ""));
+            long start = System.nanoTime();
+            long rows = 0;
+            DbIterator result;
+            if (batches) {
+                Aggregate agg = new Aggregate(filter, 0, 1, Aggregator.Op.SUM);
+                agg.open();
+                result = agg;
+            } else {
+                Aggregator agg = new IntegerAggregator(1, Type.INT_TYPE, 0, Aggregator.Op.SUM);
+                filter.open();
+                while (filter.hasNext()) {
+                    agg.mergeTupleIntoGroup(filter.next());
+                }
+                filter.close();
+                result = agg.iterator();
+                result.open();
+            }
+            long sum = 0;
+            while (result.hasNext()) {
+                sum += ((IntField) result.next().getField(1)).getValue();
+                rows++;
+            }
+            result.close();
+            double seconds = (System.nanoTime() - start) / 1e9;
+            Database.getBufferPool().transactionComplete(tid);
+            System.out.printf("%-7s %8.1f ms %10.1f M tuples/s (%d groups, sum %d)%n",
+                    batches ? "batch" : "tuple", seconds * 1e3,
+                    table.numPages() * (double) slots() / seconds / 1e6, rows, sum);
+        }
+    }
+
+    // Helper method to return the number of tuples on each page of the table.
+    private static int slots() {
+        return (BufferPool.PAGE_SIZE * 8) / (Utility.getTupleDesc(2).getSize() * 8 + 1);
+    }
+}
@@ -0,0 +1,216 @@
+package simpledb.bench;
+
+import java.io.IOException;
+import java.util.*;
+
+import simpledb.*;
+
+/**
+ * Multithreaded throughput benchmark for BufferPool.getPage.
+ * <p>
+ * Compares the concurrent page table against the previous design (a
+ * HashMap plus an ArrayList replacement queue, here guarded by one global
+ * monitor so that it is at least correct under concurrency) at 50, 1,000 and
+ * 100,000 frames. Pages come from an in-memory file, so the numbers measure
+ * the page table and replacement bookkeeping rather than disk I/O.
+ * <p>
+ * Usage: BufferPoolBenchmark [seconds per run] [max threads]
+ */
+public class BufferPoolBenchmark {
+
+    private static final int[] FRAME_COUNTS = new int[] { 50, 1000, 100000 };
+
+    /** A source of pages whose lookup cost is being measured. */
+    interface PageSource {
+        Page get(TransactionId tid, PageId pid) throws Exception;
+    }
+
+    public static void main(String[] args) throws Exception {
+        double seconds = args.length > 0 ? Double.parseDouble(args[0]) : 2.0;
+        int maxThreads = args.length > 1 ? Integer.parseInt(args[1])
+                : Runtime.getRuntime().availableProcessors();
+
+        MemoryFile file = new MemoryFile(100000 * 2);
+        Database.getCatalog().addTable(file, "bench");
+
+        System.out.println("frames\tworkload\tthreads\tlegacy ops/s\tcurrent ops/s");
+        for (int frames : FRAME_COUNTS) {
+            // all hits once warm, then a working set 25% larger than the pool
+            for (int workingSet : new int[] { frames, frames + frames / 4 }) {
+                String workload = workingSet == frames ? "hits" : "mixed";
+                for (int threads = 1; threads <= maxThreads; threads *= 2) {
+                    final BufferPool bp = Database.resetBufferPool(frames);
+                    final LegacyPool legacy = new LegacyPool(frames);
+                    double legacyOps = run(new PageSource() {
+                        public Page get(TransactionId tid, PageId pid) throws Exception {
+                            return legacy.getPage(pid);
+                        }
+                    }, file, workingSet, threads, seconds);
+                    double currentOps = run(new PageSource() {
+                        public Page get(TransactionId tid, PageId pid) throws Exception {
+                            return bp.getPage(tid, pid, Permissions.READ_ONLY);
+                        }
+                    }, file, workingSet, threads, seconds);
+                    System.out.printf("%d\t%s\t%d\t%.0f\t%.0f%n",
+                            frames, workload, threads, legacyOps, currentOps);
+                }
+            }
+        }
+    }
+
+    /** Runs the workload on the given number of threads and returns ops/s. */
+    static double run(final PageSource source, final MemoryFile file,
+            final int workingSet, int threads, double seconds) throws Exception {
+        // warm the pool sequentially so that every run starts full
+        TransactionId warmTid = new TransactionId();
+        for (int i = 0; i < workingSet; i++) {
+            source.get(warmTid, new HeapPageId(file.getId(), i));
+        }
+
+        final long deadline = System.nanoTime() + (long) (seconds * 1e9);
+        final long[] counts = new long[threads];
+        final Exception[] errors = new Exception[threads];
+        Thread[] workers = new Thread[threads];
+        for (int t = 0; t < threads; t++) {
+            final int me = t;
+            workers[t] = new Thread() {
+                public void run() {
+                    Random r = new Random(me);
+                    TransactionId tid = new TransactionId();
+                    long n = 0;
+                    try {
+                        while ((n & 0xff) != 0 || System.nanoTime() < deadline) {
+                            source.get(tid, new HeapPageId(file.getId(), r.nextInt(workingSet)));
+                            n++;
+                        }
+                    } catch (Exception e) {
+                        errors[me] = e;
+                    }
+                    counts[me] = n;
+                }
+            };
+        }
+
+        long start = System.nanoTime();
+        for (Thread w : workers) {
+            w.start();
+        }
+        long total = 0;
+        for (int t = 0; t < threads; t++) {
+            workers[t].join();
+            if (errors[t] != null) {
+                throw errors[t];
+            }
+            total += counts[t];
+        }
+        return total / ((System.nanoTime() - start) / 1e9);
+    }
+
+    /**
+     * The page table as it was before the concurrent rewrite: a HashMap and
+     * an ArrayList LRU queue, with one monitor around both.
+     */
+    static class LegacyPool {
+        private final int size;
+        private final Map<PageId, Page> pagesMap = new HashMap<PageId, Page>();
+        private final ArrayList<PageId> replacementQueue = new ArrayList<PageId>();
+
+        LegacyPool(int size) {
+            this.size = size;
+        }
+
+        synchronized Page getPage(PageId pid) {
+            if (pagesMap.containsKey(pid)) {
+                replacementQueue.remove(pid);
+                replacementQueue.add(pid);
+                return pagesMap.get(pid);
+            }
+            if (pagesMap.size() == size) {
+                pagesMap.remove(replacementQueue.remove(0));
+            }
+            Page p = Database.getCatalog().getDbFile(pid.getTableId()).readPage(pid);
+            pagesMap.put(pid, p);
+            replacementQueue.add(pid);
+            return p;
+        }
+    }
+
+    /**
+     * A DbFile whose pages are generated in memory, so that benchmarks
+     * measure buffer management only.
+     */
+    static class MemoryFile implements DbFile {
+        private static final long serialVersionUID = 1L;
+        private final int numPages;
+        private final TupleDesc td = Utility.getTupleDesc(1);
+
+        MemoryFile(int numPages) {
+            this.numPages = numPages;
+        }
+
+        int numPages() {
+            return numPages;
+        }
+
+        public Page readPage(PageId id) {
+            if (id.pageNumber() >= numPages) {
+                throw new IllegalArgumentException("no such page " + id.pageNumber());
+            }
+            return new MemoryPage(id);
+        }
+
+        public void writePage(Page p) throws IOException {
+        }
+
+        public ArrayList<Page> insertTuple(TransactionId tid, Tuple t) {
+            throw new UnsupportedOperationException();
+        }
+
+        public Page deleteTuple(TransactionId tid, Tuple t) {
+            throw new UnsupportedOperationException();
+        }
+
+        public DbFileIterator iterator(TransactionId tid) {
+            throw new UnsupportedOperationException();
+        }
+
+        public int getId() {
+            return System.identityHashCode(this);
+        }
+
+        public TupleDesc getTupleDesc() {
+            return td;
+        }
+    }
+
+    /** A minimal clean page with no contents. */
+    static class MemoryPage implements Page {
+        private final PageId pid;
+
+        MemoryPage(PageId pid) {
+            this.pid = pid;
+        }
+
+        public PageId getId() {
+            return pid;
+        }
+
+        public TransactionId isDirty() {
+            return null;
+        }
+
+        public void markDirty(boolean dirty, TransactionId tid) {
+        }
+
+        public byte[] getPageData() {
+            return new byte[BufferPool.PAGE_SIZE];
+        }
+
+        public Page getBeforeImage() {
+            return this;
+        }
+
+        public void setBeforeImage() {
+        }
+    }
+}
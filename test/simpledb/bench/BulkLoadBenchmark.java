@@ -0,0 +1,87 @@
+package simpledb.bench;
+
+import java.io.*;
+import java.nio.ByteBuffer;
+import java.nio.channels.FileChannel;
+
+import simpledb.*;
+
+/**
+ * Compares loading a table with {@link BulkLoader} against the disk's
+ * sequential write bandwidth and against inserting through the
+ * BufferPool.
+ * <p>
+ * The bandwidth baseline writes the same number of bytes with large
+ * sequential writes and one sync at the end, which is the best any loader
+ * can do. BufferPool inserts are much slower, so they are timed on a tenth
+ * of the rows.
+ * <p>
+ * Usage: BulkLoadBenchmark [rows] [columns]
+ */
+public class BulkLoadBenchmark {
+
+    public static void main(String[] args) throws Exception {
+        long rows = args.length > 0 ? Long.parseLong(args[0]) : 10000000;
+        int columns = args.length > 1 ? Integer.parseInt(args[1]) : 2;
+        TupleDesc td = Utility.getTupleDesc(columns);
+
+        File file = File.createTempFile("bulk", ".dat");
+        file.deleteOnExit();
+        HeapFile table = new HeapFile(file, td);
+        Database.getCatalog().addTable(table, "bulk");
+
+        // statistics are refreshed by finish(); time the load without them.
+        // one tuple is reused, so that the time is the loader's own.
+        long start = System.nanoTime();
+        BulkLoader loader = new BulkLoader(table);
+        int[] values = new int[columns];
+        Tuple tuple = Utility.getHeapTuple(values);
+        for (long i = 0; i < rows; i++) {
+            tuple.setField(0, new IntField((int) i));
+            loader.add(tuple);
+        }
+        long loadEnd = System.nanoTime();
+        loader.finish();
+        double seconds = (System.nanoTime() - start) / 1e9;
+        double statsSeconds = (System.nanoTime() - loadEnd) / 1e9;
+        long bytes = file.length();
+        report("bulk load (incl. stats)", rows, bytes, seconds);
+        report("bulk load (excl. stats)", rows, bytes, seconds - statsSeconds);
+
+        File raw = File.createTempFile("raw", ".dat");
+        raw.deleteOnExit();
+        start = System.nanoTime();
+        FileChannel ch = new RandomAccessFile(raw, "rw").getChannel();
+        ByteBuffer buf = ByteBuffer.allocateDirect(BulkLoader.BATCH_PAGES * BufferPool.PAGE_SIZE);
+        for (long written = 0; written < bytes; written += buf.capacity()) {
+            buf.clear();
+            buf.put(0, (byte) written);
+            while (buf.hasRemaining()) {
+                ch.write(buf);
+            }
+        }
+        ch.force(false);
+        ch.close();
+        report("sequential write", rows, bytes, (System.nanoTime() - start) / 1e9);
+
+        File slow = File.createTempFile("insert", ".dat");
+        slow.deleteOnExit();
+        HeapFile slowTable = new HeapFile(slow, td);
+        Database.getCatalog().addTable(slowTable, "insert");
+        BufferPool bp = Database.resetBufferPool(BufferPool.DEFAULT_PAGES);
+        TransactionId tid = new TransactionId();
+        long slowRows = rows / 10;
+        start = System.nanoTime();
+        for (long i = 0; i < slowRows; i++) {
+            values[0] = (int) i;
+            bp.insertTuple(tid, slowTable.getId(), Utility.getHeapTuple(values));
+        }
+        bp.flushAllPages();
+        report("BufferPool.insertTuple", slowRows, slow.length(), (System.nanoTime() - start) / 1e9);
+    }
+
+    private static void report(String what, long rows, long bytes, double seconds) {
+        System.out.printf("%-24s %10.0f rows/s %8.1f MB/s%n", what, rows / seconds,
+                bytes / seconds / (1 << 20));
+    }
+}
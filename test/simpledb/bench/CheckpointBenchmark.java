@@ -0,0 +1,97 @@
+package simpledb.bench;
+
+import java.io.File;
+import java.util.concurrent.atomic.AtomicBoolean;
+import java.util.concurrent.atomic.AtomicLong;
+
+import simpledb.*;
+
+/**
+ * Measures how much checkpoints stall short transactions while a long
+ * transaction keeps many pages dirty. The long transaction dirties every
+ * page of a large table again before each checkpoint; meanwhile, worker
+ * threads commit short transactions that each write one page of a small
+ * table, and the longest commit is reported. The page writer runs with
+ * the given interval and batch.
+ * <p>
+ * Usage: CheckpointBenchmark [dirty pages] [threads] [checkpoints]
+ *        [writer interval ms] [writer batch]
+ */
+public class CheckpointBenchmark {
+
+    public static void main(String[] args) throws Exception {
+        int dirtyPages = args.length > 0 ? Integer.parseInt(args[0]) : 20000;
+        int threads = args.length > 1 ? Integer.parseInt(args[1]) : 4;
+        int checkpoints = args.length > 2 ? Integer.parseInt(args[2]) : 10;
+        long writerMillis = args.length > 3 ? Long.parseLong(args[3]) : 10;
+        int writerBatch = args.length > 4 ? Integer.parseInt(args[4]) : 64;
+
+        File big = File.createTempFile("checkpoint", ".dat");
+        big.deleteOnExit();
+        ReadAheadBenchmark.writeFile(big, dirtyPages);
+        HeapFile bigTable = new HeapFile(big, Utility.getTupleDesc(2));
+        Database.getCatalog().addTable(bigTable, "big");
+        File small = File.createTempFile("checkpoint", ".dat");
+        small.deleteOnExit();
+        ReadAheadBenchmark.writeFile(small, threads);
+        HeapFile smallTable = new HeapFile(small, Utility.getTupleDesc(2));
+        Database.getCatalog().addTable(smallTable, "small");
+
+        BufferPool bp = Database.resetBufferPool(dirtyPages + threads + 16);
+        bp.setPageWriter(writerMillis, writerBatch);
+        TransactionId longTid = new TransactionId();
+        Database.getLogFile().logXactionBegin(longTid);
+
+        final AtomicLong maxCommitNanos = new AtomicLong();
+        final AtomicLong commits = new AtomicLong();
+        final AtomicBoolean done = new AtomicBoolean();
+        Thread[] workers = new Thread[threads];
+        for (int i = 0; i < threads; i++) {
+            final HeapPageId pid = new HeapPageId(smallTable.getId(), i);
+            final BufferPool pool = bp;
+            workers[i] = new Thread() {
+                public void run() {
+                    try {
+                        while (!done.get()) {
+                            long start = System.nanoTime();
+                            TransactionId tid = new TransactionId();
+                            pool.getPage(tid, pid, Permissions.READ_WRITE).markDirty(true, tid);
+                            pool.transactionComplete(tid, true);
+                            long nanos = System.nanoTime() - start;
+                            commits.incrementAndGet();
+                            long max = maxCommitNanos.get();
+                            while (nanos > max && !maxCommitNanos.compareAndSet(max, nanos)) {
+                                max = maxCommitNanos.get();
+                            }
+                        }
+                    } catch (Exception e) {
+                        throw new RuntimeException(e);
+                    }
+                }
+            };
+            workers[i].start();
+        }
+
+        long checkpointNanos = 0;
+        long runStart = System.nanoTime();
+        for (int c = 0; c < checkpoints; c++) {
+            for (int p = 0; p < dirtyPages; p++) {
+                HeapPageId pid = new HeapPageId(bigTable.getId(), p);
+                bp.getPage(longTid, pid, Permissions.READ_WRITE).markDirty(true, longTid);
+            }
+            Thread.sleep(100);
+            long start = System.nanoTime();
+            Database.getLogFile().logCheckpoint();
+            checkpointNanos += System.nanoTime() - start;
+        }
+        double seconds = (System.nanoTime() - runStart) / 1e9;
+        done.set(true);
+        for (Thread t : workers) {
+            t.join();
+        }
+        bp.setPageWriter(0, 0);
+        System.out.printf("%10.2f ms/checkpoint %10.2f ms longest commit %10.0f commits/s%n",
+                checkpointNanos / 1e6 / checkpoints, maxCommitNanos.get() / 1e6,
+                commits.get() / seconds);
+    }
+}
@@ -0,0 +1,80 @@
+package simpledb.bench;
+
+import java.io.File;
+import java.util.Random;
+
+import simpledb.*;
+
+/**
+ * Measures the cost of writing dirty pages. First a transaction dirties
+ * a run of consecutive pages, in random order, and the time to flush them
+ * all is reported. Then, with steal, a transaction dirties random pages of
+ * a table much larger than the pool, so that most requests evict a dirty
+ * page, and the mean and longest request times are reported with the
+ * page cleaner off and on, twice, since the first rounds warm up.
+ * <p>
+ * Usage: CleanerBenchmark [table pages] [pool pages] [requests]
+ *        [cleaner interval ms] [cleaner batch]
+ */
+public class CleanerBenchmark {
+
+    public static void main(String[] args) throws Exception {
+        int tablePages = args.length > 0 ? Integer.parseInt(args[0]) : 20000;
+        int poolPages = args.length > 1 ? Integer.parseInt(args[1]) : 2000;
+        int requests = args.length > 2 ? Integer.parseInt(args[2]) : 40000;
+        long cleanerMillis = args.length > 3 ? Long.parseLong(args[3]) : 1;
+        int cleanerBatch = args.length > 4 ? Integer.parseInt(args[4]) : 256;
+
+        File data = File.createTempFile("cleaner", ".dat");
+        data.deleteOnExit();
+        ReadAheadBenchmark.writeFile(data, tablePages);
+        HeapFile table = new HeapFile(data, Utility.getTupleDesc(2));
+        Database.getCatalog().addTable(table, "cleaner");
+        Random rand = new Random(0);
+
+        BufferPool bp = Database.resetBufferPool(poolPages);
+        TransactionId tid = new TransactionId();
+        int[] order = new int[poolPages];
+        for (int i = 0; i < poolPages; i++) {
+            order[i] = i;
+        }
+        for (int i = poolPages - 1; i > 0; i--) {
+            int j = rand.nextInt(i + 1);
+            int t = order[i];
+            order[i] = order[j];
+            order[j] = t;
+        }
+        for (int p : order) {
+            bp.getPage(tid, new HeapPageId(table.getId(), p), Permissions.READ_WRITE).markDirty(true, tid);
+        }
+        long start = System.nanoTime();
+        bp.flushAllPages();
+        System.out.printf("flush %6d pages %10.2f ms%n", poolPages, (System.nanoTime() - start) / 1e6);
+        bp.transactionComplete(tid, true);
+
+        for (int round = 0; round < 4; round++) {
+            boolean cleaner = round % 2 == 1;
+            bp = Database.resetBufferPool(poolPages);
+            bp.setSteal(true);
+            if (cleaner) {
+                bp.setPageCleaner(cleanerMillis, cleanerBatch);
+            }
+            tid = new TransactionId();
+            long total = 0;
+            long longest = 0;
+            for (int i = 0; i < requests; i++) {
+                HeapPageId pid = new HeapPageId(table.getId(), rand.nextInt(tablePages));
+                start = System.nanoTime();
+                Page p = bp.getPage(tid, pid, Permissions.READ_WRITE);
+                long nanos = System.nanoTime() - start;
+                p.markDirty(true, tid);
+                total += nanos;
+                longest = Math.max(longest, nanos);
+            }
+            bp.setPageCleaner(0, 0);
+            bp.transactionComplete(tid, true);
+            System.out.printf("cleaner %-3s %10.1f us/request %10.2f ms longest%n",
+                    cleaner ? "on" : "off", total / 1e3 / requests, longest / 1e6);
+        }
+    }
+}
@@ -0,0 +1,50 @@
+package simpledb.bench;
+
+import java.io.File;
+
+import simpledb.*;
+
+/**
+ * Measures how the cost of committing and aborting a short transaction
+ * grows with the number of pages resident in the buffer pool. The pool is
+ * filled with clean pages of a table, and each transaction then dirties a
+ * single page and commits or aborts.
+ * <p>
+ * Usage: CommitBenchmark [max resident pages] [transactions]
+ */
+public class CommitBenchmark {
+
+    public static void main(String[] args) throws Exception {
+        int maxPages = args.length > 0 ? Integer.parseInt(args[0]) : 64000;
+        int transactions = args.length > 1 ? Integer.parseInt(args[1]) : 2000;
+
+        File data = File.createTempFile("commit", ".dat");
+        data.deleteOnExit();
+        ReadAheadBenchmark.writeFile(data, maxPages);
+        HeapFile table = new HeapFile(data, Utility.getTupleDesc(2));
+        Database.getCatalog().addTable(table, "commit");
+
+        for (int pages = 1000; pages <= maxPages; pages *= 4) {
+            BufferPool bp = Database.resetBufferPool(pages + 16);
+            TransactionId reader = new TransactionId();
+            for (int p = 0; p < pages; p++) {
+                bp.getPage(reader, new HeapPageId(table.getId(), p), Permissions.READ_ONLY);
+            }
+            bp.transactionComplete(reader);
+
+            double[] micros = new double[2];
+            for (int commit = 0; commit < 2; commit++) {
+                long start = System.nanoTime();
+                for (int i = 0; i < transactions; i++) {
+                    TransactionId tid = new TransactionId();
+                    HeapPageId pid = new HeapPageId(table.getId(), i % pages);
+                    bp.getPage(tid, pid, Permissions.READ_WRITE).markDirty(true, tid);
+                    bp.transactionComplete(tid, commit == 0);
+                }
+                micros[commit] = (System.nanoTime() - start) / 1e3 / transactions;
+            }
+            System.out.printf("%8d pages %10.1f us/commit %10.1f us/abort%n", pages, micros[0],
+                    micros[1]);
+        }
+    }
+}
@@ -0,0 +1,97 @@
+package simpledb.bench;
+
+import java.io.File;
+import java.util.Random;
+import java.util.concurrent.atomic.AtomicLong;
+
+import simpledb.*;
+
+/**
+ * Compares deadlock detection against lock timeouts on a workload that
+ * deadlocks often. Each transaction reads two random pages of a small
+ * table, thinks for a millisecond, and then writes both pages, so two
+ * transactions that read a common page deadlock when they upgrade.
+ * Aborted transactions retry.
+ * <p>
+ * Usage: DeadlockBenchmark [threads] [pages] [seconds] [timeouts in ms...]
+ */
+public class DeadlockBenchmark {
+
+    public static void main(String[] args) throws Exception {
+        int threads = args.length > 0 ? Integer.parseInt(args[0]) : 16;
+        int pages = args.length > 1 ? Integer.parseInt(args[1]) : 16;
+        int seconds = args.length > 2 ? Integer.parseInt(args[2]) : 5;
+        long[] timeouts = new long[] { 0, 10, 100, 1000 };
+        if (args.length > 3) {
+            timeouts = new long[args.length - 3];
+            for (int i = 3; i < args.length; i++) {
+                timeouts[i - 3] = Long.parseLong(args[i]);
+            }
+        }
+
+        File file = File.createTempFile("deadlock", ".dat");
+        file.deleteOnExit();
+        ReadAheadBenchmark.writeFile(file, pages);
+        HeapFile table = new HeapFile(file, Utility.getTupleDesc(2));
+        Database.getCatalog().addTable(table, "deadlock");
+
+        for (long timeout : timeouts) {
+            BufferPool bp = Database.resetBufferPool(BufferPool.DEFAULT_PAGES);
+            bp.setLockTimeout(timeout);
+            long[] result = run(bp, table.getId(), threads, pages, seconds);
+            System.out.printf("%-16s %8.1f commits/s %8.1f aborts/s%n",
+                    timeout == 0 ? "detection" : "timeout " + timeout + " ms",
+                    result[0] / (double) seconds, result[1] / (double) seconds);
+        }
+    }
+
+    /** @return the number of commits and aborts in the given time. */
+    private static long[] run(final BufferPool bp, final int tableId, int threads,
+            final int pages, int seconds) throws InterruptedException {
+        final AtomicLong commits = new AtomicLong();
+        final AtomicLong aborts = new AtomicLong();
+        final long end = System.nanoTime() + seconds * 1000000000L;
+
+        Thread[] workers = new Thread[threads];
+        for (int i = 0; i < threads; i++) {
+            final Random rand = new Random(i);
+            workers[i] = new Thread() {
+                public void run() {
+                    while (System.nanoTime() < end) {
+                        TransactionId tid = new TransactionId();
+                        HeapPageId a = new HeapPageId(tableId, rand.nextInt(pages));
+                        HeapPageId b = new HeapPageId(tableId, rand.nextInt(pages));
+                        try {
+                            bp.getPage(tid, a, Permissions.READ_ONLY);
+                            bp.getPage(tid, b, Permissions.READ_ONLY);
+                            Thread.sleep(1);
+                            bp.getPage(tid, a, Permissions.READ_WRITE);
+                            bp.getPage(tid, b, Permissions.READ_WRITE);
+                            bp.transactionComplete(tid, true);
+                            commits.incrementAndGet();
+                        } catch (TransactionAbortedException e) {
+                            aborts.incrementAndGet();
+                            complete(bp, tid);
+                        } catch (Exception e) {
+                            throw new RuntimeException(e);
+                        }
+                    }
+                }
+            };
+            workers[i].start();
+        }
+        for (Thread t : workers) {
+            t.join();
+        }
+        return new long[] { commits.get(), aborts.get() };
+    }
+
+    // Helper method to abort a transaction.
+    private static void complete(BufferPool bp, TransactionId tid) {
+        try {
+            bp.transactionComplete(tid, false);
+        } catch (java.io.IOException e) {
+            throw new RuntimeException(e);
+        }
+    }
+}
@@ -0,0 +1,47 @@
+package simpledb.bench;
+
+import java.io.*;
+
+import simpledb.*;
+
+/**
+ * Measures {@link HeapFileEncoder} throughput on a generated text file of
+ * integer rows, with an increasing number of parsing threads.
+ * <p>
+ * Usage: EncoderBenchmark [rows] [columns] [maxThreads]
+ */
+public class EncoderBenchmark {
+
+    public static void main(String[] args) throws Exception {
+        long rows = args.length > 0 ? Long.parseLong(args[0]) : 5000000;
+        int columns = args.length > 1 ? Integer.parseInt(args[1]) : 4;
+        int maxThreads = args.length > 2 ? Integer.parseInt(args[2])
+                : Runtime.getRuntime().availableProcessors();
+
+        File in = File.createTempFile("encode", ".txt");
+        in.deleteOnExit();
+        Writer w = new BufferedWriter(new FileWriter(in), 1 << 20);
+        for (long i = 0; i < rows; i++) {
+            for (int c = 0; c < columns; c++) {
+                if (c > 0) {
+                    w.write(',');
+                }
+                w.write(Long.toString((i * 31 + c) % 1000000007L));
+            }
+            w.write('\n');
+        }
+        w.close();
+
+        File out = File.createTempFile("encode", ".dat");
+        out.deleteOnExit();
+        Type[] types = Utility.getTypes(columns);
+        for (int threads = 1; threads <= maxThreads; threads *= 2) {
+            ReadAheadBenchmark.dropCaches();
+            long start = System.nanoTime();
+            HeapFileEncoder.convert(in, out, BufferPool.PAGE_SIZE, columns, types, ',', threads);
+            double seconds = (System.nanoTime() - start) / 1e9;
+            System.out.printf("%2d threads %10.0f rows/s %8.1f MB/s of text%n", threads,
+                    rows / seconds, in.length() / seconds / (1 << 20));
+        }
+    }
+}
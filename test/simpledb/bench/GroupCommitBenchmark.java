@@ -0,0 +1,66 @@
+package simpledb.bench;
+
+import java.io.File;
+import java.util.concurrent.atomic.AtomicLong;
+
+import simpledb.*;
+
+/**
+ * Measures commit throughput of {@link LogFile} with an increasing number
+ * of committing threads, with group commit off, with group commit and no
+ * delay, and with group commit and a short delay. Each transaction writes
+ * a BEGIN and a COMMIT record.
+ * <p>
+ * Usage: GroupCommitBenchmark [maxThreads] [seconds] [delay in us]
+ */
+public class GroupCommitBenchmark {
+
+    public static void main(String[] args) throws Exception {
+        int maxThreads = args.length > 0 ? Integer.parseInt(args[0]) : 64;
+        int seconds = args.length > 1 ? Integer.parseInt(args[1]) : 2;
+        long delay = args.length > 2 ? Long.parseLong(args[2]) : 200;
+
+        System.out.printf("%8s %14s %14s %14s%n", "threads", "off", "no delay", delay + " us");
+        for (int threads = 1; threads <= maxThreads; threads *= 2) {
+            System.out.printf("%8d", threads);
+            long[][] configs = new long[][] { { 0, 1 }, { 0, threads }, { delay, threads } };
+            for (long[] config : configs) {
+                File file = File.createTempFile("groupcommit", ".log");
+                file.deleteOnExit();
+                LogFile log = new LogFile(file);
+                log.setGroupCommit(config[0], (int) config[1]);
+                long commits = run(log, threads, seconds);
+                System.out.printf(" %10.0f c/s", commits / (double) seconds);
+            }
+            System.out.println();
+        }
+    }
+
+    /** @return the number of commits in the given time. */
+    private static long run(final LogFile log, int threads, int seconds) throws Exception {
+        final AtomicLong commits = new AtomicLong();
+        final long end = System.nanoTime() + seconds * 1000000000L;
+        Thread[] workers = new Thread[threads];
+        for (int i = 0; i < threads; i++) {
+            workers[i] = new Thread() {
+                public void run() {
+                    try {
+                        while (System.nanoTime() < end) {
+                            TransactionId tid = new TransactionId();
+                            log.logXactionBegin(tid);
+                            log.logCommit(tid);
+                            commits.incrementAndGet();
+                        }
+                    } catch (java.io.IOException e) {
+                        throw new RuntimeException(e);
+                    }
+                }
+            };
+            workers[i].start();
+        }
+        for (Thread t : workers) {
+            t.join();
+        }
+        return commits.get();
+    }
+}
@@ -0,0 +1,69 @@
+package simpledb.bench;
+
+import java.io.File;
+import java.lang.management.ManagementFactory;
+import java.util.Iterator;
+
+import simpledb.*;
+
+/**
+ * Measures the cost of loading a HeapPage: time and bytes allocated per
+ * page, for a load alone (what a buffer pool miss pays) and for a load
+ * followed by reading every tuple (what a scan pays).
+ * <p>
+ * Allocation is read from the HotSpot per-thread allocation counter, so
+ * the byte counts are only reported on JVMs that provide it.
+ * <p>
+ * Usage: HeapPageBenchmark [pages loaded per run]
+ */
+public class HeapPageBenchmark {
+
+    public static void main(String[] args) throws Exception {
+        int loads = args.length > 0 ? Integer.parseInt(args[0]) : 200000;
+
+        File file = File.createTempFile("heappage", ".dat");
+        file.deleteOnExit();
+        ReadAheadBenchmark.writeFile(file, 1);
+        HeapFile table = new HeapFile(file, Utility.getTupleDesc(2));
+        Database.getCatalog().addTable(table, "heappage");
+        HeapPageId pid = new HeapPageId(table.getId(), 0);
+        byte[] data = table.readPage(pid).getPageData();
+
+        System.out.println("work\tns/page\tbytes/page");
+        for (int run = 0; run < 3; run++) {
+            for (boolean scan : new boolean[] { false, true }) {
+                long bytes = allocatedBytes();
+                long start = System.nanoTime();
+                long tuples = 0;
+                for (int i = 0; i < loads; i++) {
+                    HeapPage page = new HeapPage(pid, data);
+                    page.setBeforeImage();
+                    if (scan) {
+                        Iterator<Tuple> it = page.iterator();
+                        while (it.hasNext()) {
+                            tuples += ((IntField) it.next().getField(0)).getValue();
+                        }
+                    }
+                }
+                long elapsed = System.nanoTime() - start;
+                bytes = allocatedBytes() - bytes;
+                if (tuples < 0) {
+                    throw new AssertionError(); // keep the loop from being optimized away.
+                }
+                System.out.printf("%s\t%d\t%s%n", scan ? "load+scan" : "load",
+                        elapsed / loads, bytes < 0 ? "n/a" : String.valueOf(bytes / loads));
+            }
+        }
+    }
+
+    /** @return bytes allocated by this thread so far, or -1 if unknown. */
+    private static long allocatedBytes() {
+        try {
+            com.sun.management.ThreadMXBean bean =
+                (com.sun.management.ThreadMXBean) ManagementFactory.getThreadMXBean();
+            return bean.getThreadAllocatedBytes(Thread.currentThread().getId());
+        } catch (Throwable t) {
+            return -1;
+        }
+    }
+}
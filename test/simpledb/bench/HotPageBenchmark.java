@@ -0,0 +1,98 @@
+package simpledb.bench;
+
+import java.io.File;
+import java.util.concurrent.atomic.AtomicLong;
+
+import simpledb.*;
+
+/**
+ * Compares page locking against record locking on updates of a single hot
+ * page. Each thread owns one record of the page and updates it over and
+ * over, as a delete and an insert in one transaction, so with page locks
+ * the threads take turns while with record locks they only meet at the
+ * page latch and at commit. Transactions think for a while between the
+ * delete and the insert, as if they computed the new value.
+ * <p>
+ * Usage: HotPageBenchmark [threads] [seconds] [think time in ms]
+ */
+public class HotPageBenchmark {
+
+    public static void main(String[] args) throws Exception {
+        int threads = args.length > 0 ? Integer.parseInt(args[0]) : 16;
+        int seconds = args.length > 1 ? Integer.parseInt(args[1]) : 5;
+        int think = args.length > 2 ? Integer.parseInt(args[2]) : 1;
+
+        for (int mode = 0; mode < 2; mode++) {
+            File file = File.createTempFile("hotpage", ".dat");
+            file.deleteOnExit();
+            ReadAheadBenchmark.writeFile(file, 1);
+            HeapFile table = new HeapFile(file, Utility.getTupleDesc(2));
+            Database.getCatalog().addTable(table, "hotpage");
+
+            BufferPool bp = Database.resetBufferPool(BufferPool.DEFAULT_PAGES);
+            bp.setRecordLocking(mode == 1);
+            long[] result = run(bp, table, threads, seconds, think);
+            System.out.printf("%-16s %8.1f commits/s %8.1f aborts/s%n",
+                    mode == 1 ? "record locks" : "page locks",
+                    result[0] / (double) seconds, result[1] / (double) seconds);
+        }
+    }
+
+    /** @return the number of commits and aborts in the given time. */
+    private static long[] run(final BufferPool bp, HeapFile table, int threads,
+            int seconds, final int think) throws Exception {
+        final AtomicLong commits = new AtomicLong();
+        final AtomicLong aborts = new AtomicLong();
+        final long end = System.nanoTime() + seconds * 1000000000L;
+        final int tableId = table.getId();
+
+        // each thread starts from its own record of the first page.
+        final Tuple[] rows = new Tuple[threads];
+        DbFileIterator it = table.iterator(null);
+        it.open();
+        for (int i = 0; i < threads; i++) {
+            rows[i] = it.next();
+        }
+        it.close();
+
+        Thread[] workers = new Thread[threads];
+        for (int i = 0; i < threads; i++) {
+            final int me = i;
+            workers[i] = new Thread() {
+                public void run() {
+                    int value = 0;
+                    while (System.nanoTime() < end) {
+                        TransactionId tid = new TransactionId();
+                        Tuple row = Utility.getHeapTuple(new int[] { me, ++value });
+                        Tuple old = rows[me];
+                        RecordId rid = old.getRecordId();
+                        try {
+                            bp.deleteTuple(tid, old);
+                            Thread.sleep(think);
+                            bp.insertTuple(tid, tableId, row);
+                            bp.transactionComplete(tid, true);
+                            rows[me] = row;
+                            commits.incrementAndGet();
+                        } catch (TransactionAbortedException e) {
+                            aborts.incrementAndGet();
+                            try {
+                                bp.transactionComplete(tid, false);
+                            } catch (java.io.IOException ioe) {
+                                throw new RuntimeException(ioe);
+                            }
+                            // the abort put the old record back in its slot.
+                            old.setRecordId(rid);
+                        } catch (Exception e) {
+                            throw new RuntimeException(e);
+                        }
+                    }
+                }
+            };
+            workers[i].start();
+        }
+        for (Thread t : workers) {
+            t.join();
+        }
+        return new long[] { commits.get(), aborts.get() };
+    }
+}
@@ -0,0 +1,46 @@
+package simpledb.bench;
+
+import java.io.File;
+
+import simpledb.*;
+
+/**
+ * Measures insert throughput into a growing heap file through
+ * {@link BufferPool#insertTuple}, the path the Insert operator takes.
+ * <p>
+ * The rate is reported for every tenth of the rows, so that any slowdown
+ * as the table grows shows up: with a linear search for a page with room,
+ * each insert costs time proportional to the size of the table.
+ * <p>
+ * Usage: InsertBenchmark [rows] [pool pages]
+ */
+public class InsertBenchmark {
+
+    public static void main(String[] args) throws Exception {
+        int rows = args.length > 0 ? Integer.parseInt(args[0]) : 1000000;
+        int poolPages = args.length > 1 ? Integer.parseInt(args[1]) : BufferPool.DEFAULT_PAGES;
+
+        File file = File.createTempFile("insert", ".dat");
+        file.deleteOnExit();
+        HeapFile table = new HeapFile(file, Utility.getTupleDesc(2));
+        Database.getCatalog().addTable(table, "insert");
+        BufferPool bp = Database.resetBufferPool(poolPages);
+
+        TransactionId tid = new TransactionId();
+        int step = Math.max(1, rows / 10);
+        long start = System.nanoTime();
+        long stepStart = start;
+        System.out.println("rows\tpages\trows/s");
+        for (int i = 1; i <= rows; i++) {
+            bp.insertTuple(tid, table.getId(), Utility.getHeapTuple(new int[] { i, i }));
+            if (i % step == 0) {
+                long now = System.nanoTime();
+                System.out.printf("%d\t%d\t%.0f%n", i, table.numPages(), step / ((now - stepStart) / 1e9));
+                stepStart = now;
+            }
+        }
+        bp.flushAllPages();
+        double seconds = (System.nanoTime() - start) / 1e9;
+        System.out.printf("total\t%d\t%.0f%n", table.numPages(), rows / seconds);
+    }
+}
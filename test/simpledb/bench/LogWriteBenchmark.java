@@ -0,0 +1,78 @@
+package simpledb.bench;
+
+import java.io.File;
+import java.util.concurrent.atomic.AtomicLong;
+
+import simpledb.*;
+
+/**
+ * Measures how fast transactions can write log records, logging each
+ * change as full page images and as slot-level deltas. Each transaction
+ * writes a BEGIN record, a number of UPDATE records for the delete of one
+ * tuple from a page, and a COMMIT record that it waits for.
+ * <p>
+ * Usage: LogWriteBenchmark [threads] [updates per transaction] [seconds]
+ */
+public class LogWriteBenchmark {
+
+    public static void main(String[] args) throws Exception {
+        int threads = args.length > 0 ? Integer.parseInt(args[0]) : 8;
+        int updates = args.length > 1 ? Integer.parseInt(args[1]) : 4;
+        int seconds = args.length > 2 ? Integer.parseInt(args[2]) : 5;
+
+        File data = File.createTempFile("logwrite", ".dat");
+        data.deleteOnExit();
+        ReadAheadBenchmark.writeFile(data, 1);
+        HeapFile table = new HeapFile(data, Utility.getTupleDesc(2));
+        Database.getCatalog().addTable(table, "logwrite");
+        HeapPageId pid = new HeapPageId(table.getId(), 0);
+        HeapPage before = (HeapPage) table.readPage(pid);
+        HeapPage after = new HeapPage(pid, before.getPageData());
+        after.deleteTuple(after.iterator().next());
+
+        for (int mode = 0; mode < 2; mode++) {
+            File file = File.createTempFile("logwrite", ".log");
+            file.deleteOnExit();
+            LogFile log = new LogFile(file);
+            log.setDeltaRecords(mode == 1);
+            long commits = run(log, before, after, threads, updates, seconds);
+            double records = commits * (updates + 2.0);
+            System.out.printf("%-12s %10.0f commits/s %10.0f records/s %8.1f MB/s %8.0f bytes/update%n",
+                    mode == 1 ? "deltas" : "full pages", commits / (double) seconds,
+                    records / seconds, file.length() / (double) seconds / (1 << 20),
+                    (file.length() - commits * 60.0) / (commits * updates));
+        }
+    }
+
+    /** @return the number of commits in the given time. */
+    private static long run(final LogFile log, final Page before, final Page after,
+            int threads, final int updates, int seconds) throws Exception {
+        final AtomicLong commits = new AtomicLong();
+        final long end = System.nanoTime() + seconds * 1000000000L;
+        Thread[] workers = new Thread[threads];
+        for (int i = 0; i < threads; i++) {
+            workers[i] = new Thread() {
+                public void run() {
+                    try {
+                        while (System.nanoTime() < end) {
+                            TransactionId tid = new TransactionId();
+                            log.logXactionBegin(tid);
+                            for (int u = 0; u < updates; u++) {
+                                log.logWrite(tid, before, after);
+                            }
+                            log.logCommit(tid);
+                            commits.incrementAndGet();
+                        }
+                    } catch (java.io.IOException e) {
+                        throw new RuntimeException(e);
+                    }
+                }
+            };
+            workers[i].start();
+        }
+        for (Thread t : workers) {
+            t.join();
+        }
+        return commits.get();
+    }
+}
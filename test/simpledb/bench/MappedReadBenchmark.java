@@ -0,0 +1,76 @@
+package simpledb.bench;
+
+import java.io.*;
+
+import simpledb.*;
+
+/**
+ * Compares scan throughput of a HeapFile read through positional channel
+ * reads with the same file read through a memory mapping.
+ * <p>
+ * Each mode runs a cold scan, with the OS page cache dropped first (this
+ * needs root; see {@link ReadAheadBenchmark#dropCaches}), followed by
+ * warm scans. The buffer pool is smaller than the file, so every scan
+ * reads every page from the file. Two queries are timed: a plain scan and
+ * a filtered count, which adds per-tuple work on top of the I/O.
+ * <p>
+ * Usage: MappedReadBenchmark [file size in MB] [pool pages] [warm scans]
+ */
+public class MappedReadBenchmark {
+
+    public static void main(String[] args) throws Exception {
+        long megabytes = args.length > 0 ? Long.parseLong(args[0]) : 512;
+        int poolPages = args.length > 1 ? Integer.parseInt(args[1]) : 1000;
+        int warmScans = args.length > 2 ? Integer.parseInt(args[2]) : 3;
+
+        File file = File.createTempFile("mapped", ".dat");
+        file.deleteOnExit();
+        int pages = (int) (megabytes * 1024 * 1024 / BufferPool.PAGE_SIZE);
+        System.out.println("writing " + pages + " pages to " + file);
+        ReadAheadBenchmark.writeFile(file, pages);
+
+        System.out.println("mode\tquery\tcache\tpages/s\tMB/s");
+        for (boolean mapped : new boolean[] { false, true }) {
+            HeapFile table = new HeapFile(file, Utility.getTupleDesc(2));
+            table.setMemoryMapped(mapped);
+            Database.getCatalog().addTable(table, "mapped");
+
+            for (boolean filter : new boolean[] { false, true }) {
+                boolean cold = ReadAheadBenchmark.dropCaches();
+                for (int i = 0; i <= warmScans; i++) {
+                    Database.resetBufferPool(poolPages);
+                    double seconds = scan(table, filter);
+                    System.out.printf("%s\t%s\t%s\t%.0f\t%.1f%n",
+                            mapped ? "mmap" : "channel",
+                            filter ? "filter" : "scan",
+                            i == 0 && cold ? "cold" : "warm",
+                            pages / seconds,
+                            pages / seconds * BufferPool.PAGE_SIZE / (1 << 20));
+                }
+            }
+            table.close();
+        }
+    }
+
+    /** Runs one query over the table. @return the elapsed time in seconds. */
+    private static double scan(HeapFile table, boolean filter) throws Exception {
+        long start = System.nanoTime();
+        TransactionId tid = new TransactionId();
+        DbIterator it = new SeqScan(tid, table.getId(), "");
+        if (filter) {
+            it = new Filter(new Predicate(1, Predicate.Op.GREATER_THAN, new IntField(0)), it);
+        }
+        it.open();
+        long rows = 0;
+        while (it.hasNext()) {
+            it.next();
+            rows++;
+        }
+        it.close();
+        Database.getBufferPool().transactionComplete(tid);
+        if (rows < 0) {
+            throw new AssertionError(); // keep the loop from being optimized away.
+        }
+        return (System.nanoTime() - start) / 1e9;
+    }
+}
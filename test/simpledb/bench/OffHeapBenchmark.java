@@ -0,0 +1,100 @@
+package simpledb.bench;
+
+import java.io.File;
+import java.lang.management.GarbageCollectorMXBean;
+import java.lang.management.ManagementFactory;
+import java.util.Iterator;
+
+import simpledb.*;
+
+/**
+ * Compares a BufferPool that keeps page bytes on the Java heap with one
+ * that keeps them in an off-heap frame arena.
+ * <p>
+ * For each pool the benchmark reads a whole table into the pool and times
+ * warm scans over the resident pages, once decoding tuples through the
+ * page iterator and once reading fields through a {@link TupleView}. It
+ * then reports the heap in use after a full collection and the time that
+ * collection took, which grow with the pool on the heap but not off it.
+ * <p>
+ * Run with a heap large enough for the on-heap pool, and with
+ * -XX:MaxDirectMemorySize large enough for the off-heap one.
+ * <p>
+ * Usage: OffHeapBenchmark [pool pages] [warm scans]
+ */
+public class OffHeapBenchmark {
+
+    public static void main(String[] args) throws Exception {
+        int pages = args.length > 0 ? Integer.parseInt(args[0]) : 50000;
+        int scans = args.length > 1 ? Integer.parseInt(args[1]) : 3;
+
+        File file = File.createTempFile("offheap", ".dat");
+        file.deleteOnExit();
+        ReadAheadBenchmark.writeFile(file, pages);
+        HeapFile table = new HeapFile(file, Utility.getTupleDesc(2));
+        Database.getCatalog().addTable(table, "offheap");
+
+        System.out.println("pool\titerator pages/s\tview pages/s\tMB on heap\tfull GC ms");
+        for (boolean offHeap : new boolean[] { false, true }) {
+            Database.resetBufferPool(1, new LruPolicy()); // drop the previous pool.
+            fullGc();
+            BufferPool bp = Database.resetBufferPool(pages, new LruPolicy(), offHeap);
+            TransactionId tid = new TransactionId();
+            HeapPage[] resident = new HeapPage[pages];
+            for (int i = 0; i < pages; i++) {
+                resident[i] = (HeapPage) bp.getPage(tid, new HeapPageId(table.getId(), i),
+                        Permissions.READ_ONLY);
+            }
+
+            double iteratorRate = 0, viewRate = 0;
+            long sum = 0;
+            for (int s = 0; s < scans; s++) {
+                long start = System.nanoTime();
+                for (HeapPage page : resident) {
+                    Iterator<Tuple> it = page.iterator();
+                    while (it.hasNext()) {
+                        sum += ((IntField) it.next().getField(1)).getValue();
+                    }
+                }
+                iteratorRate = Math.max(iteratorRate, pages / ((System.nanoTime() - start) / 1e9));
+
+                start = System.nanoTime();
+                for (HeapPage page : resident) {
+                    TupleView view = page.tupleView();
+                    while (view.next()) {
+                        sum += view.getInt(1);
+                    }
+                }
+                viewRate = Math.max(viewRate, pages / ((System.nanoTime() - start) / 1e9));
+            }
+            if (sum == 42) {
+                System.out.println(); // keep the loops from being optimized away.
+            }
+
+            long gcMillis = fullGc();
+            long heapBytes = ManagementFactory.getMemoryMXBean().getHeapMemoryUsage().getUsed();
+
+            System.out.printf("%s\t%.0f\t%.0f\t%.1f\t%d%n", offHeap ? "off-heap" : "heap",
+                    iteratorRate, viewRate, heapBytes / (1024.0 * 1024.0), gcMillis);
+            bp.transactionComplete(tid);
+        }
+    }
+
+    /** Runs a full collection. @return the time it took, in milliseconds. */
+    private static long fullGc() {
+        long before = gcTime();
+        long start = System.nanoTime();
+        System.gc();
+        long elapsed = (System.nanoTime() - start) / 1000000;
+        long reported = gcTime() - before;
+        return reported > 0 ? reported : elapsed;
+    }
+
+    private static long gcTime() {
+        long total = 0;
+        for (GarbageCollectorMXBean gc : ManagementFactory.getGarbageCollectorMXBeans()) {
+            total += Math.max(0, gc.getCollectionTime());
+        }
+        return total;
+    }
+}
@@ -0,0 +1,97 @@
+package simpledb.bench;
+
+import java.io.*;
+
+import simpledb.*;
+
+/**
+ * Measures sequential scan throughput, in pages per second, with and
+ * without asynchronous read-ahead.
+ * <p>
+ * The benchmark writes a heap file of two-integer tuples, then scans it
+ * with a SeqScan once per read-ahead setting. For cold-cache numbers the
+ * OS page cache has to be dropped between scans; the benchmark tries to do
+ * this through /proc/sys/vm/drop_caches, which needs root, and warns if it
+ * cannot.
+ * <p>
+ * Usage: ReadAheadBenchmark [file size in MB] [pool pages] [file path]
+ */
+public class ReadAheadBenchmark {
+
+    public static void main(String[] args) throws Exception {
+        long megabytes = args.length > 0 ? Long.parseLong(args[0]) : 2048;
+        int poolPages = args.length > 1 ? Integer.parseInt(args[1]) : 1000;
+        File file = args.length > 2 ? new File(args[2])
+                : File.createTempFile("readahead", ".dat");
+        file.deleteOnExit();
+
+        int pages = (int) (megabytes * 1024 * 1024 / BufferPool.PAGE_SIZE);
+        System.out.println("writing " + pages + " pages to " + file);
+        writeFile(file, pages);
+
+        HeapFile table = new HeapFile(file, Utility.getTupleDesc(2));
+        Database.getCatalog().addTable(table, "readahead");
+
+        System.out.println("read-ahead pages\tpages/s\tMB/s");
+        for (int readAhead : new int[] { 0, 8, BufferPool.DEFAULT_READ_AHEAD_PAGES, 64 }) {
+            if (!dropCaches()) {
+                System.out.println("warning: could not drop the OS page cache; results are warm-cache");
+            }
+            BufferPool bp = Database.resetBufferPool(poolPages);
+            bp.setReadAheadPages(readAhead);
+
+            long start = System.nanoTime();
+            TransactionId tid = new TransactionId();
+            SeqScan scan = new SeqScan(tid, table.getId(), "");
+            scan.open();
+            while (scan.hasNext()) {
+                scan.next();
+            }
+            scan.close();
+            bp.transactionComplete(tid);
+            double seconds = (System.nanoTime() - start) / 1e9;
+
+            System.out.printf("%d\t%.0f\t%.1f%n", readAhead, pages / seconds,
+                    pages / seconds * BufferPool.PAGE_SIZE / (1 << 20));
+        }
+    }
+
+    /** Writes a heap file with the given number of full pages. */
+    static void writeFile(File file, int pages) throws IOException {
+        TupleDesc td = Utility.getTupleDesc(2);
+        int slots = (BufferPool.PAGE_SIZE * 8) / (td.getSize() * 8 + 1);
+        int headerBytes = (slots + 7) / 8;
+
+        byte[] page = new byte[BufferPool.PAGE_SIZE];
+        for (int i = 0; i < slots; i++) {
+            page[i / 8] |= (byte) (1 << (i % 8));
+        }
+        OutputStream out = new BufferedOutputStream(new FileOutputStream(file), 1 << 20);
+        for (int p = 0; p < pages; p++) {
+            // make each page distinct: the first field of every tuple is the page number.
+            for (int i = 0; i < slots; i++) {
+                int off = headerBytes + i * td.getSize();
+                page[off] = (byte) (p >>> 24);
+                page[off + 1] = (byte) (p >>> 16);
+                page[off + 2] = (byte) (p >>> 8);
+                page[off + 3] = (byte) p;
+            }
+            out.write(page);
+        }
+        out.close();
+    }
+
+    /** Tries to drop the OS page cache. @return true on success. */
+    static boolean dropCaches() {
+        try {
+            Process sync = Runtime.getRuntime().exec(new String[] { "sync" });
+            sync.waitFor();
+            FileWriter w = new FileWriter("/proc/sys/vm/drop_caches");
+            w.write("3\n");
+            w.close();
+            return true;
+        } catch (Exception e) {
+            return false;
+        }
+    }
+}
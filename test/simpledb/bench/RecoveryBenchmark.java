@@ -0,0 +1,65 @@
+package simpledb.bench;
+
+import java.io.File;
+import java.util.Random;
+
+import simpledb.*;
+
+/**
+ * Measures how long recovery takes to redo a log of committed updates
+ * that never reached the table, with an increasing number of redo
+ * threads. Each transaction logs a number of full page UPDATE records for
+ * random pages of the table and commits.
+ * <p>
+ * Usage: RecoveryBenchmark [pages] [updates] [updates per transaction]
+ *        [maxThreads]
+ */
+public class RecoveryBenchmark {
+
+    public static void main(String[] args) throws Exception {
+        int pages = args.length > 0 ? Integer.parseInt(args[0]) : 1000;
+        int updates = args.length > 1 ? Integer.parseInt(args[1]) : 20000;
+        int perTransaction = args.length > 2 ? Integer.parseInt(args[2]) : 4;
+        int maxThreads = args.length > 3 ? Integer.parseInt(args[3])
+                : Math.max(4, Runtime.getRuntime().availableProcessors());
+
+        File data = File.createTempFile("recovery", ".dat");
+        data.deleteOnExit();
+        ReadAheadBenchmark.writeFile(data, pages);
+        HeapFile table = new HeapFile(data, Utility.getTupleDesc(2));
+        Database.getCatalog().addTable(table, "recovery");
+
+        File file = File.createTempFile("recovery", ".log");
+        file.deleteOnExit();
+        LogFile log = new LogFile(file);
+        log.setDeltaRecords(false);
+        Random rand = new Random(0);
+        TransactionId tid = null;
+        for (int u = 0; u < updates; u++) {
+            if (u % perTransaction == 0) {
+                if (tid != null) {
+                    log.logCommit(tid);
+                }
+                tid = new TransactionId();
+                log.logXactionBegin(tid);
+            }
+            HeapPage before = (HeapPage) table.readPage(new HeapPageId(table.getId(), rand.nextInt(pages)));
+            HeapPage after = new HeapPage(before.getId(), before.getPageData());
+            after.deleteTuple(after.iterator().next());
+            log.logWrite(tid, before, after);
+        }
+        log.logCommit(tid);
+        long logBytes = log.getCurrentLsn();
+
+        for (int threads = 1; threads <= maxThreads; threads *= 2) {
+            ReadAheadBenchmark.dropCaches();
+            LogFile recovering = new LogFile(file);
+            recovering.setRecoveryThreads(threads);
+            long start = System.nanoTime();
+            recovering.recover();
+            double seconds = (System.nanoTime() - start) / 1e9;
+            System.out.printf("%2d threads %8.3f s %8.1f MB/s of log %10.0f records/s%n", threads,
+                    seconds, logBytes / seconds / (1 << 20), updates / seconds);
+        }
+    }
+}
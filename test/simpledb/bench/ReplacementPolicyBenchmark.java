@@ -0,0 +1,95 @@
+package simpledb.bench;
+
+import java.util.Random;
+
+import simpledb.*;
+
+/**
+ * Compares the BufferPool replacement policies on a mix of point lookups
+ * against a small, skewed set of hot pages (think dimension tables) and
+ * sequential scans over a table several times larger than the pool.
+ * <p>
+ * For each policy this prints the overall hit ratio, and the hit ratio of
+ * the point lookups alone, which is what a scan-resistant policy protects.
+ * <p>
+ * Usage: ReplacementPolicyBenchmark [pool pages] [rounds]
+ */
+public class ReplacementPolicyBenchmark {
+
+    public static void main(String[] args) throws Exception {
+        int poolPages = args.length > 0 ? Integer.parseInt(args[0]) : 1000;
+        int rounds = args.length > 1 ? Integer.parseInt(args[1]) : 2000;
+
+        int hotPages = poolPages / 2;
+        int scanPages = poolPages * 10;
+        BufferPoolBenchmark.MemoryFile hot = new BufferPoolBenchmark.MemoryFile(hotPages);
+        BufferPoolBenchmark.MemoryFile fact = new BufferPoolBenchmark.MemoryFile(scanPages);
+        Database.getCatalog().addTable(hot, "hot");
+        Database.getCatalog().addTable(fact, "fact");
+
+        System.out.println("policy\tworkload\thit ratio\tlookup hit ratio");
+        for (String workload : new String[] { "lookups", "scans", "mixed" }) {
+            ReplacementPolicy[] policies = new ReplacementPolicy[] {
+                new LruPolicy(), new ClockPolicy(),
+                new LruKPolicy(poolPages), new TwoQueuePolicy(poolPages)
+            };
+            for (ReplacementPolicy policy : policies) {
+                BufferPool bp = Database.resetBufferPool(poolPages, policy);
+                long[] lookupStats = run(bp, hot, fact, workload, rounds);
+                double total = policy.getHits() + policy.getMisses();
+                System.out.printf("%s\t%s\t%.3f\t%s%n", policy, workload,
+                        policy.getHits() / total,
+                        lookupStats[1] == 0 ? "-" : String.format("%.3f",
+                                (lookupStats[1] - lookupStats[0]) / (double) lookupStats[1]));
+            }
+        }
+    }
+
+    /**
+     * Runs one workload. Each round does a burst of point lookups and/or
+     * reads the next stretch of the scan. The first tenth of the rounds only
+     * warms the pool.
+     *
+     * @return the number of lookup misses and the number of lookups.
+     */
+    static long[] run(BufferPool bp, DbFile hot, DbFile fact, String workload,
+            int rounds) throws Exception {
+        boolean lookups = !workload.equals("scans");
+        boolean scans = !workload.equals("lookups");
+        Random r = new Random(0);
+        TransactionId tid = new TransactionId();
+        int scanCursor = 0;
+        long lookupMisses = 0;
+        long lookupCount = 0;
+        int hotPages = ((BufferPoolBenchmark.MemoryFile) hot).numPages();
+        int scanPages = ((BufferPoolBenchmark.MemoryFile) fact).numPages();
+
+        for (int round = 0; round < rounds; round++) {
+            boolean measured = round >= rounds / 10;
+            if (round == rounds / 10) {
+                bp.getReplacementPolicy().resetStats();
+            }
+
+            if (lookups) {
+                long missesBefore = bp.getReplacementPolicy().getMisses();
+                for (int i = 0; i < 20; i++) {
+                    // skewed towards low page numbers
+                    int page = r.nextInt(r.nextInt(hotPages) + 1);
+                    bp.getPage(tid, new HeapPageId(hot.getId(), page), Permissions.READ_ONLY);
+                }
+                if (measured) {
+                    lookupMisses += bp.getReplacementPolicy().getMisses() - missesBefore;
+                    lookupCount += 20;
+                }
+            }
+
+            if (scans) {
+                for (int i = 0; i < 20; i++) {
+                    bp.getPage(tid, new HeapPageId(fact.getId(), scanCursor), Permissions.READ_ONLY);
+                    scanCursor = (scanCursor + 1) % scanPages;
+                }
+            }
+        }
+        return new long[] { lookupMisses, lookupCount };
+    }
+}
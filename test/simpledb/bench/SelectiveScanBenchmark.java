@@ -0,0 +1,137 @@
+package simpledb.bench;
+
+import java.io.File;
+
+import simpledb.*;
+
+/**
+ * Measures a selective scan through a chain of two Filters, as
+ * LogicalPlan builds for a table with two WHERE terms: with each Filter
+ * interpreting its predicate through Predicate.filter and Field.compare
+ * for every tuple, as Filter did before predicates were compiled, and
+ * with compiled Filters, read a tuple and a batch at a time. The first column of
+ * the table is the page number and the second is 0; the filters keep the
+ * rows of the first pages, 1% of the table by default. The table is read
+ * into the buffer pool first, a string predicate is interpreted as other
+ * queries would, and rounds cycle through the three, since the first
+ * rounds warm up.
+ * <p>
+ * Usage: SelectiveScanBenchmark [rows] [selectivity %] [rounds]
+ */
+public class SelectiveScanBenchmark {
+
+    public static void main(String[] args) throws Exception {
+        long rows = args.length > 0 ? Long.parseLong(args[0]) : 10000000L;
+        double selectivity = args.length > 1 ? Double.parseDouble(args[1]) / 100 : 0.01;
+        int rounds = args.length > 2 ? Integer.parseInt(args[2]) : 15;
+
+        int slots = (BufferPool.PAGE_SIZE * 8) / (Utility.getTupleDesc(2).getSize() * 8 + 1);
+        int pages = (int) ((rows + slots - 1) / slots);
+        File data = File.createTempFile("selective", ".dat");
+        data.deleteOnExit();
+        ReadAheadBenchmark.writeFile(data, pages);
+        HeapFile table = new HeapFile(data, Utility.getTupleDesc(2));
+        Database.getCatalog().addTable(table, "selective");
+        Database.resetBufferPool(pages);
+        Predicate first = new Predicate(0, Predicate.Op.LESS_THAN, new IntField((int) (pages * selectivity)));
+        Predicate second = new Predicate(1, Predicate.Op.EQUALS, new IntField(0));
+
+        // read the table into the pool, so that every round scans cached pages.
+        TransactionId load = new TransactionId();
+        SeqScan all = new SeqScan(load, table.getId(), "");
+        all.open();
+        while (all.nextBatch() != null) {
+        }
+        all.close();
+        Database.getBufferPool().transactionComplete(load);
+
+        // a server runs queries over strings as well, which makes the
+        // Field.compare calls of interpreted predicates polymorphic.
+        Predicate strings = new Predicate(0, Predicate.Op.EQUALS, new StringField("a", Type.STRING_LEN));
+        Tuple s = new Tuple(new TupleDesc(new Type[] { Type.STRING_TYPE }));
+        s.setField(0, new StringField("b", Type.STRING_LEN));
+        for (int i = 0; i < 100000; i++) {
+            strings.filter(s);
+        }
+
+        String[] modes = new String[] { "interpreted", "compiled", "batch" };
+        for (int round = 0; round < rounds; round++) {
+            String mode = modes[round % modes.length];
+            TransactionId tid = new TransactionId();
+            SeqScan scan = new SeqScan(tid, table.getId(), "");
+            long start = System.nanoTime();
+            long matched = 0;
+            DbIterator filter;
+            if (mode.equals("interpreted")) {
+                filter = new InterpretedFilter(second, new InterpretedFilter(first, scan));
+            } else {
+                filter = new Filter(second, new Filter(first, scan));
+            }
+            filter.open();
+            if (mode.equals("batch")) {
+                BatchIterator batches = (BatchIterator) filter;
+                for (TupleBatch b = batches.nextBatch(); b != null; b = batches.nextBatch()) {
+                    matched += b.size();
+                }
+            } else {
+                while (filter.hasNext()) {
+                    filter.next();
+                    matched++;
+                }
+            }
+            filter.close();
+            double seconds = (System.nanoTime() - start) / 1e9;
+            Database.getBufferPool().transactionComplete(tid);
+            System.out.printf("%-12s %9.1f ms %8.1f M rows/s (%d matched)%n", mode, seconds * 1e3,
+                    (double) pages * slots / seconds / 1e6, matched);
+        }
+    }
+
+    /** A Filter as it was before predicates were compiled. */
+    private static class InterpretedFilter extends Operator {
+        private static final long serialVersionUID = 1L;
+        private final Predicate p;
+        private DbIterator child;
+
+        InterpretedFilter(Predicate p, DbIterator child) {
+            this.p = p;
+            this.child = child;
+        }
+
+        public void open() throws DbException, TransactionAbortedException {
+            this.child.open();
+            super.open();
+        }
+
+        public void close() {
+            this.child.close();
+            super.close();
+        }
+
+        public void rewind() throws DbException, TransactionAbortedException {
+            this.child.rewind();
+        }
+
+        protected Tuple fetchNext() throws DbException, TransactionAbortedException {
+            while (this.child.hasNext()) {
+                Tuple t = this.child.next();
+                if (this.p.filter(t)) {
+                    return t;
+                }
+            }
+            return null;
+        }
+
+        public TupleDesc getTupleDesc() {
+            return this.child.getTupleDesc();
+        }
+
+        public DbIterator[] getChildren() {
+            return new DbIterator[] { this.child };
+        }
+
+        public void setChildren(DbIterator[] children) {
+            this.child = children[0];
+        }
+    }
+}
@@ -0,0 +1,120 @@
+package simpledb.bench;
+
+import java.io.File;
+import java.util.Iterator;
+import java.util.Random;
+import java.util.concurrent.atomic.AtomicLong;
+
+import simpledb.*;
+
+/**
+ * Runs full table scans next to short update transactions, first with
+ * scans that take shared page locks and then with snapshot scans, and
+ * reports the throughput of both. Each update rewrites one record of a
+ * random page and holds the page's exclusive lock for a millisecond of
+ * think time before it commits.
+ * <p>
+ * Usage: SnapshotBenchmark [writers] [pages] [seconds]
+ */
+public class SnapshotBenchmark {
+
+    public static void main(String[] args) throws Exception {
+        int writers = args.length > 0 ? Integer.parseInt(args[0]) : 8;
+        int pages = args.length > 1 ? Integer.parseInt(args[1]) : 64;
+        int seconds = args.length > 2 ? Integer.parseInt(args[2]) : 5;
+
+        File file = File.createTempFile("snapshot", ".dat");
+        file.deleteOnExit();
+        ReadAheadBenchmark.writeFile(file, pages);
+        HeapFile table = new HeapFile(file, Utility.getTupleDesc(2));
+        Database.getCatalog().addTable(table, "snapshot");
+
+        for (int mode = 0; mode < 2; mode++) {
+            BufferPool bp = Database.resetBufferPool(BufferPool.DEFAULT_PAGES);
+            long[] result = run(bp, table, writers, pages, seconds, mode == 1);
+            System.out.printf("%-16s %8.1f scans/s %8.1f commits/s %8.1f aborts/s%n",
+                    mode == 1 ? "snapshot scans" : "locking scans",
+                    result[0] / (double) seconds, result[1] / (double) seconds,
+                    result[2] / (double) seconds);
+        }
+    }
+
+    /** @return the number of scans, commits and aborts in the given time. */
+    private static long[] run(final BufferPool bp, final HeapFile table, int writers,
+            final int pages, int seconds, final boolean snapshot) throws Exception {
+        final AtomicLong scans = new AtomicLong();
+        final AtomicLong commits = new AtomicLong();
+        final AtomicLong aborts = new AtomicLong();
+        final long end = System.nanoTime() + seconds * 1000000000L;
+
+        Thread[] workers = new Thread[writers + 1];
+        workers[0] = new Thread() {
+            public void run() {
+                while (System.nanoTime() < end) {
+                    TransactionId tid = new TransactionId();
+                    if (snapshot) {
+                        bp.beginSnapshot(tid);
+                    }
+                    try {
+                        DbFileIterator it = table.iterator(tid);
+                        it.open();
+                        while (it.hasNext()) {
+                            it.next();
+                        }
+                        it.close();
+                        scans.incrementAndGet();
+                    } catch (TransactionAbortedException e) {
+                        aborts.incrementAndGet();
+                    } catch (DbException e) {
+                        throw new RuntimeException(e);
+                    }
+                    complete(bp, tid, true);
+                }
+            }
+        };
+        for (int i = 1; i <= writers; i++) {
+            final Random rand = new Random(i);
+            workers[i] = new Thread() {
+                public void run() {
+                    while (System.nanoTime() < end) {
+                        TransactionId tid = new TransactionId();
+                        HeapPageId pid = new HeapPageId(table.getId(), rand.nextInt(pages));
+                        try {
+                            HeapPage p = (HeapPage) bp.getPage(tid, pid, Permissions.READ_WRITE);
+                            Iterator<Tuple> it = p.iterator();
+                            Tuple old = it.next();
+                            p.deleteTuple(old);
+                            p.insertTuple(Utility.getHeapTuple(
+                                    new int[] { pid.pageNumber(), rand.nextInt() }));
+                            p.markDirty(true, tid);
+                            Thread.sleep(1);
+                            complete(bp, tid, true);
+                            commits.incrementAndGet();
+                        } catch (TransactionAbortedException e) {
+                            aborts.incrementAndGet();
+                            complete(bp, tid, false);
+                        } catch (Exception e) {
+                            throw new RuntimeException(e);
+                        }
+                    }
+                }
+            };
+        }
+        for (Thread t : workers) {
+            t.start();
+        }
+        for (Thread t : workers) {
+            t.join();
+        }
+        return new long[] { scans.get(), commits.get(), aborts.get() };
+    }
+
+    // Helper method to complete a transaction.
+    private static void complete(BufferPool bp, TransactionId tid, boolean commit) {
+        try {
+            bp.transactionComplete(tid, commit);
+        } catch (java.io.IOException e) {
+            throw new RuntimeException(e);
+        }
+    }
+}
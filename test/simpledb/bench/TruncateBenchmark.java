@@ -0,0 +1,54 @@
+package simpledb.bench;
+
+import java.io.File;
+
+import simpledb.*;
+
+/**
+ * Measures how long a checkpoint takes to truncate the log while a long
+ * transaction keeps most of it alive. Each round commits the long
+ * transaction, starts a new one, writes a number of full page UPDATE
+ * records from short transactions, and then checkpoints, so that the
+ * live log at every checkpoint is one round of records.
+ * <p>
+ * Usage: TruncateBenchmark [updates per round] [rounds]
+ */
+public class TruncateBenchmark {
+
+    public static void main(String[] args) throws Exception {
+        int updates = args.length > 0 ? Integer.parseInt(args[0]) : 4000;
+        int rounds = args.length > 1 ? Integer.parseInt(args[1]) : 5;
+
+        File data = File.createTempFile("truncate", ".dat");
+        data.deleteOnExit();
+        ReadAheadBenchmark.writeFile(data, 1);
+        HeapFile table = new HeapFile(data, Utility.getTupleDesc(2));
+        Database.getCatalog().addTable(table, "truncate");
+        HeapPage page = (HeapPage) table.readPage(new HeapPageId(table.getId(), 0));
+
+        File file = File.createTempFile("truncate", ".log");
+        file.deleteOnExit();
+        LogFile log = new LogFile(file);
+        long checkpointNanos = 0;
+        TransactionId open = new TransactionId();
+        log.logXactionBegin(open);
+        for (int r = 0; r < rounds; r++) {
+            log.logCommit(open);
+            open = new TransactionId();
+            log.logXactionBegin(open);
+            for (int u = 0; u < updates; u++) {
+                TransactionId tid = new TransactionId();
+                log.logXactionBegin(tid);
+                log.logWrite(tid, page, page);
+                log.logCommit(tid);
+            }
+            long start = System.nanoTime();
+            log.logCheckpoint();
+            checkpointNanos += System.nanoTime() - start;
+        }
+        log.shutdown();
+        System.out.printf("%8.1f MB live log %10.2f ms/checkpoint%n",
+                updates * (double) BufferPool.PAGE_SIZE * 2 / (1 << 20),
+                checkpointNanos / 1e6 / rounds);
+    }
+}
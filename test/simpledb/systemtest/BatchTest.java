@@ -0,0 +1,178 @@
+package simpledb.systemtest;
+
+import java.io.IOException;
+import java.util.ArrayList;
+
+import simpledb.*;
+
+import static org.junit.Assert.*;
+import org.junit.Test;
+
+/**
+ * Checks that operators return the same tuples whether they are read a
+ * batch at a time or a tuple at a time.
+ */
+public class BatchTest extends SimpleDbTestBase {
+    private static final int ROWS = 3000; // several pages and batches.
+
+    // Helper method to read an iterator a tuple at a time.
+    private static ArrayList<ArrayList<Integer>> readTuples(DbIterator it)
+            throws DbException, TransactionAbortedException {
+        ArrayList<ArrayList<Integer>> tuples = new ArrayList<ArrayList<Integer>>();
+        it.open();
+        while (it.hasNext()) {
+            tuples.add(SystemTestUtil.tupleToList(it.next()));
+        }
+        it.close();
+        return tuples;
+    }
+
+    /**
+     * Checks that reading a plan by batches returns the tuples that
+     * reading the same plan built again by tuples does.
+     */
+    private static void validate(DbIterator byTuples, DbIterator byBatches)
+            throws DbException, TransactionAbortedException, IOException {
+        assertTrue(byBatches instanceof BatchIterator);
+        ArrayList<ArrayList<Integer>> expected = readTuples(byTuples);
+        SystemTestUtil.matchTuples(Batches.unbatched((BatchIterator) byBatches), expected);
+    }
+
+    private HeapFile table(int columns, int maxValue) throws IOException, DbException,
+            TransactionAbortedException {
+        return SystemTestUtil.createRandomHeapFile(columns, ROWS, maxValue, null, null);
+    }
+
+    @Test public void scan() throws Exception {
+        HeapFile f = table(3, 1000);
+        TransactionId tid = new TransactionId();
+        validate(new SeqScan(tid, f.getId(), ""), new SeqScan(tid, f.getId(), ""));
+
+        // Every row read by batches carries its RecordId.
+        SeqScan scan = new SeqScan(tid, f.getId(), "");
+        scan.open();
+        int rows = 0;
+        for (TupleBatch batch = scan.nextBatch(); batch != null; batch = scan.nextBatch()) {
+            for (int i = 0; i < batch.size(); i++) {
+                assertNotNull(batch.getTuple(i).getRecordId());
+                rows++;
+            }
+        }
+        assertEquals(ROWS, rows);
+
+        // A rewound scan returns every batch again.
+        scan.rewind();
+        rows = 0;
+        for (TupleBatch batch = scan.nextBatch(); batch != null; batch = scan.nextBatch()) {
+            rows += batch.size();
+        }
+        assertEquals(ROWS, rows);
+        scan.close();
+        Database.getBufferPool().transactionComplete(tid);
+    }
+
+    @Test public void filter() throws Exception {
+        HeapFile f = table(2, 100);
+        TransactionId tid = new TransactionId();
+        for (Predicate.Op op : Predicate.Op.values()) {
+            Predicate p = new Predicate(1, op, new IntField(50));
+            validate(new Filter(p, new SeqScan(tid, f.getId(), "")),
+                    new Filter(p, new SeqScan(tid, f.getId(), "")));
+        }
+        // A filter that drops every row.
+        Predicate none = new Predicate(0, Predicate.Op.LESS_THAN, new IntField(0));
+        Filter empty = new Filter(none, new SeqScan(tid, f.getId(), ""));
+        empty.open();
+        for (TupleBatch batch = empty.nextBatch(); batch != null; batch = empty.nextBatch()) {
+            assertEquals(0, batch.size());
+        }
+        empty.close();
+        Database.getBufferPool().transactionComplete(tid);
+    }
+
+    @Test public void stringFilter() throws Exception {
+        Object[] data = new Object[] { 1, "apple", 2, "banana", 3, "cherry", 4, "banana" };
+        for (Predicate.Op op : Predicate.Op.values()) {
+            Predicate p = new Predicate(1, op, new StringField("banana", Type.STRING_LEN));
+            ArrayList<Integer> expected = new ArrayList<Integer>();
+            DbIterator byTuples = new Filter(p, simpledb.TestUtil.createTupleList(2, data));
+            byTuples.open();
+            while (byTuples.hasNext()) {
+                expected.add(((IntField) byTuples.next().getField(0)).getValue());
+            }
+            byTuples.close();
+
+            ArrayList<Integer> actual = new ArrayList<Integer>();
+            Filter byBatches = new Filter(p, simpledb.TestUtil.createTupleList(2, data));
+            byBatches.open();
+            for (TupleBatch batch = byBatches.nextBatch(); batch != null; batch = byBatches.nextBatch()) {
+                int[] sel = batch.selection();
+                for (int i = 0; i < batch.size(); i++) {
+                    actual.add(batch.getInts(0)[sel[i]]);
+                }
+            }
+            byBatches.close();
+            assertEquals(op.toString(), expected, actual);
+        }
+    }
+
+    @Test public void project() throws Exception {
+        HeapFile f = table(4, 1000);
+        TransactionId tid = new TransactionId();
+        ArrayList<Integer> fields = new ArrayList<Integer>();
+        fields.add(3);
+        fields.add(0);
+        fields.add(3);
+        Type[] types = new Type[] { Type.INT_TYPE, Type.INT_TYPE, Type.INT_TYPE };
+        Predicate p = new Predicate(1, Predicate.Op.GREATER_THAN, new IntField(500));
+        validate(new Project(fields, types, new Filter(p, new SeqScan(tid, f.getId(), ""))),
+                new Project(fields, types, new Filter(p, new SeqScan(tid, f.getId(), ""))));
+        Database.getBufferPool().transactionComplete(tid);
+    }
+
+    @Test public void hashJoin() throws Exception {
+        HeapFile left = table(2, 2000);
+        HeapFile right = table(3, 2000);
+        TransactionId tid = new TransactionId();
+        JoinPredicate p = new JoinPredicate(0, Predicate.Op.EQUALS, 1);
+        validate(new Join(p, new SeqScan(tid, left.getId(), "l"), new SeqScan(tid, right.getId(), "r")),
+                new HashEquiJoin(p, new SeqScan(tid, left.getId(), "l"), new SeqScan(tid, right.getId(), "r")));
+        // The tuple path of HashEquiJoin agrees with Join as well.
+        SystemTestUtil.matchTuples(
+                new HashEquiJoin(p, new SeqScan(tid, left.getId(), "l"), new SeqScan(tid, right.getId(), "r")),
+                readTuples(new Join(p, new SeqScan(tid, left.getId(), "l"),
+                        new SeqScan(tid, right.getId(), "r"))));
+        Database.getBufferPool().transactionComplete(tid);
+    }
+
+    // Helper method to aggregate a table a tuple at a time.
+    private static DbIterator aggregateTuples(TransactionId tid, HeapFile f, int gfield,
+            Aggregator.Op op) throws DbException, TransactionAbortedException {
+        Type gtype = gfield == Aggregator.NO_GROUPING ? null : Type.INT_TYPE;
+        Aggregator agg = new IntegerAggregator(gfield, gtype, 1, op);
+        SeqScan scan = new SeqScan(tid, f.getId(), "");
+        scan.open();
+        while (scan.hasNext()) {
+            agg.mergeTupleIntoGroup(scan.next());
+        }
+        scan.close();
+        return agg.iterator();
+    }
+
+    @Test public void aggregate() throws Exception {
+        HeapFile f = table(2, 50);
+        TransactionId tid = new TransactionId();
+        for (Aggregator.Op op : Aggregator.Op.values()) {
+            validate(aggregateTuples(tid, f, 0, op),
+                    new Aggregate(new SeqScan(tid, f.getId(), ""), 1, 0, op));
+            validate(aggregateTuples(tid, f, Aggregator.NO_GROUPING, op),
+                    new Aggregate(new SeqScan(tid, f.getId(), ""), 1, Aggregator.NO_GROUPING, op));
+        }
+        Database.getBufferPool().transactionComplete(tid);
+    }
+
+    /** Make test compatible with older version of ant. */
+    public static junit.framework.Test suite() {
+        return new junit.framework.JUnit4TestAdapter(BatchTest.class);
+    }
+}
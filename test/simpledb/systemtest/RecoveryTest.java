@@ -0,0 +1,204 @@
+package simpledb.systemtest;
+
+import java.io.*;
+
+import simpledb.*;
+
+import static org.junit.Assert.*;
+import org.junit.Test;
+
+public class RecoveryTest extends SimpleDbTestBase {
+
+    // Helper method to insert a row with the given value in a transaction.
+    private static void insert(Transaction t, HeapFile f, int value)
+            throws DbException, IOException, TransactionAbortedException {
+        Database.getBufferPool().insertTuple(t.getId(), f.getId(), Utility.getHeapTuple(value, 2));
+    }
+
+    // Helper method to commit a row with the given value.
+    private static void commitRow(HeapFile f, int value)
+            throws DbException, IOException, TransactionAbortedException {
+        Transaction t = new Transaction();
+        t.start();
+        insert(t, f, value);
+        t.commit();
+    }
+
+    /** @return true if a committed row of the table has the given value. */
+    private static boolean contains(HeapFile f, int value)
+            throws DbException, IOException, TransactionAbortedException {
+        Transaction t = new Transaction();
+        t.start();
+        SeqScan scan = new SeqScan(t.getId(), f.getId(), "");
+        scan.open();
+        boolean found = false;
+        while (scan.hasNext()) {
+            if (((IntField) scan.next().getField(0)).getValue() == value) {
+                found = true;
+            }
+        }
+        scan.close();
+        t.commit();
+        return found;
+    }
+
+    /**
+     * Simulates a crash: the buffer pool is lost, and a new database
+     * recovers from the log.
+     */
+    private static HeapFile crash(HeapFile f, int redoThreads) throws IOException {
+        Database.reset();
+        HeapFile reopened = new HeapFile(f.getFile(), f.getTupleDesc());
+        Database.getCatalog().addTable(reopened, "recovered");
+        Database.getLogFile().setRecoveryThreads(redoThreads);
+        Database.getLogFile().recover();
+        return reopened;
+    }
+
+    // Helper method to create an empty table with two int columns.
+    private static HeapFile createTable() throws IOException {
+        File file = File.createTempFile("recovery", ".dat");
+        file.deleteOnExit();
+        return Utility.createEmptyHeapFile(file.getAbsolutePath(), 2);
+    }
+
+    /**
+     * A committed change whose page write was lost is redone from the log.
+     */
+    @Test public void testCommittedRedone() throws Exception {
+        HeapFile f = createTable();
+        commitRow(f, 1);
+        byte[] lost = new byte[(int) f.getFile().length()];
+        RandomAccessFile raf = new RandomAccessFile(f.getFile(), "rw");
+        raf.readFully(lost);
+        commitRow(f, 2);
+        raf.seek(0);
+        raf.write(lost);
+        raf.close();
+
+        f = crash(f, 2);
+        assertTrue(contains(f, 1));
+        assertTrue(contains(f, 2));
+    }
+
+    /**
+     * Uncommitted changes written to disk before the crash are undone,
+     * across several pages and redo threads, and stay undone through a
+     * second crash after new transactions committed.
+     */
+    @Test public void testUncommittedUndone() throws Exception {
+        HeapFile f = createTable();
+        Transaction t = new Transaction();
+        t.start();
+        for (int i = 0; i < 1100; i++) {
+            insert(t, f, 1);
+        }
+        t.commit();
+        assertEquals(3, f.numPages());
+        Database.getLogFile().logCheckpoint();
+
+        commitRow(f, 3);
+        Transaction loser = new Transaction();
+        loser.start();
+        insert(loser, f, 2);
+        Database.getBufferPool().flushAllPages();
+
+        f = crash(f, 3);
+        assertTrue(contains(f, 1));
+        assertFalse(contains(f, 2));
+        assertTrue(contains(f, 3));
+
+        commitRow(f, 4);
+        f = crash(f, 1);
+        assertFalse(contains(f, 2));
+        assertTrue(contains(f, 3));
+        assertTrue(contains(f, 4));
+    }
+
+    /**
+     * An abort rolls back the changes its transaction wrote to disk, and
+     * recovery does not bring them back.
+     */
+    @Test public void testAbortRolledBack() throws Exception {
+        HeapFile f = createTable();
+        commitRow(f, 1);
+
+        Transaction t = new Transaction();
+        t.start();
+        insert(t, f, 2);
+        Database.getBufferPool().flushAllPages();
+        t.abort();
+        assertFalse(contains(f, 2));
+
+        f = crash(f, 2);
+        assertTrue(contains(f, 1));
+        assertFalse(contains(f, 2));
+    }
+
+    // Helper method to run transactions sharing a page with record
+    // locking through two crashes.
+    private static void recordLocking(boolean deltas) throws Exception {
+        HeapFile f = createTable();
+        Database.getBufferPool().setRecordLocking(true);
+        Database.getLogFile().setDeltaRecords(deltas);
+        commitRow(f, 1);
+
+        Transaction loser = new Transaction();
+        loser.start();
+        insert(loser, f, 2);
+        Transaction winner = new Transaction();
+        winner.start();
+        insert(winner, f, 3);
+        winner.commit();
+
+        f = crash(f, 2);
+        assertEquals(1, f.numPages());
+        assertTrue(contains(f, 1));
+        assertFalse(contains(f, 2));
+        assertTrue(contains(f, 3));
+
+        Database.getBufferPool().setRecordLocking(true);
+        Database.getLogFile().setDeltaRecords(deltas);
+        Transaction aborted = new Transaction();
+        aborted.start();
+        insert(aborted, f, 4);
+        Database.getBufferPool().flushAllPages();
+        loser = new Transaction();
+        loser.start();
+        insert(loser, f, 5);
+        aborted.abort();
+        commitRow(f, 6);
+        Database.getBufferPool().flushAllPages();
+
+        f = crash(f, 1);
+        assertTrue(contains(f, 1));
+        assertTrue(contains(f, 3));
+        assertFalse(contains(f, 4));
+        assertFalse(contains(f, 5));
+        assertTrue(contains(f, 6));
+    }
+
+    /**
+     * With record locking, the changes of transactions sharing a page are
+     * logged under the transaction that made each of them: recovery undoes
+     * the uncommitted insert of one but not the committed insert of the
+     * other, and an abort stays rolled back.
+     */
+    @Test public void testRecordLocking() throws Exception {
+        recordLocking(true);
+    }
+
+    /**
+     * Pages with record locking are logged as deltas even where full page
+     * records are configured, as undoing a full image would undo the
+     * changes of every transaction on the page.
+     */
+    @Test public void testRecordLockingFullImages() throws Exception {
+        recordLocking(false);
+    }
+
+    /** Make test compatible with older version of ant. */
+    public static junit.framework.Test suite() {
+        return new junit.framework.JUnit4TestAdapter(RecoveryTest.class);
+    }
+}
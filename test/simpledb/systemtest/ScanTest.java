@@ -72,21 +72,6 @@ public class ScanTest extends SimpleDbTestBase {
      * @throws TransactionAbortedException
      * @throws DbException */
     @Test public void testCache() throws IOException, DbException, TransactionAbortedException {
-        /** Counts the number of readPage operations. */
-        class InstrumentedHeapFile extends HeapFile {
-            public InstrumentedHeapFile(File f, TupleDesc td) {
-                super(f, td);
-            }
-
-            @Override
-            public Page readPage(PageId pid) throws NoSuchElementException {
-                readCount += 1;
-                return super.readPage(pid);
-            }
-
-            public int readCount = 0;
-        }
-
         // Create the table
         final int PAGES = 30;
         ArrayList<ArrayList<Integer>> tuples = new ArrayList<ArrayList<Integer>>();
@@ -105,6 +90,130 @@ public class ScanTest extends SimpleDbTestBase {
         assertEquals(0, table.readCount);
     }
 
+    /** Verifies that scanning a table larger than the buffer pool does not
+     * evict the pages of a smaller table that was cached before. */
+    @Test public void testLargeScanKeepsCache() throws IOException, DbException, TransactionAbortedException {
+        final int POOL_PAGES = 16;
+        final int HOT_PAGES = 8;
+        ArrayList<ArrayList<Integer>> hotTuples = new ArrayList<ArrayList<Integer>>();
+        File f = SystemTestUtil.createRandomHeapFileUnopened(1, 992*HOT_PAGES, 1000, null, hotTuples);
+        InstrumentedHeapFile hot = new InstrumentedHeapFile(f, Utility.getTupleDesc(1));
+        Database.getCatalog().addTable(hot, SystemTestUtil.getUUID());
+
+        final int LARGE_ROWS = 992*POOL_PAGES*3;
+        HeapFile large = SystemTestUtil.createRandomHeapFile(1, LARGE_ROWS, null, null);
+        Database.resetBufferPool(POOL_PAGES);
+
+        // Cache the small table, then scan the large one
+        SystemTestUtil.matchTuples(hot, hotTuples);
+        assertEquals(HOT_PAGES, hot.readCount);
+        hot.readCount = 0;
+
+        TransactionId tid = new TransactionId();
+        SeqScan scan = new SeqScan(tid, large.getId(), "");
+        scan.open();
+        int rows = 0;
+        while (scan.hasNext()) {
+            scan.next();
+            rows++;
+        }
+        scan.close();
+        Database.getBufferPool().transactionComplete(tid);
+        assertEquals(LARGE_ROWS, rows);
+
+        // The small table should still be cached
+        SystemTestUtil.matchTuples(hot, hotTuples);
+        assertEquals(0, hot.readCount);
+    }
+
+    /**
+     * Scans closed before they reach the end, or left open by a transaction
+     * that completed, release the pages they were on: a small pool still
+     * has room for a full scan afterwards.
+     */
+    @Test public void testEarlyClose() throws IOException, DbException, TransactionAbortedException {
+        final int ROWS = 992*4;
+        HeapFile f = SystemTestUtil.createRandomHeapFile(1, ROWS, null, null);
+        Database.resetBufferPool(2);
+
+        TransactionId tid = new TransactionId();
+        for (int i = 0; i < 2; i++) {
+            // stop on page i, so that the scans would pin both frames.
+            SeqScan scan = new SeqScan(tid, f.getId(), "");
+            scan.open();
+            for (int j = 0; j <= 992*i; j++) {
+                scan.next();
+            }
+            scan.close();
+        }
+        for (int i = 0; i < 2; i++) {
+            TransactionId abandoned = new TransactionId();
+            SeqScan open = new SeqScan(abandoned, f.getId(), "");
+            open.open();
+            for (int j = 0; j <= 992*i; j++) {
+                open.next();
+            }
+            Database.getBufferPool().transactionComplete(abandoned);
+        }
+
+        SeqScan scan = new SeqScan(tid, f.getId(), "");
+        scan.open();
+        int rows = 0;
+        while (scan.hasNext()) {
+            scan.next();
+            rows++;
+        }
+        scan.close();
+        Database.getBufferPool().transactionComplete(tid);
+        assertEquals(ROWS, rows);
+    }
+
+    /**
+     * Scans of a table larger than the pool give their scan rings back once
+     * they run out, even if they are never closed.
+     */
+    @Test public void testFinishedScanReleasesRing() throws IOException, DbException, TransactionAbortedException {
+        final int POOL_PAGES = 16;
+        final int ROWS = 992*POOL_PAGES*2;
+        HeapFile f = SystemTestUtil.createRandomHeapFile(1, ROWS, null, null);
+        Database.resetBufferPool(POOL_PAGES);
+
+        TransactionId tid = new TransactionId();
+        for (int i = 0; i < POOL_PAGES; i++) {
+            SeqScan scan = new SeqScan(tid, f.getId(), "");
+            scan.open();
+            int rows = 0;
+            while (scan.hasNext()) {
+                scan.next();
+                rows++;
+            }
+            assertEquals(ROWS, rows);
+        }
+        Database.getBufferPool().transactionComplete(tid);
+    }
+
+    /**
+     * Counts the number of readPage operations. Pages may be read by
+     * read-ahead threads, so the count is updated under a lock.
+     */
+    private static class InstrumentedHeapFile extends HeapFile {
+        private static final long serialVersionUID = 1L;
+
+        public InstrumentedHeapFile(File f, TupleDesc td) {
+            super(f, td);
+        }
+
+        @Override
+        public Page readPage(PageId pid) throws NoSuchElementException {
+            synchronized (this) {
+                readCount += 1;
+            }
+            return super.readPage(pid);
+        }
+
+        public int readCount = 0;
+    }
+
     /** Make test compatible with older version of ant. */
     public static junit.framework.Test suite() {
         return new junit.framework.JUnit4TestAdapter(ScanTest.class);